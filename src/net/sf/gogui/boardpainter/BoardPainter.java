@@ -42,25 +42,7 @@ public class BoardPainter
     public void draw(Graphics graphics, ConstField[][] field, int width,
                      boolean showGrid)
     {
-        if (graphics instanceof Graphics2D)
-        {
-            Graphics2D graphics2D = (Graphics2D)graphics;
-            graphics2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                                        RenderingHints.VALUE_ANTIALIAS_ON);
-        }
-        m_width = width;
-        m_size = field.length;
-        if (m_constants == null || m_constants.getSize() != m_size)
-            m_constants = BoardConstants.get(m_size);
-        assert m_size <= GoPoint.MAX_SIZE;
-        double borderSize;
-        if (showGrid)
-            borderSize = BORDER_SIZE;
-        else
-            borderSize = BORDER_SIZE_NOGRID;
-        m_fieldSize =
-            Math.round((float)Math.floor(width / (m_size + 2 * borderSize)));
-        m_fieldOffset = (width - m_size * m_fieldSize) / 2;
+        initDraw(graphics, field.length, width, showGrid);
         drawBackground(graphics);
         drawGrid(graphics);
         if (showGrid)
@@ -69,6 +51,21 @@ public class BoardPainter
         drawFields(graphics, field);
     }
 
+    /** Draw the stones and other field content without the board.
+        Can be used to draw onto a copy of an image of the empty board,
+        which was drawn with draw() and the same parameters.
+        @param graphics The graphics object.
+        @param field The fields.
+        @param width The width/height of the image.
+        @param showGrid Show grid coordinates. */
+    public void drawForeground(Graphics graphics, ConstField[][] field,
+                               int width, boolean showGrid)
+    {
+        initDraw(graphics, field.length, width, showGrid);
+        drawShadows(graphics, field);
+        drawFields(graphics, field);
+    }
+
     public Point getCenter(int x, int y)
     {
         Point point = getLocation(x, y);
@@ -339,6 +336,30 @@ public class BoardPainter
         graphics.drawString(string, location.x + x, location.y + y);
     }
 
+    private void initDraw(Graphics graphics, int size, int width,
+                          boolean showGrid)
+    {
+        if (graphics instanceof Graphics2D)
+        {
+            Graphics2D graphics2D = (Graphics2D)graphics;
+            graphics2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                        RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        m_width = width;
+        m_size = size;
+        if (m_constants == null || m_constants.getSize() != m_size)
+            m_constants = BoardConstants.get(m_size);
+        assert m_size <= GoPoint.MAX_SIZE;
+        double borderSize;
+        if (showGrid)
+            borderSize = BORDER_SIZE;
+        else
+            borderSize = BORDER_SIZE_NOGRID;
+        m_fieldSize =
+            Math.round((float)Math.floor(width / (m_size + 2 * borderSize)));
+        m_fieldOffset = (width - m_size * m_fieldSize) / 2;
+    }
+
     private static Image loadImage(URL url)
     {
         Image image = Toolkit.getDefaultToolkit().getImage(url);
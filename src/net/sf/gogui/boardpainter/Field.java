@@ -11,13 +11,16 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.font.LineMetrics;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
 import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.WHITE;
 import static net.sf.gogui.go.GoColor.EMPTY;
+import net.sf.gogui.util.ObjectUtil;
 
 /** State of a field on the board. */
 public class Field
@@ -27,6 +30,74 @@ public class Field
     {
     }
 
+    /** Pre-rendered images of stones with a gradient paint.
+        Drawing the gradient with RadialGradientContext is slow, because
+        it computes the color of each pixel. */
+    private static final class StoneImages
+    {
+        public final int m_size;
+
+        public final double m_scale;
+
+        /** Create the images.
+            @param size The field size.
+            @param scale The scale of the device transform. The images have
+            the resolution of the device. */
+        public StoneImages(int size, double scale)
+        {
+            m_size = size;
+            m_scale = scale;
+            m_black = createImage(COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT,
+                                  null);
+            m_white = createImage(COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT,
+                                  null);
+            m_ghostBlack = createImage(COLOR_STONE_BLACK,
+                                       COLOR_STONE_BLACK_BRIGHT,
+                                       COMPOSITE_8);
+            m_ghostWhite = createImage(COLOR_STONE_WHITE,
+                                       COLOR_STONE_WHITE_BRIGHT,
+                                       COMPOSITE_8);
+        }
+
+        public BufferedImage get(GoColor color, boolean isGhostStone)
+        {
+            if (color == BLACK)
+                return (isGhostStone ? m_ghostBlack : m_black);
+            assert color == WHITE;
+            return (isGhostStone ? m_ghostWhite : m_white);
+        }
+
+        private final BufferedImage m_black;
+
+        private final BufferedImage m_white;
+
+        private final BufferedImage m_ghostBlack;
+
+        private final BufferedImage m_ghostWhite;
+
+        private BufferedImage createImage(Color colorNormal,
+                                          Color colorBright,
+                                          AlphaComposite composite)
+        {
+            int imageSize = (int)Math.ceil(m_size * m_scale);
+            BufferedImage image =
+                new BufferedImage(imageSize, imageSize,
+                                  BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D graphics = image.createGraphics();
+            graphics.scale(m_scale, m_scale);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                      RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setPaint(getPaint(m_size, colorNormal, colorBright));
+            if (composite != null)
+                graphics.setComposite(composite);
+            int margin = getStoneMargin(m_size);
+            graphics.fillOval(margin, margin,
+                              m_size - 2 * margin, m_size - 2 * margin);
+            graphics.dispose();
+            return image;
+        }
+    }
+
     public void clearInfluence()
     {
         m_influenceSet = false;
@@ -70,6 +141,30 @@ public class Field
         m_graphics = null;
     }
 
+    /** Compare the state of two fields.
+        @return true, if the fields would be drawn in the same way. */
+    public boolean equals(Object object)
+    {
+        if (object == null || object.getClass() != getClass())
+            return false;
+        Field field = (Field)object;
+        return (field.m_color == m_color
+                && field.m_ghostStone == m_ghostStone
+                && field.m_territory == m_territory
+                && field.m_crossHair == m_crossHair
+                && field.m_cursor == m_cursor
+                && field.m_lastMoveMarker == m_lastMoveMarker
+                && field.m_mark == m_mark
+                && field.m_markCircle == m_markCircle
+                && field.m_markSquare == m_markSquare
+                && field.m_markTriangle == m_markTriangle
+                && field.m_select == m_select
+                && field.m_influenceSet == m_influenceSet
+                && field.m_influence == m_influence
+                && ObjectUtil.equals(field.m_label, m_label)
+                && ObjectUtil.equals(field.m_fieldColor, m_fieldColor));
+    }
+
     public GoColor getColor()
     {
         return m_color;
@@ -136,11 +231,40 @@ public class Field
         return m_territory;
     }
 
+    /** Hash code dummy function (don't use).
+        This class is not desgined to be used in a HashMap/HashTable. The
+        function will trigger an assertion if assertions are enabled. */
+    public int hashCode()
+    {
+        assert false : "hashCode not designed";
+        return 0;
+    }
+
     public boolean isInfluenceSet()
     {
         return m_influenceSet;
     }
 
+    /** Set the state to the state of another field. */
+    public void set(Field field)
+    {
+        m_color = field.m_color;
+        m_ghostStone = field.m_ghostStone;
+        m_territory = field.m_territory;
+        m_crossHair = field.m_crossHair;
+        m_cursor = field.m_cursor;
+        m_lastMoveMarker = field.m_lastMoveMarker;
+        m_mark = field.m_mark;
+        m_markCircle = field.m_markCircle;
+        m_markSquare = field.m_markSquare;
+        m_markTriangle = field.m_markTriangle;
+        m_select = field.m_select;
+        m_influenceSet = field.m_influenceSet;
+        m_influence = field.m_influence;
+        m_label = field.m_label;
+        m_fieldColor = field.m_fieldColor;
+    }
+
     public void setFieldBackground(Color color)
     {
         m_fieldColor = color;
@@ -243,10 +367,6 @@ public class Field
 
     private static int s_cachedFontFieldSize;
 
-    private int m_paintSizeBlack;
-
-    private int m_paintSizeWhite;
-
     private int m_size;
 
     private double m_influence;
@@ -310,9 +430,10 @@ public class Field
 
     private Graphics2D m_graphics2D;
 
-    private RadialGradientPaint m_paintBlack;
-
-    private RadialGradientPaint m_paintWhite;
+    /** Images of stones for the last used field size.
+        Shared by all fields; replaced if the field size or the scale of
+        the device changes. */
+    private static volatile StoneImages s_stoneImages;
 
     private void drawCircle(Color color)
     {
@@ -491,17 +612,22 @@ public class Field
     private void drawStone(GoColor color, Color colorNormal,
                            Color colorBright, boolean isGhostStone)
     {
-        int margin = getStoneMargin(m_size);
         if (m_graphics2D != null && m_size >= 7)
         {
-            RadialGradientPaint paint =
-                getPaint(color, m_size, colorNormal, colorBright);
-            m_graphics2D.setPaint(paint);
-        }
-        else
-        {
-            m_graphics.setColor(colorNormal);
+            double scale = m_graphics2D.getTransform().getScaleX();
+            StoneImages images = s_stoneImages;
+            if (images == null || images.m_size != m_size
+                || images.m_scale != scale)
+            {
+                images = new StoneImages(m_size, scale);
+                s_stoneImages = images;
+            }
+            m_graphics2D.drawImage(images.get(color, isGhostStone), 0, 0,
+                                   m_size, m_size, null);
+            return;
         }
+        int margin = getStoneMargin(m_size);
+        m_graphics.setColor(colorNormal);
         if (isGhostStone)
             setComposite(COMPOSITE_8);
         m_graphics.fillOval(margin, margin,
@@ -534,42 +660,16 @@ public class Field
         m_graphics2D.setPaintMode();
     }
 
-    private RadialGradientPaint getPaint(GoColor color, int size,
-                                         Color colorNormal,
-                                         Color colorBright)
+    private static RadialGradientPaint getPaint(int size,
+                                                Color colorNormal,
+                                                Color colorBright)
     {
-        RadialGradientPaint paint;
-        int paintSize;
-        if (color == BLACK)
-        {
-            paint = m_paintBlack;
-            paintSize = m_paintSizeBlack;
-        }
-        else
-        {
-            assert color == WHITE;
-            paint = m_paintWhite;
-            paintSize = m_paintSizeWhite;
-        }
-        if (size == paintSize && paint != null)
-            return paint;
         Point2D.Double center = new Point2D.Double(0.43 * size, 0.21 * size);
         Point2D.Double radius1 = new Point2D.Double(0.47 * size, -0.15 * size);
         Point2D.Double radius2 = new Point2D.Double(0.08 * size, 0.25 * size);
         double focus = -0.4;
-        paint = new RadialGradientPaint(center, radius1, radius2, focus,
-                                        colorBright, colorNormal);
-        if (color == BLACK)
-        {
-            m_paintBlack = paint;
-            m_paintSizeBlack = size;
-        }
-        else
-        {
-            m_paintWhite = paint;
-            m_paintSizeWhite = size;
-        }
-        return paint;
+        return new RadialGradientPaint(center, radius1, radius2, focus,
+                                       colorBright, colorNormal);
     }
 
     private void setComposite(AlphaComposite composite)
@@ -3,6 +3,7 @@
 package net.sf.gogui.game;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import net.sf.gogui.go.Board;
 import net.sf.gogui.go.ConstPointList;
 import net.sf.gogui.go.GoColor;
@@ -15,70 +16,309 @@ import net.sf.gogui.go.PointList;
 import net.sf.gogui.gtp.GtpError;
 import net.sf.gogui.gui.MessageDialogs;
 
-/** Updates a go.Board to a node in a GameTree. */
+/** Updates a go.Board to a node in a GameTree.
+    The updater remembers the path to the node of the last update. If the
+    next update uses the same tree and board and the board was not changed
+    in between, it only undoes the moves back to the common ancestor of the
+    old and new node and executes the nodes from there to the new node.
+    Undoing is not possible across nodes with setup stones; in this case
+    the board is updated from the nearest ancestor with a snapshot in the
+    position cache (if a cache is used) or from the root node.
+    @see PositionCache */
 public class BoardUpdater
 {
     public BoardUpdater()
     {
         m_nodes = new ArrayList<ConstNode>(400);
+        m_steps = new ArrayList<Step>(400);
+    }
+
+    /** Forget the state of the last update.
+        The next update will execute all nodes from the root node. Needs to
+        be called if nodes on the path to the node of the last update were
+        modified, apart from the last node itself. */
+    public void invalidate()
+    {
+        m_tree = null;
+        m_board = null;
+        m_stepIndex.clear();
+        m_numberSteps = 0;
+    }
+
+    public PositionCache getPositionCache()
+    {
+        return m_cache;
+    }
+
+    /** Set a cache for board positions.
+        @param cache The cache or null for not using a cache. */
+    public void setPositionCache(PositionCache cache)
+    {
+        m_cache = cache;
     }
 
     public void update(ConstGameTree tree, ConstNode currentNode, Board board)
     {
-        board.init(tree.getBoardSize());
         int handicap = tree.getGameInfoConst(currentNode).getHandicap();
-        NodeUtil.getPathToRoot(currentNode, m_nodes);
-        int nuMoves = 0;
-        boolean isFirstPlacement = true;
-        boolean isHandicapSetupDone = false;
-        boolean isInInitialBlackMoveSequence = true;
-        for (int i = m_nodes.size() - 1; i >= 0; --i)
+        if (tree != m_tree || board != m_board || handicap != m_handicap
+            || board.getSize() != tree.getBoardSize()
+            || board.isGameRulerAttached()
+            || board.getNumberMoves() != m_numberMoves
+            || board.getZobristHash() != m_hash)
+        {
+            invalidate();
+            m_tree = tree;
+            m_board = board;
+            m_handicap = handicap;
+        }
+        boolean useCache = (m_cache != null
+                            && ! board.isGameRulerAttached());
+        // Find the nearest ancestor that is on the path of the last update
+        // and can be reached by undoing moves, or that has a snapshot in
+        // the cache. The node itself is always executed again, it could
+        // have been modified.
+        m_nodes.clear();
+        int commonIndex = -1;
+        PositionCache.Entry entry = null;
+        ConstNode node = currentNode;
+        m_nodes.add(node);
+        node = node.getFatherConst();
+        while (node != null)
         {
-            ConstNode node = m_nodes.get(i);
-            GoColor player = node.getPlayer();
-            if (node.hasSetup())
+            Step step = m_stepIndex.get(node);
+            if (step != null
+                && m_steps.get(m_numberSteps - 1).m_lastReset <= step.m_index)
             {
-                ConstPointList setupBlack = node.getSetup(BLACK);
-                ConstPointList setupWhite = node.getSetup(WHITE);
-                ConstPointList setupEmpty = node.getSetup(EMPTY);
-                if (handicap > 0 && isFirstPlacement
-                    && setupBlack.size() == handicap && setupWhite.isEmpty()
-                    && setupEmpty.isEmpty())
-                {
-                    board.setupHandicap(setupBlack);
-                    isHandicapSetupDone = true;
-                }
-                else
-                    newSetup(board, setupBlack, setupWhite, setupEmpty, player);
-                isFirstPlacement = false;
-                isInInitialBlackMoveSequence = false;
+                commonIndex = step.m_index;
+                break;
             }
-            else if (player != null)
-                board.setToMove(player);
-            Move move = node.getMove();
-            if (move != null)
+            if (useCache)
             {
-                board.play(move);
-                ++nuMoves;
-                isFirstPlacement = false;
-                if (move.getColor() != BLACK)
-                    isInInitialBlackMoveSequence = false;
-                // Files from the KGS Go server with Chines rules store
-                // handicap stones as moves, not as setup as specified by SGF
-                if (handicap > 0 && ! isHandicapSetupDone &&
-                    isInInitialBlackMoveSequence && nuMoves == handicap)
-                {
-                    setupMovesAsHandicap(board);
-                    isHandicapSetupDone = true;
-                }
+                entry = m_cache.get(node);
+                if (entry != null)
+                    break;
             }
+            m_nodes.add(node);
+            node = node.getFatherConst();
+        }
+        if (commonIndex >= 0)
+            undoSteps(board, commonIndex);
+        else if (entry != null)
+        {
+            m_cache.countHit();
+            restore(board, node, entry);
+        }
+        else
+        {
+            if (useCache && m_nodes.size() > 1)
+                m_cache.countMiss();
+            undoSteps(board, -1);
         }
+        for (int i = m_nodes.size() - 1; i >= 0; --i)
+            execute(board, m_nodes.get(i));
+        m_numberMoves = board.getNumberMoves();
+        m_hash = board.getZobristHash();
+    }
+
+    /** State after executing a node on the path to the current node. */
+    private static final class Step
+    {
+        public ConstNode m_node;
+
+        /** Index of this step in the path. */
+        public int m_index;
+
+        /** Distance of the node to the root. */
+        public int m_depth;
+
+        /** Index of the last step that cannot be undone with Board.undo(),
+            because it cleared the move history of the board; -1 if none. */
+        public int m_lastReset;
+
+        /** Board.getNumberMoves() after this step. */
+        public int m_numberMoves;
+
+        public GoColor m_toMove;
+
+        public int m_nuMoves;
+
+        public boolean m_isFirstPlacement;
+
+        public boolean m_isHandicapSetupDone;
+
+        public boolean m_isInInitialBlackMoveSequence;
     }
 
     /** Local variable used in update.
         Member variable for avoiding frequent new memory allocations. */
     private final ArrayList<ConstNode> m_nodes;
 
+    /** Steps of the path from the root to the node of the last update.
+        Only the first m_numberSteps elements are valid, the others are kept
+        for reuse. */
+    private final ArrayList<Step> m_steps;
+
+    private int m_numberSteps;
+
+    /** Valid steps by node. */
+    private final IdentityHashMap<ConstNode,Step> m_stepIndex
+        = new IdentityHashMap<ConstNode,Step>();
+
+    private ConstGameTree m_tree;
+
+    private PositionCache m_cache;
+
+    private Board m_board;
+
+    private int m_handicap;
+
+    /** Board.getNumberMoves() after the last update.
+        Used to detect changes to the board by others. */
+    private int m_numberMoves;
+
+    /** Board.getZobristHash() after the last update.
+        Used to detect changes to the board by others. */
+    private long m_hash;
+
+    private int m_nuMoves;
+
+    private boolean m_isFirstPlacement;
+
+    private boolean m_isHandicapSetupDone;
+
+    private boolean m_isInInitialBlackMoveSequence;
+
+    private void execute(Board board, ConstNode node)
+    {
+        boolean isReset = false;
+        GoColor player = node.getPlayer();
+        if (node.hasSetup())
+        {
+            ConstPointList setupBlack = node.getSetup(BLACK);
+            ConstPointList setupWhite = node.getSetup(WHITE);
+            ConstPointList setupEmpty = node.getSetup(EMPTY);
+            if (m_handicap > 0 && m_isFirstPlacement
+                && setupBlack.size() == m_handicap && setupWhite.isEmpty()
+                && setupEmpty.isEmpty())
+            {
+                board.setupHandicap(setupBlack);
+                m_isHandicapSetupDone = true;
+            }
+            else
+                newSetup(board, setupBlack, setupWhite, setupEmpty, player);
+            m_isFirstPlacement = false;
+            m_isInInitialBlackMoveSequence = false;
+            isReset = true;
+        }
+        else if (player != null)
+            board.setToMove(player);
+        Move move = node.getMove();
+        if (move != null)
+        {
+            board.play(move);
+            ++m_nuMoves;
+            m_isFirstPlacement = false;
+            if (move.getColor() != BLACK)
+                m_isInInitialBlackMoveSequence = false;
+            // Files from the KGS Go server with Chines rules store
+            // handicap stones as moves, not as setup as specified by SGF
+            if (m_handicap > 0 && ! m_isHandicapSetupDone &&
+                m_isInInitialBlackMoveSequence && m_nuMoves == m_handicap)
+            {
+                setupMovesAsHandicap(board);
+                m_isHandicapSetupDone = true;
+                isReset = true;
+            }
+        }
+        int depth = 0;
+        if (m_numberSteps > 0)
+            depth = m_steps.get(m_numberSteps - 1).m_depth + 1;
+        addStep(board, node, isReset, depth);
+        if (m_cache != null && m_cache.isSnapshotDepth(depth)
+            && ! board.isGameRulerAttached() && m_cache.get(node) == null)
+        {
+            PositionCache.Entry entry =
+                new PositionCache.Entry(board, depth, m_nuMoves,
+                                        m_isFirstPlacement,
+                                        m_isHandicapSetupDone,
+                                        m_isInInitialBlackMoveSequence);
+            m_cache.put(node, entry);
+        }
+    }
+
+    /** Append a step for a node to the path.
+        Stores the current state of the board and of the updater. */
+    private void addStep(Board board, ConstNode node, boolean isReset,
+                         int depth)
+    {
+        Step step;
+        if (m_numberSteps < m_steps.size())
+            step = m_steps.get(m_numberSteps);
+        else
+        {
+            step = new Step();
+            m_steps.add(step);
+        }
+        step.m_node = node;
+        step.m_index = m_numberSteps;
+        step.m_depth = depth;
+        if (isReset)
+            step.m_lastReset = m_numberSteps;
+        else if (m_numberSteps > 0)
+            step.m_lastReset = m_steps.get(m_numberSteps - 1).m_lastReset;
+        else
+            step.m_lastReset = -1;
+        step.m_numberMoves = board.getNumberMoves();
+        step.m_toMove = board.getToMove();
+        step.m_nuMoves = m_nuMoves;
+        step.m_isFirstPlacement = m_isFirstPlacement;
+        step.m_isHandicapSetupDone = m_isHandicapSetupDone;
+        step.m_isInInitialBlackMoveSequence = m_isInInitialBlackMoveSequence;
+        m_stepIndex.put(node, step);
+        ++m_numberSteps;
+    }
+
+    /** Restore the board from a snapshot.
+        The path starts at the node of the snapshot after restoring; nodes
+        above it cannot be reached by undoing moves. */
+    private void restore(Board board, ConstNode node, PositionCache.Entry entry)
+    {
+        m_stepIndex.clear();
+        m_numberSteps = 0;
+        board.copyFrom(entry.m_board);
+        m_nuMoves = entry.m_nuMoves;
+        m_isFirstPlacement = entry.m_isFirstPlacement;
+        m_isHandicapSetupDone = entry.m_isHandicapSetupDone;
+        m_isInInitialBlackMoveSequence = entry.m_isInInitialBlackMoveSequence;
+        addStep(board, node, true, entry.m_depth);
+    }
+
+    /** Undo steps, such that the board is in the state after a step.
+        @param index The index of the step; -1 for resetting the board to
+        the state before executing the root node. */
+    private void undoSteps(Board board, int index)
+    {
+        for (int i = index + 1; i < m_numberSteps; ++i)
+            m_stepIndex.remove(m_steps.get(i).m_node);
+        m_numberSteps = index + 1;
+        if (index < 0)
+        {
+            board.init(m_tree.getBoardSize());
+            m_nuMoves = 0;
+            m_isFirstPlacement = true;
+            m_isHandicapSetupDone = false;
+            m_isInInitialBlackMoveSequence = true;
+            return;
+        }
+        Step step = m_steps.get(index);
+        board.undo(board.getNumberMoves() - step.m_numberMoves);
+        board.setToMove(step.m_toMove);
+        m_nuMoves = step.m_nuMoves;
+        m_isFirstPlacement = step.m_isFirstPlacement;
+        m_isHandicapSetupDone = step.m_isHandicapSetupDone;
+        m_isInInitialBlackMoveSequence = step.m_isInInitialBlackMoveSequence;
+    }
+
     /** Initialize board with new setup from merging the current position
         with the setup properties from a node. */
     private void newSetup(Board board, ConstPointList setupBlack,
@@ -101,6 +101,14 @@ public class Game
         return NodeUtil.getMoveNumber(getCurrentNode());
     }
 
+    /** Get the cache for board positions.
+        @return The cache or null, if no cache is used.
+        @see #setPositionCache */
+    public PositionCache getPositionCache()
+    {
+        return m_boardUpdater.getPositionCache();
+    }
+
     public ConstNode getRoot()
     {
         return m_tree.getRoot();
@@ -151,6 +159,7 @@ public class Game
 
     public final void init(GameTree tree)
     {
+        clearPositionCache();
         m_tree = tree;
         m_current = m_tree.getRoot();
         updateBoard();
@@ -172,12 +181,14 @@ public class Game
     public void keepOnlyMainVariation()
     {
         m_tree.keepOnlyMainVariation();
+        clearPositionCache();
         setModified();
     }
 
     public void keepOnlyPosition()
     {
         ConstGameInfo info = getGameInfo(m_current);
+        clearPositionCache();
         m_tree = NodeUtil.makeTreeFromPosition(info, m_board);
         m_board.init(m_board.getSize());
         m_current = m_tree.getRoot();
@@ -269,6 +280,8 @@ public class Game
         if (! ((Node)node).getGameInfo().equals(info))
         {
             ((Node)node).getGameInfo().copyFrom(info);
+            // The handicap is relevant for the board position
+            clearPositionCache();
             updateClock();
             setModified();
         }
@@ -290,6 +303,16 @@ public class Game
         m_current.setLabel(point, value);
     }
 
+    /** Set a cache for board positions.
+        The cache speeds up going to nodes far away from the current node
+        in large trees. It is cleared by all functions of this class that
+        modify nodes relevant for the board position.
+        @param cache The cache or null for not using a cache. */
+    public void setPositionCache(PositionCache cache)
+    {
+        m_boardUpdater.setPositionCache(cache);
+    }
+
     public void setPlayer(GoColor c, String name)
     {
         Node node = m_tree.getGameInfoNode(m_current);
@@ -314,6 +337,7 @@ public class Game
             || color.equals(m_board.getToMove()))
             setModified();
         m_current.setPlayer(color);
+        clearPositionCache();
         updateBoard();
     }
 
@@ -357,6 +381,7 @@ public class Game
     {
         assert p != null;
         m_current.removeSetup(p);
+        clearPositionCache();
         Node father = m_current.getFather();
         if (father != null)
         {
@@ -389,6 +414,7 @@ public class Game
         Node oldCurrentNode = m_current;
         m_current = father;
         m_current.removeChild(oldCurrentNode);
+        clearPositionCache();
         setModified();
     }
 
@@ -396,6 +422,7 @@ public class Game
     public void truncateChildren()
     {
         NodeUtil.truncateChildren(m_current);
+        clearPositionCache();
         setModified();
     }
 
@@ -415,6 +442,13 @@ public class Game
 
     private final Clock m_clock;
 
+    private void clearPositionCache()
+    {
+        PositionCache cache = getPositionCache();
+        if (cache != null)
+            cache.clear();
+    }
+
     private void setModified()
     {
         m_modified = true;
@@ -4,6 +4,7 @@ package net.sf.gogui.game;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
@@ -21,10 +22,18 @@ import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.util.StringUtil;
 
 /** Extended info.
-    Contains markups and value, because these are used in the large SGF
-    search traces of Explorer. */
+    Contains the move of nodes with other information, comments, markups and
+    value, because these are used in the large SGF search traces of
+    Explorer. */
 final class ExtraInfo
 {
+    public Move m_move;
+
+    /** Comment stored as bytes.
+        Store comments in UTF-8, because that saves up to a factor of 2 in
+        size compared to a string. */
+    public byte[] m_comment;
+
     public Map<MarkType,PointList> m_marked;
 
     /** Node value.
@@ -35,7 +44,8 @@ final class ExtraInfo
 
     public boolean isEmpty()
     {
-        return ((m_marked == null || m_marked.size() == 0)
+        return (m_move == null && m_comment == null
+                && (m_marked == null || m_marked.size() == 0)
                 && Float.isNaN(m_value)
                 && (m_moreExtraInfo == null || m_moreExtraInfo.isEmpty()));
     }
@@ -100,12 +110,26 @@ final class TimeInfo
 }
 
 /** Node in a game tree.
-    The memory requirement is optimized for nodes containing only a move and
-    comment property (e.g. for GNU Go's large SGF traces).
-    The optimization also expects that most nodes have only one child. */
+    The memory requirement is optimized for nodes containing only a move
+    (e.g. for large trees generated by programs), which need no other object
+    than the node itself (24 bytes on a 64-bit JVM with compressed
+    references). Nodes with more information, like a comment, use an
+    ExtraInfo object.
+    The optimization also expects that most nodes have only one child.
+    The children of a node can be created on demand by a Node.Loader the
+    first time they are accessed (e.g. for huge SGF files). */
 public final class Node
     implements ConstNode
 {
+    /** Creates the children of a node on demand. */
+    public interface Loader
+    {
+        /** Create the children of a node.
+            Called once, the first time the children of the node are
+            accessed. Appends the children with Node.append(). */
+        void loadChildren(Node node);
+    }
+
     /** Construct empty node. */
     public Node()
     {
@@ -115,33 +139,39 @@ public final class Node
         @param move The move to store in this node. */
     public Node(Move move)
     {
-        m_move = move;
+        m_data = move;
     }
 
     /** Append a node as a child to this node.
         @param node The node to append. */
-    @SuppressWarnings("unchecked")
     public void append(Node node)
     {
         assert node.m_father == null;
+        if (m_children instanceof Loader)
+            loadChildren();
         if (m_children == null)
-        {
             m_children = node;
-        }
-        else
+        else if (m_children instanceof Node)
+            m_children = new Node[] { (Node)m_children, node };
+        else if (m_children instanceof Node[])
         {
-            if (m_children instanceof Node)
+            Node[] children = (Node[])m_children;
+            if (children.length < MAX_ARRAY_CHILDREN)
             {
-                ArrayList<Node> list = new ArrayList<Node>(2);
-                list.add((Node)m_children);
-                list.add(node);
-                m_children = list;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = node;
+                m_children = children;
             }
             else
             {
-                ((ArrayList<Node>)m_children).add(node);
+                ArrayList<Node> list =
+                    new ArrayList<Node>(Arrays.asList(children));
+                list.add(node);
+                m_children = list;
             }
         }
+        else
+            getChildList().add(node);
         node.m_father = this;
     }
 
@@ -238,7 +268,9 @@ public final class Node
     {
         if (getNumberChildren() == 1)
             return (Node)m_children;
-        return (Node)((ArrayList)m_children).get(i);
+        if (m_children instanceof Node[])
+            return ((Node[])m_children)[i];
+        return getChildList().get(i);
     }
 
     /** Get child node (const).
@@ -265,15 +297,16 @@ public final class Node
         comment. */
     public String getComment()
     {
-        if (m_comment == null)
+        ExtraInfo extraInfo = getExtraInfo();
+        if (extraInfo == null || extraInfo.m_comment == null)
             return null;
         try
         {
-            return new String(m_comment, "UTF-8");
+            return new String(extraInfo.m_comment, "UTF-8");
         }
         catch (UnsupportedEncodingException e)
         {
-            return new String(m_comment);
+            return new String(extraInfo.m_comment);
         }
     }
 
@@ -293,9 +326,10 @@ public final class Node
 
     public GameInfo getGameInfo()
     {
-        if (m_extraInfo == null || m_extraInfo.m_moreExtraInfo == null)
+        MoreExtraInfo moreExtraInfo = getMoreExtraInfo();
+        if (moreExtraInfo == null)
             return null;
-        return m_extraInfo.m_moreExtraInfo.m_info;
+        return moreExtraInfo.m_info;
     }
 
     public ConstGameInfo getGameInfoConst()
@@ -318,9 +352,10 @@ public final class Node
         @return Map containing (Point,String) pairs. */
     public Map<GoPoint,String> getLabels()
     {
-        if (m_extraInfo == null || m_extraInfo.m_moreExtraInfo == null)
+        MoreExtraInfo moreExtraInfo = getMoreExtraInfo();
+        if (moreExtraInfo == null)
             return null;
-        return m_extraInfo.m_moreExtraInfo.m_label;
+        return moreExtraInfo.m_label;
     }
 
     /** Get all labels on the board (unmodifiable). */
@@ -332,14 +367,24 @@ public final class Node
         return Collections.unmodifiableMap(labels);
     }
 
+    /** Get the loader for the children of this node.
+        @return The loader or null, if the children are already created. */
+    public Loader getLoader()
+    {
+        if (m_children instanceof Loader)
+            return (Loader)m_children;
+        return null;
+    }
+
     /** Get all markups of a type.
         @param type Markup type from Node.MARK_TYPES.
         @return Map containing (Point,String) pairs. */
     public PointList getMarked(MarkType type)
     {
-        if (m_extraInfo == null || m_extraInfo.m_marked == null)
+        ExtraInfo extraInfo = getExtraInfo();
+        if (extraInfo == null || extraInfo.m_marked == null)
             return null;
-        return m_extraInfo.m_marked.get(type);
+        return extraInfo.m_marked.get(type);
     }
 
     /** Get all markups of a type (const).
@@ -354,7 +399,11 @@ public final class Node
         @return Move or null, if no move. */
     public Move getMove()
     {
-        return m_move;
+        if (m_data instanceof Move)
+            return (Move)m_data;
+        if (m_data == null)
+            return null;
+        return ((ExtraInfo)m_data).m_move;
     }
 
     /** Moves left in byoyomi.
@@ -378,7 +427,14 @@ public final class Node
             return 0;
         if (m_children instanceof Node)
             return 1;
-        return ((ArrayList)m_children).size();
+        if (m_children instanceof Loader)
+        {
+            loadChildren();
+            return getNumberChildren();
+        }
+        if (m_children instanceof Node[])
+            return ((Node[])m_children).length;
+        return getChildList().size();
     }
 
     /** Color to play if explicitely set.
@@ -409,9 +465,10 @@ public final class Node
         @see #addSgfProperty */
     public SgfProperties getSgfProperties()
     {
-        if (m_extraInfo == null || m_extraInfo.m_moreExtraInfo == null)
+        MoreExtraInfo moreExtraInfo = getMoreExtraInfo();
+        if (moreExtraInfo == null)
             return null;
-        return m_extraInfo.m_moreExtraInfo.m_sgfProperties;
+        return moreExtraInfo.m_sgfProperties;
     }
 
     /** Get other unspecified SGF properties (const).
@@ -445,8 +502,9 @@ public final class Node
         GoColor player = getPlayer();
         if (player != null)
             return player;
-        if (m_move != null)
-            return m_move.getColor().otherColor();
+        Move move = getMove();
+        if (move != null)
+            return move.getColor().otherColor();
         return null;
     }
 
@@ -455,9 +513,10 @@ public final class Node
         @return The value, or Float.NaN, if node contains no value */
     public float getValue()
     {
-        if (m_extraInfo == null)
+        ExtraInfo extraInfo = getExtraInfo();
+        if (extraInfo == null)
             return Float.NaN;
-        return m_extraInfo.m_value;
+        return extraInfo.m_value;
     }
 
     public boolean hasChildren()
@@ -471,7 +530,8 @@ public final class Node
         @return true if node contains a comment */
     public boolean hasComment()
     {
-        return (m_comment != null);
+        ExtraInfo extraInfo = getExtraInfo();
+        return (extraInfo != null && extraInfo.m_comment != null);
     }
 
     public boolean hasFather()
@@ -500,21 +560,31 @@ public final class Node
     /** Return true, if node stores no information. */
     public boolean isEmpty()
     {
-        return (m_comment == null && m_move == null
-                && (m_extraInfo == null || m_extraInfo.isEmpty()));
+        if (m_data instanceof Move)
+            return false;
+        return (m_data == null || ((ExtraInfo)m_data).isEmpty());
     }
 
     /** Make child the first child of this node.
         @param child One of the child nodes of this node. */
-    @SuppressWarnings("unchecked")
     public void makeFirstChild(Node child)
     {
         assert child.isChildOf(this);
         if (getNumberChildren() <= 1)
             return;
-        ArrayList<Node> list = (ArrayList<Node>)m_children;
-        list.remove(child);
-        list.add(0, child);
+        int i = getChildIndex(child);
+        if (m_children instanceof Node[])
+        {
+            Node[] children = (Node[])m_children;
+            System.arraycopy(children, 0, children, 1, i);
+            children[0] = child;
+        }
+        else
+        {
+            ArrayList<Node> list = getChildList();
+            list.remove(i);
+            list.add(0, child);
+        }
     }
 
     /** Remove child of this node.
@@ -525,12 +595,27 @@ public final class Node
         int numberChildren = getNumberChildren();
         if (numberChildren == 1)
             m_children = null;
+        else if (numberChildren > MAX_ARRAY_CHILDREN)
+        {
+            ArrayList<Node> list = getChildList();
+            list.remove(getChildIndex(child));
+            if (list.size() == MAX_ARRAY_CHILDREN)
+                m_children = list.toArray(new Node[MAX_ARRAY_CHILDREN]);
+        }
         else if (numberChildren >= 2)
         {
-            ArrayList list = (ArrayList)m_children;
-            list.remove(child);
+            Node[] children = (Node[])m_children;
+            int i = getChildIndex(child);
             if (numberChildren == 2)
-                m_children = list.get(0);
+                m_children = children[1 - i];
+            else
+            {
+                Node[] newChildren = new Node[numberChildren - 1];
+                System.arraycopy(children, 0, newChildren, 0, i);
+                System.arraycopy(children, i + 1, newChildren, i,
+                                 numberChildren - i - 1);
+                m_children = newChildren;
+            }
         }
         else
             assert false;
@@ -579,19 +664,29 @@ public final class Node
     {
         if (StringUtil.isEmpty(comment))
         {
-            m_comment = null;
+            ExtraInfo extraInfo = getExtraInfo();
+            if (extraInfo != null)
+                extraInfo.m_comment = null;
             return;
         }
         try
         {
-            m_comment = comment.getBytes("UTF-8");
+            createExtraInfo().m_comment = comment.getBytes("UTF-8");
         }
         catch (UnsupportedEncodingException e)
         {
-            m_comment = comment.getBytes();
+            createExtraInfo().m_comment = comment.getBytes();
         }
     }
 
+    /** Set a loader for creating the children on demand.
+        Requires: node has no children. */
+    public void setLoader(Loader loader)
+    {
+        assert m_children == null;
+        m_children = loader;
+    }
+
     /** Set father of this node.
         @param father The new father. */
     public void setFather(Node father)
@@ -621,7 +716,10 @@ public final class Node
         @param move The move or null, if no move. */
     public void setMove(Move move)
     {
-        m_move = move;
+        if (m_data instanceof ExtraInfo)
+            ((ExtraInfo)m_data).m_move = move;
+        else
+            m_data = move;
     }
 
     /** Set byoyomi moves left.
@@ -655,8 +753,7 @@ public final class Node
         @param value The value */
     public void setValue(float value)
     {
-        createExtraInfo();
-        m_extraInfo.m_value = value;
+        createExtraInfo().m_value = value;
     }
 
     /** Sort the lists of setup stones (add stones and remove stones.
@@ -703,32 +800,51 @@ public final class Node
         return getChildConst(i - 1);
     }
 
-    /** Comment stored as bytes.
-        Store comments in UTF-8, because that saves up to a factor of 2 in
-        size compared to a string. */
-    private byte[] m_comment;
-
-    private ExtraInfo m_extraInfo;
-
-    private Move m_move;
+    /** Move if the node contains only a move, ExtraInfo otherwise.
+        Null for empty nodes. */
+    private Object m_data;
 
     private Node m_father;
 
-    /** Node if one child only, ArrayList otherwise. */
+    /** Maximum number of children stored in an array.
+        Arrays are copied on each append, nodes with more children use an
+        ArrayList to avoid quadratic cost. */
+    private static final int MAX_ARRAY_CHILDREN = 4;
+
+    /** Node if one child only, Loader if the children are not created
+        yet, Node[] if up to MAX_ARRAY_CHILDREN children, ArrayList<Node>
+        otherwise. */
     private Object m_children;
 
-    private void createExtraInfo()
+    @SuppressWarnings("unchecked")
+    private ArrayList<Node> getChildList()
+    {
+        return (ArrayList<Node>)m_children;
+    }
+
+    private void loadChildren()
+    {
+        Loader loader = (Loader)m_children;
+        m_children = null;
+        loader.loadChildren(this);
+    }
+
+    private ExtraInfo createExtraInfo()
     {
-        if (m_extraInfo == null)
-            m_extraInfo = new ExtraInfo();
+        if (m_data instanceof ExtraInfo)
+            return (ExtraInfo)m_data;
+        ExtraInfo extraInfo = new ExtraInfo();
+        extraInfo.m_move = (Move)m_data;
+        m_data = extraInfo;
+        return extraInfo;
     }
 
     private MoreExtraInfo createMoreExtraInfo()
     {
-        createExtraInfo();
-        if (m_extraInfo.m_moreExtraInfo == null)
-            m_extraInfo.m_moreExtraInfo = new MoreExtraInfo();
-        return m_extraInfo.m_moreExtraInfo;
+        ExtraInfo extraInfo = createExtraInfo();
+        if (extraInfo.m_moreExtraInfo == null)
+            extraInfo.m_moreExtraInfo = new MoreExtraInfo();
+        return extraInfo.m_moreExtraInfo;
     }
 
     private Map<GoPoint,String> createLabel()
@@ -741,10 +857,10 @@ public final class Node
 
     private Map<MarkType,PointList> createMarked()
     {
-        createExtraInfo();
-        if (m_extraInfo.m_marked == null)
-            m_extraInfo.m_marked = new TreeMap<MarkType,PointList>();
-        return m_extraInfo.m_marked;
+        ExtraInfo extraInfo = createExtraInfo();
+        if (extraInfo.m_marked == null)
+            extraInfo.m_marked = new TreeMap<MarkType,PointList>();
+        return extraInfo.m_marked;
     }
 
     private SetupInfo createSetupInfo()
@@ -771,17 +887,34 @@ public final class Node
         return moreExtraInfo.m_timeInfo;
     }
 
+    private ExtraInfo getExtraInfo()
+    {
+        if (m_data instanceof ExtraInfo)
+            return (ExtraInfo)m_data;
+        return null;
+    }
+
+    private MoreExtraInfo getMoreExtraInfo()
+    {
+        ExtraInfo extraInfo = getExtraInfo();
+        if (extraInfo == null)
+            return null;
+        return extraInfo.m_moreExtraInfo;
+    }
+
     private SetupInfo getSetupInfo()
     {
-        if (m_extraInfo == null || m_extraInfo.m_moreExtraInfo == null)
+        MoreExtraInfo moreExtraInfo = getMoreExtraInfo();
+        if (moreExtraInfo == null)
             return null;
-        return m_extraInfo.m_moreExtraInfo.m_setupInfo;
+        return moreExtraInfo.m_setupInfo;
     }
 
     private TimeInfo getTimeInfo()
     {
-        if (m_extraInfo == null || m_extraInfo.m_moreExtraInfo == null)
+        MoreExtraInfo moreExtraInfo = getMoreExtraInfo();
+        if (moreExtraInfo == null)
             return null;
-        return m_extraInfo.m_moreExtraInfo.m_timeInfo;
+        return moreExtraInfo.m_timeInfo;
     }
 }
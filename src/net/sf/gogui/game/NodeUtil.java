@@ -479,6 +479,25 @@ public final class NodeUtil
         return (node != null);
     }
 
+    /** Check if the subtree of a node contains nodes with children that
+        are not created yet.
+        Does not create any children.
+        @see Node#getLoader() */
+    public static boolean hasUnloadedChildren(ConstNode node)
+    {
+        ArrayList<Node> stack = new ArrayList<Node>();
+        stack.add((Node)node);
+        while (! stack.isEmpty())
+        {
+            Node n = stack.remove(stack.size() - 1);
+            if (n.getLoader() != null)
+                return true;
+            for (int i = 0; i < n.getNumberChildren(); ++i)
+                stack.add(n.getChild(i));
+        }
+        return false;
+    }
+
     /** Check if game is in cleanup stage.
         Cleanup stage is after two consecutive pass moves have been played. */
     public static boolean isInCleanup(ConstNode node)
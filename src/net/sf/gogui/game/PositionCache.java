@@ -0,0 +1,187 @@
+// PositionCache.java
+
+package net.sf.gogui.game;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.sf.gogui.go.Board;
+
+/** Cache of board positions at nodes of a game tree.
+    Used by BoardUpdater to avoid executing all nodes from the root, if
+    the board is updated to a node far away from the node of the last
+    update. A snapshot of the board is stored for nodes, whose depth in the
+    tree is a multiple of the snapshot interval, when they are visited.
+    If the maximum number of snapshots is reached, the least recently used
+    snapshot is removed.
+    The cache does not detect modifications of the tree; it needs to be
+    cleared if nodes were changed. */
+public class PositionCache
+{
+    /** Default value for the snapshot interval. */
+    public static final int DEFAULT_INTERVAL = 20;
+
+    /** Default value for the maximum number of snapshots. */
+    public static final int DEFAULT_MAX_SIZE = 200;
+
+    /** Constructor with default settings. */
+    public PositionCache()
+    {
+        this(DEFAULT_INTERVAL, DEFAULT_MAX_SIZE);
+    }
+
+    /** Constructor.
+        @param interval The snapshot interval (in number of nodes). Values
+        less than one disable snapshots.
+        @param maxSize The maximum number of snapshots. Limits the memory
+        use of the cache, which is about maxSize times the memory use of a
+        go.Board. */
+    public PositionCache(int interval, int maxSize)
+    {
+        m_interval = interval;
+        m_maxSize = maxSize;
+    }
+
+    /** Remove all snapshots.
+        Does not reset the hit and miss counters. */
+    public void clear()
+    {
+        m_entries.clear();
+    }
+
+    /** Get number of board updates that started from a snapshot. */
+    public int getHits()
+    {
+        return m_hits;
+    }
+
+    public int getInterval()
+    {
+        return m_interval;
+    }
+
+    public int getMaxSize()
+    {
+        return m_maxSize;
+    }
+
+    /** Get number of board updates that could not use a snapshot.
+        Only counts updates that could not be done by undoing moves from the
+        position of the last update either. */
+    public int getMisses()
+    {
+        return m_misses;
+    }
+
+    /** Get current number of snapshots. */
+    public int getSize()
+    {
+        return m_entries.size();
+    }
+
+    /** Reset hit and miss counters. */
+    public void resetStatistics()
+    {
+        m_hits = 0;
+        m_misses = 0;
+    }
+
+    /** Change the snapshot interval.
+        Removes all snapshots. */
+    public void setInterval(int interval)
+    {
+        m_interval = interval;
+        clear();
+    }
+
+    /** Change the maximum number of snapshots.
+        Removes the least recently used snapshots, if there are more than
+        the new maximum. */
+    public void setMaxSize(int maxSize)
+    {
+        m_maxSize = maxSize;
+        while (m_entries.size() > m_maxSize)
+        {
+            ConstNode eldest = m_entries.keySet().iterator().next();
+            m_entries.remove(eldest);
+        }
+    }
+
+    public String toString()
+    {
+        return "size=" + getSize() + " hits=" + m_hits
+            + " misses=" + m_misses;
+    }
+
+    /** Snapshot of the board and the state of BoardUpdater after
+        executing a node. */
+    static final class Entry
+    {
+        public final Board m_board;
+
+        public final int m_depth;
+
+        public final int m_nuMoves;
+
+        public final boolean m_isFirstPlacement;
+
+        public final boolean m_isHandicapSetupDone;
+
+        public final boolean m_isInInitialBlackMoveSequence;
+
+        public Entry(Board board, int depth, int nuMoves,
+                     boolean isFirstPlacement, boolean isHandicapSetupDone,
+                     boolean isInInitialBlackMoveSequence)
+        {
+            m_board = new Board(board.getSize());
+            m_board.copyFrom(board);
+            m_depth = depth;
+            m_nuMoves = nuMoves;
+            m_isFirstPlacement = isFirstPlacement;
+            m_isHandicapSetupDone = isHandicapSetupDone;
+            m_isInInitialBlackMoveSequence = isInInitialBlackMoveSequence;
+        }
+    }
+
+    void countHit()
+    {
+        ++m_hits;
+    }
+
+    void countMiss()
+    {
+        ++m_misses;
+    }
+
+    Entry get(ConstNode node)
+    {
+        return m_entries.get(node);
+    }
+
+    boolean isSnapshotDepth(int depth)
+    {
+        return (m_interval > 0 && m_maxSize > 0 && depth > 0
+                && depth % m_interval == 0);
+    }
+
+    void put(ConstNode node, Entry entry)
+    {
+        m_entries.put(node, entry);
+    }
+
+    private int m_interval;
+
+    private int m_maxSize;
+
+    private int m_hits;
+
+    private int m_misses;
+
+    private final LinkedHashMap<ConstNode,Entry> m_entries
+        = new LinkedHashMap<ConstNode,Entry>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<ConstNode,Entry> e)
+            {
+                return size() > m_maxSize;
+            }
+        };
+}
@@ -0,0 +1,59 @@
+// GameFileUtil.java
+
+package net.sf.gogui.gamefile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import net.sf.gogui.util.FileUtil;
+
+/** Static utility functions for finding game files. */
+public final class GameFileUtil
+{
+    /** Find all game files in a directory.
+        The directory is searched recursively. The files in each directory
+        are sorted by name; the files in subdirectories follow the position
+        of the subdirectory.
+        @param dir The directory.
+        @return The game files (see isGameFile()). */
+    public static ArrayList<File> findGameFiles(File dir)
+    {
+        ArrayList<File> result = new ArrayList<File>();
+        findGameFiles(dir, result);
+        return result;
+    }
+
+    /** Check if a file has the extension of a game file.
+        @return true, if the file has the extension sgf or xml (ignoring
+        case), optionally followed by FileUtil.GZIP_EXTENSION. */
+    public static boolean isGameFile(File file)
+    {
+        String extension =
+            FileUtil.getExtension(GameReader.getUncompressedName(file));
+        if (extension == null)
+            return false;
+        extension = extension.toLowerCase(Locale.ENGLISH);
+        return extension.equals("sgf") || extension.equals("xml");
+    }
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private GameFileUtil()
+    {
+    }
+
+    private static void findGameFiles(File dir, ArrayList<File> result)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File file : files)
+        {
+            if (file.isDirectory())
+                findGameFiles(file, result);
+            else if (isGameFile(file))
+                result.add(file);
+        }
+    }
+}
@@ -3,11 +3,12 @@
 package net.sf.gogui.gamefile;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.util.Locale;
 import net.sf.gogui.game.GameTree;
 import net.sf.gogui.util.ErrorMessage;
@@ -16,9 +17,16 @@ import net.sf.gogui.util.ProgressShow;
 import net.sf.gogui.sgf.SgfReader;
 import net.sf.gogui.xml.XmlReader;
 
-/** Read a game and detect automatically if it is SGF or XML. */
+/** Read a game and detect automatically if it is SGF or XML.
+    Files with the extension FileUtil.GZIP_EXTENSION (e.g. game.sgf.gz) are
+    decompressed. */
 public class GameReader
 {
+    /** Minimum size of SGF files that are read lazily.
+        Compressed files are never read lazily.
+        @see SgfReader#SgfReader(File,ProgressShow) */
+    public static final long LAZY_SIZE = 32 * 1024 * 1024;
+
     /** Construct reader and read a game.
         @param progressShow Callback to show progress, can be null */
     public GameReader(File file, ProgressShow progressShow) throws ErrorMessage
@@ -30,26 +38,36 @@ public class GameReader
         InputStream in;
         try
         {
-            in = new FileInputStream(file);
+            in = FileUtil.openInputStream(file);
         }
         catch (FileNotFoundException e)
         {
             throw new ErrorMessage("File \"" + file + "\" not found");
         }
+        catch (IOException e)
+        {
+            throw new ErrorMessage(file + ": " + e.getMessage());
+        }
+        long size = getUncompressedSize(file);
         switch (format)
         {
         case XML:
             {
-                XmlReader reader = new XmlReader(in, progressShow,
-                                                 file.length());
+                XmlReader reader = new XmlReader(in, progressShow, size);
                 m_tree = reader.getTree();
                 m_warnings = reader.getWarnings();
             }
             break;
         case SGF:
             {
-                SgfReader reader =
-                    new SgfReader(in, file, progressShow, file.length());
+                SgfReader reader;
+                if (size > LAZY_SIZE && ! FileUtil.isGzip(file))
+                {
+                    close(in);
+                    reader = new SgfReader(file, progressShow);
+                }
+                else
+                    reader = new SgfReader(in, file, progressShow, size);
                 m_tree = reader.getTree();
                 m_warnings = reader.getWarnings();
             }
@@ -83,9 +101,59 @@ public class GameReader
 
     private GameTree m_tree;
 
-    private static GameFile.Format detectFormat(File file)
+    private static void close(InputStream in)
+    {
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    /** Get the size of a file after decompression.
+        Uses the size stored in the last four bytes of files compressed
+        with gzip (modulo 2^32, used only for showing progress). */
+    private static long getUncompressedSize(File file)
+    {
+        if (! FileUtil.isGzip(file))
+            return file.length();
+        RandomAccessFile in = null;
+        try
+        {
+            in = new RandomAccessFile(file, "r");
+            if (in.length() < 4)
+                return 0;
+            in.seek(in.length() - 4);
+            long size = 0;
+            for (int i = 0; i < 4; ++i)
+                size |= (long)in.read() << (8 * i);
+            return size;
+        }
+        catch (IOException e)
+        {
+            return 0;
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /** Detect the format of a game file.
+        Uses the file extension, or the file content, if the file has no
+        known extension. The extension FileUtil.GZIP_EXTENSION is ignored. */
+    public static GameFile.Format detectFormat(File file)
     {
-        String extension = FileUtil.getExtension(file);
+        String extension = FileUtil.getExtension(getUncompressedName(file));
         if (extension != null)
         {
             extension = extension.toLowerCase(Locale.ENGLISH);
@@ -94,10 +162,10 @@ public class GameReader
             if (extension.equals("xml"))
                 return GameFile.Format.XML;
         }
-        FileReader reader = null;
+        Reader reader = null;
         try
         {
-            reader = new FileReader(file);
+            reader = new InputStreamReader(FileUtil.openInputStream(file));
             char[] buffer = new char[5];
             int n = reader.read(buffer, 0, 5);
             if (n == 5 && new String(buffer).equals("<?xml"))
@@ -119,4 +187,15 @@ public class GameReader
         }
         return GameFile.Format.SGF;
     }
+
+    /** Remove the extension FileUtil.GZIP_EXTENSION from a file name.
+        @return The file name without the extension, or the file, if it
+        does not have the extension. */
+    public static File getUncompressedName(File file)
+    {
+        if (! FileUtil.isGzip(file))
+            return file;
+        return new File(FileUtil.removeExtension(file,
+                                                 FileUtil.GZIP_EXTENSION));
+    }
 }
@@ -2,25 +2,43 @@
 
 package net.sf.gogui.gamefile;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import net.sf.gogui.game.ConstGameTree;
+import net.sf.gogui.game.NodeUtil;
 import net.sf.gogui.sgf.SgfWriter;
 import net.sf.gogui.util.ErrorMessage;
+import net.sf.gogui.util.FileUtil;
 import net.sf.gogui.xml.XmlWriter;
 
 public class GameWriter
 {
+    /** Write a game.
+        If the tree contains nodes with children that were not read yet
+        from a lazily read SGF file (which might be the file that is
+        written), the game is written to a temporary file first, which
+        replaces the file after writing.
+        Files with the extension FileUtil.GZIP_EXTENSION are compressed. */
     public GameWriter(GameFile gameFile, ConstGameTree tree,
                       String application, String version) throws ErrorMessage
     {
+        File file = gameFile.m_file;
+        File tempFile = null;
         OutputStream out;
         try
         {
-            out = new FileOutputStream(gameFile.m_file);
+            if (file.exists()
+                && NodeUtil.hasUnloadedChildren(tree.getRootConst()))
+            {
+                File dir = file.getAbsoluteFile().getParentFile();
+                tempFile = File.createTempFile("gogui", ".tmp", dir);
+            }
+            out = FileUtil.openOutputStream(file, tempFile);
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
             throw new ErrorMessage(e.getMessage());
         }
@@ -36,5 +54,18 @@ public class GameWriter
             new XmlWriter(out, tree, xmlApplication);
             break;
         }
+        if (tempFile != null)
+        {
+            try
+            {
+                Files.move(tempFile.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException e)
+            {
+                tempFile.delete();
+                throw new ErrorMessage(e.getMessage());
+            }
+        }
     }
 }
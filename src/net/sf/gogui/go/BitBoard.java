@@ -0,0 +1,680 @@
+// BitBoard.java
+
+package net.sf.gogui.go;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import net.sf.gogui.gtp.GtpClientBase;
+
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+import static net.sf.gogui.go.GoColor.EMPTY;
+
+/** Go position stored as bit sets.
+    The stones of each color are stored with one bit per point, packed
+    row by row into a few longs (six per color on 19x19). Block and liberty
+    computations are done with shift and mask operations on these sets.
+    This class is meant for headless bulk processing of many positions,
+    where go.Board needs too much memory per position. Unlike go.Board,
+    it does not store the sequence of moves or the setup stones:
+    getNumberMoves() always returns zero, getSetup() returns an empty list
+    and only the stones captured by the last call of play() are available
+    with getKilled() and getSuicide(). */
+public final class BitBoard
+    implements ConstBoard
+{
+    /** Constructor for an empty board.
+        @param size The board size in the range from one to
+        GoPoint.MAX_SIZE */
+    public BitBoard(int size)
+    {
+        m_constants = Constants.get(size);
+        m_black = new long[m_constants.m_words];
+        m_white = new long[m_constants.m_words];
+        m_toMove = BLACK;
+    }
+
+    /** Create a copy of the current position of another board.
+        Copies the stones, the color to move, the number of captured stones
+        and the ko point, but not the move history. */
+    public BitBoard(ConstBoard board)
+    {
+        this(board.getSize());
+        for (GoPoint p : board)
+        {
+            GoColor c = board.getColor(p);
+            if (c != EMPTY)
+                setColor(p, c);
+            if (board.isKo(p))
+                m_koPoint = p;
+        }
+        m_toMove = board.getToMove();
+        m_capturedBlack = board.getCaptured(BLACK);
+        m_capturedWhite = board.getCaptured(WHITE);
+    }
+
+    /** Copy constructor. */
+    public BitBoard(BitBoard board)
+    {
+        m_constants = board.m_constants;
+        m_black = board.m_black.clone();
+        m_white = board.m_white.clone();
+        m_toMove = board.m_toMove;
+        m_koPoint = board.m_koPoint;
+        m_capturedBlack = board.m_capturedBlack;
+        m_capturedWhite = board.m_capturedWhite;
+        m_hash = board.m_hash;
+    }
+
+    /** Not supported.
+        @throws UnsupportedOperationException Always */
+    public void attachGameRuler(GtpClientBase gameRuler)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Check if the last two calls of play() were passes. */
+    public boolean bothPassed()
+    {
+        return m_numberPasses >= 2;
+    }
+
+    public boolean contains(GoPoint point)
+    {
+        return point.isOnBoard(getSize());
+    }
+
+    public void detachGameRuler()
+    {
+    }
+
+    /** Compare the positions of two bit boards.
+        Two boards are equal, if they have the same size, the same stones
+        and the same color to move. */
+    public boolean equals(Object object)
+    {
+        if (object == null || object.getClass() != getClass())
+            return false;
+        BitBoard board = (BitBoard)object;
+        return (board.m_constants == m_constants
+                && board.m_toMove == m_toMove
+                && Arrays.equals(board.m_black, m_black)
+                && Arrays.equals(board.m_white, m_white));
+    }
+
+    public ConstPointList getAdjacent(GoPoint point)
+    {
+        return m_constants.m_boardConstants.getAdjacent(point);
+    }
+
+    public int getCaptured(GoColor c)
+    {
+        return (c == BLACK ? m_capturedBlack : m_capturedWhite);
+    }
+
+    public GoColor getColor(GoPoint p)
+    {
+        int i = m_constants.getBit(p);
+        if (isSet(m_black, i))
+            return BLACK;
+        if (isSet(m_white, i))
+            return WHITE;
+        return EMPTY;
+    }
+
+    /** Opponent stones captured by the last call of play().
+        @return The stones; empty list if no stones were captured or if
+        play() was not called on this board. */
+    public ConstPointList getKilled()
+    {
+        if (m_killed == null)
+            return PointList.getEmptyList();
+        return m_killed;
+    }
+
+    /** Return the move of the last call of play().
+        @return The move or null, if play() was not called on this board. */
+    public Move getLastMove()
+    {
+        return m_lastMove;
+    }
+
+    /** Get the number of liberties of a block.
+        @param p A stone of the block.
+        @return The number of liberties; zero if the point is empty. */
+    public int getLiberties(GoPoint p)
+    {
+        long[] own = getBits(getColor(p));
+        if (own == null)
+            return 0;
+        int words = m_constants.m_words;
+        long[] block = new long[words];
+        long[] tmp = new long[words];
+        findBlock(m_constants.getBit(p), own, block, tmp);
+        m_constants.getNeighbors(block, tmp);
+        int result = 0;
+        for (int i = 0; i < words; ++i)
+            result += Long.bitCount(tmp[i] & ~m_black[i] & ~m_white[i]);
+        return result;
+    }
+
+    /** Not supported, there is no move history.
+        @throws IndexOutOfBoundsException Always */
+    public Move getMove(int i)
+    {
+        throw new IndexOutOfBoundsException();
+    }
+
+    /** Get the number of moves.
+        @return Always zero, there is no move history. */
+    public int getNumberMoves()
+    {
+        return 0;
+    }
+
+    /** Get the number of stones of a color on the board. */
+    public int getNumberStones(GoColor c)
+    {
+        long[] bits = getBits(c);
+        int result = 0;
+        for (int i = 0; i < bits.length; ++i)
+            result += Long.bitCount(bits[i]);
+        return result;
+    }
+
+    /** Get setup stones.
+        @return Always an empty list, setup stones are not stored. */
+    public ConstPointList getSetup(GoColor c)
+    {
+        return PointList.getEmptyList();
+    }
+
+    /** Get player of setup position.
+        @return Always null, setup stones are not stored. */
+    public GoColor getSetupPlayer()
+    {
+        return null;
+    }
+
+    public int getSize()
+    {
+        return m_constants.m_size;
+    }
+
+    public void getStones(GoPoint p, GoColor color, PointList stones)
+    {
+        long[] own = getBits(color);
+        int words = m_constants.m_words;
+        long[] block = new long[words];
+        long[] tmp = new long[words];
+        if (own == null)
+        {
+            // Empty region
+            own = tmp;
+            for (int i = 0; i < words; ++i)
+                own[i] = ~(m_black[i] | m_white[i])
+                    & m_constants.m_onBoard[i];
+            tmp = new long[words];
+        }
+        int bit = m_constants.getBit(p);
+        if (! isSet(own, bit))
+            return;
+        findBlock(bit, own, block, tmp);
+        m_constants.addPoints(block, stones);
+    }
+
+    /** Player stones killed by suicide in the last call of play().
+        @return The stones; empty list if there was no suicide or if
+        play() was not called on this board. */
+    public ConstPointList getSuicide()
+    {
+        if (m_suicide == null)
+            return PointList.getEmptyList();
+        return m_suicide;
+    }
+
+    public GoColor getToMove()
+    {
+        return m_toMove;
+    }
+
+    /** Get Zobrist hash code of the position.
+        Returns the same value as Board.getZobristHash() for a board with
+        the same stones and color to move.
+        @see Zobrist */
+    public long getZobristHash()
+    {
+        if (m_toMove == WHITE)
+            return m_hash ^ Zobrist.getToMoveKey();
+        return m_hash;
+    }
+
+    public int hashCode()
+    {
+        return (int)(getZobristHash() ^ (getZobristHash() >>> 32));
+    }
+
+    public boolean isCaptureOrSuicide(GoColor c, GoPoint p)
+    {
+        if (getColor(p) != EMPTY)
+            return false;
+        BitBoard board = new BitBoard(this);
+        board.play(c, p);
+        return (board.getKilled().size() > 0
+                || board.getSuicide().size() > 0);
+    }
+
+    public boolean isHandicap(GoPoint point)
+    {
+        return m_constants.m_boardConstants.isHandicap(point);
+    }
+
+    public boolean isKo(GoPoint point)
+    {
+        return point == m_koPoint;
+    }
+
+    public boolean isModified()
+    {
+        if (m_toMove != BLACK)
+            return true;
+        for (int i = 0; i < m_black.length; ++i)
+            if (m_black[i] != 0 || m_white[i] != 0)
+                return true;
+        return false;
+    }
+
+    /** Check for repetition.
+        @return Always false, previous positions are not stored. */
+    public boolean isPositionRepetition()
+    {
+        return false;
+    }
+
+    /** Check if the initial setup position was a handicap.
+        @return Always false, setup stones are not stored. */
+    public boolean isSetupHandicap()
+    {
+        return false;
+    }
+
+    public boolean isSuicide(GoColor c, GoPoint p)
+    {
+        if (getColor(p) != EMPTY)
+            return false;
+        BitBoard board = new BitBoard(this);
+        board.play(c, p);
+        return (board.getSuicide().size() > 0);
+    }
+
+    public Iterator<GoPoint> iterator()
+    {
+        return m_constants.m_boardConstants.getPoints().iterator();
+    }
+
+    /** Play a move.
+        @see #play(Move) */
+    public void play(GoColor c, GoPoint p)
+    {
+        play(Move.get(c, p));
+    }
+
+    /** Play a move.
+        Same semantics as Board.play(Move): never fails, places the stone
+        even on occupied points, removes opponent blocks without liberties,
+        removes the own block on suicide and switches the color to move.
+        @param move The move */
+    public void play(Move move)
+    {
+        GoPoint p = move.getPoint();
+        GoColor c = move.getColor();
+        GoColor otherColor = c.otherColor();
+        m_lastMove = move;
+        m_koPoint = null;
+        if (m_killed != null)
+        {
+            m_killed.clear();
+            m_suicide.clear();
+        }
+        if (p == null)
+            ++m_numberPasses;
+        else
+        {
+            m_numberPasses = 0;
+            if (m_killed == null)
+            {
+                m_killed = new PointList();
+                m_suicide = new PointList();
+            }
+            setColor(p, c);
+            long[] own = getBits(c);
+            long[] opp = getBits(otherColor);
+            int words = m_constants.m_words;
+            long[] block = new long[words];
+            long[] tmp = new long[words];
+            ConstPointList adjacent = getAdjacent(p);
+            int nuAdjacent = adjacent.size();
+            for (int i = 0; i < nuAdjacent; ++i)
+            {
+                int killedSize = m_killed.size();
+                int bit = m_constants.getBit(adjacent.get(i));
+                if (isSet(opp, bit))
+                {
+                    findBlock(bit, opp, block, tmp);
+                    if (! hasLiberty(block, tmp))
+                        removeStones(block, opp, otherColor, m_killed);
+                }
+                if (m_killed.size() == killedSize + 1)
+                    m_koPoint = m_killed.get(killedSize);
+            }
+            findBlock(m_constants.getBit(p), own, block, tmp);
+            if (! hasLiberty(block, tmp))
+                removeStones(block, own, c, m_suicide);
+            if (m_koPoint != null && ! isSingleStoneSingleLib(p, c))
+                m_koPoint = null;
+            if (c == BLACK)
+            {
+                m_capturedBlack += m_suicide.size();
+                m_capturedWhite += m_killed.size();
+            }
+            else
+            {
+                m_capturedWhite += m_suicide.size();
+                m_capturedBlack += m_killed.size();
+            }
+        }
+        m_toMove = otherColor;
+    }
+
+    /** Return a rotated and/or mirrored copy of this board.
+        The stones are transformed like points in BoardUtil.rotate().
+        The ko point is transformed, too; the last move and the captured
+        stones of the last move are not copied.
+        @param rotationMode The rotation mode in
+        [0..BoardUtil.NUMBER_ROTATIONS]
+        @return The rotated board.
+        @see BoardUtil#rotate */
+    public BitBoard rotate(int rotationMode)
+    {
+        BitBoard result = new BitBoard(this);
+        if (rotationMode == 0)
+            return result;
+        int[] table = m_constants.getRotation(rotationMode);
+        rotateBits(m_black, result.m_black, table);
+        rotateBits(m_white, result.m_white, table);
+        result.m_koPoint =
+            BoardUtil.rotate(rotationMode, m_koPoint, getSize());
+        result.m_hash = Zobrist.compute(result, false);
+        return result;
+    }
+
+    /** Change the color of a point.
+        Used for setup stones. Does not remove blocks without liberties
+        and does not change the color to move.
+        @param p The point.
+        @param c The new color, EMPTY for removing a stone. */
+    public void setColor(GoPoint p, GoColor c)
+    {
+        GoColor old = getColor(p);
+        int bit = m_constants.getBit(p);
+        long mask = ~(1L << bit);
+        m_black[bit >> 6] &= mask;
+        m_white[bit >> 6] &= mask;
+        long[] bits = getBits(c);
+        if (bits != null)
+            set(bits, bit);
+        m_hash ^= Zobrist.getKey(old, p) ^ Zobrist.getKey(c, p);
+    }
+
+    /** Change the color to move.
+        @param toMove The new color to move. */
+    public void setToMove(GoColor toMove)
+    {
+        m_toMove = toMove;
+    }
+
+    /** Constants for a given board size.
+        Instances are shared and immutable. */
+    private static final class Constants
+    {
+        public final int m_size;
+
+        /** Number of longs per color. */
+        public final int m_words;
+
+        public final BoardConstants m_boardConstants;
+
+        /** Bits of all points on the board. */
+        public final long[] m_onBoard;
+
+        /** Bits of all points not in the first column. */
+        public final long[] m_notFirstColumn;
+
+        /** Bits of all points not in the last column. */
+        public final long[] m_notLastColumn;
+
+        public static Constants get(int size)
+        {
+            synchronized (s_constants)
+            {
+                if (s_constants[size] == null)
+                    s_constants[size] = new Constants(size);
+                return s_constants[size];
+            }
+        }
+
+        public void addPoints(long[] bits, PointList points)
+        {
+            for (int i = 0; i < m_words; ++i)
+            {
+                long word = bits[i];
+                while (word != 0)
+                {
+                    int bit = i * 64 + Long.numberOfTrailingZeros(word);
+                    points.add(m_points[bit]);
+                    word &= word - 1;
+                }
+            }
+        }
+
+        public int getBit(GoPoint p)
+        {
+            return p.getY() * m_size + p.getX();
+        }
+
+        /** Compute the points adjacent to a set of points.
+            The result can contain points of the set itself. */
+        public void getNeighbors(long[] bits, long[] result)
+        {
+            int size = m_size;
+            for (int i = 0; i < m_words; ++i)
+            {
+                long word = bits[i];
+                long lower = (i > 0 ? bits[i - 1] : 0);
+                long higher = (i < m_words - 1 ? bits[i + 1] : 0);
+                // Shifting to higher bits moves to the right or up
+                long right = ((word << 1) | (lower >>> 63));
+                long up = ((word << size) | (lower >>> (64 - size)));
+                long left = ((word >>> 1) | (higher << 63));
+                long down = ((word >>> size) | (higher << (64 - size)));
+                result[i] = ((right & m_notFirstColumn[i])
+                             | (left & m_notLastColumn[i])
+                             | up | down) & m_onBoard[i];
+            }
+        }
+
+        public synchronized int[] getRotation(int rotationMode)
+        {
+            if (m_rotation[rotationMode] == null)
+            {
+                int[] table = new int[m_size * m_size];
+                for (int i = 0; i < table.length; ++i)
+                    table[i] = getBit(BoardUtil.rotate(rotationMode,
+                                                       m_points[i], m_size));
+                m_rotation[rotationMode] = table;
+            }
+            return m_rotation[rotationMode];
+        }
+
+        private static final Constants[] s_constants
+            = new Constants[GoPoint.MAX_SIZE + 1];
+
+        private final GoPoint[] m_points;
+
+        private final int[][] m_rotation
+            = new int[BoardUtil.NUMBER_ROTATIONS][];
+
+        private Constants(int size)
+        {
+            assert size > 0 && size <= GoPoint.MAX_SIZE;
+            m_size = size;
+            m_words = (size * size + 63) / 64;
+            m_boardConstants = BoardConstants.get(size);
+            m_onBoard = new long[m_words];
+            m_notFirstColumn = new long[m_words];
+            m_notLastColumn = new long[m_words];
+            m_points = new GoPoint[size * size];
+            for (int x = 0; x < size; ++x)
+                for (int y = 0; y < size; ++y)
+                {
+                    int bit = getBit(GoPoint.get(x, y));
+                    m_points[bit] = GoPoint.get(x, y);
+                    set(m_onBoard, bit);
+                    if (x > 0)
+                        set(m_notFirstColumn, bit);
+                    if (x < size - 1)
+                        set(m_notLastColumn, bit);
+                }
+        }
+    }
+
+    private final Constants m_constants;
+
+    private final long[] m_black;
+
+    private final long[] m_white;
+
+    private GoColor m_toMove;
+
+    private GoPoint m_koPoint;
+
+    private int m_capturedBlack;
+
+    private int m_capturedWhite;
+
+    /** Zobrist hash of the stones without color to move. */
+    private long m_hash;
+
+    private Move m_lastMove;
+
+    private int m_numberPasses;
+
+    /** Stones captured by the last move; created on first call of play(). */
+    private PointList m_killed;
+
+    /** Stones killed by suicide in the last move; created on first call of
+        play(). */
+    private PointList m_suicide;
+
+    /** Find the block containing a point.
+        @param bit The bit index of a point of the block.
+        @param own The bits of the stones of the block color.
+        @param block Result.
+        @param tmp Temporary array for intermediate results. */
+    private void findBlock(int bit, long[] own, long[] block, long[] tmp)
+    {
+        int words = m_constants.m_words;
+        Arrays.fill(block, 0L);
+        set(block, bit);
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            m_constants.getNeighbors(block, tmp);
+            for (int i = 0; i < words; ++i)
+            {
+                long grown = block[i] | (tmp[i] & own[i]);
+                if (grown != block[i])
+                {
+                    block[i] = grown;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private long[] getBits(GoColor c)
+    {
+        if (c == BLACK)
+            return m_black;
+        if (c == WHITE)
+            return m_white;
+        return null;
+    }
+
+    private boolean hasLiberty(long[] block, long[] tmp)
+    {
+        m_constants.getNeighbors(block, tmp);
+        for (int i = 0; i < m_constants.m_words; ++i)
+            if ((tmp[i] & ~m_black[i] & ~m_white[i]) != 0)
+                return true;
+        return false;
+    }
+
+    private static boolean isSet(long[] bits, int bit)
+    {
+        return (bits[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    private boolean isSingleStoneSingleLib(GoPoint point, GoColor color)
+    {
+        if (getColor(point) != color)
+            return false;
+        int lib = 0;
+        for (GoPoint adj : getAdjacent(point))
+        {
+            GoColor adjColor = getColor(adj);
+            if (adjColor == EMPTY)
+            {
+                ++lib;
+                if (lib > 1)
+                    return false;
+            }
+            else if (adjColor == color)
+                return false;
+        }
+        return true;
+    }
+
+    private void removeStones(long[] block, long[] bits, GoColor c,
+                              PointList removed)
+    {
+        int start = removed.size();
+        m_constants.addPoints(block, removed);
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] &= ~block[i];
+        for (int i = start; i < removed.size(); ++i)
+            m_hash ^= Zobrist.getKey(c, removed.get(i));
+    }
+
+    private static void rotateBits(long[] source, long[] target, int[] table)
+    {
+        Arrays.fill(target, 0L);
+        for (int i = 0; i < source.length; ++i)
+        {
+            long word = source[i];
+            while (word != 0)
+            {
+                int bit = i * 64 + Long.numberOfTrailingZeros(word);
+                set(target, table[bit]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    private static void set(long[] bits, int bit)
+    {
+        bits[bit >> 6] |= (1L << bit);
+    }
+}
@@ -3,6 +3,7 @@
 package net.sf.gogui.go;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import net.sf.gogui.gtp.GtpClientBase;
@@ -65,6 +66,43 @@ implements ConstBoard
         return point.isOnBoard(getSize());
     }
 
+    /** Copy the position and move history of another board.
+        Unlike BoardUtil.copy(), the moves are not executed again. The
+        entries of the move history are shared between the boards, so
+        copying is cheap even for long games. A game ruler attached to this
+        board stays attached; the game ruler of the other board is not
+        copied.
+        @param board The board to copy. */
+    public void copyFrom(Board board)
+    {
+        if (board.m_size != m_size)
+            init(board.m_size);
+        releaseStackEntries();
+        m_stack.clear();
+        int nuMoves = board.m_stack.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuMoves; ++i)
+        {
+            StackEntry entry = board.m_stack.get(i);
+            entry.m_shared = true;
+            m_stack.add(entry);
+        }
+        System.arraycopy(board.m_color, 0, m_color, 0, m_color.length);
+        m_hash = board.m_hash;
+        m_setupHash = board.m_setupHash;
+        for (GoColor c : BLACK_WHITE)
+        {
+            m_captured.set(c, board.m_captured.get(c));
+            m_setup.set(c, new PointList(board.m_setup.get(c)));
+        }
+        m_toMove = board.m_toMove;
+        m_setupPlayer = board.m_setupPlayer;
+        m_koPoint = board.m_koPoint;
+        m_isSetupHandicap = board.m_isSetupHandicap;
+        m_lastMoveIndex = board.m_lastMoveIndex;
+        rebuildBlocks();
+    }
+
     /** Get points adjacent to a point.
         @param point The point.
         @return List of points adjacent. */
@@ -102,6 +140,8 @@ implements ConstBoard
     /** Opponent stones captured in last move.
         Does not include player stones killed by suicide.
         Requires that there is a last move (or setup stone).
+        The returned list is reused by the board and only valid until the
+        last move is undone.
         @return List of opponent stones (go.Point) captured in last move;
         empty if none were killed or there is no last move.
         @see #getSuicide() */
@@ -176,6 +216,8 @@ implements ConstBoard
 
     /** Player stones killed by suicide in last move.
         Requires that there is a last move (or setup stone).
+        The returned list is reused by the board and only valid until the
+        last move is undone.
         @return List of stones (go.Point) killed by suicide in last move,
         including the stone played; empty if no stones were killed by suicide
         or if there is no last move.
@@ -194,6 +236,18 @@ implements ConstBoard
         return m_toMove;
     }
 
+    /** Get Zobrist hash code of the current position.
+        The hash code covers all stones on the board and the color to move.
+        It is updated incrementally and can be queried in constant time.
+        @return The hash code.
+        @see Zobrist */
+    public long getZobristHash()
+    {
+        if (m_toMove == WHITE)
+            return m_hash ^ Zobrist.getToMoveKey();
+        return m_hash;
+    }
+
     /** Initialize the board for a given board size.
         For changing the board size.
         Also calls clear().
@@ -204,6 +258,7 @@ implements ConstBoard
         m_size = size;
         m_mark = new Marker(m_size);
         m_constants = BoardConstants.get(size);
+        Arrays.fill(m_block, null);
         clear();
     }
 
@@ -268,6 +323,25 @@ implements ConstBoard
                 || m_toMove != BLACK);
     }
 
+    /** Check if the stones on the board occurred before.
+        Compares the Zobrist hash of the current stone configuration (without
+        the color to move) with the positions after each previous move and
+        with the initial setup position. Can be used to check for a
+        positional superko violation of the last move.
+        @return true, if the current position is a repetition. */
+    public boolean isPositionRepetition()
+    {
+        int n = getNumberMoves();
+        if (n == 0)
+            return false;
+        if (m_setupHash == m_hash)
+            return true;
+        for (int i = 0; i < n - 1; ++i)
+            if (m_stack.get(i).m_hash == m_hash)
+                return true;
+        return false;
+    }
+
     /** Check if the initial setup position was a handicap.
         @return <code>true</code>, if the initial position was setup by
         calling setupHandicap, <code>false</code> otherwise.
@@ -301,8 +375,12 @@ implements ConstBoard
         Takes back the effects of any moves or setup stones on the board. */
     public void clear()
     {
+        clearBlocks();
         for (GoPoint p : this)
             setColor(p, EMPTY);
+        m_hash = 0L;
+        m_setupHash = 0L;
+        releaseStackEntries();
         m_stack.clear();
         for (GoColor c : BLACK_WHITE)
         {
@@ -341,16 +419,14 @@ implements ConstBoard
         @param move The move (location and player) */
     public void play(Move move)
     {
-        StackEntry entry = new StackEntry(move);
+        StackEntry entry = newStackEntry(move);
         entry.execute(this);
         m_stack.add(entry);
     }
     
     public void playGameMove(Move move)
     {
-        StackEntry entry = new StackEntry(move);
-        entry.execute(this);
-        m_stack.add(entry);
+        play(move);
     }
 
     /** Change the color to move.
@@ -391,6 +467,8 @@ implements ConstBoard
                 m_setup.set(c, new PointList(stones));
             }
         }
+        rebuildBlocks();
+        m_setupHash = m_hash;
     }
     
     /**
@@ -402,6 +480,7 @@ implements ConstBoard
         {
             setColor(p, c);
         }
+        rebuildBlocks();
     }
 
     /** Setup initial handicap stones.
@@ -422,8 +501,10 @@ implements ConstBoard
     {
         int index = getNumberMoves() - 1;
         assert index >= 0;
-        m_stack.get(index).undo(this);
-        m_stack.remove(index);
+        StackEntry entry = m_stack.remove(index);
+        entry.undo(this);
+        if (! entry.m_shared)
+            m_freeStackEntries.add(entry);
         m_lastMoveIndex = index;
     }
 
@@ -439,9 +520,23 @@ implements ConstBoard
             undo();
     }
 
+    /** Block of connected stones of the same color. */
+    private static final class Block
+    {
+        public GoColor m_color;
+
+        /** Number of pseudo-liberties.
+            Empty points are counted once for each adjacent stone of the
+            block, so the number is zero exactly if the block has no
+            liberties. */
+        public int m_libs;
+
+        public final PointList m_stones = new PointList(16);
+    }
+
     private static class StackEntry
     {
-        public final Move m_move;
+        public Move m_move;
 
         public GoPoint m_oldKoPoint;
 
@@ -449,27 +544,50 @@ implements ConstBoard
 
         public GoColor m_oldToMove;
 
-        public PointList m_killed;
+        public final PointList m_killed = new PointList();
 
-        public PointList m_suicide;
+        public final PointList m_suicide = new PointList();
 
         public int m_moveIndex = 0;
 
+        /** Zobrist hash of the stones after the move was executed. */
+        public long m_hash;
+
+        /** The blocks could not be updated incrementally by this move.
+            True for moves on occupied points or if a game ruler is
+            attached. */
+        public boolean m_rebuild;
+
+        /** The entry is used by more than one board.
+            Shared entries are not modified and never reused.
+            @see Board#copyFrom */
+        public boolean m_shared;
+
         public StackEntry(Move move)
+        {
+            init(move);
+        }
+
+        /** Reinitialize for reusing a discarded entry. */
+        public final void init(Move move)
         {
             m_move = move;
+            m_moveIndex = 0;
+            m_shared = false;
         }
 
         public void execute(Board board)
         {
-            m_killed = new PointList();
-            m_suicide = new PointList();
+            m_killed.clear();
+            m_suicide.clear();
+            m_rebuild = false;
             m_oldKoPoint = board.m_koPoint;
             board.m_koPoint = null;
             if (m_moveIndex < board.m_stack.size())
                 m_moveIndex = board.m_stack.size();
             if (board.isGameRulerAttached())
             {
+                m_rebuild = true;
                 try {
                     executeGameRules(board);
                 } catch (GtpError e) {
@@ -484,6 +602,7 @@ implements ConstBoard
                 board.m_lastMoveIndex = board.getNumberMoves()-1 ;
             }
             m_moveIndex = board.m_lastMoveIndex;
+            m_hash = board.m_hash;
         }
 
         private void executeGameRules(Board board) throws GtpError
@@ -504,17 +623,32 @@ implements ConstBoard
             if (p != null)
             {
                 m_oldColor = board.getColor(p);
-                board.setColor(p, c);
                 assert c != EMPTY;
-                for (GoPoint adj : board.getAdjacent(p))
+                if (m_oldColor == EMPTY)
+                    board.addStone(p, c);
+                else
+                {
+                    // Replacing a stone can split blocks
+                    m_rebuild = true;
+                    board.setColor(p, c);
+                    board.rebuildBlocks();
+                }
+                ConstPointList adjacent = board.getAdjacent(p);
+                int nuAdjacent = adjacent.size();
+                // Don't use an iterator for efficiency
+                for (int i = 0; i < nuAdjacent; ++i)
                 {
                     int killedSize = m_killed.size();
-                    if (board.getColor(adj) == otherColor)
-                        board.checkKill(adj, m_killed);
+                    Block block = board.m_block[adjacent.get(i).getIndex()];
+                    if (block != null && block.m_color == otherColor
+                        && block.m_libs == 0)
+                        board.removeBlock(block, m_killed);
                     if (m_killed.size() == killedSize + 1)
                         board.m_koPoint = m_killed.get(killedSize);
                 }
-                board.checkKill(p, m_suicide);
+                Block block = board.m_block[p.getIndex()];
+                if (block.m_libs == 0)
+                    board.removeBlock(block, m_suicide);
                 if (board.m_koPoint != null
                     && ! board.isSingleStoneSingleLib(p, c))
                     board.m_koPoint = null;
@@ -536,11 +670,31 @@ implements ConstBoard
             {
                 GoColor c = m_move.getColor();
                 GoColor otherColor = c.otherColor();
-                for (GoPoint stone : m_suicide)
-                    board.setColor(stone, c);
-                board.setColor(p, m_oldColor);
-                for (GoPoint stone : m_killed)
-                    board.setColor(stone, otherColor);
+                if (m_rebuild)
+                {
+                    for (GoPoint stone : m_suicide)
+                        board.setColor(stone, c);
+                    board.setColor(p, m_oldColor);
+                    for (GoPoint stone : m_killed)
+                        board.setColor(stone, otherColor);
+                    board.rebuildBlocks();
+                }
+                else
+                {
+                    int nuSuicide = m_suicide.size();
+                    if (nuSuicide == 0)
+                        board.removeStone(p);
+                    // Don't use an iterator for efficiency
+                    for (int i = 0; i < nuSuicide; ++i)
+                    {
+                        GoPoint stone = m_suicide.get(i);
+                        if (stone != p)
+                            board.addStone(stone, c);
+                    }
+                    int nuKilled = m_killed.size();
+                    for (int i = 0; i < nuKilled; ++i)
+                        board.addStone(m_killed.get(i), otherColor);
+                }
                 board.m_captured.set(c,
                                      board.m_captured.get(c)
                                      - m_suicide.size());
@@ -563,14 +717,27 @@ implements ConstBoard
     private final ArrayList<StackEntry> m_stack
         = new ArrayList<StackEntry>(361);
 
-    /** Temporary variable reused for efficiency. */
-    private final PointList m_checkKillStones = new PointList();
+    /** Discarded stack entries reused for efficiency. */
+    private final ArrayList<StackEntry> m_freeStackEntries
+        = new ArrayList<StackEntry>();
+
+    /** Discarded blocks reused for efficiency. */
+    private final ArrayList<Block> m_freeBlocks = new ArrayList<Block>();
 
     /** Temporary variable reused for efficiency. */
-    private final PointList m_checkKillStack = new PointList();
+    private final PointList m_removeStoneList = new PointList();
 
     private GoColor[] m_color = new GoColor[GoPoint.NUMBER_INDEXES];
 
+    /** Block of each point; null for empty points. */
+    private final Block[] m_block = new Block[GoPoint.NUMBER_INDEXES];
+
+    /** Zobrist hash of the stones on the board without color to move. */
+    private long m_hash;
+
+    /** Zobrist hash of the stones after the last setup or clear. */
+    private long m_setupHash;
+
     private GoColor m_toMove;
 
     private GoColor m_setupPlayer;
@@ -608,51 +775,204 @@ implements ConstBoard
         return true;
     }
 
-    private void checkKill(GoPoint point, PointList killed)
+    /** Place a stone on an empty point and update the blocks.
+        Does not remove any stones without liberties. */
+    private void addStone(GoPoint p, GoColor c)
     {
-        assert m_mark.isCleared();
-        GoColor color = getColor(point);
-        assert color != EMPTY;
-        m_checkKillStack.clear();
-        m_checkKillStack.add(point);
-        m_mark.set(point);
-        m_checkKillStones.clear();
-        boolean isDead = true;
-        // Recursion is unrolled using a stack for efficiency
-        while (isDead && ! m_checkKillStack.isEmpty())
+        assert getColor(p) == EMPTY;
+        setColor(p, c);
+        Block block = newBlock(c);
+        block.m_stones.add(p);
+        m_block[p.getIndex()] = block;
+        ConstPointList adjacent = getAdjacent(p);
+        int nuAdjacent = adjacent.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuAdjacent; ++i)
         {
-            GoPoint p = m_checkKillStack.pop();
-            assert getColor(p) == color;
-            m_checkKillStones.add(p);
-            ConstPointList adjacent = getAdjacent(p);
-            int nuAdjacent = adjacent.size();
-            // Don't use an iterator for efficiency
-            for (int i = 0; i < nuAdjacent; ++i)
+            Block adjBlock = m_block[adjacent.get(i).getIndex()];
+            if (adjBlock == null)
+                ++block.m_libs;
+            else
+                --adjBlock.m_libs;
+        }
+        for (int i = 0; i < nuAdjacent; ++i)
+        {
+            Block adjBlock = m_block[adjacent.get(i).getIndex()];
+            if (adjBlock != null && adjBlock.m_color == c)
+                block = mergeBlocks(block, adjBlock);
+        }
+    }
+
+    /** Release all blocks and mark all points as not belonging to a block.
+        Does not change the colors of the points. */
+    private void clearBlocks()
+    {
+        for (GoPoint p : this)
+        {
+            int index = p.getIndex();
+            Block block = m_block[index];
+            if (block == null)
+                continue;
+            // Release each block only once
+            if (block.m_stones.get(0) == p)
+                m_freeBlocks.add(block);
+            m_block[index] = null;
+        }
+    }
+
+    /** Merge two blocks of the same color.
+        The stones of the smaller block are moved to the larger one.
+        @return The merged block. */
+    private Block mergeBlocks(Block block1, Block block2)
+    {
+        if (block1 == block2)
+            return block1;
+        Block large = block1;
+        Block small = block2;
+        if (small.m_stones.size() > large.m_stones.size())
+        {
+            large = block2;
+            small = block1;
+        }
+        int nuStones = small.m_stones.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuStones; ++i)
+        {
+            GoPoint stone = small.m_stones.get(i);
+            large.m_stones.add(stone);
+            m_block[stone.getIndex()] = large;
+        }
+        large.m_libs += small.m_libs;
+        m_freeBlocks.add(small);
+        return large;
+    }
+
+    private Block newBlock(GoColor c)
+    {
+        int n = m_freeBlocks.size();
+        Block block;
+        if (n == 0)
+            block = new Block();
+        else
+        {
+            block = m_freeBlocks.remove(n - 1);
+            block.m_stones.clear();
+        }
+        block.m_color = c;
+        block.m_libs = 0;
+        return block;
+    }
+
+    /** Make the entries of the move history available for reuse.
+        Shared entries are not reused. Does not clear the move history. */
+    private void releaseStackEntries()
+    {
+        int nuMoves = m_stack.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuMoves; ++i)
+        {
+            StackEntry entry = m_stack.get(i);
+            if (! entry.m_shared)
+                m_freeStackEntries.add(entry);
+        }
+    }
+
+    private StackEntry newStackEntry(Move move)
+    {
+        int n = m_freeStackEntries.size();
+        if (n == 0)
+            return new StackEntry(move);
+        StackEntry entry = m_freeStackEntries.remove(n - 1);
+        entry.init(move);
+        return entry;
+    }
+
+    /** Compute the blocks from scratch.
+        Used after changes to the colors of points that cannot be handled
+        incrementally, like setup stones or moves on occupied points. */
+    private void rebuildBlocks()
+    {
+        clearBlocks();
+        for (GoPoint p : this)
+        {
+            GoColor c = getColor(p);
+            if (c == EMPTY || m_block[p.getIndex()] != null)
+                continue;
+            Block block = newBlock(c);
+            block.m_stones.add(p);
+            m_block[p.getIndex()] = block;
+            // The stone list is extended while iterating and used as queue
+            for (int i = 0; i < block.m_stones.size(); ++i)
             {
-                GoPoint adj = adjacent.get(i);
-                GoColor c = getColor(adj);
-                if (c == EMPTY)
+                ConstPointList adjacent = getAdjacent(block.m_stones.get(i));
+                int nuAdjacent = adjacent.size();
+                for (int j = 0; j < nuAdjacent; ++j)
                 {
-                    isDead = false;
-                    break;
+                    GoPoint adj = adjacent.get(j);
+                    GoColor adjColor = getColor(adj);
+                    if (adjColor == EMPTY)
+                        ++block.m_libs;
+                    else if (adjColor == c && m_block[adj.getIndex()] == null)
+                    {
+                        block.m_stones.add(adj);
+                        m_block[adj.getIndex()] = block;
+                    }
                 }
-                if (m_mark.get(adj) || ! c.equals(color))
-                    continue;
-                m_checkKillStack.add(adj);
-                m_mark.set(adj);
             }
         }
-        if (isDead)
+    }
+
+    /** Remove all stones of a block from the board.
+        @param block The block.
+        @param removed List to append the removed stones to. */
+    private void removeBlock(Block block, PointList removed)
+    {
+        PointList stones = block.m_stones;
+        int nuStones = stones.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuStones; ++i)
         {
-            killed.addAll(m_checkKillStones);
-            int nuKillStones = m_checkKillStones.size();
-            // Don't use an iterator for efficiency
-            for (int i = 0; i < nuKillStones; ++i)
-                setColor(m_checkKillStones.get(i), EMPTY);
+            GoPoint stone = stones.get(i);
+            setColor(stone, EMPTY);
+            m_block[stone.getIndex()] = null;
         }
-        m_mark.clear(m_checkKillStack);
-        m_mark.clear(m_checkKillStones);
-        //assert m_mark.isCleared();
+        for (int i = 0; i < nuStones; ++i)
+        {
+            ConstPointList adjacent = getAdjacent(stones.get(i));
+            int nuAdjacent = adjacent.size();
+            for (int j = 0; j < nuAdjacent; ++j)
+            {
+                Block adjBlock = m_block[adjacent.get(j).getIndex()];
+                if (adjBlock != null)
+                    ++adjBlock.m_libs;
+            }
+        }
+        if (removed != null)
+            for (int i = 0; i < nuStones; ++i)
+                removed.add(stones.get(i));
+        m_freeBlocks.add(block);
+    }
+
+    /** Remove a single stone from the board.
+        The remaining stones of its block are added again, because the
+        block can split into several blocks. */
+    private void removeStone(GoPoint p)
+    {
+        Block block = m_block[p.getIndex()];
+        GoColor c = block.m_color;
+        m_removeStoneList.clear();
+        int nuStones = block.m_stones.size();
+        // Don't use an iterator for efficiency
+        for (int i = 0; i < nuStones; ++i)
+        {
+            GoPoint stone = block.m_stones.get(i);
+            if (stone != p)
+                m_removeStoneList.add(stone);
+        }
+        removeBlock(block, null);
+        nuStones = m_removeStoneList.size();
+        for (int i = 0; i < nuStones; ++i)
+            addStone(m_removeStoneList.get(i), c);
     }
 
     private void findStones(GoPoint p, GoColor color, PointList stones)
@@ -670,7 +990,9 @@ implements ConstBoard
     private void setColor(GoPoint p, GoColor c)
     {
         assert p != null;
-        m_color[p.getIndex()] = c;
+        int index = p.getIndex();
+        m_hash ^= Zobrist.getKey(m_color[index], p) ^ Zobrist.getKey(c, p);
+        m_color[index] = c;
     }
 
     public GtpClientBase getGameRuler() {
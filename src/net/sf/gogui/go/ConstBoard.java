@@ -41,6 +41,8 @@ public interface ConstBoard
 
     GoColor getToMove();
 
+    long getZobristHash();
+
     boolean isCaptureOrSuicide(GoColor c, GoPoint p);
 
     boolean isHandicap(GoPoint point);
@@ -49,6 +51,8 @@ public interface ConstBoard
 
     boolean isModified();
 
+    boolean isPositionRepetition();
+
     boolean isSetupHandicap();
 
     boolean isSuicide(GoColor c, GoPoint p);
@@ -0,0 +1,70 @@
+// Zobrist.java
+
+package net.sf.gogui.go;
+
+import java.util.Random;
+
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+
+/** Random keys for Zobrist hashing of Go positions.
+    The keys are created with a fixed seed, so that hash codes of the same
+    position are identical in different runs and can be stored in files. */
+public final class Zobrist
+{
+    /** Get the key of a stone.
+        @param c The color of the stone.
+        @param p The location of the stone.
+        @return The key; zero for EMPTY or null. */
+    public static long getKey(GoColor c, GoPoint p)
+    {
+        if (c == BLACK)
+            return s_black[p.getIndex()];
+        if (c == WHITE)
+            return s_white[p.getIndex()];
+        return 0L;
+    }
+
+    /** Get the key that is added to the hash if White is to move. */
+    public static long getToMoveKey()
+    {
+        return s_toMove;
+    }
+
+    /** Compute the hash of a board from scratch.
+        Can be used to verify incrementally updated hash codes.
+        @param board The board.
+        @param includeToMove Include the color to move in the hash.
+        @return The hash code. */
+    public static long compute(ConstBoard board, boolean includeToMove)
+    {
+        long hash = 0L;
+        for (GoPoint p : board)
+            hash ^= getKey(board.getColor(p), p);
+        if (includeToMove && board.getToMove() == WHITE)
+            hash ^= s_toMove;
+        return hash;
+    }
+
+    private static final long[] s_black = new long[GoPoint.NUMBER_INDEXES];
+
+    private static final long[] s_white = new long[GoPoint.NUMBER_INDEXES];
+
+    private static final long s_toMove;
+
+    static
+    {
+        Random random = new Random(0x5a0b1a57L);
+        for (int i = 0; i < GoPoint.NUMBER_INDEXES; ++i)
+        {
+            s_black[i] = random.nextLong();
+            s_white[i] = random.nextLong();
+        }
+        s_toMove = random.nextLong();
+    }
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private Zobrist()
+    {
+    }
+}
@@ -26,6 +26,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import static java.text.MessageFormat.format;
 import java.util.ArrayList;
@@ -50,6 +51,7 @@ import net.sf.gogui.game.GameTree;
 import net.sf.gogui.game.GameInfo;
 import net.sf.gogui.game.MarkType;
 import net.sf.gogui.game.NodeUtil;
+import net.sf.gogui.game.PositionCache;
 import net.sf.gogui.game.StringInfo;
 import net.sf.gogui.game.StringInfoColor;
 import net.sf.gogui.game.TimeSettings;
@@ -203,6 +205,11 @@ implements AnalyzeDialog.Listener, GuiBoard.Listener,
         contentPane.add(m_innerPanel, BorderLayout.CENTER);
         m_infoPanel = new JPanel(new BorderLayout());
         m_game = new Game(boardSize);
+        m_game.setPositionCache(new PositionCache(
+            m_prefs.getInt("position-cache-interval",
+                           PositionCache.DEFAULT_INTERVAL),
+            m_prefs.getInt("position-cache-size",
+                           PositionCache.DEFAULT_MAX_SIZE)));
         m_gameInfoPanel = new GameInfoPanel(m_game);
         m_gameInfoPanel.setBorder(GuiUtil.createSmallEmptyBorder());
         m_infoPanel.add(m_gameInfoPanel, BorderLayout.NORTH);
@@ -1055,10 +1062,12 @@ implements AnalyzeDialog.Listener, GuiBoard.Listener,
             showError(i18n("MSG_NO_TEXT_IN_CLIPBOARD"), "", false);
             return;
         }
-        ByteArrayInputStream in = new ByteArrayInputStream(text.getBytes());
         try
         {
-            SgfReader reader = new SgfReader(in, null, null, 0);
+            // Text is already decoded, ignore the charset property
+            ByteArrayInputStream in =
+                new ByteArrayInputStream(text.getBytes("UTF-8"));
+            SgfReader reader = new SgfReader(in, null, null, 0, "UTF-8");
             GameTree tree = reader.getTree();
             m_game.init(tree);
         }
@@ -1066,6 +1075,11 @@ implements AnalyzeDialog.Listener, GuiBoard.Listener,
         {
             showError(i18n("MSG_IMPORT_FAILED"), e);
         }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is supported on every Java platform
+            assert false;
+        }
         m_guiBoard.initSize(getBoard().getSize());
         initGtp();
         m_computerBlack = false;
@@ -4118,7 +4132,8 @@ implements AnalyzeDialog.Listener, GuiBoard.Listener,
             return false;
         GameFile gameFile = new GameFile();
         gameFile.m_file = file;
-        if (FileUtil.hasExtension(file, "xml"))
+        if (FileUtil.hasExtension(GameReader.getUncompressedName(file),
+                                  "xml"))
             gameFile.m_format = GameFile.Format.XML;
         else
             gameFile.m_format = GameFile.Format.SGF;
@@ -10,8 +10,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import net.sf.gogui.go.Move;
 import net.sf.gogui.util.StringUtil;
@@ -98,6 +101,24 @@ public final class GtpClient
                      IOCallback callback)
         throws GtpClient.ExecFailed
     {
+        this(program, workingDirectory, log, callback, null);
+    }
+
+    /** Constructor with multiplexer.
+        @param program Command line for program.
+        @param workingDirectory The working directory to run the program in or
+        null for the current directory
+        @param log Log input, output and error stream to standard error.
+        @param callback Callback for external display of the streams.
+        @param multiplexer Multiplexer for reading the output and error
+        stream of the program, null for using separate threads for this
+        client.
+        @see #GtpClient(String,File,boolean,IOCallback) */
+    public GtpClient(String program, File workingDirectory, boolean log,
+                     IOCallback callback, GtpMultiplexer multiplexer)
+        throws GtpClient.ExecFailed
+    {
+        m_multiplexer = multiplexer;
         if (workingDirectory != null && ! workingDirectory.isDirectory())
             throw new ExecFailed(program,
                                  "Invalid working directory \""
@@ -158,6 +179,7 @@ public final class GtpClient
         m_callback = callback;
         m_program = "-";
         m_process = null;
+        m_multiplexer = null;
         init(in, out, null);
     }
 
@@ -269,6 +291,70 @@ public final class GtpClient
         }
     }
 
+    /** Send a sequence of commands without waiting for the responses.
+        The commands are numbered and up to MAX_PIPELINE commands are
+        written before the first response is read, so that a long sequence
+        of commands (e.g. play commands to synchronize a game) does not
+        need a round-trip to the program for each command. The responses
+        are matched to the commands by their ID.
+        Auto-numbering is always used for the commands, independent of
+        setAutoNumber(). There is no timeout.
+        @param commands The commands.
+        @return The responses and errors of the commands.
+        @throws GtpError If the program died. */
+    public BatchResponse sendBatch(List<String> commands) throws GtpError
+    {
+        int numberCommands = commands.size();
+        BatchResponse result = new BatchResponse(numberCommands);
+        String[] sent = new String[numberCommands];
+        int firstId = m_commandNumber + 1;
+        int numberSent = 0;
+        m_timeoutCallback = null;
+        for (int i = 0; i < numberCommands; ++i)
+        {
+            while (numberSent < numberCommands
+                   && numberSent - i < MAX_PIPELINE)
+            {
+                String command = commands.get(numberSent);
+                assert ! command.trim().equals("");
+                assert ! command.trim().startsWith("#");
+                ++m_commandNumber;
+                command = Integer.toString(m_commandNumber) + " " + command;
+                if (m_log)
+                    logOut(command);
+                m_out.println(command);
+                if (m_callback != null)
+                    m_callback.sentCommand(command);
+                sent[numberSent] = command;
+                ++numberSent;
+            }
+            m_out.flush();
+            int index = i;
+            try
+            {
+                if (m_out.checkError())
+                    throwProgramDied();
+                m_fullResponse = "";
+                m_response = "";
+                String response = readResponse(-1);
+                index = getResponseIndex(firstId, i, numberCommands);
+                result.setResponse(index, response);
+            }
+            catch (GtpError e)
+            {
+                if (m_isProgramDead)
+                {
+                    e.setCommand(sent[i]);
+                    throw e;
+                }
+                index = getResponseIndex(firstId, i, numberCommands);
+                e.setCommand(sent[index]);
+                result.setError(index, e);
+            }
+        }
+        return result;
+    }
+
     public void sendPlay(Move move, long timeout,
                          TimeoutCallback timeoutCallback) throws GtpError
     {
@@ -326,8 +412,13 @@ public final class GtpClient
         try
         {
             m_process.waitFor();
-            m_errorThread.join();
-            m_inputThread.join();
+            if (m_multiplexer != null)
+                m_streamsClosed.await();
+            else
+            {
+                m_errorThread.join();
+                m_inputThread.join();
+            }
         }
         catch (InterruptedException e)
         {
@@ -352,8 +443,13 @@ public final class GtpClient
         }
         try
         {
-            m_errorThread.join(timeout);
-            m_inputThread.join(timeout);
+            if (m_multiplexer != null)
+                m_streamsClosed.await(timeout, TimeUnit.MILLISECONDS);
+            else
+            {
+                m_errorThread.join(timeout);
+                m_inputThread.join(timeout);
+            }
         }
         catch (InterruptedException e)
         {
@@ -377,39 +473,56 @@ public final class GtpClient
         public String m_text;
     }
 
-    private class InputThread
-        extends Thread
+    /** Assembles the lines of the output stream of the program into
+        responses and puts them into the message queue. */
+    private class ResponseParser
     {
-        InputThread(InputStream in, BlockingQueue<Message> queue)
+        public ResponseParser(BlockingQueue<Message> queue)
         {
-            m_in = new BufferedReader(new InputStreamReader(in));
             m_queue = queue;
         }
 
-        public void run()
+        public void handleEndOfStream()
         {
-            try
+            putMessage(null);
+        }
+
+        public void handleLine(String line)
+        {
+            if (m_log)
+                logIn(line);
+            m_buffer.append(line);
+            m_buffer.append('\n');
+            if (m_isInResponse)
             {
-                mainLoop();
+                if (line.equals(""))
+                {
+                    putMessage();
+                    m_isInResponse = false;
+                }
+                return;
             }
-            catch (Throwable t)
+            if (isResponseStart(line))
             {
-                StringUtil.printException(t);
+                m_isInResponse = true;
+                return;
             }
+            if (! line.trim().equals(""))
+            {
+                if (m_callback != null)
+                    m_callback.receivedInvalidResponse(line);
+                if (m_invalidResponseCallback != null)
+                    m_invalidResponseCallback.show(line);
+            }
+            m_buffer.setLength(0);
         }
 
-        private final BufferedReader m_in;
+        private boolean m_isInResponse;
 
         private final BlockingQueue<Message> m_queue;
 
         private final StringBuilder m_buffer = new StringBuilder(1024);
 
-        private void appendBuffer(String line)
-        {
-            m_buffer.append(line);
-            m_buffer.append('\n');
-        }
-
         private boolean isResponseStart(String line)
         {
             if (line.length() < 1)
@@ -418,47 +531,6 @@ public final class GtpClient
             return (c == '=' || c == '?');
         }
 
-        private void mainLoop() throws InterruptedException
-        {
-            while (true)
-            {
-                String line = readLine();
-                if (line == null)
-                {
-                    putMessage(null);
-                    return;
-                }
-                appendBuffer(line);
-                if (! isResponseStart(line))
-                {
-                    if (! line.trim().equals(""))
-                    {
-                        if (m_callback != null)
-                            m_callback.receivedInvalidResponse(line);
-                        if (m_invalidResponseCallback != null)
-                            m_invalidResponseCallback.show(line);
-                    }
-                    m_buffer.setLength(0);
-                    continue;
-                }
-                while (true)
-                {
-                    line = readLine();
-                    appendBuffer(line);
-                    if (line == null)
-                    {
-                        putMessage(null);
-                        return;
-                    }
-                    if (line.equals(""))
-                    {
-                        putMessage();
-                        break;
-                    }
-                }
-            }
-        }
-
         private void putMessage()
         {
             // Calling Thread.yield increases the probability that the IO
@@ -467,8 +539,10 @@ public final class GtpClient
             // before writing the response. The yield costs some performance
             // however and could have a negative effect, if the program
             // writes to stderr immediately after the response (e.g. logging
-            // output during pondering).
-            Thread.yield();
+            // output during pondering). Not needed with a multiplexer,
+            // which reads the error stream before the output stream.
+            if (m_multiplexer == null)
+                Thread.yield();
             putMessage(m_buffer.toString());
             m_buffer.setLength(0);
         }
@@ -484,15 +558,47 @@ public final class GtpClient
                 printInterrupted();
             }
         }
+    }
+
+    private class InputThread
+        extends Thread
+    {
+        InputThread(InputStream in, ResponseParser parser)
+        {
+            m_in = new BufferedReader(new InputStreamReader(in));
+            m_parser = parser;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    String line = readLine();
+                    if (line == null)
+                    {
+                        m_parser.handleEndOfStream();
+                        return;
+                    }
+                    m_parser.handleLine(line);
+                }
+            }
+            catch (Throwable t)
+            {
+                StringUtil.printException(t);
+            }
+        }
+
+        private final BufferedReader m_in;
+
+        private final ResponseParser m_parser;
 
         private String readLine()
         {
             try
             {
-                String line = m_in.readLine();
-                if (m_log && line != null)
-                    logIn(line);
-                return line;
+                return m_in.readLine();
             }
             catch (IOException e)
             {
@@ -504,10 +610,9 @@ public final class GtpClient
     private class ErrorThread
         extends Thread
     {
-        public ErrorThread(InputStream in, BlockingQueue<Message> queue)
+        public ErrorThread(InputStream in)
         {
             m_in = new InputStreamReader(in);
-            m_queue = queue;
         }
 
         public void run()
@@ -528,11 +633,7 @@ public final class GtpClient
                     }
                     if (n <= 0)
                         return;
-                    String text = new String(buffer, 0, n);
-                    if (m_callback != null)
-                        m_callback.receivedStdErr(text);
-                    if (m_log)
-                        logError(text);
+                    handleStdErr(new String(buffer, 0, n));
                 }
             }
             catch (Throwable t)
@@ -544,6 +645,72 @@ public final class GtpClient
         private final Reader m_in;
     }
 
+    /** Splits the output stream of the program into lines, if it is read
+        by a multiplexer. */
+    private class OutputHandler
+        implements GtpMultiplexer.Handler
+    {
+        public OutputHandler(ResponseParser parser)
+        {
+            m_parser = parser;
+        }
+
+        public void closed()
+        {
+            if (m_line.length() > 0)
+                handleLine();
+            m_parser.handleEndOfStream();
+            m_streamsClosed.countDown();
+        }
+
+        public void received(char[] buffer, int length)
+        {
+            for (int i = 0; i < length; ++i)
+            {
+                char c = buffer[i];
+                if (c == '\n')
+                    handleLine();
+                else
+                    m_line.append(c);
+            }
+        }
+
+        private final ResponseParser m_parser;
+
+        private final StringBuilder m_line = new StringBuilder(256);
+
+        private void handleLine()
+        {
+            int length = m_line.length();
+            if (length > 0 && m_line.charAt(length - 1) == '\r')
+                m_line.setLength(length - 1);
+            m_parser.handleLine(m_line.toString());
+            m_line.setLength(0);
+        }
+    }
+
+    /** Handles the error stream of the program, if it is read by a
+        multiplexer. */
+    private class ErrorHandler
+        implements GtpMultiplexer.Handler
+    {
+        public void closed()
+        {
+            m_streamsClosed.countDown();
+        }
+
+        public void received(char[] buffer, int length)
+        {
+            handleStdErr(new String(buffer, 0, length));
+        }
+    }
+
+    /** Maximum number of commands sent by sendBatch() before waiting for
+        a response.
+        Limits the amount of data buffered in the pipes, because the program
+        could block writing responses, while it is not reading commands. */
+    private static final int MAX_PIPELINE = 64;
+
     private InvalidResponseCallback m_invalidResponseCallback;
 
     private boolean m_autoNumber;
@@ -580,20 +747,74 @@ public final class GtpClient
 
     private ErrorThread m_errorThread;
 
+    private final GtpMultiplexer m_multiplexer;
+
+    /** Counts down the open streams if a multiplexer is used. */
+    private final CountDownLatch m_streamsClosed = new CountDownLatch(2);
+
+    private void handleStdErr(String text)
+    {
+        if (m_callback != null)
+            m_callback.receivedStdErr(text);
+        if (m_log)
+            logError(text);
+    }
+
     private void init(InputStream in, OutputStream out, InputStream err)
     {
         m_out = new PrintWriter(out);
         m_isProgramDead = false;
+        if (m_multiplexer != null)
+        {
+            // The queue must not block the multiplexer thread
+            m_queue = new LinkedBlockingQueue<Message>();
+            ResponseParser parser = new ResponseParser(m_queue);
+            // Add error stream first, such that it is read before the
+            // output stream
+            m_multiplexer.add(err, m_process, new ErrorHandler());
+            m_multiplexer.add(in, m_process, new OutputHandler(parser));
+            return;
+        }
         m_queue = new ArrayBlockingQueue<Message>(10);
-        m_inputThread = new InputThread(in, m_queue);
+        m_inputThread = new InputThread(in, new ResponseParser(m_queue));
         if (err != null)
         {
-            m_errorThread = new ErrorThread(err, m_queue);
+            m_errorThread = new ErrorThread(err);
             m_errorThread.start();
         }
         m_inputThread.start();
     }
 
+    /** Get the index of the command in sendBatch() that the last response
+        belongs to.
+        Uses the ID of the response, if it has a valid one, otherwise
+        assumes that the program responds in the order of the commands.
+        @param firstId The ID of the first command.
+        @param defaultIndex The index if the response has no valid ID.
+        @param numberCommands The number of commands.
+        @return The index of the command. */
+    private int getResponseIndex(int firstId, int defaultIndex,
+                                 int numberCommands)
+    {
+        String response = m_fullResponse;
+        int end = 1;
+        while (end < response.length()
+               && Character.isDigit(response.charAt(end)))
+            ++end;
+        if (end == 1)
+            return defaultIndex;
+        try
+        {
+            int index = Integer.parseInt(response.substring(1, end)) - firstId;
+            if (index >= 0 && index < numberCommands)
+                return index;
+        }
+        catch (NumberFormatException e)
+        {
+        }
+        return defaultIndex;
+    }
+
     private synchronized void logError(String text)
     {
         System.err.print(text);
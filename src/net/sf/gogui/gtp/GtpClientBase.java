@@ -4,6 +4,7 @@ package net.sf.gogui.gtp;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.BLACK;
@@ -20,6 +21,60 @@ import net.sf.gogui.util.StringUtil;
     commands. */
 public abstract class GtpClientBase
 {
+    /** Responses to a sequence of commands sent with sendBatch(). */
+    public static final class BatchResponse
+    {
+        public BatchResponse(int numberCommands)
+        {
+            m_responses = new String[numberCommands];
+            m_errors = new GtpError[numberCommands];
+        }
+
+        /** Throw the error of the first failed command, if any. */
+        public void checkErrors() throws GtpError
+        {
+            for (int i = 0; i < m_errors.length; ++i)
+                if (m_errors[i] != null)
+                    throw m_errors[i];
+        }
+
+        /** Get the error of a command.
+            @param i The index of the command.
+            @return The error or null, if the command succeeded. */
+        public GtpError getError(int i)
+        {
+            return m_errors[i];
+        }
+
+        public int getNumberCommands()
+        {
+            return m_responses.length;
+        }
+
+        /** Get the response of a command.
+            @param i The index of the command.
+            @return The response text of the successful response not
+            including the status character, null if the command failed. */
+        public String getResponse(int i)
+        {
+            return m_responses[i];
+        }
+
+        public void setError(int i, GtpError error)
+        {
+            m_errors[i] = error;
+        }
+
+        public void setResponse(int i, String response)
+        {
+            m_responses[i] = response;
+        }
+
+        private final String[] m_responses;
+
+        private final GtpError[] m_errors;
+    }
+
     /** Close output connection.
         Should do nothing if the concrete class does not communicate through
         streams. */
@@ -298,6 +353,32 @@ public abstract class GtpClientBase
         @throws GtpError containing the response if the command fails. */
     public abstract String send(String command) throws GtpError;
 
+    /** Send a sequence of commands.
+        All commands are sent, even if some of them fail. The default
+        implementation sends the commands one after the other; subclasses
+        can send the commands without waiting for the responses.
+        @param commands The commands.
+        @return The responses and errors of the commands.
+        @throws GtpError If the program died. */
+    public BatchResponse sendBatch(List<String> commands) throws GtpError
+    {
+        BatchResponse response = new BatchResponse(commands.size());
+        for (int i = 0; i < commands.size(); ++i)
+        {
+            try
+            {
+                response.setResponse(i, send(commands.get(i)));
+            }
+            catch (GtpError e)
+            {
+                if (isProgramDead())
+                    throw e;
+                response.setError(i, e);
+            }
+        }
+        return response;
+    }
+
     /** Send comment.
         @param comment comment line (must start with '#'). */
     public abstract void sendComment(String comment);
@@ -0,0 +1,253 @@
+// GtpMultiplexer.java
+
+package net.sf.gogui.gtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import net.sf.gogui.util.StringUtil;
+
+/** Reads the output and error streams of many Go programs in a single
+    thread.
+    By default, each GtpClient uses two threads to read the output and error
+    stream of its program. If many programs run at the same time (e.g. in
+    gogui-twogtp with many threads), a GtpMultiplexer can be given to the
+    constructor of GtpClient instead, which reads the streams of all its
+    clients in one thread.
+    The streams of processes cannot be used with a java.nio selector, so the
+    thread polls the streams for available data and sleeps for a short time
+    (up to MAX_SLEEP milliseconds) if no data was available. This adds a
+    small latency to the responses, which is usually irrelevant compared to
+    the time needed by the programs for generating moves. */
+public final class GtpMultiplexer
+{
+    /** Maximum time in milliseconds to sleep if no stream had data. */
+    public static final int MAX_SLEEP = 5;
+
+    /** Handler for the data read from a stream.
+        The functions are called from the thread of the multiplexer. */
+    interface Handler
+    {
+        void received(char[] buffer, int length);
+
+        /** The end of the stream was reached.
+            No more data will be received. */
+        void closed();
+    }
+
+    /** Get the number of streams currently read by the multiplexer. */
+    public synchronized int getNumberStreams()
+    {
+        return m_streams.size();
+    }
+
+    /** Add a stream of a process.
+        @param in The stream.
+        @param process The process. The end of the stream is detected after
+        the process has terminated.
+        @param handler Handler for the data of the stream. */
+    synchronized void add(InputStream in, Process process, Handler handler)
+    {
+        m_streams.add(new Stream(in, process, handler));
+        if (m_thread == null)
+        {
+            m_thread = new Thread("GtpMultiplexer")
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            mainLoop();
+                        }
+                        catch (Throwable t)
+                        {
+                            StringUtil.printException(t);
+                        }
+                    }
+                };
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+        else
+            notifyAll();
+    }
+
+    /** A stream of a process.
+        Reads raw bytes, which is possible without blocking, and decodes
+        them itself. A Reader could not be used for polling, because it
+        reads more bytes than it returns characters and InputStream.available
+        does not know about the bytes in the buffer of the Reader. */
+    private static final class Stream
+    {
+        public Stream(InputStream in, Process process, Handler handler)
+        {
+            m_in = in;
+            m_process = process;
+            m_handler = handler;
+            m_decoder = Charset.defaultCharset().newDecoder();
+            m_decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            m_decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /** Read the available data.
+            Never blocks. Only reads the bytes reported by
+            InputStream.available(); the stream is closed at its end or if
+            the process has terminated and no more data is available.
+            @return true, if data was read or the stream was closed. */
+        public boolean poll(char[] buffer)
+        {
+            try
+            {
+                // Query the process state first, the process could write
+                // more data and terminate after the call to available()
+                boolean isAlive = m_process.isAlive();
+                int available = m_in.available();
+                if (available > 0)
+                {
+                    if (read(Math.min(available, m_bytes.remaining())) < 0)
+                    {
+                        close(buffer);
+                        return true;
+                    }
+                    decode(buffer, false);
+                    return true;
+                }
+                if (isAlive)
+                    return false;
+            }
+            catch (IOException e)
+            {
+            }
+            close(buffer);
+            return true;
+        }
+
+        public boolean isClosed()
+        {
+            return m_isClosed;
+        }
+
+        private boolean m_isClosed;
+
+        private final ByteBuffer m_bytes = ByteBuffer.allocate(4096);
+
+        private final CharsetDecoder m_decoder;
+
+        private final InputStream m_in;
+
+        private final Process m_process;
+
+        private final Handler m_handler;
+
+        private void close(char[] buffer)
+        {
+            m_isClosed = true;
+            decode(buffer, true);
+            try
+            {
+                m_in.close();
+            }
+            catch (IOException e)
+            {
+            }
+            m_handler.closed();
+        }
+
+        /** Decode the bytes in m_bytes and pass the characters to the
+            handler.
+            Bytes of an incomplete character are kept in m_bytes, unless
+            endOfInput is true. */
+        private void decode(char[] buffer, boolean endOfInput)
+        {
+            CharBuffer chars = CharBuffer.wrap(buffer);
+            m_bytes.flip();
+            CoderResult result;
+            do
+            {
+                result = m_decoder.decode(m_bytes, chars, endOfInput);
+                deliver(buffer, chars);
+            }
+            while (result.isOverflow());
+            if (endOfInput)
+                do
+                {
+                    result = m_decoder.flush(chars);
+                    deliver(buffer, chars);
+                }
+                while (result.isOverflow());
+            m_bytes.compact();
+        }
+
+        private void deliver(char[] buffer, CharBuffer chars)
+        {
+            if (chars.position() > 0)
+            {
+                m_handler.received(buffer, chars.position());
+                chars.clear();
+            }
+        }
+
+        /** Read at most length bytes into m_bytes.
+            @return The number of bytes read, -1 at the end of the
+            stream. */
+        private int read(int length) throws IOException
+        {
+            int n = m_in.read(m_bytes.array(), m_bytes.position(), length);
+            if (n > 0)
+                m_bytes.position(m_bytes.position() + n);
+            return n;
+        }
+    }
+
+    private Thread m_thread;
+
+    private final ArrayList<Stream> m_streams = new ArrayList<Stream>();
+
+    private void mainLoop() throws InterruptedException
+    {
+        char[] buffer = new char[4096];
+        ArrayList<Stream> streams = new ArrayList<Stream>();
+        int sleep = 0;
+        while (true)
+        {
+            synchronized (this)
+            {
+                while (m_streams.isEmpty())
+                    wait();
+                streams.clear();
+                streams.addAll(m_streams);
+            }
+            boolean anyData = false;
+            // Don't use an iterator for efficiency
+            for (int i = 0; i < streams.size(); ++i)
+            {
+                Stream stream = streams.get(i);
+                if (stream.poll(buffer))
+                    anyData = true;
+                if (stream.isClosed())
+                    remove(stream);
+            }
+            if (anyData)
+                sleep = 0;
+            else
+            {
+                if (sleep == 0)
+                    Thread.yield();
+                else
+                    Thread.sleep(sleep);
+                sleep = Math.min(sleep + 1, MAX_SLEEP);
+            }
+        }
+    }
+
+    private synchronized void remove(Stream stream)
+    {
+        m_streams.remove(stream);
+    }
+}
@@ -311,13 +311,26 @@ public class GtpSynchronizer
             for (int i = 0; i < moves.size(); ++i)
                 m_engineState.play(moves.get(i));
         }
+        else if (moves.size() == 1)
+        {
+            play(moves.get(0));
+            updateListener();
+        }
         else
         {
+            ArrayList<String> commands = new ArrayList<String>(moves.size());
             for (int i = 0; i < moves.size(); ++i)
-            {
-                play(moves.get(i));
-                updateListener();
-            }
+                commands.add(m_gtp.getCommandPlay(moves.get(i)));
+            GtpClientBase.BatchResponse response = m_gtp.sendBatch(commands);
+            // All commands were sent, the program skipped only the failed
+            // moves
+            for (int i = 0; i < moves.size(); ++i)
+                if (response.getError(i) == null)
+                {
+                    m_engineState.play(moves.get(i));
+                    updateListener();
+                }
+            response.checkErrors();
         }
     }
 
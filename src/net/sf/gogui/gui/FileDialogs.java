@@ -323,9 +323,14 @@ class SgfPreview
             if (file != null)
             {
                 String name = file.getAbsolutePath();
+                if (name != null)
+                {
+                    name = name.toLowerCase(Locale.ENGLISH);
+                    if (name.endsWith(".gz"))
+                        name = name.substring(0, name.length() - 3);
+                }
                 if (name == null
-                    || ! (name.toLowerCase(Locale.ENGLISH).endsWith(".sgf")
-                          || name.toLowerCase(Locale.ENGLISH).endsWith(".xml")))
+                    || ! (name.endsWith(".sgf") || name.endsWith(".xml")))
                     file = null;
             }
             m_file = file;
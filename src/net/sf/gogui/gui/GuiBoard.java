@@ -21,6 +21,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
+import java.util.ArrayList;
 import javax.swing.JPanel;
 import net.sf.gogui.boardpainter.BoardPainter;
 import net.sf.gogui.boardpainter.ConstField;
@@ -29,6 +30,7 @@ import net.sf.gogui.go.BoardConstants;
 import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.GoPoint;
+import net.sf.gogui.go.PointList;
 import net.sf.gogui.gogui.GoGui.Orientation;
 import net.sf.gogui.util.ObjectUtil;
 
@@ -274,6 +276,9 @@ public final class GuiBoard
         m_size = size;
         m_constants = BoardConstants.get(size);
         m_field = new Field[size][size];
+        m_paintedField = new Field[size][size];
+        m_changed = new boolean[size][size];
+        m_changedPoints.clear();
         removeAll();
         m_cursor = null;
         setLayout(new SquareLayout());
@@ -353,7 +358,10 @@ public final class GuiBoard
             });
         for (int y = size - 1; y >= 0; --y)
             for (int x = 0; x < size; ++x)
+            {
                 m_field[x][y] = new Field();
+                m_paintedField[x][y] = new Field();
+            }
         m_lastMove = null;
         setCursor(GoPoint.get(m_size / 2, m_size / 2));
         revalidate();
@@ -664,49 +672,24 @@ public final class GuiBoard
         {
             if (DEBUG_REPAINT)
                 System.err.println("paintImmediately " + point);
-            Point location = m_painter.getLocation(point.getX(), point.getY());
-            Rectangle dirty = new Rectangle();
-            dirty.x = location.x;
-            dirty.y = location.y;
-            int offset = m_painter.getShadowOffset()
-                - Field.getStoneMargin(m_painter.getFieldSize());
-            dirty.width = m_painter.getFieldSize() + offset;
-            dirty.height = m_painter.getFieldSize() + offset;
-            addDirty(dirty);
-            Rectangle oldDirty = m_dirty;
-            m_dirty = dirty;
-            paintImmediately(dirty);
-            m_dirty = oldDirty;
+            addChanged(point);
+            paintImmediately(getFieldRectangle(point, true));
         }
 
         public void repaint(GoPoint point)
         {
             if (DEBUG_REPAINT)
                 System.err.println("repaint " + point);
-            Point location = m_painter.getLocation(point.getX(), point.getY());
-            Rectangle dirty = new Rectangle();
-            dirty.x = location.x;
-            dirty.y = location.y;
-            dirty.width = m_painter.getFieldSize();
-            dirty.height = m_painter.getFieldSize();
-            addDirty(dirty);
-            repaint(dirty);
+            addChanged(point);
+            repaint(getFieldRectangle(point, false));
         }
 
         public void repaintWithShadow(GoPoint point)
         {
             if (DEBUG_REPAINT)
                 System.err.println("repaintWithShadow " + point);
-            Point location = m_painter.getLocation(point.getX(), point.getY());
-            Rectangle dirty = new Rectangle();
-            dirty.x = location.x;
-            dirty.y = location.y;
-            int offset = m_painter.getShadowOffset()
-                - Field.getStoneMargin(m_painter.getFieldSize());
-            dirty.width = m_painter.getFieldSize() + offset;
-            dirty.height = m_painter.getFieldSize() + offset;
-            addDirty(dirty);
-            repaint(dirty);
+            addChanged(point);
+            repaint(getFieldRectangle(point, true));
         }
 
         public final void setPreferredFieldSize()
@@ -721,6 +704,12 @@ public final class GuiBoard
 
     private static final boolean DEBUG_REPAINT = false;
 
+    /** Maximum number of changed fields that are drawn separately.
+        If more fields changed, the bounding rectangle of all changed fields
+        is drawn at once, which is faster than drawing each field with a
+        separate clip rectangle. */
+    private static final int MAX_CHANGED_FIELDS = 64;
+
     private boolean m_flipHorizontal = false;
 
     private boolean m_flipVertical = false;
@@ -751,18 +740,32 @@ public final class GuiBoard
 
     private Field m_field[][];
 
+    /** State of the fields when they were last drawn into m_image. */
+    private Field m_paintedField[][];
+
+    /** Fields that were possibly changed since the last drawImage().
+        Used to draw only fields whose state differs from m_paintedField
+        (a field that was changed and changed back, e.g. by clearAll() and
+        updating the board afterwards, is not drawn). */
+    private boolean m_changed[][];
+
+    private final PointList m_changedPoints = new PointList();
+
     private Image m_image;
 
     private Listener m_listener;
 
+    /** Region of m_image that needs to be drawn completely, e.g. after
+        resizing. */
     private Rectangle m_dirty = new Rectangle();
 
-    private void addDirty(Rectangle rectangle)
+    private void addChanged(GoPoint point)
     {
-        if (m_dirty == null)
-            m_dirty = rectangle;
-        else
-            m_dirty.add(rectangle);
+        if (! m_changed[point.getX()][point.getY()])
+        {
+            m_changed[point.getX()][point.getY()] = true;
+            m_changedPoints.add(point);
+        }
     }
 
     private void clearLastMove()
@@ -778,16 +781,51 @@ public final class GuiBoard
 
     private void drawImage()
     {
-        if (m_image == null || m_dirty == null)
+        if (m_image == null)
             return;
-        if (DEBUG_REPAINT)
-            System.err.println("BoardPanel.drawImage " + m_dirty.x + " "
-                               + m_dirty.y + " " + m_dirty.width + " "
-                               + m_dirty.height);
-        Graphics graphics = m_image.getGraphics();
-        graphics.setClip(m_dirty);
-        m_painter.draw(graphics, m_field, m_imageWidth, m_showGrid);
+        ArrayList<Rectangle> dirty = new ArrayList<Rectangle>();
+        if (m_dirty != null)
+            dirty.add(m_dirty);
+        for (GoPoint point : m_changedPoints)
+        {
+            int x = point.getX();
+            int y = point.getY();
+            m_changed[x][y] = false;
+            Field field = m_field[x][y];
+            Field paintedField = m_paintedField[x][y];
+            if (field.equals(paintedField))
+                continue;
+            boolean withShadow =
+                (field.getColor() != paintedField.getColor()
+                 || field.getGhostStone() != paintedField.getGhostStone());
+            dirty.add(getFieldRectangle(point, withShadow));
+            paintedField.set(field);
+        }
+        m_changedPoints.clear();
+        if (dirty.size() > 1
+            && (m_dirty != null || dirty.size() > MAX_CHANGED_FIELDS))
+        {
+            Rectangle bounds = dirty.get(0);
+            for (Rectangle rectangle : dirty)
+                bounds.add(rectangle);
+            dirty.clear();
+            dirty.add(bounds);
+        }
         m_dirty = null;
+        if (dirty.isEmpty())
+            return;
+        Graphics graphics = m_image.getGraphics();
+        for (Rectangle rectangle : dirty)
+        {
+            if (DEBUG_REPAINT)
+                System.err.println("BoardPanel.drawImage " + rectangle.x
+                                   + " " + rectangle.y + " "
+                                   + rectangle.width + " "
+                                   + rectangle.height);
+            graphics.setClip(rectangle);
+            m_painter.draw(graphics, m_field, m_imageWidth, m_showGrid);
+        }
+        graphics.dispose();
     }
 
     private void fieldClicked(GoPoint p, boolean modifiedSelect)
@@ -882,6 +920,24 @@ public final class GuiBoard
         setCursor(point);
     }
 
+    /** Get the rectangle of a field in m_image.
+        @param withShadow Include the region of the shadow of a stone,
+        which extends into the neighboring fields. */
+    private Rectangle getFieldRectangle(GoPoint point, boolean withShadow)
+    {
+        Point location = m_painter.getLocation(point.getX(), point.getY());
+        Rectangle rectangle = new Rectangle();
+        rectangle.x = location.x;
+        rectangle.y = location.y;
+        int offset = 0;
+        if (withShadow)
+            offset = m_painter.getShadowOffset()
+                - Field.getStoneMargin(m_painter.getFieldSize());
+        rectangle.width = m_painter.getFieldSize() + offset;
+        rectangle.height = m_painter.getFieldSize() + offset;
+        return rectangle;
+    }
+
     private void repaint(GoPoint point)
     {
         m_panel.repaint(point);
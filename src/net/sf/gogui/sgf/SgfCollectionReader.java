@@ -0,0 +1,191 @@
+// SgfCollectionReader.java
+
+package net.sf.gogui.sgf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.IOException;
+import net.sf.gogui.game.GameTree;
+import net.sf.gogui.util.FileUtil;
+
+/** Reader for SGF files containing a collection of game trees.
+    Reads one tree at a time from the stream, so that the memory use does
+    not depend on the number of trees in the file. The charset of the
+    stream is taken from the charset property of the first tree (see
+    SgfReader), and used for all trees.
+    If a tree cannot be read, the reader skips the rest of the tree, so that
+    the next call of readNext() returns the following tree. */
+public final class SgfCollectionReader
+{
+    /** Constructor.
+        @param in Stream to read from.
+        @param file File name for error messages (may be null) */
+    public SgfCollectionReader(InputStream in, File file)
+    {
+        this(in, file, null);
+    }
+
+    /** Constructor.
+        @param in Stream to read from.
+        @param file File name for error messages (may be null)
+        @param charset The charset of the stream, null for using the
+        charset property of the first tree. */
+    public SgfCollectionReader(InputStream in, File file, String charset)
+    {
+        m_reader = new SgfReader(in, file, charset);
+    }
+
+    /** Constructor for reading from a file.
+        Files with the extension FileUtil.GZIP_EXTENSION are decompressed.
+        @param file The file. */
+    public SgfCollectionReader(File file) throws SgfError
+    {
+        this(openFile(file), file);
+    }
+
+    /** Close the stream. */
+    public void close()
+    {
+        m_reader.close();
+    }
+
+    /** Get the file of a tree name.
+        @param treeName A name returned by getTreeName()
+        @return The file containing the tree. */
+    public static File getFile(String treeName)
+    {
+        int pos = getSuffixIndex(treeName);
+        if (pos < 0)
+            return new File(treeName);
+        return new File(treeName.substring(0, pos));
+    }
+
+    /** Get the number of trees read so far.
+        Includes trees that could not be read because of an error. */
+    public int getNumberTrees()
+    {
+        return m_reader.getNumberTrees();
+    }
+
+    /** Get a name for a tree in a file for use in tables and messages.
+        @param file The file name.
+        @param treeNumber The number of the tree in the file, starting with
+        1 (i.e. the value of getNumberTrees() after reading the tree).
+        @return The file name for the first tree in the file, otherwise the
+        file name with '#' and the tree number appended. */
+    public static String getTreeName(String file, int treeNumber)
+    {
+        if (treeNumber <= 1)
+            return file;
+        return file + "#" + treeNumber;
+    }
+
+    /** Get warnings that occurred during reading the last tree.
+        @return String with warning messages or null if no warnings. */
+    public String getWarnings()
+    {
+        return m_reader.getWarnings();
+    }
+
+    /** Read the next tree.
+        @return The tree or null, if there are no more trees in the
+        stream.
+        @throws SgfError If reading the tree fails. */
+    public GameTree readNext() throws SgfError
+    {
+        try
+        {
+            return m_reader.readNextTree();
+        }
+        catch (SgfError e)
+        {
+            m_reader.skipTree();
+            throw e;
+        }
+    }
+
+    /** Read a tree by name.
+        @param treeName A name returned by getTreeName()
+        @return The tree.
+        @throws SgfError If the tree cannot be read or the file contains
+        less trees. */
+    public static GameTree readTree(String treeName) throws SgfError
+    {
+        int treeNumber = 1;
+        int pos = getSuffixIndex(treeName);
+        if (pos >= 0)
+            treeNumber = Integer.parseInt(treeName.substring(pos + 1));
+        File file = getFile(treeName);
+        SgfCollectionReader reader = new SgfCollectionReader(file);
+        try
+        {
+            while (true)
+            {
+                GameTree tree;
+                try
+                {
+                    tree = reader.readNext();
+                }
+                catch (SgfError e)
+                {
+                    // Errors in other trees are ignored
+                    if (reader.getNumberTrees() == treeNumber)
+                        throw e;
+                    continue;
+                }
+                if (tree == null)
+                    throw new SgfError(file.getName() + ": no tree "
+                                       + treeNumber);
+                if (reader.getNumberTrees() == treeNumber)
+                    return tree;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /** Skip the next tree.
+        Much faster than readNext(), because no nodes are created. Can be
+        used for counting the trees in a file.
+        @return false, if there are no more trees in the stream. */
+    public boolean skipNext() throws SgfError
+    {
+        return m_reader.skipNextTree();
+    }
+
+    private final SgfReader m_reader;
+
+    /** Get the index of the '#' of a tree number suffix in a tree name.
+        @return The index or -1, if the name has no tree number suffix or
+        is the name of an existing file. */
+    private static int getSuffixIndex(String treeName)
+    {
+        int pos = treeName.lastIndexOf('#');
+        if (pos < 0 || pos == treeName.length() - 1
+            || new File(treeName).exists())
+            return -1;
+        for (int i = pos + 1; i < treeName.length(); ++i)
+            if (! Character.isDigit(treeName.charAt(i)))
+                return -1;
+        return pos;
+    }
+
+    private static InputStream openFile(File file) throws SgfError
+    {
+        try
+        {
+            return FileUtil.openInputStream(file);
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new SgfError("File not found: " + file);
+        }
+        catch (IOException e)
+        {
+            throw new SgfError(file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,396 @@
+// SgfLexer.java
+
+package net.sf.gogui.sgf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/** Splits an SGF stream into tokens.
+    Works directly on the bytes of the stream. The bytes of property values
+    are stored in a buffer that is reused for all nodes, so that strings are
+    only created for values that are needed as strings.
+    Only works for charsets, in which the bytes of the SGF special characters
+    (brackets, backslash, parentheses, semicolon and line breaks) cannot occur
+    as part of multi-byte characters. Streams in other charsets need to be
+    converted with toUtf8(). */
+final class SgfLexer
+{
+    /** Token type for end of stream. */
+    public static final int EOF = -1;
+
+    /** Token type for a property identifier. */
+    public static final int WORD = -3;
+
+    public SgfLexer(InputStream in)
+    {
+        m_in = in;
+        m_mapped = null;
+    }
+
+    /** Construct lexer for the bytes of a buffer.
+        Allows to change the position with setPosition(), e.g. for
+        memory-mapped files. */
+    public SgfLexer(ByteBuffer buffer)
+    {
+        m_in = null;
+        m_mapped = buffer;
+        m_mapped.position(0);
+    }
+
+    /** Check if the lexer can be used for a charset.
+        True for UTF-8 and all charsets using a single byte per
+        character. */
+    public static boolean canUse(Charset charset)
+    {
+        if (charset.name().equals("UTF-8"))
+            return true;
+        return (charset.canEncode()
+                && charset.newEncoder().maxBytesPerChar() == 1f);
+    }
+
+    /** Remove all values from the value buffer. */
+    public void clearValues()
+    {
+        m_valuesLength = 0;
+    }
+
+    /** Close the stream. */
+    public void close() throws IOException
+    {
+        if (m_in != null)
+            m_in.close();
+    }
+
+    /** Compare two values in the value buffer. */
+    public boolean equalValues(int start1, int length1, int start2,
+                               int length2)
+    {
+        if (length1 != length2)
+            return false;
+        for (int i = 0; i < length1; ++i)
+            if (m_values[start1 + i] != m_values[start2 + i])
+                return false;
+        return true;
+    }
+
+    /** Get the position in the stream.
+        @return The position of the last token if it was pushed back,
+        the position after the last token otherwise. */
+    public long getPosition()
+    {
+        if (m_isPushedBack)
+            return m_tokenPosition;
+        return m_offset + m_position;
+    }
+
+    /** Get a byte of the value buffer. */
+    public byte getValueByte(int index)
+    {
+        return m_values[index];
+    }
+
+    /** Get the length of the value buffer.
+        The start index of the next value read with readValue(). */
+    public int getValuesLength()
+    {
+        return m_valuesLength;
+    }
+
+    /** Decode a value in the value buffer. */
+    public String getValue(int start, int length, Charset charset)
+    {
+        return new String(m_values, start, length, charset);
+    }
+
+    /** Get the property identifier of the last WORD token.
+        Converted to upper case. Strings of identifiers with up to two
+        ASCII letters are interned and cached. */
+    public String getWord()
+    {
+        if (m_wordLength <= 2 && isAsciiWord())
+        {
+            int index = 0;
+            for (int i = 0; i < m_wordLength; ++i)
+                index = index * 27 + (m_word[i] - 'A' + 1);
+            String word = s_shortWords[index];
+            if (word == null)
+            {
+                word = new String(m_word, 0, m_wordLength,
+                                  WORD_CHARSET).intern();
+                s_shortWords[index] = word;
+            }
+            return word;
+        }
+        return new String(m_word, 0, m_wordLength, WORD_CHARSET).intern();
+    }
+
+    /** Get the next token.
+        @return The character of the token for the special characters '(',
+        ')', ';' and '[', WORD for property identifiers, EOF for the end of
+        the stream, and the character itself for other characters. Whitespace
+        and control characters are skipped. */
+    public int nextToken() throws IOException
+    {
+        if (m_isPushedBack)
+        {
+            m_isPushedBack = false;
+            return m_token;
+        }
+        int c;
+        do
+            c = read();
+        while (c >= 0 && c <= ' ');
+        m_tokenPosition = m_offset + m_position - 1;
+        if (isLetter(c))
+        {
+            m_wordLength = 0;
+            while (isLetter(c))
+            {
+                if (m_wordLength == m_word.length)
+                    m_word = Arrays.copyOf(m_word, 2 * m_word.length);
+                if (c >= 'a' && c <= 'z')
+                    c = c - 'a' + 'A';
+                m_word[m_wordLength++] = (byte)c;
+                c = read();
+            }
+            if (c >= 0)
+                --m_position;
+            m_token = WORD;
+        }
+        else
+            m_token = (c < 0 ? EOF : c);
+        return m_token;
+    }
+
+    /** Push back the last token.
+        The next call of nextToken() returns the same token again. */
+    public void pushBack()
+    {
+        m_isPushedBack = true;
+    }
+
+    /** Change the position in the buffer.
+        Only for lexers constructed with a buffer. Clears a pushed back
+        token. */
+    public void setPosition(int position)
+    {
+        assert m_mapped != null;
+        m_mapped.position(position);
+        m_offset = position;
+        m_position = 0;
+        m_length = 0;
+        m_isPushedBack = false;
+    }
+
+    /** Read a property value and append it to the value buffer.
+        Must be called after nextToken() returned '['. Handles escaped
+        characters and transforms all linebreaks allowed in SGF (LF, CR,
+        LFCR, CRLF) to a single LF. Escaped linebreaks are removed.
+        @return The length of the value or -1 if the end of the stream was
+        reached before the end of the value. */
+    public int readValue() throws IOException
+    {
+        int start = m_valuesLength;
+        boolean quoted = false;
+        int last = -1;
+        while (true)
+        {
+            int c = read();
+            if (c < 0)
+                return -1;
+            if (quoted)
+            {
+                if (c != '\n' && c != '\r')
+                    appendValue(c);
+                last = c;
+                quoted = false;
+            }
+            else
+            {
+                if (c == ']')
+                    break;
+                quoted = (c == '\\');
+                if (! quoted)
+                {
+                    boolean isLinebreak = (c == '\n' || c == '\r');
+                    boolean lastLinebreak = (last == '\n' || last == '\r');
+                    if (isLinebreak && lastLinebreak && c != last)
+                        last = -1;
+                    else
+                    {
+                        appendValue(isLinebreak ? '\n' : c);
+                        last = c;
+                    }
+                }
+            }
+        }
+        return m_valuesLength - start;
+    }
+
+    /** Convert a stream to UTF-8.
+        Used for streams in charsets that cannot be used with the lexer
+        directly.
+        @see #canUse */
+    public static InputStream toUtf8(Reader reader)
+    {
+        return new Utf8InputStream(reader);
+    }
+
+    /** Converts a character stream into a UTF-8 encoded byte stream. */
+    private static final class Utf8InputStream
+        extends InputStream
+    {
+        public Utf8InputStream(Reader reader)
+        {
+            m_reader = reader;
+            m_chars.flip();
+            m_bytes.flip();
+            m_encoder = Charset.forName("UTF-8").newEncoder();
+            m_encoder.onMalformedInput(CodingErrorAction.REPLACE);
+            m_encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        public void close() throws IOException
+        {
+            m_reader.close();
+        }
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) < 0)
+                return -1;
+            return b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            while (! m_bytes.hasRemaining())
+                if (! fill())
+                    return -1;
+            int n = Math.min(len, m_bytes.remaining());
+            m_bytes.get(b, off, n);
+            return n;
+        }
+
+        private boolean m_isEndOfInput;
+
+        private final CharBuffer m_chars = CharBuffer.allocate(8192);
+
+        private final ByteBuffer m_bytes = ByteBuffer.allocate(32768);
+
+        private final CharsetEncoder m_encoder;
+
+        private final Reader m_reader;
+
+        private boolean fill() throws IOException
+        {
+            if (m_isEndOfInput)
+                return false;
+            m_chars.compact();
+            int n = m_reader.read(m_chars);
+            m_chars.flip();
+            m_bytes.clear();
+            m_isEndOfInput = (n < 0);
+            m_encoder.encode(m_chars, m_bytes, m_isEndOfInput);
+            if (m_isEndOfInput)
+                m_encoder.flush(m_bytes);
+            m_bytes.flip();
+            return true;
+        }
+    }
+
+    /** Charset for decoding words with non-ASCII bytes.
+        Property identifiers should only contain letters, but invalid
+        identifiers are preserved as unknown properties. */
+    private static final Charset WORD_CHARSET =
+        Charset.forName("ISO-8859-1");
+
+    /** Number of bytes copied at once from a buffer.
+        Smaller than the buffer for streams, because lexers for buffers
+        are used for reading single nodes after setPosition(). */
+    private static final int MAPPED_CHUNK_SIZE = 4096;
+
+    private static final String[] s_shortWords = new String[27 * 27];
+
+    private boolean m_isPushedBack;
+
+    private int m_token;
+
+    /** Position of the last token in the stream. */
+    private long m_tokenPosition;
+
+    /** Position of the start of m_buffer in the stream. */
+    private long m_offset;
+
+    private int m_position;
+
+    private int m_length;
+
+    private int m_wordLength;
+
+    private int m_valuesLength;
+
+    private byte[] m_buffer = new byte[65536];
+
+    private byte[] m_word = new byte[16];
+
+    private byte[] m_values = new byte[4096];
+
+    private final InputStream m_in;
+
+    private final ByteBuffer m_mapped;
+
+    private void appendValue(int c)
+    {
+        if (m_valuesLength == m_values.length)
+            m_values = Arrays.copyOf(m_values, 2 * m_values.length);
+        m_values[m_valuesLength++] = (byte)c;
+    }
+
+    private boolean isAsciiWord()
+    {
+        for (int i = 0; i < m_wordLength; ++i)
+            if (m_word[i] < 0)
+                return false;
+        return true;
+    }
+
+    /** Check if a byte is part of a property identifier.
+        Non-ASCII bytes are accepted for compatibility with the
+        java.io.StreamTokenizer used in earlier versions. */
+    private static boolean isLetter(int c)
+    {
+        return ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                || c >= 0x80);
+    }
+
+    private int read() throws IOException
+    {
+        if (m_position == m_length)
+        {
+            m_offset += m_length;
+            m_position = 0;
+            if (m_mapped == null)
+                m_length = m_in.read(m_buffer, 0, m_buffer.length);
+            else
+            {
+                m_length = Math.min(m_mapped.remaining(), MAPPED_CHUNK_SIZE);
+                m_mapped.get(m_buffer, 0, m_length);
+            }
+            if (m_length <= 0)
+            {
+                m_length = 0;
+                return -1;
+            }
+        }
+        return m_buffer[m_position++] & 0xff;
+    }
+}
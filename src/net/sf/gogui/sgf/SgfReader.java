@@ -2,20 +2,20 @@
 
 package net.sf.gogui.sgf;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.StreamTokenizer;
-import java.io.UnsupportedEncodingException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Set;
 import net.sf.gogui.game.GameInfo;
@@ -43,65 +43,139 @@ import net.sf.gogui.util.ProgressShow;
     implementation of getError(). */
 public final class SgfReader
 {
+    /** Maximum number of bytes searched for the charset property. */
+    public static final int MAX_CHARSET_PREFIX = 1024 * 1024;
+
     /** Read SGF file from stream.
-        Default charset is ISO-8859-1 according to the SGF version 4 standard.
-        The charset property is only respected if the stream is a
-        FileInputStream, because it has to be reopened with a different
-        encoding.
+        The charset is taken from the charset property in the root node,
+        if it occurs in the first MAX_CHARSET_PREFIX bytes of the stream.
+        Otherwise, ISO-8859-1 is used, which is the default according to the
+        SGF version 4 standard.
         The stream is closed after reading.
         @param in Stream to read from.
-        @param file File name if input stream is a FileInputStream to allow
-        reopening the stream after a charset change
+        @param file File name for error messages (may be null)
         @param progressShow Callback to show progress, can be null
         @param size Size of stream if progressShow != null
         @throws SgfError If reading fails. */
     public SgfReader(InputStream in, File file, ProgressShow progressShow,
                      long size)
         throws SgfError
+    {
+        this(in, file, progressShow, size, null);
+    }
+
+    /** Read SGF file from stream with a given charset.
+        @param in Stream to read from.
+        @param file File name for error messages (may be null)
+        @param progressShow Callback to show progress, can be null
+        @param size Size of stream if progressShow != null
+        @param charset The charset of the stream, null for using the
+        charset property.
+        @throws SgfError If reading fails.
+        @see #SgfReader(InputStream,File,ProgressShow,long) */
+    public SgfReader(InputStream in, File file, ProgressShow progressShow,
+                     long size, String charset)
+        throws SgfError
     {
         m_file = file;
         m_progressShow = progressShow;
         m_size = size;
-        m_isFile = (in instanceof FileInputStream && file != null);
         if (progressShow != null)
             progressShow.showProgress(0);
         try
         {
-            // SGF FF 4 standard defines ISO-8859-1 as default
-            readSgf(in, "ISO-8859-1");
+            readSgf(in, charset);
         }
-        catch (SgfCharsetChanged e1)
+        finally
         {
             try
             {
                 in.close();
-                in = new FileInputStream(file);
             }
-            catch (IOException e2)
-            {
-                throw new SgfError("Could not reset SGF stream after"
-                                   + " charset change.");
-            }
-            try
-            {
-                readSgf(in, m_newCharset);
-            }
-            catch (SgfCharsetChanged e3)
+            catch (IOException e)
             {
-                assert false;
+                System.err.println("Could not close SGF stream");
             }
         }
-        finally
+    }
+
+    /** Read SGF file lazily.
+        Only the root node is read immediately. The file is memory-mapped
+        and the positions of all variations are indexed, the other nodes
+        are created only when the children of their father are accessed
+        (see Node.Loader). SgfWriter writes the children of nodes, which
+        were never accessed, verbatim, if the charset and file format allow
+        it (see ChildLoader.canCopy()).
+        Warnings and errors in nodes that are read later are added to the
+        warnings of the reader.
+        The file must not be modified while the tree is in use. Files in
+        charsets that cannot be used by SgfLexer directly are read
+        completely.
+        @param file The file.
+        @param progressShow Callback to show progress, can be null
+        @throws SgfError If reading fails. */
+    public SgfReader(File file, ProgressShow progressShow) throws SgfError
+    {
+        m_file = file;
+        m_progressShow = progressShow;
+        m_size = file.length();
+        if (progressShow != null)
+            progressShow.showProgress(0);
+        try
         {
+            String charset;
+            InputStream in =
+                new BufferedInputStream(new FileInputStream(file));
             try
+            {
+                charset = detectCharset(in);
+            }
+            finally
             {
                 in.close();
             }
-            catch (IOException e)
+            initCharset(charset);
+            if (SgfLexer.canUse(m_charset))
+                readLazy();
+            else
             {
-                System.err.println("Could not close SGF stream");
+                in = new FileInputStream(file);
+                try
+                {
+                    readSgf(in, m_charset.name());
+                }
+                finally
+                {
+                    in.close();
+                }
             }
         }
+        catch (FileNotFoundException e)
+        {
+            throw new SgfError("File not found.");
+        }
+        catch (IOException e)
+        {
+            throw new SgfError("IO error");
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new SgfError("Out of memory");
+        }
+    }
+
+    /** Construct reader for reading the trees of an SGF collection.
+        Used by SgfCollectionReader.
+        @param in Stream to read from.
+        @param file File name for error messages (may be null)
+        @param charset The charset, null for using the charset property
+        of the first tree. */
+    SgfReader(InputStream in, File file, String charset)
+    {
+        m_file = file;
+        m_progressShow = null;
+        m_size = 0;
+        initReader(in, charset);
     }
 
     /** Get game tree of loaded SGF file.
@@ -126,20 +200,94 @@ public final class SgfReader
         return result.toString();
     }
 
-    private static class SgfCharsetChanged
-        extends Exception
+    /** Creates the children of a node of a lazily read tree.
+        The children of the node are stored in the bytes from the end of
+        the node to the closing parenthesis of the variation containing the
+        node. */
+    final class ChildLoader
+        implements Node.Loader
     {
+        public ChildLoader(int start, int end)
+        {
+            m_start = start;
+            m_end = end;
+        }
+
+        public void loadChildren(Node node)
+        {
+            try
+            {
+                readChildren(node, m_start, m_end);
+            }
+            catch (IOException e)
+            {
+                setWarning("IO error");
+            }
+            catch (SgfError e)
+            {
+                setWarning(e.getMessage());
+            }
+        }
+
+        /** Check if the bytes can be copied to an SGF file written in
+            SgfWriter.ENCODING.
+            The bytes are not parsed, so this is only possible if they
+            need no conversion to SGF version 4, which SgfWriter writes.
+            It is assumed that the file contains only version 4 properties
+            and values if the root node has FF[4] and no conversion was
+            necessary in the nodes read so far. */
+        public boolean canCopy()
+        {
+            return ((m_isAscii || m_charset.name().equals("UTF-8"))
+                    && m_fileFormat == 4 && ! m_isConverted);
+        }
+
+        /** Copy the bytes of the children verbatim. */
+        public void copy(PrintStream out)
+        {
+            ByteBuffer buffer = m_mapped.duplicate();
+            buffer.limit(m_end);
+            buffer.position(m_start);
+            byte[] bytes = new byte[Math.min(buffer.remaining(), 65536)];
+            while (buffer.hasRemaining())
+            {
+                int n = Math.min(buffer.remaining(), bytes.length);
+                buffer.get(bytes, 0, n);
+                out.write(bytes, 0, n);
+            }
+        }
+
+        private final int m_start;
+
+        private final int m_end;
     }
 
-    private final boolean m_isFile;
+    /** Default charset according to the SGF version 4 standard. */
+    private static final String DEFAULT_CHARSET = "ISO-8859-1";
 
     /** Has current node inconsistent FF3 overtime settings properties. */
     private boolean m_ignoreOvertime;
 
+    /** A property name or value was converted to SGF version 4. */
+    private boolean m_isConverted;
+
+    /** Contains the memory-mapped file only bytes of the ASCII range.
+        Only used for lazily read trees. */
+    private boolean m_isAscii;
+
     private int m_lastPercent;
 
     private int m_boardSize;
 
+    /** Value of the FF property of the root node, -1 if unknown. */
+    private int m_fileFormat = -1;
+
+    /** Nesting level of the current tree in the collection. */
+    private int m_depth;
+
+    /** Number of trees read by readNextTree(). */
+    private int m_numberTrees;
+
     private int m_byoyomiMoves;
 
     private final long m_size;
@@ -150,7 +298,19 @@ public final class SgfReader
 
     private ByteCountInputStream m_byteCountInputStream;
 
-    private java.io.Reader m_reader;
+    /** Memory-mapped file of a lazily read tree. */
+    private ByteBuffer m_mapped;
+
+    /** Number of variations in m_open and m_close. */
+    private int m_numberVariations;
+
+    /** Positions of the opening parentheses of all variations in
+        m_mapped. */
+    private int[] m_open;
+
+    /** Positions of the closing parentheses of the variations in m_open.
+        The size of m_mapped for variations that are not closed. */
+    private int[] m_close;
 
     private GameTree m_tree;
 
@@ -159,20 +319,40 @@ public final class SgfReader
     /** Contains strings with warnings. */
     private final Set<String> m_warnings = new TreeSet<String>();
 
-    private StreamTokenizer m_tokenizer;
+    private SgfLexer m_lexer;
 
     private final File m_file;
 
-    private String m_newCharset;
+    /** The charset used for decoding the stream. */
+    private Charset m_charset;
 
-    /** Pre-allocated temporary buffer for use within functions. */
-    private final StringBuilder m_buffer = new StringBuilder(512);
+    /** The charset of the bytes read by the lexer.
+        Differs from m_charset if the stream was converted to UTF-8. */
+    private Charset m_lexerCharset;
 
     private final PointList m_pointList = new PointList();
 
-    /** Map containing the properties of the current node. */
-    private final Map<String,ArrayList<String>> m_props =
-        new TreeMap<String,ArrayList<String>>();
+    /** Number of properties of the current node. */
+    private int m_numberProps;
+
+    /** Names of the properties of the current node. */
+    private String[] m_propNames = new String[16];
+
+    /** Index of the first value of a property in m_valueStart. */
+    private int[] m_propFirstValue = new int[16];
+
+    private int[] m_propNumberValues = new int[16];
+
+    /** Indices of the properties sorted by name. */
+    private int[] m_propOrder = new int[16];
+
+    /** Number of values of the current node. */
+    private int m_numberValues;
+
+    /** Start of the values in the value buffer of the lexer. */
+    private int[] m_valueStart = new int[64];
+
+    private int[] m_valueLength = new int[64];
 
     /** Apply some fixes for broken SGF files. */
     private void applyFixes()
@@ -207,24 +387,35 @@ public final class SgfReader
         }
     }
 
-    private void checkEndOfFile() throws SgfError, IOException
+    /** Check that the charset property matches the charset used for
+        decoding the stream.
+        It does not match if a charset was given in the constructor, or if
+        the property was not found in the first MAX_CHARSET_PREFIX bytes,
+        or in trees after the first tree of a collection. */
+    private void checkCharset(String value)
     {
-        while (true)
+        value = value.trim();
+        try
         {
-            m_tokenizer.nextToken();
-            int t = m_tokenizer.ttype;
-            if (t == '(')
-                throw getError("Multiple SGF trees not supported");
-            else if (t == StreamTokenizer.TT_EOF)
-                return;
-            else if (t != ' ' && t != '\t' && t != '\n' && t != '\r')
-            {
-                setWarning("Extra text after SGF tree");
-                return;
-            }
+            if (! Charset.forName(value).equals(m_charset))
+                setWarning("Character set \"" + value + "\" ignored, using "
+                           + m_charset.name());
+        }
+        catch (IllegalArgumentException e)
+        {
+            setWarning("Unknown character set \"" + value + "\"");
         }
     }
 
+    private void checkEndOfFile() throws SgfError, IOException
+    {
+        int t = m_lexer.nextToken();
+        if (t == '(')
+            throw getError("Multiple SGF trees not supported");
+        else if (t != SgfLexer.EOF)
+            setWarning("Extra text after SGF tree");
+    }
+
     /** Check for obsolete long names for standard properties.
         These are still used in some old SGF files.
         @param property Property name
@@ -280,7 +471,10 @@ public final class SgfReader
         else if (property == "WHITERANK")
             shortName = "WR";
         if (shortName != null)
+        {
+            m_isConverted = true;
             return shortName;
+        }
         return property;
     }
 
@@ -289,27 +483,28 @@ public final class SgfReader
         return node.createGameInfo();
     }
 
-    private void findRoot() throws SgfError, IOException
+    /** Skip to the start of the next tree.
+        @return false, if the end of the stream was reached. */
+    private boolean findRoot() throws SgfError, IOException
     {
         while (true)
         {
-            m_tokenizer.nextToken();
-            int t = m_tokenizer.ttype;
+            int t = m_lexer.nextToken();
             if (t == '(')
             {
                 // Better make sure that ( is followed by a node
-                m_tokenizer.nextToken();
-                t = m_tokenizer.ttype;
+                t = m_lexer.nextToken();
                 if (t == ';')
                 {
-                    m_tokenizer.pushBack();
-                    return;
+                    m_lexer.pushBack();
+                    m_depth = 1;
+                    return true;
                 }
                 else
                     setWarning("Extra text before SGF tree");
             }
-            else if (t == StreamTokenizer.TT_EOF)
-                throw getError("No root tree found");
+            else if (t == SgfLexer.EOF)
+                return false;
             else
                 setWarning("Extra text before SGF tree");
         }
@@ -324,41 +519,72 @@ public final class SgfReader
 
     private SgfError getError(String message)
     {
-        // Line numbers in error messages is currently disabled because
-        // StreamTokenizer.lineno() does not work as expected with Windows-style
-        // line endings (it seems to count CRLF as two line endings; last with
-        // Java 1.7).
-        /*
-        int lineNumber = m_tokenizer.lineno();
         if (m_file == null)
-            return new SgfError(lineNumber + ": " + message);
+            return new SgfError(message);
         else
         {
-            String s = m_file.getName() + ":" + lineNumber + ": " + message;
-            return new SgfError(s);
+            // Include the tree number for trees of SGF collections
+            String name = SgfCollectionReader.getTreeName(m_file.getName(),
+                                                          m_numberTrees);
+            return new SgfError(name + ": " + message);
         }
-        */
-        if (m_file == null)
-            return new SgfError(message);
-        else
-            return new SgfError(m_file.getName() + ": " + message);
+    }
+
+    /** Get the index of a property of the current node.
+        @return The index or -1, if the node has no such property. */
+    private int getProp(String name)
+    {
+        for (int i = 0; i < m_numberProps; ++i)
+            if (m_propNames[i] == name)
+                return i;
+        return -1;
+    }
+
+    /** Get a value of a property of the current node as a string. */
+    private String getValue(int prop, int i)
+    {
+        int value = m_propFirstValue[prop] + i;
+        return m_lexer.getValue(m_valueStart[value], m_valueLength[value],
+                                m_lexerCharset);
+    }
+
+    /** Get all values of a property of the current node as strings. */
+    private ArrayList<String> getValues(int prop)
+    {
+        int n = m_propNumberValues[prop];
+        ArrayList<String> values = new ArrayList<String>(n);
+        for (int i = 0; i < n; ++i)
+            values.add(getValue(prop, i));
+        return values;
+    }
+
+    /** Find a colon in a value of the value buffer.
+        @return The position relative to the start of the value or -1 if
+        the value contains no colon. */
+    private int findColon(int value)
+    {
+        int start = m_valueStart[value];
+        for (int i = 0; i < m_valueLength[value]; ++i)
+            if (m_lexer.getValueByte(start + i) == ':')
+                return i;
+        return -1;
     }
 
     private void handleProps(Node node, boolean isRoot)
-        throws IOException, SgfError, SgfCharsetChanged
+        throws IOException, SgfError
     {
         // Handle SZ property first to be able to parse points
-        if (m_props.containsKey("SZ"))
+        int sizeProp = getProp("SZ");
+        if (sizeProp >= 0)
         {
-            ArrayList<String> values = m_props.get("SZ");
-            m_props.remove("SZ");
+            m_propNames[sizeProp] = null;
             if (! isRoot)
                 setWarning("Size property not in root node ignored");
             else
             {
                 try
                 {
-                    int size = parseInt(values.get(0));
+                    int size = parseInt(getValue(sizeProp, 0));
                     if (size <= 0 || size > GoPoint.MAX_SIZE)
                         setWarning("Invalid board size value");
                     assert m_boardSize == -1;
@@ -370,31 +596,35 @@ public final class SgfReader
                 }
             }
         }
-        for (Map.Entry<String,ArrayList<String>> entry : m_props.entrySet())
+        // Handle properties in alphabetical order
+        int numberProps = sortProps();
+        for (int i = 0; i < numberProps; ++i)
         {
-            String p = entry.getKey();
-            ArrayList<String> values = entry.getValue();
-            String v = values.get(0);
+            int k = m_propOrder[i];
+            String p = m_propNames[k];
+            // Values of properties with point values are parsed from the
+            // value buffer without creating strings
+            String v = (isPointProp(p) ? null : getValue(k, 0));
             if (p == "AB")
             {
-                parsePointList(values);
+                parsePointList(k);
                 node.addStones(BLACK, m_pointList);
             }
             else if (p == "AE")
             {
-                parsePointList(values);
+                parsePointList(k);
                 node.addStones(EMPTY, m_pointList);
             }
             else if (p == "AN")
                 set(node, StringInfo.ANNOTATION, v);
             else if (p == "AW")
             {
-                parsePointList(values);
+                parsePointList(k);
                 node.addStones(WHITE, m_pointList);
             }
             else if (p == "B")
             {
-                node.setMove(Move.get(BLACK, parsePoint(v)));
+                node.setMove(Move.get(BLACK, parsePoint(k)));
             }
             else if (p == "BL")
             {
@@ -414,20 +644,13 @@ public final class SgfReader
                 node.setComment(v);
             else if (p == "CA")
             {
-                if (isRoot && m_isFile && m_newCharset == null)
-                {
-                    m_newCharset = v.trim();
-                    if (Charset.isSupported(m_newCharset))
-                        throw new SgfCharsetChanged();
-                    else
-                        setWarning("Unknown character set \"" + m_newCharset
-                                   + "\"");
-                }
+                if (isRoot)
+                    checkCharset(v);
             }
             else if (p == "CP")
                 set(node, StringInfo.COPYRIGHT, v);
             else if (p == "CR")
-                parseMarked(node, MarkType.CIRCLE, values);
+                parseMarked(node, MarkType.CIRCLE, k);
             else if (p == "DT")
                 set(node, StringInfo.DATE, v);
             else if (p == "FF")
@@ -442,6 +665,8 @@ public final class SgfReader
                 }
                 if (format < 1 || format > 4)
                     setWarning("Unknown SGF file format version");
+                if (isRoot)
+                    m_fileFormat = format;
             }
             else if (p == "GM")
             {
@@ -474,20 +699,28 @@ public final class SgfReader
                 parseKomi(node, v);
             else if (p == "LB")
             {
-                for (int i = 0; i < values.size(); ++i)
+                for (int j = 0; j < m_propNumberValues[k]; ++j)
                 {
-                    String value = values.get(i);
-                    int pos = value.indexOf(':');
+                    int value = m_propFirstValue[k] + j;
+                    int start = m_valueStart[value];
+                    int pos = findColon(value);
                     if (pos > 0)
                     {
-                        GoPoint point = parsePoint(value.substring(0, pos));
-                        String text = value.substring(pos + 1);
+                        GoPoint point = parsePoint(start, pos);
+                        int length = m_valueLength[value] - pos - 1;
+                        String text = m_lexer.getValue(start + pos + 1,
+                                                       length,
+                                                       m_lexerCharset);
                         node.setLabel(point, text);
                     }
                 }
             }
             else if (p == "MA" || p == "M")
-                parseMarked(node, MarkType.MARK, values);
+            {
+                if (p == "M")
+                    m_isConverted = true;
+                parseMarked(node, MarkType.MARK, k);
+            }
             else if (p == "OB")
             {
                 try
@@ -529,21 +762,21 @@ public final class SgfReader
             else if (p == "SO")
                 set(node, StringInfo.SOURCE, v);
             else if (p == "SQ")
-                parseMarked(node, MarkType.SQUARE, values);
+                parseMarked(node, MarkType.SQUARE, k);
             else if (p == "SL")
-                parseMarked(node, MarkType.SELECT, values);
+                parseMarked(node, MarkType.SELECT, k);
             else if (p == "TB")
-                parseMarked(node, MarkType.TERRITORY_BLACK, values);
+                parseMarked(node, MarkType.TERRITORY_BLACK, k);
             else if (p == "TM")
                 parseTime(node, v);
             else if (p == "TR")
-                parseMarked(node, MarkType.TRIANGLE, values);
+                parseMarked(node, MarkType.TRIANGLE, k);
             else if (p == "US")
                 set(node, StringInfo.USER, v);
             else if (p == "W")
-                node.setMove(Move.get(WHITE, parsePoint(v)));
+                node.setMove(Move.get(WHITE, parsePoint(k)));
             else if (p == "TW")
-                parseMarked(node, MarkType.TERRITORY_WHITE, values);
+                parseMarked(node, MarkType.TERRITORY_WHITE, k);
             else if (p == "V")
             {
                 try
@@ -569,7 +802,7 @@ public final class SgfReader
             else if (p == "WT")
                 set(node, StringInfoColor.TEAM, WHITE, v);
             else if (p != "FF" && p != "GN" && p != "AP")
-                node.addSgfProperty(p, values);
+                node.addSgfProperty(p, getValues(k));
         }
     }
 
@@ -586,6 +819,15 @@ public final class SgfReader
         return color;
     }
 
+    /** Check if a property has point values. */
+    private static boolean isPointProp(String p)
+    {
+        return (p == "B" || p == "W" || p == "AB" || p == "AE" || p == "AW"
+                || p == "CR" || p == "LB" || p == "MA" || p == "M"
+                || p == "SL" || p == "SQ" || p == "TB" || p == "TR"
+                || p == "TW");
+    }
+
     private int parseInt(String s) throws SgfError
     {
         int i = -1;
@@ -615,11 +857,10 @@ public final class SgfReader
         }
     }
 
-    private void parseMarked(Node node, MarkType type,
-                             ArrayList<String> values)
+    private void parseMarked(Node node, MarkType type, int prop)
         throws SgfError
     {
-        parsePointList(values);
+        parsePointList(prop);
         for (GoPoint p : m_pointList)
             node.addMarked(p, type);
     }
@@ -677,6 +918,7 @@ public final class SgfReader
             || (s.length() == 2 && (s.charAt(1) < 'a' || s.charAt(1) > 'z')))
         {
             // Try human-readable encoding as used by SmartGo
+            m_isConverted = true;
             try
             {
                 return GoPoint.parsePoint(s, GoPoint.MAX_SIZE);
@@ -688,35 +930,76 @@ public final class SgfReader
         }
         else if (s.length() != 2)
             throwInvalidCoordinates(s);
+        return parsePoint(s.charAt(0), s.charAt(1));
+    }
+
+    /** Parse point value in the value buffer.
+        Avoids creating a string for the common case of a value with two
+        letters.
+        @param start The start of the value in the value buffer.
+        @param length The length of the value.
+        @return Point or null, if pass move
+        @throw SgfError On invalid value */
+    private GoPoint parsePoint(int start, int length) throws SgfError
+    {
+        if (length == 0)
+            return null;
+        if (length == 2)
+        {
+            int c0 = toLowerCase(m_lexer.getValueByte(start));
+            int c1 = toLowerCase(m_lexer.getValueByte(start + 1));
+            if (c0 >= 'a' && c0 <= 'z' && c1 >= 'a' && c1 <= 'z')
+                return parsePoint((char)c0, (char)c1);
+        }
+        return parsePoint(m_lexer.getValue(start, length, m_lexerCharset));
+    }
+
+    /** Parse point in the standard SGF encoding.
+        @param c0 The first letter, converted to lower case.
+        @param c1 The second letter, converted to lower case.
+        @return Point or null, if pass move */
+    private GoPoint parsePoint(char c0, char c1) throws SgfError
+    {
         int boardSize = getBoardSize();
-        if (s.equals("tt") && boardSize <= 19)
+        if (c0 == 't' && c1 == 't' && boardSize <= 19)
             return null;
-        int x = s.charAt(0) - 'a';
-        int y = boardSize - (s.charAt(1) - 'a') - 1;
+        int x = c0 - 'a';
+        int y = boardSize - (c1 - 'a') - 1;
         if (x < 0 || x >= boardSize || y < 0 || y >= boardSize)
         {
             if (x == boardSize && y == -1)
             {
                 // Some programs encode pass moves, e.g. as jj for boardsize 9
                 setWarning("Non-standard pass move encoding");
+                m_isConverted = true;
                 return null;
             }
-            throw getError("Coordinates \"" + s + "\" outside board size "
-                           + boardSize);
+            throw getError("Coordinates \"" + c0 + c1
+                           + "\" outside board size " + boardSize);
         }
         return GoPoint.get(x, y);
     }
 
-    private void parsePointList(ArrayList<String> values) throws SgfError
+    /** Parse the first value of a property of the current node as a
+        point. */
+    private GoPoint parsePoint(int prop) throws SgfError
+    {
+        int value = m_propFirstValue[prop];
+        return parsePoint(m_valueStart[value], m_valueLength[value]);
+    }
+
+    private void parsePointList(int prop) throws SgfError
     {
         m_pointList.clear();
-        for (int i = 0; i < values.size(); ++i)
+        for (int i = 0; i < m_propNumberValues[prop]; ++i)
         {
-            String value = values.get(i);
-            int pos = value.indexOf(':');
+            int value = m_propFirstValue[prop] + i;
+            int start = m_valueStart[value];
+            int length = m_valueLength[value];
+            int pos = findColon(value);
             if (pos < 0)
             {
-                GoPoint point = parsePoint(value);
+                GoPoint point = parsePoint(start, length);
                 if (point == null)
                     setWarning("Point list argument contains PASS");
                 else
@@ -724,8 +1007,9 @@ public final class SgfReader
             }
             else
             {
-                GoPoint point1 = parsePoint(value.substring(0, pos));
-                GoPoint point2 = parsePoint(value.substring(pos + 1));
+                GoPoint point1 = parsePoint(start, pos);
+                GoPoint point2 = parsePoint(start + pos + 1,
+                                            length - pos - 1);
                 if (point1 == null || point2 == null)
                 {
                     setWarning("Compressed point list contains PASS");
@@ -762,7 +1046,7 @@ public final class SgfReader
     }
 
     private Node readNext(Node father, boolean isRoot)
-        throws IOException, SgfError, SgfCharsetChanged
+        throws IOException, SgfError
     {
         if (m_progressShow != null)
         {
@@ -778,18 +1062,21 @@ public final class SgfReader
                 m_progressShow.showProgress(percent);
             m_lastPercent = percent;
         }
-        m_tokenizer.nextToken();
-        int ttype = m_tokenizer.ttype;
+        int ttype = m_lexer.nextToken();
         if (ttype == '(')
         {
+            ++m_depth;
             Node node = father;
             while (node != null)
                 node = readNext(node, false);
             return father;
         }
         if (ttype == ')')
+        {
+            --m_depth;
             return null;
-        if (ttype == StreamTokenizer.TT_EOF)
+        }
+        if (ttype == SgfLexer.EOF)
         {
             setWarning("Game tree not closed");
             return null;
@@ -799,87 +1086,474 @@ public final class SgfReader
         Node son = new Node();
         if (father != null)
             father.append(son);
+        readNode(son, isRoot);
+        return son;
+    }
+
+    /** Read the properties of a node.
+        The semicolon starting the node must already be read. */
+    private void readNode(Node node, boolean isRoot)
+        throws IOException, SgfError
+    {
         m_ignoreOvertime = false;
         m_byoyomiMoves = -1;
         m_byoyomi = -1;
         m_preByoyomi = -1;
-        m_props.clear();
+        m_numberProps = 0;
+        m_numberValues = 0;
+        m_lexer.clearValues();
         while (readProp());
-        handleProps(son, isRoot);
-        setTimeSettings(son);
-        return son;
+        handleProps(node, isRoot);
+        setTimeSettings(node);
     }
 
     private boolean readProp() throws IOException, SgfError
     {
-        m_tokenizer.nextToken();
-        int ttype = m_tokenizer.ttype;
-        if (ttype == StreamTokenizer.TT_WORD)
+        int ttype = m_lexer.nextToken();
+        if (ttype == SgfLexer.WORD)
         {
-            // Use intern() to allow fast comparsion with ==
-            String p = m_tokenizer.sval.toUpperCase(Locale.ENGLISH).intern();
-            ArrayList<String> values = new ArrayList<String>();
-            String s;
-            while ((s = readValue()) != null)
-                values.add(s);
-            if (values.isEmpty())
+            // Strings are interned to allow fast comparsion with ==
+            String p = m_lexer.getWord();
+            int firstValue = m_numberValues;
+            while (readValue());
+            int numberValues = m_numberValues - firstValue;
+            if (numberValues == 0)
             {
                 setWarning("Property \"" + p + "\" has no value");
                 return true;
             }
             p = checkForObsoleteLongProps(p);
-            if (m_props.containsKey(p))
+            int prop = getProp(p);
+            if (prop >= 0)
+            {
                 // Silently accept duplicate properties, as long as they have
                 // the same value (only check for single value properties)
-                if (m_props.get(p).size() > 1 || values.size() > 1
-                    || ! values.get(0).equals(m_props.get(p).get(0)))
+                int oldValue = m_propFirstValue[prop];
+                if (m_propNumberValues[prop] > 1 || numberValues > 1
+                    || ! m_lexer.equalValues(m_valueStart[oldValue],
+                                             m_valueLength[oldValue],
+                                             m_valueStart[firstValue],
+                                             m_valueLength[firstValue]))
                     setWarning("Duplicate property " + p + " in node");
-            m_props.put(p, values);
+            }
+            else
+            {
+                if (m_numberProps == m_propNames.length)
+                {
+                    int n = 2 * m_numberProps;
+                    m_propNames = Arrays.copyOf(m_propNames, n);
+                    m_propFirstValue = Arrays.copyOf(m_propFirstValue, n);
+                    m_propNumberValues = Arrays.copyOf(m_propNumberValues, n);
+                    m_propOrder = Arrays.copyOf(m_propOrder, n);
+                }
+                prop = m_numberProps++;
+                m_propNames[prop] = p;
+            }
+            m_propFirstValue[prop] = firstValue;
+            m_propNumberValues[prop] = numberValues;
             return true;
         }
-        if (ttype != '\n')
-            // Don't pushBack newline, will confuse lineno() (Bug 4942853)
-            m_tokenizer.pushBack();
+        m_lexer.pushBack();
         return false;
     }
 
-    private void readSgf(InputStream in, String charset)
-        throws SgfError, SgfCharsetChanged
+    /** Get the number of trees started by readNextTree(). */
+    int getNumberTrees()
+    {
+        return m_numberTrees;
+    }
+
+    /** Read the next tree of an SGF collection.
+        Used by SgfCollectionReader. Clears the warnings of the last tree.
+        @return The tree or null, if there are no more trees. */
+    GameTree readNextTree() throws SgfError
+    {
+        m_warnings.clear();
+        m_tree = null;
+        try
+        {
+            if (! findRoot())
+                return null;
+            ++m_numberTrees;
+            readTree();
+            return m_tree;
+        }
+        catch (IOException e)
+        {
+            throw new SgfError("IO error");
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new SgfError("Out of memory");
+        }
+    }
+
+    /** Skip the next tree of an SGF collection without reading it.
+        Used by SgfCollectionReader. Finds the trees in the same way as
+        readNextTree(), but only splits the tree into tokens.
+        @return false, if there are no more trees. */
+    boolean skipNextTree() throws SgfError
     {
+        m_warnings.clear();
+        m_tree = null;
         try
         {
-            m_boardSize = -1;
-            if (m_progressShow != null)
+            if (! findRoot())
+                return false;
+        }
+        catch (IOException e)
+        {
+            throw new SgfError("IO error");
+        }
+        ++m_numberTrees;
+        skipTree();
+        return true;
+    }
+
+    /** Skip the rest of the current tree after an error.
+        Used by SgfCollectionReader to continue with the next tree. */
+    void skipTree()
+    {
+        try
+        {
+            while (m_depth > 0)
             {
-                m_byteCountInputStream = new ByteCountInputStream(in);
-                in = m_byteCountInputStream;
+                int ttype = m_lexer.nextToken();
+                if (ttype == SgfLexer.EOF)
+                    return;
+                if (ttype == '(')
+                    ++m_depth;
+                else if (ttype == ')')
+                    --m_depth;
+                else if (ttype == '[')
+                {
+                    // Brackets in property values must not be counted
+                    m_lexer.clearValues();
+                    if (m_lexer.readValue() < 0)
+                        return;
+                }
             }
-            InputStreamReader reader;
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    /** Close the stream.
+        Used by SgfCollectionReader. */
+    void close()
+    {
+        try
+        {
+            m_lexer.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not close SGF stream");
+        }
+    }
+
+    /** Detect the charset from the charset property of the root node.
+        Scans the bytes of the stream up to the end of the root node, but
+        at most MAX_CHARSET_PREFIX bytes. The property names and values are
+        assumed to be encoded in an ASCII compatible charset. The stream is
+        reset to its start position afterwards.
+        @param in The stream. Must support mark and reset.
+        @return The value of the charset property, or null if not found. */
+    private static String detectCharset(InputStream in) throws IOException
+    {
+        in.mark(MAX_CHARSET_PREFIX);
+        try
+        {
+            StringBuilder name = new StringBuilder(8);
+            boolean isInRoot = false;
+            boolean isLastLetter = false;
+            int last = -1;
+            int count = 0;
+            while (count < MAX_CHARSET_PREFIX)
+            {
+                int c = in.read();
+                ++count;
+                if (c < 0)
+                    return null;
+                if (! isInRoot)
+                {
+                    if (c == ';' && last == '(')
+                        isInRoot = true;
+                    if (! Character.isWhitespace(c))
+                        last = c;
+                    continue;
+                }
+                if (c == '[')
+                {
+                    boolean isCharset = name.toString().equals("CA");
+                    StringBuilder value = new StringBuilder(16);
+                    boolean quoted = false;
+                    while (true)
+                    {
+                        c = in.read();
+                        ++count;
+                        if (c < 0 || count >= MAX_CHARSET_PREFIX)
+                            return null;
+                        if (! quoted && c == ']')
+                            break;
+                        quoted = (! quoted && c == '\\');
+                        if (isCharset && ! quoted && value.length() < 64)
+                            value.append((char)c);
+                    }
+                    if (isCharset)
+                        return value.toString().trim();
+                    isLastLetter = false;
+                }
+                else if (Character.isLetter(c))
+                {
+                    if (! isLastLetter)
+                        name.setLength(0);
+                    name.append(Character.toUpperCase((char)c));
+                    isLastLetter = true;
+                }
+                else if (c == ';' || c == '(' || c == ')')
+                    return null; // End of root node
+                else
+                    isLastLetter = false;
+            }
+            return null;
+        }
+        finally
+        {
+            in.reset();
+        }
+    }
+
+    /** Set the charset used for decoding.
+        @param charset The name of the charset, null for the default
+        charset. */
+    private void initCharset(String charset)
+    {
+        if (charset == null)
+            charset = DEFAULT_CHARSET;
+        try
+        {
+            m_charset = Charset.forName(charset);
+        }
+        catch (IllegalArgumentException e)
+        {
+            setWarning("Unknown character set \"" + charset + "\"");
+            m_charset = Charset.forName(DEFAULT_CHARSET);
+        }
+    }
+
+    /** Find the positions of all variations in the memory-mapped file.
+        Parentheses in property values are ignored. Also checks, if the
+        file contains only bytes of the ASCII range. */
+    private void indexVariations()
+    {
+        int size = m_mapped.limit();
+        m_open = new int[1024];
+        m_close = new int[1024];
+        m_numberVariations = 0;
+        m_isAscii = true;
+        int[] stack = new int[64];
+        int depth = 0;
+        boolean isValue = false;
+        boolean quoted = false;
+        for (int i = 0; i < size; ++i)
+        {
+            if (m_progressShow != null && i % (1024 * 1024) == 0)
+            {
+                int percent = (int)((long)i * 100 / size);
+                if (percent != m_lastPercent)
+                    m_progressShow.showProgress(percent);
+                m_lastPercent = percent;
+            }
+            byte c = m_mapped.get(i);
+            if (c < 0)
+                m_isAscii = false;
+            if (isValue)
+            {
+                if (quoted)
+                    quoted = false;
+                else if (c == '\\')
+                    quoted = true;
+                else if (c == ']')
+                    isValue = false;
+            }
+            else if (c == '[')
+                isValue = true;
+            else if (c == '(')
+            {
+                if (m_numberVariations == m_open.length)
+                {
+                    int n = 2 * m_numberVariations;
+                    m_open = Arrays.copyOf(m_open, n);
+                    m_close = Arrays.copyOf(m_close, n);
+                }
+                if (depth == stack.length)
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                m_open[m_numberVariations] = i;
+                m_close[m_numberVariations] = size;
+                stack[depth++] = m_numberVariations;
+                ++m_numberVariations;
+            }
+            else if (c == ')' && depth > 0)
+                m_close[stack[--depth]] = i;
+        }
+    }
+
+    /** Initialize the reader.
+        @param charset The charset, null for detecting the charset from the
+        charset property. */
+    private void initReader(InputStream in, String charset)
+    {
+        if (m_progressShow != null)
+        {
+            m_byteCountInputStream = new ByteCountInputStream(in);
+            in = m_byteCountInputStream;
+        }
+        in = new BufferedInputStream(in);
+        if (charset == null)
+        {
             try
             {
-                reader = new InputStreamReader(in, charset);
+                charset = detectCharset(in);
             }
-            catch (UnsupportedEncodingException e)
+            catch (IOException e)
             {
-                // Should actually not happen, because this function is only
-                // called with charset ISO-8859-1 (should be supported on every
-                // Java platform according to Charset documentation) or with a
-                // CA property value, which was already checked with
-                // Charset.isSupported()
-                setWarning("Character set \"" + charset + "\" not supported");
-                reader = new InputStreamReader(in);
+                // Will be reported when reading the tree
             }
-            m_reader = new BufferedReader(reader);
-            m_tokenizer = new StreamTokenizer(m_reader);
-            findRoot();
-            Node root = readNext(null, true);
-            Node node = root;
-            while (node != null)
-                node = readNext(node, false);
+        }
+        initCharset(charset);
+        if (SgfLexer.canUse(m_charset))
+        {
+            m_lexer = new SgfLexer(in);
+            m_lexerCharset = m_charset;
+        }
+        else
+        {
+            // Bytes of special characters can occur in multi-byte
+            // characters of this charset
+            InputStream utf8 =
+                SgfLexer.toUtf8(new InputStreamReader(in, m_charset));
+            m_lexer = new SgfLexer(utf8);
+            m_lexerCharset = Charset.forName("UTF-8");
+        }
+    }
+
+    /** Read the children of a node of a lazily read tree.
+        @param node The node
+        @param start The position after the properties of the node.
+        @param end The position of the closing parenthesis of the variation
+        containing the node. */
+    private void readChildren(Node node, int start, int end)
+        throws IOException, SgfError
+    {
+        m_lexer.setPosition(start);
+        int ttype = m_lexer.nextToken();
+        while (true)
+        {
+            if (ttype == ';')
+            {
+                // A node after the variations is another child, like in
+                // readNext(); the remaining bytes belong to its subtree
+                readLazyChild(node, end);
+                return;
+            }
+            if (ttype != '(')
+            {
+                if (ttype != ')' && ttype != SgfLexer.EOF)
+                    setWarning("Next node expected");
+                return;
+            }
+            int open = (int)m_lexer.getPosition() - 1;
+            int close =
+                m_close[Arrays.binarySearch(m_open, 0, m_numberVariations,
+                                            open)];
+            if (m_lexer.nextToken() == ';')
+                readLazyChild(node, close);
+            else
+                setWarning("Next node expected");
+            if (close >= end)
+                return;
+            m_lexer.setPosition(close + 1);
+            ttype = m_lexer.nextToken();
+        }
+    }
+
+    /** Read a file lazily.
+        @see #SgfReader(File,ProgressShow) */
+    private void readLazy() throws IOException, SgfError
+    {
+        FileInputStream in = new FileInputStream(m_file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw getError("File too large");
+            m_mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally
+        {
+            in.close();
+        }
+        indexVariations();
+        m_lexer = new SgfLexer(m_mapped);
+        m_lexerCharset = m_charset;
+        if (! findRoot())
+            throw getError("No root tree found");
+        m_lexer.nextToken();
+        int start = (int)m_lexer.getPosition();
+        // The variation of the root node is the last one opened before it
+        int index = Arrays.binarySearch(m_open, 0, m_numberVariations, start);
+        int end = m_close[-index - 2];
+        if (end == m_mapped.limit())
+            setWarning("Game tree not closed");
+        m_boardSize = -1;
+        Node root = new Node();
+        readLazyNode(root, true, end);
+        getBoardSize(); // Set to default value if still unknown
+        m_tree = new GameTree(m_boardSize, root);
+        applyFixes();
+        if (end < m_mapped.limit())
+        {
+            m_lexer.setPosition(end + 1);
+            checkEndOfFile();
+        }
+        if (m_progressShow != null)
+            m_progressShow.showProgress(100);
+    }
+
+    /** Read a child node of a lazily read tree. */
+    private void readLazyChild(Node father, int end)
+        throws IOException, SgfError
+    {
+        Node son = new Node();
+        father.append(son);
+        readLazyNode(son, false, end);
+    }
+
+    /** Read the properties of a node of a lazily read tree.
+        Sets a loader for the children of the node.
+        @param node The node
+        @param isRoot Is the node the root node
+        @param end The position of the closing parenthesis of the variation
+        containing the node. */
+    private void readLazyNode(Node node, boolean isRoot, int end)
+        throws IOException, SgfError
+    {
+        readNode(node, isRoot);
+        node.setLoader(new ChildLoader((int)m_lexer.getPosition(), end));
+    }
+
+    private void readSgf(InputStream in, String charset) throws SgfError
+    {
+        try
+        {
+            initReader(in, charset);
+            if (! findRoot())
+                throw getError("No root tree found");
+            readTree();
             checkEndOfFile();
-            getBoardSize(); // Set to default value if still unknown
-            m_tree = new GameTree(m_boardSize, root);
-            applyFixes();
         }
         catch (FileNotFoundException e)
         {
@@ -895,61 +1569,41 @@ public final class SgfReader
         }
     }
 
-    private String readValue() throws IOException, SgfError
+    private void readTree() throws IOException, SgfError
+    {
+        m_boardSize = -1;
+        Node root = readNext(null, true);
+        Node node = root;
+        while (node != null)
+            node = readNext(node, false);
+        getBoardSize(); // Set to default value if still unknown
+        m_tree = new GameTree(m_boardSize, root);
+        applyFixes();
+    }
+
+    /** Read the next value of the current property.
+        @return false, if there are no more values. */
+    private boolean readValue() throws IOException, SgfError
     {
-        m_tokenizer.nextToken();
-        int ttype = m_tokenizer.ttype;
-        if (ttype != '[')
+        if (m_lexer.nextToken() != '[')
         {
-            if (ttype != '\n')
-                // Don't pushBack newline, will confuse lineno() (Bug 4942853)
-                m_tokenizer.pushBack();
-            return null;
+            m_lexer.pushBack();
+            return false;
         }
-        m_buffer.setLength(0);
-        boolean quoted = false;
-        Character last = null;
-        while (true)
+        int start = m_lexer.getValuesLength();
+        int length = m_lexer.readValue();
+        if (length < 0)
+            throw getError("Property value incomplete");
+        if (m_numberValues == m_valueStart.length)
         {
-            int c = m_reader.read();
-            if (c < 0)
-                throw getError("Property value incomplete");
-            if (quoted)
-            {
-                if (c != '\n' && c != '\r')
-                    m_buffer.append((char)c);
-                last = Character.valueOf((char)c);
-                quoted = false;
-            }
-            else
-            {
-                if (c == ']')
-                    break;
-                quoted = (c == '\\');
-                if (! quoted)
-                {
-                    // Transform all linebreaks allowed in SGF (LF, CR, LFCR,
-                    // CRLF) to a single '\n'
-                    boolean isLinebreak = (c == '\n' || c == '\r');
-                    boolean lastLinebreak =
-                        (last != null && (last.charValue() == '\n'
-                                          || last.charValue() == '\r'));
-                    boolean filterSecondLinebreak =
-                        (isLinebreak && lastLinebreak && c != last.charValue());
-                    if (filterSecondLinebreak)
-                        last = null;
-                    else
-                    {
-                        if (isLinebreak)
-                            m_buffer.append('\n');
-                        else
-                            m_buffer.append((char)c);
-                        last = Character.valueOf((char)c);
-                    }
-                }
-            }
+            int n = 2 * m_numberValues;
+            m_valueStart = Arrays.copyOf(m_valueStart, n);
+            m_valueLength = Arrays.copyOf(m_valueLength, n);
         }
-        return m_buffer.toString();
+        m_valueStart[m_numberValues] = start;
+        m_valueLength[m_numberValues] = length;
+        ++m_numberValues;
+        return true;
     }
 
     private void set(Node node, StringInfo type, String value)
@@ -986,8 +1640,39 @@ public final class SgfReader
         m_warnings.add(message);
     }
 
+    /** Sort the properties of the current node by name.
+        Stores the indices of the properties in m_propOrder. Properties
+        with a null name (already handled) are skipped.
+        @return The number of properties in m_propOrder. */
+    private int sortProps()
+    {
+        int n = 0;
+        for (int i = 0; i < m_numberProps; ++i)
+        {
+            String name = m_propNames[i];
+            if (name == null)
+                continue;
+            int j = n++;
+            while (j > 0
+                   && m_propNames[m_propOrder[j - 1]].compareTo(name) > 0)
+            {
+                m_propOrder[j] = m_propOrder[j - 1];
+                --j;
+            }
+            m_propOrder[j] = i;
+        }
+        return n;
+    }
+
     private void throwInvalidCoordinates(String s) throws SgfError
     {
         throw getError("Invalid coordinates \"" + s + "\"");
     }
+
+    private static int toLowerCase(byte c)
+    {
+        if (c >= 'A' && c <= 'Z')
+            return c - 'A' + 'a';
+        return c;
+    }
 }
@@ -2,15 +2,18 @@
 
 package net.sf.gogui.sgf;
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Map;
 import net.sf.gogui.game.ConstGameInfo;
 import net.sf.gogui.game.ConstGameTree;
 import net.sf.gogui.game.ConstNode;
 import net.sf.gogui.game.ConstSgfProperties;
 import net.sf.gogui.game.MarkType;
+import net.sf.gogui.game.Node;
 import net.sf.gogui.game.NodeUtil;
 import net.sf.gogui.game.StringInfo;
 import net.sf.gogui.game.StringInfoColor;
@@ -43,7 +46,8 @@ public class SgfWriter
     {
         try
         {
-            m_out = new PrintStream(out, false, ENCODING);
+            m_out = new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE),
+                                    false, ENCODING);
         }
         catch (UnsupportedEncodingException e)
         {
@@ -54,7 +58,7 @@ public class SgfWriter
         m_size = tree.getBoardSize();
         printHeader(application, version);
         printNewLine();
-        printNode(tree.getRootConst(), true);
+        printTree(tree.getRootConst());
         print(")");
         m_out.println(m_buffer.toString());
         m_out.close();
@@ -70,7 +74,7 @@ public class SgfWriter
                      String version)
     {
         m_size = board.getSize();
-        m_out = new PrintStream(out);
+        m_out = new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE));
         print("(");
         printHeader(application, version);
         printNewLine();
@@ -80,10 +84,18 @@ public class SgfWriter
         m_out.close();
     }
 
+    /** Size of the output buffer.
+        Large to write huge trees and compressed files efficiently. */
+    private static final int BUFFER_SIZE = 65536;
+
     private static final int STRINGBUF_CAPACITY = 128;
 
     private static final int MAX_CHARS_PER_LINE = 78;
 
+    private static final String VARIATION_START = "(";
+
+    private static final String VARIATION_END = ")";
+
     private final StringBuilder m_buffer
         = new StringBuilder(STRINGBUF_CAPACITY);
 
@@ -91,6 +103,25 @@ public class SgfWriter
 
     private PrintStream m_out;
 
+    /** Copy the children of a node of a lazily read SGF file verbatim.
+        Only if the children were not created yet and the charset of the
+        file allows it.
+        @return true, if the children were copied. */
+    private boolean copyUnloadedChildren(ConstNode node)
+    {
+        if (! (node instanceof Node))
+            return false;
+        Node.Loader loader = ((Node)node).getLoader();
+        if (! (loader instanceof SgfReader.ChildLoader))
+            return false;
+        SgfReader.ChildLoader childLoader = (SgfReader.ChildLoader)loader;
+        if (! childLoader.canCopy())
+            return false;
+        printNewLine();
+        childLoader.copy(m_out);
+        return true;
+    }
+
     private String getEscaped(String text)
     {
         return getEscaped(text, false);
@@ -120,20 +151,6 @@ public class SgfWriter
         return result.toString();
     }
 
-    private static int getMoveNumberInVariation(ConstNode node)
-    {
-        int moveNumber = 0;
-        while (node != null)
-        {
-            if (node.getMove() != null)
-                ++moveNumber;
-            node = node.getFatherConst();
-            if (node != null && node.getNumberChildren() > 1)
-                break;
-        }
-        return moveNumber;
-    }
-
     private String getPoint(GoPoint p)
     {
         if (p == null)
@@ -279,14 +296,18 @@ public class SgfWriter
             print(property + getPointList(marked));
     }
 
-    private void printNode(ConstNode node, boolean isRoot)
+    /** Print a node.
+        @param node The node.
+        @param isRoot Is the node the root node.
+        @param moveNumber The number of moves from the start of the
+        variation to the node (including the node). */
+    private void printNode(ConstNode node, boolean isRoot, int moveNumber)
     {
         Move move = node.getMove();
         if (! isRoot)
         {
             if (move != null)
             {
-                int moveNumber = getMoveNumberInVariation(node);
                 if (moveNumber != 1 && moveNumber % 10 == 1)
                     printNewLine();
             }
@@ -352,20 +373,49 @@ public class SgfWriter
                 for (int i = 0; i < sgfProps.getNumberValues(key); ++i)
                     print("[" + sgfProps.getValue(key, i) + "]");
             }
-        int numberChildren = node.getNumberChildren();
-        if (numberChildren == 0)
-            return;
-        if (numberChildren == 1)
-        {
-            printNode(node.getChildConst(), false);
-            return;
-        }
-        for (int i = 0; i < numberChildren; ++i)
+    }
+
+    /** Print the nodes of a tree.
+        Uses an explicit stack instead of recursion, because the depth of
+        the main variation can be large. */
+    private void printTree(ConstNode root)
+    {
+        // Contains nodes to print, and strings for the parentheses of
+        // variations
+        ArrayList<Object> stack = new ArrayList<Object>();
+        stack.add(root);
+        int moveNumber = 0;
+        while (! stack.isEmpty())
         {
-            printNewLine();
-            print("(");
-            printNode(node.getChildConst(i), false);
-            print(")");
+            Object object = stack.remove(stack.size() - 1);
+            if (object instanceof String)
+            {
+                if (object == VARIATION_START)
+                    printNewLine();
+                print((String)object);
+                continue;
+            }
+            ConstNode node = (ConstNode)object;
+            // Nodes with a father with one child are always printed
+            // immediately after the father
+            ConstNode father = node.getFatherConst();
+            if (node == root || father.getNumberChildren() > 1)
+                moveNumber = 0;
+            if (node.getMove() != null)
+                ++moveNumber;
+            printNode(node, node == root, moveNumber);
+            if (copyUnloadedChildren(node))
+                continue;
+            int numberChildren = node.getNumberChildren();
+            if (numberChildren == 1)
+                stack.add(node.getChildConst());
+            else
+                for (int i = numberChildren - 1; i >= 0; --i)
+                {
+                    stack.add(VARIATION_END);
+                    stack.add(node.getChildConst(i));
+                    stack.add(VARIATION_START);
+                }
         }
     }
 
@@ -3,7 +3,6 @@
 package net.sf.gogui.thumbnail;
 
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -11,6 +10,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import net.sf.gogui.boardpainter.BoardPainter;
@@ -50,8 +50,9 @@ public final class ThumbnailCreator
 
     /** Create thumbnail at standard location.
         Does not create the thumnbail if an up-to-date thumbnail already
-        exists. */
-    public void create(File input) throws ErrorMessage
+        exists.
+        @return false, if an up-to-date thumbnail already existed. */
+    public boolean create(File input) throws ErrorMessage
     {
         File file = getThumbnailFileNormalSize(input);
         if (file.exists())
@@ -66,7 +67,7 @@ public final class ThumbnailCreator
                 {
                     m_lastThumbnail = file;
                     m_description = data.m_description;
-                    return;
+                    return false;
                 }
             }
             catch (IOException e)
@@ -74,6 +75,7 @@ public final class ThumbnailCreator
             }
         }
         create(input, null, 128, false);
+        return true;
     }
 
     /** Create thumbnail.
@@ -96,11 +98,10 @@ public final class ThumbnailCreator
             m_description = "";
             ConstBoard board = readFile(input);
             int size = board.getSize();
-            Field[][] fields = new Field[size][size];
+            Field[][] fields = createFields(size);
             for (int x = 0; x < size; ++x)
                 for (int y = 0; y < size; ++y)
                 {
-                    fields[x][y] = new Field();
                     GoColor color = board.getColor(GoPoint.get(x, y));
                     fields[x][y].setColor(color);
                 }
@@ -108,26 +109,17 @@ public final class ThumbnailCreator
             if (scale)
                 imageSize = Math.min(thumbnailSize * size / 19,
                                      thumbnailSize);
-            BufferedImage image;
-            if (imageSize < 256)
-            {
-                // Create large image and scale down, looks better than
-                // creating small image
-                image = BoardPainterUtil.getImage(m_painter, fields,
-                                                  2 * imageSize,
-                                                  2 * imageSize);
-                BufferedImage newImage
-                    = BoardPainterUtil.createImage(imageSize, imageSize);
-                Graphics2D graphics = newImage.createGraphics();
-                Image scaledInstance
-                    = image.getScaledInstance(imageSize, imageSize,
-                                              Image.SCALE_SMOOTH);
-                graphics.drawImage(scaledInstance, 0, 0, null);
-                image = newImage;
-            }
-            else
-                image = BoardPainterUtil.getImage(m_painter, fields,
-                                                  imageSize, imageSize);
+            // Create large image and scale down, looks better than
+            // creating small image
+            int paintSize = (imageSize < 256 ? 2 * imageSize : imageSize);
+            BufferedImage image =
+                BoardPainterUtil.createImage(paintSize, paintSize);
+            Graphics2D graphics = image.createGraphics();
+            graphics.drawImage(getEmptyBoard(size, paintSize), 0, 0, null);
+            m_painter.drawForeground(graphics, fields, paintSize, false);
+            graphics.dispose();
+            if (paintSize > imageSize)
+                image = scaleDownHalf(image);
             if (output == null)
                 output = getThumbnailFileNormalSize(input);
             long lastModified = getLastModified(input);
@@ -181,6 +173,12 @@ public final class ThumbnailCreator
         return m_lastThumbnail;
     }
 
+    /** Images of empty boards with key board size and image size.
+        Shared between all instances, because drawing the board background
+        takes a significant part of the time for creating a thumbnail. */
+    private static final Map<Long,BufferedImage> s_emptyBoards =
+        new ConcurrentHashMap<Long,BufferedImage>();
+
     private final boolean m_verbose;
 
     private String m_description;
@@ -191,6 +189,64 @@ public final class ThumbnailCreator
 
     private GameFile m_gameFile;
 
+    private static Field[][] createFields(int size)
+    {
+        Field[][] fields = new Field[size][size];
+        for (int x = 0; x < size; ++x)
+            for (int y = 0; y < size; ++y)
+                fields[x][y] = new Field();
+        return fields;
+    }
+
+    private BufferedImage getEmptyBoard(int size, int imageSize)
+    {
+        Long key = Long.valueOf(((long)size << 32) | imageSize);
+        BufferedImage image = s_emptyBoards.get(key);
+        if (image == null)
+        {
+            image = BoardPainterUtil.getImage(m_painter, createFields(size),
+                                              imageSize, imageSize);
+            s_emptyBoards.put(key, image);
+        }
+        return image;
+    }
+
+    /** Scale an image down to half its size.
+        Averages the colors of each 2x2 block of pixels, which gives the
+        same result as Image.SCALE_AREA_AVERAGING for this factor, but is
+        much faster. */
+    private static BufferedImage scaleDownHalf(BufferedImage image)
+    {
+        int width = image.getWidth() / 2;
+        int height = image.getHeight() / 2;
+        int srcWidth = 2 * width;
+        int[] src = image.getRGB(0, 0, srcWidth, 2 * height, null, 0,
+                                 srcWidth);
+        int[] dest = new int[width * height];
+        for (int y = 0; y < height; ++y)
+        {
+            int i = 2 * y * srcWidth;
+            int j = y * width;
+            for (int x = 0; x < width; ++x, i += 2, ++j)
+            {
+                int p1 = src[i];
+                int p2 = src[i + 1];
+                int p3 = src[i + srcWidth];
+                int p4 = src[i + srcWidth + 1];
+                int r = (((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff)
+                         + ((p3 >> 16) & 0xff) + ((p4 >> 16) & 0xff) + 2) >> 2;
+                int g = (((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff)
+                         + ((p3 >> 8) & 0xff) + ((p4 >> 8) & 0xff) + 2) >> 2;
+                int b = ((p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff)
+                         + (p4 & 0xff) + 2) >> 2;
+                dest[j] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        BufferedImage result = BoardPainterUtil.createImage(width, height);
+        result.setRGB(0, 0, width, height, dest, 0, width);
+        return result;
+    }
+
     /** Read a file and return a position to use for the thumbnail.
         The position is the first position in the main variation that contains
         setup stones (unless they are handicap stones) or, if no such position
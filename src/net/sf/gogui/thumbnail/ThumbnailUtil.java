@@ -4,13 +4,18 @@ package net.sf.gogui.thumbnail;
 
 import java.io.File;
 import java.io.IOException;
-import net.sf.gogui.game.BoardUpdater;
+import java.util.ArrayList;
 import net.sf.gogui.game.ConstGameTree;
 import net.sf.gogui.game.ConstNode;
+import net.sf.gogui.game.NodeUtil;
+import net.sf.gogui.go.BitBoard;
 import net.sf.gogui.go.ConstBoard;
-import net.sf.gogui.go.Board;
+import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.WHITE;
+import static net.sf.gogui.go.GoColor.BLACK_WHITE_EMPTY;
+import net.sf.gogui.go.GoPoint;
+import net.sf.gogui.go.Move;
 import net.sf.gogui.util.FileUtil;
 
 /** Untility functions for managing the thumbnail directory. */
@@ -104,11 +109,27 @@ public final class ThumbnailUtil
     }
 
     /** Get a position from the tree to be used for the thumbnail.
-        @see #getPosition() */
+        Uses a BitBoard, because the thumbnail needs only the stones and
+        batch thumbnailing creates a position for each file.
+        @see #getNode(ConstGameTree) */
     public static ConstBoard getPosition(ConstGameTree tree)
     {
-        Board board = new Board(tree.getBoardSize());
-        new BoardUpdater().update(tree, getNode(tree), board);
+        BitBoard board = new BitBoard(tree.getBoardSize());
+        ArrayList<ConstNode> path = new ArrayList<ConstNode>();
+        NodeUtil.getPathToRoot(getNode(tree), path);
+        for (int i = path.size() - 1; i >= 0; --i)
+        {
+            ConstNode node = path.get(i);
+            for (GoColor c : BLACK_WHITE_EMPTY)
+                for (GoPoint p : node.getSetup(c))
+                    board.setColor(p, c);
+            Move move = node.getMove();
+            if (move != null)
+                board.play(move);
+            GoColor player = node.getPlayer();
+            if (player != null)
+                board.setToMove(player);
+        }
         return board;
     }
 
@@ -0,0 +1,271 @@
+// BatchConvert.java
+
+package net.sf.gogui.tools.convert;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.sf.gogui.gamefile.GameFileUtil;
+import net.sf.gogui.util.ErrorMessage;
+import net.sf.gogui.util.FileUtil;
+import net.sf.gogui.util.StringUtil;
+
+/** Converts many files in parallel.
+    Input directories are searched with GameFileUtil.findGameFiles(). The
+    output file for an input file has the same path relative to the output
+    directory as the input file relative to the directory given as
+    argument, with the extension replaced by the output format.
+    Input files that would have the same output file are reported as an
+    error when they are added.
+    Files that cannot be converted are reported and skipped. The messages
+    for each file are collected and printed in the order of the input
+    files. */
+final class BatchConvert
+{
+    /** Constructor.
+        @param outDir The output directory, null if only checking the input
+        files.
+        @param format The output format, null if only checking the input
+        files. */
+    public BatchConvert(File outDir, String format, String title,
+                        boolean werror, boolean force, int numberThreads)
+    {
+        m_outDir = outDir;
+        m_format = format;
+        m_title = title;
+        m_werror = werror;
+        m_force = force;
+        m_numberThreads = numberThreads;
+    }
+
+    /** Add an input file or directory.
+        @throws ErrorMessage If the file does not exist or an input file has
+        the same output file as another input file. */
+    public void add(File file) throws ErrorMessage
+    {
+        if (! file.exists())
+            throw new ErrorMessage("File \"" + file + "\" not found");
+        if (file.isDirectory())
+            addDirectory(file);
+        else
+            addFile(file, file.getName());
+    }
+
+    /** Add the input files and directories listed in a file.
+        The file contains one file name per line. Empty lines are
+        ignored. */
+    public void addFileList(File fileList) throws ErrorMessage
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new FileReader(fileList));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (! line.equals(""))
+                    add(new File(line));
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new ErrorMessage("File \"" + fileList + "\" not found");
+        }
+        catch (IOException e)
+        {
+            throw new ErrorMessage(fileList + ": " + e.getMessage());
+        }
+        finally
+        {
+            try
+            {
+                if (reader != null)
+                    reader.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /** Convert all files.
+        @param err Stream for printing warnings and errors.
+        @return false, if some files or games could not be converted. */
+    public boolean run(PrintStream err) throws ErrorMessage
+    {
+        if (m_outDir != null && ! m_outDir.isDirectory()
+            && ! m_outDir.mkdirs())
+            throw new ErrorMessage("Could not create directory \""
+                                   + m_outDir + "\"");
+        ExecutorService executor =
+            Executors.newFixedThreadPool(m_numberThreads);
+        // Limit the number of pending results, which hold the messages of
+        // converted files until all previous files are done
+        int maxPending = 4 * m_numberThreads;
+        ArrayDeque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+        int numberFailed = 0;
+        try
+        {
+            for (int i = 0; i < m_in.size(); ++i)
+            {
+                if (pending.size() >= maxPending
+                    && ! printResult(pending.remove(), err))
+                    ++numberFailed;
+                final File in = m_in.get(i);
+                final File out = getOutputFile(m_outNames.get(i));
+                pending.add(executor.submit(new Callable<Result>() {
+                        public Result call()
+                        {
+                            return convert(in, out);
+                        }
+                    }));
+            }
+            while (! pending.isEmpty())
+                if (! printResult(pending.remove(), err))
+                    ++numberFailed;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        if (numberFailed > 0)
+            err.println(numberFailed + " of " + m_in.size()
+                        + " files had errors");
+        return numberFailed == 0;
+    }
+
+    private static class Result
+    {
+        public boolean m_success;
+
+        public String m_messages;
+    }
+
+    private final boolean m_werror;
+
+    private final boolean m_force;
+
+    private final int m_numberThreads;
+
+    private final String m_format;
+
+    private final String m_title;
+
+    private final File m_outDir;
+
+    private final ArrayList<File> m_in = new ArrayList<File>();
+
+    /** Path of the output file relative to the output directory for each
+        input file. */
+    private final ArrayList<String> m_outNames = new ArrayList<String>();
+
+    /** Input file for each output file. */
+    private final HashMap<File,File> m_inByOut = new HashMap<File,File>();
+
+    private void addDirectory(File dir) throws ErrorMessage
+    {
+        String prefix = dir.getPath();
+        if (! prefix.endsWith(File.separator))
+            prefix = prefix + File.separator;
+        for (File file : GameFileUtil.findGameFiles(dir))
+        {
+            // The files found in dir have paths starting with dir
+            assert file.getPath().startsWith(prefix);
+            addFile(file, file.getPath().substring(prefix.length()));
+        }
+    }
+
+    private void addFile(File file, String outName) throws ErrorMessage
+    {
+        File out = getOutputFile(outName);
+        if (out != null)
+        {
+            File other = m_inByOut.get(out);
+            if (other != null)
+                throw new ErrorMessage("Files \"" + other + "\" and \""
+                                       + file + "\" have the same output"
+                                       + " file \"" + out + "\"");
+            m_inByOut.put(out, file);
+        }
+        m_in.add(file);
+        m_outNames.add(outName);
+    }
+
+    private Result convert(File in, File out)
+    {
+        Result result = new Result();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(messages);
+        try
+        {
+            if (out != null)
+            {
+                File parent = out.getParentFile();
+                if (parent != null)
+                    parent.mkdirs();
+            }
+            result.m_success =
+                Main.convert(in, out, m_format, m_title, m_werror, m_force,
+                             err);
+        }
+        catch (Throwable t)
+        {
+            err.println(StringUtil.getErrorMessage(t));
+            if (t instanceof RuntimeException || t instanceof Error)
+                t.printStackTrace(err);
+            result.m_success = false;
+        }
+        err.close();
+        if (messages.size() > 0)
+            result.m_messages = in + ":\n" + messages.toString();
+        return result;
+    }
+
+    private File getOutputFile(String outName)
+    {
+        if (m_outDir == null)
+            return null;
+        String name = outName;
+        if (FileUtil.isGzip(new File(name)))
+            name = FileUtil.removeExtension(new File(name),
+                                            FileUtil.GZIP_EXTENSION);
+        String extension = FileUtil.getExtension(new File(name));
+        if (extension != null)
+            name = FileUtil.removeExtension(new File(name), extension);
+        return new File(m_outDir, name + "." + m_format);
+    }
+
+    private static boolean printResult(Future<Result> future, PrintStream err)
+        throws ErrorMessage
+    {
+        Result result;
+        try
+        {
+            result = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new ErrorMessage("Interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            throw new ErrorMessage(e.getCause().toString());
+        }
+        if (result.m_messages != null)
+            err.print(result.m_messages);
+        return result.m_success;
+    }
+}
@@ -3,12 +3,16 @@
 package net.sf.gogui.tools.convert;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Locale;
 import net.sf.gogui.game.ConstGameTree;
+import net.sf.gogui.game.GameTree;
+import net.sf.gogui.gamefile.GameFile;
 import net.sf.gogui.gamefile.GameReader;
+import net.sf.gogui.sgf.SgfCollectionReader;
+import net.sf.gogui.sgf.SgfError;
 import net.sf.gogui.sgf.SgfWriter;
 import net.sf.gogui.tex.TexWriter;
 import net.sf.gogui.util.ErrorMessage;
@@ -18,7 +22,10 @@ import net.sf.gogui.util.StringUtil;
 import net.sf.gogui.version.Version;
 import net.sf.gogui.xml.XmlWriter;
 
-/** Convert SGF and Jago XML Go game files to other formats. */
+/** Convert SGF and Jago XML Go game files to other formats.
+    SGF files containing a collection of games are converted to one output
+    file per game. With option -batch, the arguments are input files and
+    directories, which are converted in parallel (see BatchConvert). */
 public final class Main
 {
     /** Main function. */
@@ -27,11 +34,15 @@ public final class Main
         try
         {
             String options[] = {
+                "batch",
                 "check",
                 "config:",
+                "filelist:",
                 "force",
                 "format:",
                 "help",
+                "outdir:",
+                "threads:",
                 "title:",
                 "version",
                 "werror"
@@ -52,6 +63,33 @@ public final class Main
             boolean werror = opt.contains("werror");
             boolean checkOnly = opt.contains("check");
             ArrayList<String> arguments = opt.getArguments();
+            if (opt.contains("batch"))
+            {
+                String format = null;
+                File outDir = null;
+                if (! checkOnly)
+                {
+                    if (! opt.contains("format") || ! opt.contains("outdir"))
+                        throw new ErrorMessage("Option -batch needs options"
+                                               + " -format and -outdir");
+                    format = getFormat(opt.get("format"));
+                    outDir = new File(opt.get("outdir"));
+                }
+                int numberThreads =
+                    opt.getInteger("threads",
+                                   Runtime.getRuntime().availableProcessors(),
+                                   1);
+                BatchConvert batch =
+                    new BatchConvert(outDir, format, title, werror, force,
+                                     numberThreads);
+                for (String arg : arguments)
+                    batch.add(new File(arg));
+                if (opt.contains("filelist"))
+                    batch.addFileList(new File(opt.get("filelist")));
+                if (! batch.run(System.err))
+                    System.exit(1);
+                return;
+            }
             if (! (arguments.size() == 2
                    || (arguments.size() == 1 && checkOnly)))
             {
@@ -65,43 +103,13 @@ public final class Main
             {
                 out = new File(arguments.get(1));
                 if (opt.contains("format"))
-                    format = opt.get("format");
+                    format = getFormat(opt.get("format"));
                 else
-                    format =
-                        FileUtil.getExtension(out).toLowerCase(Locale.ENGLISH);
-                if (! format.equals("sgf")
-                    && ! format.equals("tex")
-                    && ! format.equals("xml"))
-                    throw new ErrorMessage("Unknown format");
-                if (out.exists() && ! force)
-                    throw new ErrorMessage("File \"" + out
-                                           + "\" already exists");
-            }
-            if (! in.exists())
-                throw new ErrorMessage("File \"" + in + "\" not found");
-            GameReader reader = new GameReader(in);
-            ConstGameTree tree = reader.getTree();
-            String warnings = reader.getWarnings();
-            if (warnings != null)
-            {
-                System.err.print(warnings);
-                if (werror)
-                    System.exit(1);
-            }
-            if (! checkOnly)
-            {
-                String version = Version.get();
-                if (format.equals("xml"))
-                    new XmlWriter(new FileOutputStream(out), tree,
-                                  "gogui-convert:" + version);
-                else if (format.equals("sgf"))
-                    new SgfWriter(new FileOutputStream(out), tree,
-                                  "gogui-convert", version);
-                else if (format.equals("tex"))
-                    new TexWriter(title, new FileOutputStream(out), tree);
-                else
-                    assert false; // checked above
+                    format = getFormat(FileUtil.getExtension(
+                                   GameReader.getUncompressedName(out)));
             }
+            if (! convert(in, out, format, title, werror, force, System.err))
+                System.exit(1);
         }
         catch (Throwable t)
         {
@@ -115,17 +123,192 @@ public final class Main
     {
     }
 
+    /** Convert a file.
+        @param out The output file, null if only checking the input file.
+        @param format The output format, one of "sgf", "tex", "xml".
+        @param err Stream for printing warnings and errors about single
+        games of a collection.
+        @return false, if some games could not be read or had warnings and
+        werror is true.
+        @throws Exception If the file could not be read or written. */
+    static boolean convert(File in, File out, String format, String title,
+                           boolean werror, boolean force, PrintStream err)
+        throws Exception
+    {
+        if (out != null && out.exists() && ! force)
+            throw new ErrorMessage("File \"" + out + "\" already exists");
+        if (! in.exists())
+            throw new ErrorMessage("File \"" + in + "\" not found");
+        if (GameReader.detectFormat(in) == GameFile.Format.SGF)
+            return convertSgf(in, out, format, title, werror, force, err);
+        GameReader reader = new GameReader(in);
+        ConstGameTree tree = reader.getTree();
+        String warnings = reader.getWarnings();
+        if (warnings != null)
+        {
+            err.print(warnings);
+            if (werror)
+                return false;
+        }
+        if (out != null)
+            write(tree, out, format, title);
+        return true;
+    }
+
+    /** Get the output format from a format name or file extension.
+        @return The format in lower case.
+        @throws ErrorMessage If the format is unknown. */
+    static String getFormat(String name) throws ErrorMessage
+    {
+        if (name == null)
+            throw new ErrorMessage("Unknown format");
+        String format = name.toLowerCase(Locale.ENGLISH);
+        if (! format.equals("sgf")
+            && ! format.equals("tex")
+            && ! format.equals("xml"))
+            throw new ErrorMessage("Unknown format");
+        return format;
+    }
+
+    /** Convert an SGF file.
+        The file is read with SgfCollectionReader. If it contains a
+        collection of games, the games are written to files with the game
+        number appended to the name of the output file. Games after the
+        first game that cannot be read are reported and skipped.
+        @param out The output file, null if only checking the input file.
+        @return false, if some games could not be read or had warnings and
+        werror is true. */
+    private static boolean convertSgf(File in, File out, String format,
+                                      String title, boolean werror,
+                                      boolean force, PrintStream err)
+        throws Exception
+    {
+        SgfCollectionReader reader = new SgfCollectionReader(in);
+        try
+        {
+            GameTree first = reader.readNext();
+            if (first == null)
+                throw new ErrorMessage(in + ": no game found");
+            String firstWarnings = reader.getWarnings();
+            GameTree tree;
+            boolean hasErrors = false;
+            try
+            {
+                tree = reader.readNext();
+                if (tree == null)
+                    // Single game
+                    return convertTree(first, firstWarnings, in, 0, out,
+                                       format, title, werror, force, err);
+            }
+            catch (SgfError e)
+            {
+                err.println(e.getMessage());
+                hasErrors = true;
+                tree = null;
+            }
+            if (! convertTree(first, firstWarnings, in, 1, out, format, title,
+                              werror, force, err))
+                return false;
+            while (true)
+            {
+                if (tree != null
+                    && ! convertTree(tree, reader.getWarnings(), in,
+                                     reader.getNumberTrees(), out, format,
+                                     title, werror, force, err))
+                    return false;
+                try
+                {
+                    tree = reader.readNext();
+                    if (tree == null)
+                        break;
+                }
+                catch (SgfError e)
+                {
+                    err.println(e.getMessage());
+                    hasErrors = true;
+                    tree = null;
+                }
+            }
+            return ! hasErrors;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /** Convert a game of an SGF file.
+        @param number The number of the game in the collection, 0 if the
+        file contains a single game.
+        @return false, if the game had warnings and werror is true. */
+    private static boolean convertTree(GameTree tree, String warnings,
+                                       File in, int number, File out,
+                                       String format, String title,
+                                       boolean werror, boolean force,
+                                       PrintStream err)
+        throws Exception
+    {
+        if (warnings != null)
+        {
+            if (number > 0)
+                err.println(SgfCollectionReader
+                            .getTreeName(in.toString(), number) + ":");
+            err.print(warnings);
+            if (werror)
+                return false;
+        }
+        if (out == null)
+            return true;
+        File file = out;
+        if (number > 0)
+        {
+            String extension = FileUtil.getExtension(out);
+            String name =
+                FileUtil.removeExtension(out, extension) + "-" + number;
+            if (extension != null)
+                name = name + "." + extension;
+            file = new File(name);
+            if (file.exists() && ! force)
+                throw new ErrorMessage("File \"" + file
+                                       + "\" already exists");
+        }
+        write(tree, file, format, title);
+        return true;
+    }
+
     private static void printUsage(PrintStream out)
     {
         out.print("Usage: gogui-convert infile outfile\n" +
+                  "       gogui-convert -batch -format f -outdir dir"
+                  + " file|dir ...\n" +
                   "\n" +
-                  "-check   only check reading a file\n" +
-                  "-config  config file\n" +
-                  "-force   overwrite existing files\n" +
-                  "-format  output format (sgf,tex,xml)\n" +
-                  "-help    display this help and exit\n" +
-                  "-title   use title\n" +
-                  "-version print version and exit\n" +
-                  "-werror  handle read warnings as errors\n");
+                  "-batch    convert input files and directories\n" +
+                  "-check    only check reading a file\n" +
+                  "-config   config file\n" +
+                  "-filelist file with input files (batch mode)\n" +
+                  "-force    overwrite existing files\n" +
+                  "-format   output format (sgf,tex,xml)\n" +
+                  "-help     display this help and exit\n" +
+                  "-outdir   output directory (batch mode)\n" +
+                  "-threads  number of threads (batch mode)\n" +
+                  "-title    use title\n" +
+                  "-version  print version and exit\n" +
+                  "-werror   handle read warnings as errors\n");
+    }
+
+    private static void write(ConstGameTree tree, File out, String format,
+                              String title)
+        throws Exception
+    {
+        String version = Version.get();
+        OutputStream stream = FileUtil.openOutputStream(out, null);
+        if (format.equals("xml"))
+            new XmlWriter(stream, tree, "gogui-convert:" + version);
+        else if (format.equals("sgf"))
+            new SgfWriter(stream, tree, "gogui-convert", version);
+        else if (format.equals("tex"))
+            new TexWriter(title, stream, tree);
+        else
+            assert false; // checked in main()
     }
 }
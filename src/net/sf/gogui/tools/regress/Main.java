@@ -20,8 +20,11 @@ public final class Main
                 "config:",
                 "gtpfile:",
                 "help",
+                "history:",
                 "long",
                 "output:",
+                "threads:",
+                "threshold:",
                 "verbose",
                 "version"
             };
@@ -39,6 +42,11 @@ public final class Main
             boolean verbose = opt.contains("verbose");
             boolean longOutput = opt.contains("long");
             String output = opt.get("output", "");
+            int numberThreads = opt.getInteger("threads", 1, 1);
+            int threshold = opt.getInteger("threshold", 20, 0);
+            File historyFile = null;
+            if (opt.contains("history"))
+                historyFile = new File(opt.get("history"));
             File gtpFile = null;
             if (opt.contains("gtpfile"))
                 gtpFile = new File(opt.get("gtpfile")).getAbsoluteFile();
@@ -53,7 +61,8 @@ public final class Main
             ArrayList<String> tests = new ArrayList<String>(arguments);
             tests.remove(0);
             Regress regress = new Regress(program, tests, output, longOutput,
-                                          verbose, gtpFile);
+                                          verbose, gtpFile, numberThreads,
+                                          historyFile, threshold);
             System.exit(regress.getResult() ? 0 : 1);
         }
         catch (Throwable t)
@@ -76,8 +85,11 @@ public final class Main
                   "-config       Config file\n" +
                   "-gtpfile      GTP file to execute before each test\n" +
                   "-help         Display this help and exit\n" +
+                  "-history      File with times of previous runs\n" +
                   "-long         Longer output to standard out\n" +
                   "-output       Output directory\n" +
+                  "-threads      Number of test files to run in parallel\n" +
+                  "-threshold    Minimum CPU time increase in percent\n" +
                   "-verbose      Log GTP stream to stderr\n" +
                   "-version      Display this help and exit\n");
     }
@@ -3,6 +3,7 @@
 package net.sf.gogui.tools.regress;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -12,6 +13,11 @@ import java.io.Reader;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.sf.gogui.gtp.GtpClient;
@@ -23,9 +29,12 @@ import net.sf.gogui.util.HtmlUtil;
 import net.sf.gogui.util.Platform;
 import net.sf.gogui.util.StringUtil;
 
-/** Runs GTP regression tests. */
+/** Runs GTP regression tests.
+    Test files can be run in parallel. Each test file is run with a new
+    instance of the Go program, independent of the number of threads. The
+    results and the messages to standard output are in the order of the
+    test files. */
 public class Regress
-    implements GtpClient.IOCallback
 {
     /** Constructor.
         @param gtpFile File with GTP commands to send at startup or
@@ -33,6 +42,25 @@ public class Regress
     public Regress(String program, ArrayList<String> tests, String output,
                    boolean longOutput, boolean verbose, File gtpFile)
         throws Exception
+    {
+        this(program, tests, output, longOutput, verbose, gtpFile, 1, null,
+             0);
+    }
+
+    /** Constructor.
+        @param gtpFile File with GTP commands to send at startup or
+        <code>null</code> for no file.
+        @param numberThreads Number of test files to run in parallel.
+        @param historyFile File with the times of previous runs (see
+        TimingHistory), <code>null</code> for no history. The times of this
+        run are appended to the file and the tests that became slower are
+        written to the file timing.html in the output directory.
+        @param threshold Minimum increase of the CPU time in percent for
+        reporting a test as slower. */
+    public Regress(String program, ArrayList<String> tests, String output,
+                   boolean longOutput, boolean verbose, File gtpFile,
+                   int numberThreads, File historyFile, int threshold)
+        throws Exception
     {
         tests = RegressUtil.expandTestSuites(tests);
         RegressUtil.checkFiles(tests);
@@ -53,43 +81,31 @@ public class Regress
             m_prefix = output + File.separator;
         }
         initOutNames(tests);
-        for (int i = 0; i < tests.size(); ++i)
+        m_threshold = threshold;
+        if (historyFile != null)
+            m_history = new TimingHistory(historyFile);
+        runTests(tests, numberThreads);
+        if (m_history != null)
         {
-            String test = tests.get(i);
-            if (tests.size() > 1)
-                m_outPrefix = test + " ";
-            else
-                m_outPrefix = "";
-            runTest(test);
+            m_history.save();
+            writeTiming();
         }
         writeSummary();
         writeData();
     }
 
+    /** Minimum increase of the CPU time of a test in seconds for reporting
+        the test as slower.
+        Avoids reporting tests with short times because of measurement
+        noise. */
+    public static final double MIN_SLOWDOWN = 0.1;
+
     /** Return true if tests completed with no unexpected failures. */
     public boolean getResult()
     {
         return m_result;
     }
 
-    public void receivedInvalidResponse(String s)
-    {
-        printOutLine("invalid", "Invalid response: " + s);
-    }
-
-    public void receivedResponse(boolean error, String s)
-    {
-    }
-
-    public void receivedStdErr(String s)
-    {
-        printOut("stderr", s, -1);
-    }
-
-    public void sentCommand(String s)
-    {
-    }
-
     /** Exception thrown if Go program died. */
     private static class ProgramIsDeadException
         extends Exception
@@ -119,9 +135,16 @@ public class Regress
 
         public String m_lastSgf;
 
+        /** Wall time of the test command. */
+        public long m_timeMillis;
+
+        /** CPU time of the test command or -1, if unknown. */
+        public double m_cpuTime;
+
         public Test(int id, String command, boolean fail,
                     boolean expectedFail, String required, String response,
-                    String lastSgf, int lastSgfMove)
+                    String lastSgf, int lastSgfMove, long timeMillis,
+                    double cpuTime)
         {
             m_id = id;
             m_fail = fail;
@@ -131,9 +154,24 @@ public class Regress
             m_response = response;
             m_lastSgf = lastSgf;
             m_lastSgfMove = lastSgfMove;
+            m_timeMillis = timeMillis;
+            m_cpuTime = cpuTime;
         }
     }
 
+    /** Test that became slower compared to previous runs. */
+    private static class SlowTest
+    {
+        public double m_referenceCpuTime;
+
+        public File m_file;
+
+        /** See Regress#m_outName */
+        public String m_outName;
+
+        public Test m_test;
+    }
+
     /** Information about test results of one test file. */
     private static class TestSummary
     {
@@ -164,361 +202,901 @@ public class Regress
         }
     }
 
-    private boolean m_lastError;
-
-    private final boolean m_longOutput;
+    /** Run of a single test file.
+        Each run uses its own instance of the Go program and writes its own
+        output files. Messages to standard output are written to a buffer, if
+        several test files are run in parallel. */
+    private final class TestRun
+        implements GtpClient.IOCallback
+    {
+        public TestRun(String test, boolean withOutPrefix,
+                       boolean bufferConsole)
+        {
+            m_testFile = new File(test);
+            m_outName = m_outNames.get(test);
+            if (withOutPrefix)
+                m_outPrefix = test + " ";
+            else
+                m_outPrefix = "";
+            if (bufferConsole)
+            {
+                m_consoleBuffer = new ByteArrayOutputStream();
+                m_console = new PrintStream(m_consoleBuffer);
+            }
+            else
+                m_console = System.out;
+        }
 
-    private boolean m_result;
+        public void run() throws Exception
+        {
+            initOutFile();
+            File testFileDir = m_testFile.getAbsoluteFile().getParentFile();
+            m_relativePath = FileUtil.getRelativeURI(m_outFile, testFileDir);
+            if (! m_relativePath.equals("") && ! m_relativePath.endsWith("/"))
+                m_relativePath = m_relativePath + "/";
+            FileReader fileReader = new FileReader(m_testFile);
+            BufferedReader reader = new BufferedReader(fileReader);
+            try
+            {
+                m_gtp = new GtpClient(m_program, testFileDir, m_verbose, this);
+                if (m_gtpFile != null)
+                    sendGtpFile();
+                m_lastSgf = null;
+                queryNameAndVersion();
+                double cpuTime = getCpuTime();
+                long timeMillis = System.currentTimeMillis();
+                printOutSeparator();
+                String line;
+                while (true)
+                {
+                    line = reader.readLine();
+                    if (line == null)
+                        break;
+                    handleLine(line);
+                }
+                timeMillis = System.currentTimeMillis() - timeMillis;
+                if (m_lastFullResponse != null)
+                {
+                    handleLastResponse();
+                    m_lastFullResponse = null;
+                }
+                printOutSeparator();
+                cpuTime = getCpuTime() - cpuTime;
+                if (m_lastFullResponse != null)
+                {
+                    handleLastResponse();
+                    m_lastFullResponse = null;
+                }
+                if (! m_gtp.isProgramDead())
+                {
+                    send("quit");
+                    m_gtp.close();
+                }
+                m_gtp.waitForExit();
+                finishOutFile();
+                m_summary = getTestSummary(timeMillis, cpuTime);
+                writeTestSummary(m_summary);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
 
-    private final boolean m_verbose;
+        /** Get the messages to standard output.
+            @return The messages or an empty string, if standard output was not
+            buffered. */
+        public String getConsoleOutput()
+        {
+            if (m_consoleBuffer == null)
+                return "";
+            m_console.flush();
+            return m_consoleBuffer.toString();
+        }
 
-    private int m_lastCommandId;
+        public void receivedInvalidResponse(String s)
+        {
+            printOutLine("invalid", "Invalid response: " + s);
+        }
 
-    private int m_lastSgfMove;
+        public void receivedResponse(boolean error, String s)
+        {
+        }
 
-    private int m_otherErrors;
+        public void receivedStdErr(String s)
+        {
+            printOut("stderr", s, -1);
+        }
 
-    private File m_testFile;
+        public void sentCommand(String s)
+        {
+        }
 
-    private PrintStream m_out;
+        private boolean m_isCpuTimeSupported = true;
 
-    private static final String COLOR_ERROR = "#ffa954";
+        private boolean m_lastError;
 
-    private static final String COLOR_HEADER = "#91aee8";
+        /** Result of this test file.
+            See Regress#getResult() */
+        private boolean m_result = true;
 
-    private static final String COLOR_INFO = "#e0e0e0";
+        private int m_lastCommandId;
 
-    private static final String COLOR_BG_LIGHT = "#e0e0e0";
+        private int m_lastSgfMove;
 
-    private static final String COLOR_BG_GRAY = "#e0e0e0";
+        private int m_otherErrors;
 
-    private static final String COLOR_GREEN = "#5eaf5e";
+        /** Wall time of the last command. */
+        private long m_lastTimeMillis;
 
-    private static final String COLOR_RED = "#ff5454";
+        /** CPU time of the last command or -1, if unknown. */
+        private double m_lastCpuTime;
 
-    /** Output file of the current test.
-        The file contains an HTML formatted log of the GTP streams and
-        the standard error of Go program. */
-    private File m_outFile;
+        private final File m_testFile;
 
-    private final File m_gtpFile;
+        private PrintStream m_out;
 
-    private String m_currentStyle;
+        private final PrintStream m_console;
 
-    private String m_lastCommand;
+        private ByteArrayOutputStream m_consoleBuffer;
 
-    private String m_lastFullResponse;
+        /** Output file of the test.
+            The file contains an HTML formatted log of the GTP streams and
+            the standard error of Go program. */
+        private File m_outFile;
 
-    private String m_lastResponse;
+        private String m_currentStyle;
 
-    private String m_lastSgf;
+        private String m_lastCommand;
 
-    private String m_name;
+        private String m_lastFullResponse;
 
-    /** Name of m_outFile and the summary file of the test without directory
-        and file extension for the current test. */
-    private String m_outName;
+        private String m_lastResponse;
 
-    private String m_outFileRelativeName;
+        private String m_lastSgf;
 
-    private String m_outPrefix;
+        private String m_name;
 
-    private final String m_prefix;
+        /** Name of m_outFile and the summary file of the test without
+            directory and file extension. */
+        private final String m_outName;
 
-    private final String m_program;
+        private String m_outFileRelativeName;
 
-    /** Relative URI path between m_outFile and the directory of the current
-        test. */
-    private String m_relativePath;
+        private final String m_outPrefix;
 
-    private String m_version;
+        /** Relative URI path between m_outFile and the directory of the
+            test. */
+        private String m_relativePath;
 
-    /** Name of m_outFile and the summary file of the test without directory
-        and file extension for the all tests. */
-    private TreeMap<String,String> m_outNames;
+        private String m_version;
 
-    private final ArrayList<Test> m_tests = new ArrayList<Test>();
+        private final ArrayList<Test> m_tests = new ArrayList<Test>();
 
-    private final ArrayList<TestSummary> m_testSummaries
-        = new ArrayList<TestSummary>();
+        /** Summary of the test file, set after the run finished. */
+        private TestSummary m_summary;
 
-    private GtpClient m_gtp;
+        private GtpClient m_gtp;
 
-    private void checkLastSgf(String line)
-    {
-        String regex =
-            "[0-9]*\\s*loadsgf\\s+(\\S+\\.[Ss][Gg][Ff])\\s+([0-9]+)\\s*";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(line);
-        if (matcher.matches())
+        private void checkLastSgf(String line)
         {
-            m_lastSgf = matcher.group(1);
-            try
+            String regex =
+                "[0-9]*\\s*loadsgf\\s+(\\S+\\.[Ss][Gg][Ff])\\s+([0-9]+)\\s*";
+            Pattern pattern = Pattern.compile(regex);
+            Matcher matcher = pattern.matcher(line);
+            if (matcher.matches())
             {
-                m_lastSgfMove = Integer.parseInt(matcher.group(2));
-                return;
+                m_lastSgf = matcher.group(1);
+                try
+                {
+                    m_lastSgfMove = Integer.parseInt(matcher.group(2));
+                    return;
+                }
+                catch (NumberFormatException e)
+                {
+                    assert false;
+                }
             }
-            catch (NumberFormatException e)
+            regex = "[0-9]*\\s*loadsgf\\s+(\\S+\\.[Ss][Gg][Ff])\\s*";
+            pattern = Pattern.compile(regex);
+            matcher = pattern.matcher(line);
+            if (matcher.matches())
             {
-                assert false;
+                m_lastSgf = matcher.group(1);
+                m_lastSgfMove = -1;
             }
-        }
-        regex = "[0-9]*\\s*loadsgf\\s+(\\S+\\.[Ss][Gg][Ff])\\s*";
-        pattern = Pattern.compile(regex);
-        matcher = pattern.matcher(line);
-        if (matcher.matches())
-        {
-            m_lastSgf = matcher.group(1);
-            m_lastSgfMove = -1;
-        }
 
-    }
-
-    private void finishOutFile()
-    {
-        if (m_currentStyle != null)
-            m_out.print("</span>");
-        m_out.print("</pre>\n" +
-                    HtmlUtil.getFooter("gogui-regress") +
-                    "</body>\n" +
-                    "</html>\n");
-        m_out.close();
-    }
+        }
 
-    private int getId(String line)
-    {
-        line = line.replaceAll("\\t", "\n");
-        int index = line.indexOf(' ');
-        if (index < 0)
-            return -1;
-        try
+        private void finishOutFile()
         {
-            return Integer.parseInt(line.substring(0, index));
+            if (m_currentStyle != null)
+                m_out.print("</span>");
+            m_out.print("</pre>\n" +
+                        HtmlUtil.getFooter("gogui-regress") +
+                        "</body>\n" +
+                        "</html>\n");
+            m_out.close();
         }
-        catch (NumberFormatException e)
+
+        private int getId(String line)
         {
-            return -1;
+            line = line.replaceAll("\\t", "\n");
+            int index = line.indexOf(' ');
+            if (index < 0)
+                return -1;
+            try
+            {
+                return Integer.parseInt(line.substring(0, index));
+            }
+            catch (NumberFormatException e)
+            {
+                return -1;
+            }
         }
-    }
 
-    private TestSummary getTestSummary(long timeMillis, double cpuTime)
-    {
-        TestSummary summary = new TestSummary();
-        summary.m_file = m_testFile;
-        summary.m_outName = m_outName;
-        summary.m_timeMillis = timeMillis;
-        summary.m_cpuTime = cpuTime;
-        summary.m_otherErrors = m_otherErrors;
-        for (int i = 0; i < m_tests.size(); ++i)
+        private TestSummary getTestSummary(long timeMillis, double cpuTime)
         {
-            Test t = m_tests.get(i);
-            ++summary.m_numberTests;
-            if (t.m_fail && ! t.m_expectedFail)
-                ++summary.m_unexpectedFails;
-            else if (t.m_fail && t.m_expectedFail)
-                ++summary.m_expectedFails;
-            else if (! t.m_fail && ! t.m_expectedFail)
-                ++summary.m_expectedPasses;
-            else if (! t.m_fail && t.m_expectedFail)
-                ++summary.m_unexpectedPasses;
+            TestSummary summary = new TestSummary();
+            summary.m_file = m_testFile;
+            summary.m_outName = m_outName;
+            summary.m_timeMillis = timeMillis;
+            summary.m_cpuTime = cpuTime;
+            summary.m_otherErrors = m_otherErrors;
+            for (int i = 0; i < m_tests.size(); ++i)
+            {
+                Test t = m_tests.get(i);
+                ++summary.m_numberTests;
+                if (t.m_fail && ! t.m_expectedFail)
+                    ++summary.m_unexpectedFails;
+                else if (t.m_fail && t.m_expectedFail)
+                    ++summary.m_expectedFails;
+                else if (! t.m_fail && ! t.m_expectedFail)
+                    ++summary.m_expectedPasses;
+                else if (! t.m_fail && t.m_expectedFail)
+                    ++summary.m_unexpectedPasses;
+            }
+            return summary;
         }
-        return summary;
-    }
 
-    private synchronized void handleLastResponse()
-    {
-        if (m_lastCommandId >= 0)
+        private synchronized void handleLastResponse()
         {
-            boolean fail = false;
-            if (m_lastError)
+            if (m_lastCommandId >= 0)
             {
-                printOutLine("fail", m_lastFullResponse);
-                if (m_lastResponse.equals(""))
-                    System.out.println(m_outPrefix
-                                       + Integer.toString(m_lastCommandId)
-                                       + " unexpected FAIL");
+                boolean fail = false;
+                if (m_lastError)
+                {
+                    printOutLine("fail", m_lastFullResponse);
+                    if (m_lastResponse.equals(""))
+                        m_console.println(m_outPrefix
+                                          + Integer.toString(m_lastCommandId)
+                                          + " unexpected FAIL");
+                    else
+                        m_console.println(m_outPrefix
+                                          + Integer.toString(m_lastCommandId)
+                                          + " unexpected FAIL: '"
+                                          + m_lastResponse + "'");
+                    fail = true;
+                }
                 else
-                    System.out.println(m_outPrefix
-                                       + Integer.toString(m_lastCommandId)
-                                       + " unexpected FAIL: '"
-                                       + m_lastResponse + "'");
-                fail = true;
+                    printOutLine("test", m_lastFullResponse);
+                m_tests.add(new Test(m_lastCommandId, m_lastCommand, fail,
+                                     false, "", m_lastResponse, m_lastSgf,
+                                     m_lastSgfMove, m_lastTimeMillis,
+                                     m_lastCpuTime));
             }
             else
-                printOutLine("test", m_lastFullResponse);
-            m_tests.add(new Test(m_lastCommandId, m_lastCommand, fail, false,
-                                 "", m_lastResponse, m_lastSgf,
-                                 m_lastSgfMove));
+            {
+                if (m_lastError)
+                {
+                    printOutLine("error", m_lastFullResponse);
+                    ++m_otherErrors;
+                }
+                else
+                    printOutLine(null, m_lastFullResponse);
+            }
         }
-        else
+
+        private void handleLine(String line)
+            throws ErrorMessage, ProgramIsDeadException
         {
-            if (m_lastError)
+            line = line.trim();
+            if (line.startsWith("#?"))
+            {
+                if (m_lastFullResponse == null)
+                    throw new ErrorMessage(m_testFile
+                                           + ": Response pattern without"
+                                           + " preceding test command: "
+                                           + line);
+                printOutLine("test", line);
+                handleTest(line.substring(2).trim());
+                m_lastFullResponse = null;
+                return;
+            }
+            if (m_lastFullResponse != null)
             {
-                printOutLine("error", m_lastFullResponse);
-                ++m_otherErrors;
+                handleLastResponse();
+                m_lastFullResponse = null;
             }
+            if (line.equals(""))
+                printOutLine(null, line);
+            else if (line.startsWith("#"))
+                printOutLine("comment", line);
             else
-                printOutLine(null, m_lastFullResponse);
+            {
+                line = line.replaceAll("\\t", " ");
+                m_lastCommandId = getId(line);
+                if (m_lastCommandId < 0)
+                    m_lastCommand = line;
+                else
+                {
+                    int index = line.indexOf(' ');
+                    m_lastCommand = line.substring(index + 1);
+                }
+                printOutLine(m_lastCommandId >= 0 ? "test" : "command", line,
+                             m_lastCommandId);
+                checkLastSgf(line);
+                m_lastError = false;
+                assert m_lastFullResponse == null;
+                double cpuTime = -1;
+                if (m_lastCommandId >= 0)
+                    cpuTime = queryCpuTime();
+                long timeMillis = System.currentTimeMillis();
+                try
+                {
+                    m_lastResponse = m_gtp.send(line);
+                }
+                catch (GtpError error)
+                {
+                    m_lastError = true;
+                    m_lastResponse = error.getMessage();
+                    if (m_gtp.isProgramDead())
+                        throw new ProgramIsDeadException();
+                }
+                m_lastTimeMillis = System.currentTimeMillis() - timeMillis;
+                m_lastFullResponse = m_gtp.getFullResponse();
+                m_lastCpuTime = -1;
+                if (cpuTime >= 0)
+                {
+                    double newCpuTime = queryCpuTime();
+                    if (newCpuTime >= 0)
+                        m_lastCpuTime = newCpuTime - cpuTime;
+                }
+            }
         }
-    }
 
-    private void handleLine(String line)
-        throws ErrorMessage, ProgramIsDeadException
-    {
-        line = line.trim();
-        if (line.startsWith("#?"))
+        private void handleTest(String patternString) throws ErrorMessage
         {
-            if (m_lastFullResponse == null)
+            boolean expectedFail = false;
+            if (StringUtil.isEmpty(patternString))
+            {
+                handleLastResponse();
+                return;
+            }
+            if (patternString.endsWith("*"))
+            {
+                expectedFail = true;
+                patternString =
+                    patternString.substring(0, patternString.length() - 1);
+            }
+            if (! patternString.startsWith("["))
+                throw new ErrorMessage(m_testFile
+                                       + ": Pattern has no opening bracket: "
+                                       + patternString);
+            if (! patternString.endsWith("]"))
                 throw new ErrorMessage(m_testFile
-                                       + ": Response pattern"
-                                       + " without preceding test command: "
-                                       + line);
-            printOutLine("test", line);
-            handleTest(line.substring(2).trim());
-            m_lastFullResponse = null;
-            return;
+                                       + ": Pattern has no closing bracket: "
+                                       + patternString);
+            patternString =
+                patternString.substring(1, patternString.length() - 1).trim();
+            String expectedResponse = patternString;
+            boolean notPattern = false;
+            if (patternString.startsWith("!"))
+            {
+                notPattern = true;
+                patternString = patternString.substring(1);
+            }
+            boolean fail = false;
+            String response = "";
+            int index = m_lastFullResponse.indexOf(' ');
+            if (index >= 0)
+                response = m_lastFullResponse.substring(index).trim();
+            if (m_lastError)
+                fail = true;
+            else
+            {
+                Pattern pattern
+                    = Pattern.compile(patternString,
+                                      Pattern.MULTILINE | Pattern.DOTALL);
+                Matcher matcher = pattern.matcher(response);
+                if ((! matcher.matches() && ! notPattern)
+                    || (matcher.matches() && notPattern))
+                    fail = true;
+            }
+            if (fail  && ! expectedFail)
+                m_result = false;
+            String style = null;
+            if (fail && ! expectedFail)
+                style = "fail";
+            else if (! fail && expectedFail)
+                style = "pass";
+            else
+                style = "test";
+            printOutLine(style, m_lastFullResponse);
+            if (m_longOutput)
+            {
+                // Output compatible with eval.sh in GNU Go
+                if (fail && ! expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " FAILED: Correct '"
+                                      + expectedResponse + "', got '"
+                                      + response + "'");
+                else if (fail && expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " failed: Correct '"
+                                      + expectedResponse + "', got '"
+                                      + response + "'");
+                else if (! fail && expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " PASSED");
+                else if (! fail && ! expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " passed");
+            }
+            else
+            {
+                // Output compatible with regress.sh in GNU Go
+                if (fail && ! expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " unexpected FAIL: Correct '"
+                                      + expectedResponse + "', got '"
+                                      + response + "'");
+                else if (! fail && expectedFail)
+                    m_console.println(m_outPrefix
+                                      + Integer.toString(m_lastCommandId)
+                                      + " unexpected PASS!");
+            }
+            m_tests.add(new Test(m_lastCommandId, m_lastCommand, fail,
+                                 expectedFail, expectedResponse, response,
+                                 m_lastSgf, m_lastSgfMove, m_lastTimeMillis,
+                                 m_lastCpuTime));
         }
-        if (m_lastFullResponse != null)
+
+        private void initOutFile()
+            throws Exception
         {
-            handleLastResponse();
-            m_lastFullResponse = null;
+            m_outFileRelativeName = m_outName + ".out.html";
+            m_outFile = new File(m_prefix + m_outFileRelativeName);
+            File parent = m_outFile.getParentFile();
+            if (parent != null && ! parent.exists())
+                if (! parent.mkdir())
+                    throw new ErrorMessage("Could not create directory '"
+                                           + parent + "'");
+            m_currentStyle = null;
+            m_out = new PrintStream(m_outFile);
+            m_out.print("<html>\n" +
+                        "<head>\n" +
+                        "<title>Output: " + m_testFile + "</title>\n" +
+                        HtmlUtil.getMeta("gogui-regress") +
+                        "<style type=\"text/css\">\n" +
+                        "<!--\n" +
+                        "body { margin:0; }\n" +
+                        "span.comment { color:#999999; }\n" +
+                        "span.fail { font-weight:bold; color:" + COLOR_RED
+                        + "; }\n" +
+                        "span.error { font-weight:bold; color:" + COLOR_ERROR
+                        + "; }\n" +
+                        "span.stderr { color:#666666; }\n" +
+                        "span.invalid { background:" + COLOR_RED + ";}\n" +
+                        "span.pass { font-weight:bold; color:" + COLOR_GREEN
+                        + "; }\n" +
+                        "span.test { font-weight:bold; }\n" +
+                        "-->\n" +
+                        "</style>\n" +
+                        "</head>\n" +
+                        "<body bgcolor=\"white\" text=\"black\"" +
+                        " link=\"#0000ee\" vlink=\"#551a8b\">\n" +
+                        "<table border=\"0\" width=\"100%\" bgcolor=\""
+                        + COLOR_HEADER + "\" border=\"0\">\n" +
+                        "<tr><td>\n" +
+                        "<h1>Output: " + m_testFile + "</h1>\n" +
+                        "</td></tr>\n" +
+                        "</table>\n" +
+                        "<table width=\"100%\" bgcolor=\"" + COLOR_INFO
+                        + "\">\n");
+            writeInfo(m_out, null, null);
+            m_out.print("</table>\n" +
+                        "<pre style=\"margin:1em\">\n");
         }
-        if (line.equals(""))
-            printOutLine(null, line);
-        else if (line.startsWith("#"))
-            printOutLine("comment", line);
-        else
+
+        private synchronized void printOut(String style, String line, int id)
         {
-            line = line.replaceAll("\\t", " ");
-            m_lastCommandId = getId(line);
-            if (m_lastCommandId < 0)
-                m_lastCommand = line;
-            else
+            if (line == null || line.length() == 0)
+                return;
+            line = line.replaceAll("&", "&amp;");
+            line = line.replaceAll(">", "&gt;");
+            line = line.replaceAll("<", "&lt;");
+            if (style != null
+                && (style.equals("command") || style.equals("test")))
             {
-                int index = line.indexOf(' ');
-                m_lastCommand = line.substring(index + 1);
+                Pattern pattern = Pattern.compile("\\S*\\.[Ss][Gg][Ff]");
+                Matcher matcher = pattern.matcher(line);
+                if (matcher.find())
+                {
+                    String sgf = matcher.group();
+                    StringBuilder stringBuffer = new StringBuilder();
+                    stringBuffer.append(line.substring(0, matcher.start()));
+                    stringBuffer.append("<a href=\"");
+                    stringBuffer.append(m_relativePath);
+                    stringBuffer.append(sgf);
+                    stringBuffer.append("\">");
+                    stringBuffer.append(sgf);
+                    stringBuffer.append("</a>");
+                    stringBuffer.append(line.substring(matcher.end()));
+                    line = stringBuffer.toString();
+                }
+            }
+            if ((style == null && m_currentStyle != null)
+                || (style != null && m_currentStyle == null)
+                || (style != null && m_currentStyle != null
+                    && ! style.equals(m_currentStyle)))
+            {
+                if (m_currentStyle != null)
+                    m_out.print("</span>");
+                if (style != null)
+                    m_out.print("<span class=\"" + style + "\">");
+                m_currentStyle = style;
             }
-            printOutLine(m_lastCommandId >= 0 ? "test" : "command", line,
-                         m_lastCommandId);
-            checkLastSgf(line);
-            m_lastError = false;
-            assert m_lastFullResponse == null;
+            if (id >= 0)
+                m_out.print("<a name=\"" + id + "\">");
+            m_out.print(line);
+            if (id >= 0)
+                m_out.print("</a>");
+        }
+
+        private synchronized void printOutLine(String style, String line,
+                                               int id)
+        {
+            if (line == null)
+                return;
+            if (! line.endsWith("\n"))
+                line = line + "\n";
+            printOut(style, line, id);
+        }
+
+        private synchronized void printOutSeparator()
+        {
+            if (m_currentStyle != null)
+                m_out.print("</span>");
+            m_out.println("</pre>\n" +
+                          "<hr style=\"margin:1em\" size=\"1\">\n" +
+                          "<pre style=\"margin:1em\">");
+        }
+
+        private synchronized void printOutLine(String style, String line)
+        {
+            printOutLine(style, line, -1);
+        }
+
+        private String send(String command) throws GtpError
+        {
+            printOutLine(null, command);
             try
             {
-                m_lastResponse = m_gtp.send(line);
+                return m_gtp.send(command);
             }
-            catch (GtpError error)
+            finally
             {
-                m_lastError = true;
-                m_lastResponse = error.getMessage();
-                if (m_gtp.isProgramDead())
-                    throw new ProgramIsDeadException();
+                printOutLine(null, m_gtp.getFullResponse());
             }
-            m_lastFullResponse = m_gtp.getFullResponse();
         }
-    }
 
-    private void handleTest(String patternString) throws ErrorMessage
-    {
-        boolean expectedFail = false;
-        if (StringUtil.isEmpty(patternString))
-        {
-            handleLastResponse();
-            return;
-        }
-        if (patternString.endsWith("*"))
+        private double getCpuTime()
         {
-            expectedFail = true;
-            patternString =
-                patternString.substring(0, patternString.length() - 1);
+            try
+            {
+                return Double.parseDouble(send("cputime"));
+            }
+            catch (GtpError e)
+            {
+                return 0;
+            }
+            catch (NumberFormatException e)
+            {
+                return 0;
+            }
         }
-        if (! patternString.startsWith("["))
-            throw new ErrorMessage(m_testFile
-                                   + ": Pattern has no opening bracket: "
-                                   + patternString);
-        if (! patternString.endsWith("]"))
-            throw new ErrorMessage(m_testFile
-                                   + ": Pattern has no closing bracket: "
-                                   + patternString);
-        patternString =
-            patternString.substring(1, patternString.length() - 1).trim();
-        String expectedResponse = patternString;
-        boolean notPattern = false;
-        if (patternString.startsWith("!"))
+
+        private void queryNameAndVersion() throws GtpError
         {
-            notPattern = true;
-            patternString = patternString.substring(1);
+            try
+            {
+                m_name = send("name");
+            }
+            catch (GtpError e)
+            {
+                m_name = "";
+                if (m_gtp.isProgramDead())
+                    throw e;
+            }
+            try
+            {
+                m_version = send("version");
+            }
+            catch (GtpError e)
+            {
+                m_version = "";
+            }
         }
-        boolean fail = false;
-        String response = "";
-        int index = m_lastFullResponse.indexOf(' ');
-        if (index >= 0)
-            response = m_lastFullResponse.substring(index).trim();
-        if (m_lastError)
-            fail = true;
-        else
+
+        /** Query the CPU time without writing to the output file.
+            Used for measuring the CPU time of single tests.
+            @return The CPU time or -1, if the program does not support the
+            command cputime. */
+        private double queryCpuTime()
         {
-            Pattern pattern
-                = Pattern.compile(patternString,
-                                  Pattern.MULTILINE | Pattern.DOTALL);
-            Matcher matcher = pattern.matcher(response);
-            if ((! matcher.matches() && ! notPattern)
-                || (matcher.matches() && notPattern))
-                fail = true;
+            if (! m_isCpuTimeSupported || m_gtp.isProgramDead())
+                return -1;
+            try
+            {
+                return Double.parseDouble(m_gtp.send("cputime"));
+            }
+            catch (GtpError e)
+            {
+            }
+            catch (NumberFormatException e)
+            {
+            }
+            m_isCpuTimeSupported = false;
+            return -1;
         }
-        if (fail  && ! expectedFail)
-            m_result = false;
-        String style = null;
-        if (fail && ! expectedFail)
-            style = "fail";
-        else if (! fail && expectedFail)
-            style = "pass";
-        else
-            style = "test";
-        printOutLine(style, m_lastFullResponse);
-        if (m_longOutput)
+
+        private void sendGtpFile() throws ErrorMessage
         {
-            // Output compatible with eval.sh in GNU Go
-            if (fail && ! expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " FAILED: Correct '"
-                                   + expectedResponse + "', got '" + response
-                                   + "'");
-            else if (fail && expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " failed: Correct '"
-                                   + expectedResponse + "', got '" + response
-                                   + "'");
-            else if (! fail && expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " PASSED");
-            else if (! fail && ! expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " passed");
+            Reader reader;
+            try
+            {
+                reader = new FileReader(m_gtpFile);
+            }
+            catch (FileNotFoundException e)
+            {
+                throw new ErrorMessage("GTP file not found: " + m_gtpFile);
+            }
+            java.io.BufferedReader in;
+            in = new BufferedReader(reader);
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        String line = in.readLine();
+                        if (line == null)
+                            break;
+                        if (! GtpUtil.isCommand(line))
+                            continue;
+                        send(line);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new ErrorMessage("Error reading GTP file: "
+                                               + e.getMessage());
+                    }
+                    catch (GtpError e)
+                    {
+                        throw new ErrorMessage("GTP command '" + e.getCommand()
+                                               + "' from file " + m_gtpFile
+                                               + " failed: " + e.getMessage());
+                    }
+                }
+                printOutSeparator();
+            }
+            finally
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
         }
-        else
+
+        private void writeTestSummary(TestSummary summary)
+            throws FileNotFoundException
         {
-            // Output compatible with regress.sh in GNU Go
-            if (fail && ! expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " unexpected FAIL: Correct '"
-                                   + expectedResponse + "', got '" + response
-                                   + "'");
-            else if (! fail && expectedFail)
-                System.out.println(m_outPrefix
-                                   + Integer.toString(m_lastCommandId)
-                                   + " unexpected PASS!");
+            if (m_longOutput)
+            {
+                // Output compatible with eval.sh in GNU Go
+                m_console.println("Summary: " + summary.getNumberPasses()
+                                  + "/" + summary.m_numberTests + " passes. "
+                                  + summary.m_unexpectedPasses
+                                  + " unexpected passes, "
+                                  + summary.m_unexpectedFails
+                                  + " unexpected failures");
+            }
+            File file = new File(m_prefix + m_outName + ".html");
+            PrintStream out = new PrintStream(file);
+            out.print("<html>\n" +
+                      "<head>\n" +
+                      "<title>Summary: " + m_testFile + "</title>\n" +
+                      HtmlUtil.getMeta("gogui-regress") +
+                      "<style type=\"text/css\">\n" +
+                      "<!--\n" +
+                      "body { margin:0; }\n" +
+                      "-->\n" +
+                      "</style>\n" +
+                      "</head>\n" +
+                      "<body bgcolor=\"white\" text=\"black\" link=\"blue\""
+                      + " vlink=\"purple\" alink=\"red\">\n" +
+                      "<table border=\"0\" width=\"100%\" bgcolor=\""
+                      + COLOR_HEADER + "\">\n" +
+                      "<tr><td>\n" +
+                      "<h1>Summary: " + m_testFile + "</h1>\n" +
+                      "</td></tr>\n" +
+                      "</table>\n" +
+                      "<table width=\"100%\" bgcolor=\"" + COLOR_INFO
+                      + "\">\n");
+            writeInfo(out, m_name, m_version);
+            out.print("<tr><th align=\"left\">Output:</th><td><a href=\""
+                      + m_outFileRelativeName + "\">"
+                      + m_outFileRelativeName + "</a></td></tr>\n" +
+                      "</table>\n" +
+                      "<table width=\"100%\" border=\"0\" cellpadding=\"0\""
+                      + " cellspacing=\"1\">\n" +
+                      "<colgroup>\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "<col width=\"12%\">\n" +
+                      "</colgroup>\n" +
+                      "<thead align=\"center\">\n" +
+                      "<tr bgcolor=\"" + COLOR_HEADER + "\">\n" +
+                      "<th>Tests</th>\n" +
+                      "<th>FAIL</th>\n" +
+                      "<th>fail</th>\n" +
+                      "<th>PASS</th>\n" +
+                      "<th>pass</th>\n" +
+                      "<th>Error</th>\n" +
+                      "<th>Time</th>\n" +
+                      "<th>CpuTime</th>\n" +
+                      "</tr>\n" +
+                      "</thead>\n");
+            writeSummaryRow(out, summary, false, false);
+            out.print("</table>\n" +
+                      "<table width=\"100%\" border=\"0\" cellpadding=\"0\""
+                      + " cellspacing=\"1\">\n" +
+                      "<thead>\n" +
+                      "<tr bgcolor=\"" + COLOR_HEADER + "\">\n" +
+                      "<th>ID</th>\n" +
+                      "<th>Status</th>\n" +
+                      "<th>Command</th>\n" +
+                      "<th>Output</th>\n" +
+                      "<th>Required</th>\n" +
+                      "<th>Last SGF</th>\n" +
+                      "<th>Time</th>\n" +
+                      "<th>CpuTime</th>\n" +
+                      "</tr>\n" +
+                      "</thead>\n");
+            NumberFormat format2 = StringUtil.getNumberFormat(2);
+            for (int i = 0; i < m_tests.size(); ++i)
+            {
+                Test t = m_tests.get(i);
+                String rowBackground = COLOR_BG_LIGHT;
+                String statusColor = rowBackground;
+                String status = null;
+                if (t.m_fail && t.m_expectedFail)
+                {
+                    status = "fail";
+                }
+                else if (t.m_fail && ! t.m_expectedFail)
+                {
+                    statusColor = COLOR_RED;
+                    status = "FAIL";
+                }
+                else if (! t.m_fail && t.m_expectedFail)
+                {
+                    statusColor = COLOR_GREEN;
+                    status = "PASS";
+                }
+                else if (! t.m_fail && ! t.m_expectedFail)
+                {
+                    status = "pass";
+                }
+                else
+                    assert false;
+                String lastSgf = "";
+                if (t.m_lastSgf != null)
+                {
+                    lastSgf = "<a href=\"" + m_relativePath + t.m_lastSgf
+                        + "\">" + t.m_lastSgf + "</a>";
+                    if (t.m_lastSgfMove != -1)
+                        lastSgf += "&nbsp;" + t.m_lastSgfMove;
+                }
+                String command = t.m_command.replaceAll(" ", "&nbsp;");
+                String time = format2.format(t.m_timeMillis / 1000.);
+                String cpuTime = "";
+                if (t.m_cpuTime >= 0)
+                    cpuTime = format2.format(t.m_cpuTime);
+                out.print("<tr bgcolor=\"" + rowBackground + "\">\n" +
+                          "<td align=\"right\"><a href=\""
+                          + m_outFileRelativeName + "#" + t.m_id + "\">"
+                          + t.m_id + "</a></td>\n" +
+                          "<td align=\"center\" bgcolor=\"" + statusColor
+                          + "\">" + status + "</td>\n" +
+                          "<td>" + command + "</td>\n" +
+                          "<td align=\"center\">" + truncate(t.m_response)
+                          + "</td>\n" +
+                          "<td align=\"center\">" + truncate(t.m_required)
+                          + "</td>\n" +
+                          "<td>" + lastSgf + "</td>\n" +
+                          "<td align=\"right\">" + time + "</td>\n" +
+                          "<td align=\"right\">" + cpuTime + "</td>\n" +
+                          "</tr>\n");
+            }
+            out.print("</table>\n" +
+                      HtmlUtil.getFooter("gogui-regress") +
+                      "</body>\n" +
+                      "</html>\n");
+            out.close();
         }
-        m_tests.add(new Test(m_lastCommandId, m_lastCommand, fail,
-                             expectedFail, expectedResponse, response,
-                             m_lastSgf, m_lastSgfMove));
     }
 
+    private final boolean m_longOutput;
+
+    private boolean m_result;
+
+    private final boolean m_verbose;
+
+    /** Minimum increase of the CPU time of a test in percent for reporting
+        the test as slower. */
+    private final int m_threshold;
+
+    private static final String COLOR_ERROR = "#ffa954";
+
+    private static final String COLOR_HEADER = "#91aee8";
+
+    private static final String COLOR_INFO = "#e0e0e0";
+
+    private static final String COLOR_BG_LIGHT = "#e0e0e0";
+
+    private static final String COLOR_BG_GRAY = "#e0e0e0";
+
+    private static final String COLOR_GREEN = "#5eaf5e";
+
+    private static final String COLOR_RED = "#ff5454";
+
+    private final File m_gtpFile;
+
+    private String m_name;
+
+    private final String m_prefix;
+
+    private final String m_program;
+
+    private String m_version;
+
+    /** Name of m_outFile and the summary file of the test without directory
+        and file extension for the all tests. */
+    private TreeMap<String,String> m_outNames;
+
+    private final ArrayList<TestSummary> m_testSummaries
+        = new ArrayList<TestSummary>();
+
+    private final ArrayList<SlowTest> m_slowTests = new ArrayList<SlowTest>();
+
+    private TimingHistory m_history;
+
     /** Compute unique names for output directory.
         Appends a number, if tests with same name in different directories
         exist. */
@@ -545,147 +1123,32 @@ public class Regress
         }
     }
 
-    private void initOutFile()
-        throws Exception
-    {
-        m_outFileRelativeName = m_outName + ".out.html";
-        m_outFile = new File(m_prefix + m_outFileRelativeName);
-        File parent = m_outFile.getParentFile();
-        if (parent != null && ! parent.exists())
-            if (! parent.mkdir())
-                throw new ErrorMessage("Could not create directory '"
-                                       + parent + "'");
-        m_currentStyle = null;
-        m_out = new PrintStream(m_outFile);
-        m_out.print("<html>\n" +
-                    "<head>\n" +
-                    "<title>Output: " + m_testFile + "</title>\n" +
-                    HtmlUtil.getMeta("gogui-regress") +
-                    "<style type=\"text/css\">\n" +
-                    "<!--\n" +
-                    "body { margin:0; }\n" +
-                    "span.comment { color:#999999; }\n" +
-                    "span.fail { font-weight:bold; color:" + COLOR_RED
-                    + "; }\n" +
-                    "span.error { font-weight:bold; color:" + COLOR_ERROR
-                    + "; }\n" +
-                    "span.stderr { color:#666666; }\n" +
-                    "span.invalid { background:" + COLOR_RED + ";}\n" +
-                    "span.pass { font-weight:bold; color:" + COLOR_GREEN
-                    + "; }\n" +
-                    "span.test { font-weight:bold; }\n" +
-                    "-->\n" +
-                    "</style>\n" +
-                    "</head>\n" +
-                    "<body bgcolor=\"white\" text=\"black\"" +
-                    " link=\"#0000ee\" vlink=\"#551a8b\">\n" +
-                    "<table border=\"0\" width=\"100%\" bgcolor=\""
-                    + COLOR_HEADER + "\" border=\"0\">\n" +
-                    "<tr><td>\n" +
-                    "<h1>Output: " + m_testFile + "</h1>\n" +
-                    "</td></tr>\n" +
-                    "</table>\n" +
-                    "<table width=\"100%\" bgcolor=\"" + COLOR_INFO
-                    + "\">\n");
-        writeInfo(m_out, false);
-        m_out.print("</table>\n" +
-                    "<pre style=\"margin:1em\">\n");
-    }
-
-    private synchronized void printOut(String style, String line, int id)
+    /** Compare the CPU times of the tests of a test file to the history.
+        Adds the tests that became slower to m_slowTests and the times of
+        all tests to the history. */
+    private void checkTiming(TestRun run, boolean withOutPrefix)
     {
-        if (line == null || line.length() == 0)
-            return;
-        line = line.replaceAll("&", "&amp;");
-        line = line.replaceAll(">", "&gt;");
-        line = line.replaceAll("<", "&lt;");
-        if (style != null
-            && (style.equals("command") || style.equals("test")))
+        NumberFormat format2 = StringUtil.getNumberFormat(2);
+        String file = run.m_testFile.toString();
+        for (int i = 0; i < run.m_tests.size(); ++i)
         {
-            Pattern pattern = Pattern.compile("\\S*\\.[Ss][Gg][Ff]");
-            Matcher matcher = pattern.matcher(line);
-            if (matcher.find())
-            {
-                String sgf = matcher.group();
-                StringBuilder stringBuffer = new StringBuilder();
-                stringBuffer.append(line.substring(0, matcher.start()));
-                stringBuffer.append("<a href=\"");
-                stringBuffer.append(m_relativePath);
-                stringBuffer.append(sgf);
-                stringBuffer.append("\">");
-                stringBuffer.append(sgf);
-                stringBuffer.append("</a>");
-                stringBuffer.append(line.substring(matcher.end()));
-                line = stringBuffer.toString();
-            }
-        }
-        if ((style == null && m_currentStyle != null)
-            || (style != null && m_currentStyle == null)
-            || (style != null && m_currentStyle != null
-                && ! style.equals(m_currentStyle)))
-        {
-            if (m_currentStyle != null)
-                m_out.print("</span>");
-            if (style != null)
-                m_out.print("<span class=\"" + style + "\">");
-            m_currentStyle = style;
-        }
-        if (id >= 0)
-            m_out.print("<a name=\"" + id + "\">");
-        m_out.print(line);
-        if (id >= 0)
-            m_out.print("</a>");
-    }
-
-    private synchronized void printOutLine(String style, String line, int id)
-    {
-        if (line == null)
-            return;
-        if (! line.endsWith("\n"))
-            line = line + "\n";
-        printOut(style, line, id);
-    }
-
-    private synchronized void printOutSeparator()
-    {
-        if (m_currentStyle != null)
-            m_out.print("</span>");
-        m_out.println("</pre>\n" +
-                      "<hr style=\"margin:1em\" size=\"1\">\n" +
-                      "<pre style=\"margin:1em\">");
-    }
-
-    private synchronized void printOutLine(String style, String line)
-    {
-        printOutLine(style, line, -1);
-    }
-
-    private String send(String command) throws GtpError
-    {
-        printOutLine(null, command);
-        try
-        {
-            return m_gtp.send(command);
-        }
-        finally
-        {
-            printOutLine(null, m_gtp.getFullResponse());
-        }
-    }
-
-    private double getCpuTime()
-    {
-        try
-        {
-            return Double.parseDouble(send("cputime"));
-        }
-        catch (GtpError e)
-        {
-            return 0;
-        }
-        catch (NumberFormatException e)
-        {
-            return 0;
+            Test t = run.m_tests.get(i);
+            double reference = m_history.getReferenceCpuTime(file, t.m_id);
+            m_history.add(file, t.m_id, t.m_timeMillis, t.m_cpuTime);
+            if (reference < 0 || t.m_cpuTime < 0
+                || t.m_cpuTime - reference < MIN_SLOWDOWN
+                || t.m_cpuTime < reference * (1 + m_threshold / 100.))
+                continue;
+            SlowTest slowTest = new SlowTest();
+            slowTest.m_file = run.m_testFile;
+            slowTest.m_outName = run.m_outName;
+            slowTest.m_test = t;
+            slowTest.m_referenceCpuTime = reference;
+            m_slowTests.add(slowTest);
+            System.out.println((withOutPrefix ? file + " " : "") + t.m_id
+                               + " slower: CpuTime "
+                               + format2.format(t.m_cpuTime) + ", previous "
+                               + format2.format(reference));
         }
     }
 
@@ -718,138 +1181,56 @@ public class Regress
         return total;
     }
 
-    private void queryNameAndVersion() throws GtpError
-    {
-        try
-        {
-            m_name = send("name");
-        }
-        catch (GtpError e)
-        {
-            m_name = "";
-            if (m_gtp.isProgramDead())
-                throw e;
-        }
-        try
-        {
-            m_version = send("version");
-        }
-        catch (GtpError e)
-        {
-            m_version = "";
-        }
-    }
-
-    private void runTest(String test) throws Exception
+    private void runTests(ArrayList<String> tests, int numberThreads)
+        throws Exception
     {
-        m_tests.clear();
-        m_otherErrors = 0;
-        m_testFile = new File(test);
-        m_outName = m_outNames.get(test);
-        initOutFile();
-        File testFileDir = m_testFile.getAbsoluteFile().getParentFile();
-        m_relativePath = FileUtil.getRelativeURI(m_outFile, testFileDir);
-        if (! m_relativePath.equals("") && ! m_relativePath.endsWith("/"))
-            m_relativePath = m_relativePath + "/";
-        FileReader fileReader = new FileReader(m_testFile);
-        BufferedReader reader = new BufferedReader(fileReader);
+        ExecutorService executor =
+            Executors.newFixedThreadPool(numberThreads);
+        ArrayList<Future<TestRun>> futures =
+            new ArrayList<Future<TestRun>>(tests.size());
         try
         {
-            m_gtp = new GtpClient(m_program, testFileDir, m_verbose, this);
-            if (m_gtpFile != null)
-                sendGtpFile();
-            m_lastSgf = null;
-            queryNameAndVersion();
-            double cpuTime = getCpuTime();
-            long timeMillis = System.currentTimeMillis();
-            printOutSeparator();
-            String line;
-            while (true)
-            {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                handleLine(line);
-            }
-            timeMillis = System.currentTimeMillis() - timeMillis;
-            if (m_lastFullResponse != null)
-            {
-                handleLastResponse();
-                m_lastFullResponse = null;
-            }
-            printOutSeparator();
-            cpuTime = getCpuTime() - cpuTime;
-            if (m_lastFullResponse != null)
+            for (int i = 0; i < tests.size(); ++i)
             {
-                handleLastResponse();
-                m_lastFullResponse = null;
+                final TestRun run = new TestRun(tests.get(i), tests.size() > 1,
+                                                numberThreads > 1);
+                futures.add(executor.submit(new Callable<TestRun>() {
+                        public TestRun call() throws Exception
+                        {
+                            run.run();
+                            return run;
+                        }
+                    }));
             }
-            if (! m_gtp.isProgramDead())
-            {
-                send("quit");
-                m_gtp.close();
-            }
-            m_gtp.waitForExit();
-            finishOutFile();
-            TestSummary testSummary = getTestSummary(timeMillis, cpuTime);
-            m_testSummaries.add(testSummary);
-            writeTestSummary(testSummary);
-        }
-        finally
-        {
-            reader.close();
-        }
-    }
-
-    private void sendGtpFile() throws ErrorMessage
-    {
-        Reader reader;
-        try
-        {
-            reader = new FileReader(m_gtpFile);
-        }
-        catch (FileNotFoundException e)
-        {
-            throw new ErrorMessage("GTP file not found: " + m_gtpFile);
-        }
-        java.io.BufferedReader in;
-        in = new BufferedReader(reader);
-        try
-        {
-            while (true)
+            for (int i = 0; i < futures.size(); ++i)
             {
+                TestRun run;
                 try
                 {
-                    String line = in.readLine();
-                    if (line == null)
-                        break;
-                    if (! GtpUtil.isCommand(line))
-                        continue;
-                    send(line);
-                }
-                catch (IOException e)
-                {
-                    throw new ErrorMessage("Error reading GTP file: "
-                                           + e.getMessage());
+                    run = futures.get(i).get();
                 }
-                catch (GtpError e)
+                catch (ExecutionException e)
                 {
-                    throw new ErrorMessage("GTP command '" + e.getCommand()
-                                           + "' from file " + m_gtpFile
-                                           + " failed: " + e.getMessage());
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception)cause;
+                    throw (Error)cause;
                 }
+                // Don't keep finished runs
+                futures.set(i, null);
+                System.out.print(run.getConsoleOutput());
+                if (m_history != null)
+                    checkTiming(run, tests.size() > 1);
+                m_testSummaries.add(run.m_summary);
+                if (! run.m_result)
+                    m_result = false;
+                m_name = run.m_name;
+                m_version = run.m_version;
             }
-            printOutSeparator();
         }
         finally
         {
-            try
-            {
-                in.close();
-            }
-            catch (IOException e)
-            {
-            }
+            executor.shutdownNow();
         }
     }
 
@@ -861,13 +1242,16 @@ public class Regress
         return string.substring(0, maxLength).trim() + "...";
     }
 
-    private void writeInfo(PrintStream out, boolean withName)
+    /** Write information about the program and the host.
+        @param name The name of the program, null for not writing the name
+        and version. */
+    private void writeInfo(PrintStream out, String name, String version)
     {
         String host = Platform.getHostInfo();
-        if (withName)
-            out.print("<tr><th align=\"left\">Name:</th><td>" + m_name
+        if (name != null)
+            out.print("<tr><th align=\"left\">Name:</th><td>" + name
                       + "</td></tr>\n" +
-                      "<tr><th align=\"left\">Version:</th><td>" + m_version
+                      "<tr><th align=\"left\">Version:</th><td>" + version
                       + "</td></tr>\n");
         out.print("<tr><th align=\"left\">Date:</th><td>"
                   + StringUtil.getDate()
@@ -928,7 +1312,11 @@ public class Regress
                   "</table>\n" +
                   "<table width=\"100%\" bgcolor=\"" + COLOR_INFO
                   + "\">\n");
-        writeInfo(out, true);
+        writeInfo(out, m_name, m_version);
+        if (m_history != null)
+            out.print("<tr><th align=\"left\">Timing:</th><td>"
+                      + "<a href=\"timing.html\">" + m_slowTests.size()
+                      + " slower tests</a></td></tr>\n");
         out.print("</table>\n" +
                   "<table width=\"100%\" border=\"0\" cellpadding=\"0\""
                   + "cellspacing=\"1\">\n" +
@@ -1017,24 +1405,15 @@ public class Regress
             out.print("</tfoot>\n");
     }
 
-    private void writeTestSummary(TestSummary summary)
-        throws FileNotFoundException
+    /** Write HTML file with the tests that became slower. */
+    private void writeTiming() throws FileNotFoundException
     {
-        if (m_longOutput)
-        {
-            // Output compatible with eval.sh in GNU Go
-            System.out.println("Summary: " + summary.getNumberPasses()
-                               + "/" + summary.m_numberTests + " passes. "
-                               + summary.m_unexpectedPasses
-                               + " unexpected passes, "
-                               + summary.m_unexpectedFails
-                               + " unexpected failures");
-        }
-        File file = new File(m_prefix + m_outName + ".html");
+        File file = new File(m_prefix + "timing.html");
         PrintStream out = new PrintStream(file);
+        NumberFormat format2 = StringUtil.getNumberFormat(2);
         out.print("<html>\n" +
                   "<head>\n" +
-                  "<title>Summary: " + m_testFile + "</title>\n" +
+                  "<title>Slower Tests</title>\n" +
                   HtmlUtil.getMeta("gogui-regress") +
                   "<style type=\"text/css\">\n" +
                   "<!--\n" +
@@ -1047,100 +1426,54 @@ public class Regress
                   "<table border=\"0\" width=\"100%\" bgcolor=\""
                   + COLOR_HEADER + "\">\n" +
                   "<tr><td>\n" +
-                  "<h1>Summary: " + m_testFile + "</h1>\n" +
+                  "<h1>Slower Tests</h1>\n" +
                   "</td></tr>\n" +
                   "</table>\n" +
                   "<table width=\"100%\" bgcolor=\"" + COLOR_INFO
                   + "\">\n");
-        writeInfo(out, true);
-        out.print("<tr><th align=\"left\">Output:</th><td><a href=\""
-                  + m_outFileRelativeName + "\">"
-                  + m_outFileRelativeName + "</a></td></tr>\n" +
+        writeInfo(out, m_name, m_version);
+        out.print("<tr><th align=\"left\">Threshold:</th><td>"
+                  + m_threshold + "% (minimum "
+                  + format2.format(MIN_SLOWDOWN) + "&nbsp;s)</td></tr>\n" +
+                  "<tr><th align=\"left\">Previous:</th><td>Median of last "
+                  + TimingHistory.NUMBER_RUNS + " runs</td></tr>\n" +
                   "</table>\n" +
-                  "<table width=\"100%\" border=\"0\" cellpadding=\"0\""
-                  + " cellspacing=\"1\">\n" +
-                  "<colgroup>\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "<col width=\"12%\">\n" +
-                  "</colgroup>\n" +
-                  "<thead align=\"center\">\n" +
-                  "<tr bgcolor=\"" + COLOR_HEADER + "\">\n" +
-                  "<th>Tests</th>\n" +
-                  "<th>FAIL</th>\n" +
-                  "<th>fail</th>\n" +
-                  "<th>PASS</th>\n" +
-                  "<th>pass</th>\n" +
-                  "<th>Error</th>\n" +
-                  "<th>Time</th>\n" +
-                  "<th>CpuTime</th>\n" +
-                  "</tr>\n" +
-                  "</thead>\n");
-        writeSummaryRow(out, summary, false, false);
-        out.print("</table>\n" +
                   "<table width=\"100%\" border=\"0\" cellpadding=\"0\""
                   + " cellspacing=\"1\">\n" +
                   "<thead>\n" +
                   "<tr bgcolor=\"" + COLOR_HEADER + "\">\n" +
+                  "<th>File</th>\n" +
                   "<th>ID</th>\n" +
-                  "<th>Status</th>\n" +
                   "<th>Command</th>\n" +
-                  "<th>Output</th>\n" +
-                  "<th>Required</th>\n" +
-                  "<th>Last SGF</th>\n" +
+                  "<th>CpuTime</th>\n" +
+                  "<th>Previous</th>\n" +
+                  "<th>Change</th>\n" +
                   "</tr>\n" +
                   "</thead>\n");
-        for (int i = 0; i < m_tests.size(); ++i)
+        for (int i = 0; i < m_slowTests.size(); ++i)
         {
-            Test t = m_tests.get(i);
-            String rowBackground = COLOR_BG_LIGHT;
-            String statusColor = rowBackground;
-            String status = null;
-            if (t.m_fail && t.m_expectedFail)
-            {
-                status = "fail";
-            }
-            else if (t.m_fail && ! t.m_expectedFail)
-            {
-                statusColor = COLOR_RED;
-                status = "FAIL";
-            }
-            else if (! t.m_fail && t.m_expectedFail)
-            {
-                statusColor = COLOR_GREEN;
-                status = "PASS";
-            }
-            else if (! t.m_fail && ! t.m_expectedFail)
-            {
-                status = "pass";
-            }
-            else
-                assert false;
-            String lastSgf = "";
-            if (t.m_lastSgf != null)
-            {
-                lastSgf = "<a href=\"" + m_relativePath + t.m_lastSgf + "\">"
-                    + t.m_lastSgf + "</a>";
-                if (t.m_lastSgfMove != -1)
-                    lastSgf += "&nbsp;" + t.m_lastSgfMove;
-            }
+            SlowTest slowTest = m_slowTests.get(i);
+            Test t = slowTest.m_test;
             String command = t.m_command.replaceAll(" ", "&nbsp;");
-            out.print("<tr bgcolor=\"" + rowBackground + "\">\n" +
-                      "<td align=\"right\"><a href=\"" + m_outFileRelativeName
-                      + "#" + t.m_id + "\">" + t.m_id + "</a></td>\n" +
-                      "<td align=\"center\" bgcolor=\"" + statusColor
-                      + "\">" + status + "</td>\n" +
+            long change = Math.round(100 * (t.m_cpuTime
+                                            / slowTest.m_referenceCpuTime
+                                            - 1));
+            String changeString = (slowTest.m_referenceCpuTime > 0 ?
+                                   "+" + change + "%" : "");
+            out.print("<tr bgcolor=\"" + COLOR_BG_LIGHT + "\">\n" +
+                      "<td><a href=\"" + slowTest.m_outName + ".html\">"
+                      + slowTest.m_file + "</a></td>\n" +
+                      "<td align=\"right\"><a href=\"" + slowTest.m_outName
+                      + ".out.html#" + t.m_id + "\">" + t.m_id
+                      + "</a></td>\n" +
                       "<td>" + command + "</td>\n" +
-                      "<td align=\"center\">" + truncate(t.m_response)
+                      "<td align=\"right\">" + format2.format(t.m_cpuTime)
                       + "</td>\n" +
-                      "<td align=\"center\">" + truncate(t.m_required)
+                      "<td align=\"right\">"
+                      + format2.format(slowTest.m_referenceCpuTime)
                       + "</td>\n" +
-                      "<td>" + lastSgf + "</td>\n" +
+                      "<td align=\"right\" bgcolor=\"" + COLOR_RED + "\">"
+                      + changeString + "</td>\n" +
                       "</tr>\n");
         }
         out.print("</table>\n" +
@@ -0,0 +1,171 @@
+// TimingHistory.java
+
+package net.sf.gogui.tools.regress;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import net.sf.gogui.util.ErrorMessage;
+import net.sf.gogui.util.StringUtil;
+import net.sf.gogui.util.Table;
+
+/** Persistent history of the times of regression tests.
+    The history is stored as a table file (see net.sf.gogui.util.Table)
+    with one row for each test command and run. The rows of a new run are
+    appended to the file, so the file keeps growing; older rows can be
+    removed with a text editor. Tests are identified by the name of the
+    test file, as given on the command line, and the test ID. */
+final class TimingHistory
+{
+    /** Maximum number of previous runs used for the reference time. */
+    public static final int NUMBER_RUNS = 5;
+
+    /** Constructor.
+        @param file The history file. Read if it exists. */
+    public TimingHistory(File file) throws ErrorMessage
+    {
+        m_file = file;
+        m_newRows = new Table(getColumnTitles());
+        if (! file.exists())
+            return;
+        Table table = new Table();
+        try
+        {
+            table.read(file);
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new ErrorMessage("File not found: " + file);
+        }
+        catch (IOException e)
+        {
+            throw new ErrorMessage("Could not read " + file + ": "
+                                   + e.getMessage());
+        }
+        if (! table.getColumnTitles().equals(getColumnTitles()))
+            throw new ErrorMessage("Invalid history file: " + file);
+        for (int row = 0; row < table.getNumberRows(); ++row)
+        {
+            String cpuTime = table.get(COLUMN_CPU_TIME, row);
+            if (StringUtil.isEmpty(cpuTime))
+                continue;
+            String key = getKey(table.get(COLUMN_FILE, row),
+                                table.getInt(COLUMN_ID, row));
+            ArrayList<Double> times = m_cpuTimes.get(key);
+            if (times == null)
+            {
+                times = new ArrayList<Double>();
+                m_cpuTimes.put(key, times);
+            }
+            try
+            {
+                times.add(Double.valueOf(cpuTime));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new ErrorMessage("Invalid history file: " + file);
+            }
+        }
+    }
+
+    /** Add the times of a test in the current run.
+        The times are not used for the reference times of this run.
+        @param file The name of the test file.
+        @param id The test ID.
+        @param timeMillis The wall time.
+        @param cpuTime The CPU time, -1 if unknown. */
+    public void add(String file, int id, long timeMillis, double cpuTime)
+    {
+        m_newRows.startRow();
+        m_newRows.set(COLUMN_DATE, m_date);
+        m_newRows.set(COLUMN_FILE, file);
+        m_newRows.set(COLUMN_ID, Integer.toString(id));
+        m_newRows.set(COLUMN_TIME, m_format.format(timeMillis / 1000.));
+        if (cpuTime >= 0)
+            m_newRows.set(COLUMN_CPU_TIME, m_format.format(cpuTime));
+    }
+
+    /** Get the reference CPU time of a test.
+        @param file The name of the test file.
+        @param id The test ID.
+        @return The median of the CPU times of the last NUMBER_RUNS
+        previous runs, -1 if the history contains no CPU time for this
+        test. */
+    public double getReferenceCpuTime(String file, int id)
+    {
+        ArrayList<Double> times = m_cpuTimes.get(getKey(file, id));
+        if (times == null)
+            return -1;
+        int begin = Math.max(0, times.size() - NUMBER_RUNS);
+        double[] last = new double[times.size() - begin];
+        for (int i = 0; i < last.length; ++i)
+            last[i] = times.get(begin + i).doubleValue();
+        Arrays.sort(last);
+        int n = last.length;
+        if (n % 2 == 1)
+            return last[n / 2];
+        return (last[n / 2 - 1] + last[n / 2]) / 2;
+    }
+
+    /** Append the times of the current run to the history file. */
+    public void save() throws IOException
+    {
+        boolean exists = m_file.exists();
+        FileWriter writer = new FileWriter(m_file, exists);
+        try
+        {
+            if (! exists)
+                m_newRows.saveHeader(writer);
+            for (int row = 0; row < m_newRows.getNumberRows(); ++row)
+                m_newRows.saveRow(writer, row);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private static final int COLUMN_DATE = 0;
+
+    private static final int COLUMN_FILE = 1;
+
+    private static final int COLUMN_ID = 2;
+
+    private static final int COLUMN_TIME = 3;
+
+    private static final int COLUMN_CPU_TIME = 4;
+
+    private final String m_date = StringUtil.getDateShort();
+
+    private final NumberFormat m_format = StringUtil.getNumberFormat(3);
+
+    private final File m_file;
+
+    private final Table m_newRows;
+
+    /** CPU times of previous runs in the order of the runs. */
+    private final TreeMap<String,ArrayList<Double>> m_cpuTimes
+        = new TreeMap<String,ArrayList<Double>>();
+
+    private static ArrayList<String> getColumnTitles()
+    {
+        ArrayList<String> titles = new ArrayList<String>();
+        titles.add("Date");
+        titles.add("File");
+        titles.add("ID");
+        titles.add("Time");
+        titles.add("CpuTime");
+        return titles;
+    }
+
+    private static String getKey(String file, int id)
+    {
+        // File names in the table cannot contain tabs
+        return file + '\t' + id;
+    }
+}
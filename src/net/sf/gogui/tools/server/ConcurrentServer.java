@@ -0,0 +1,777 @@
+// ConcurrentServer.java
+
+package net.sf.gogui.tools.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import net.sf.gogui.util.StringUtil;
+
+/** Serves many network connections at the same time.
+    Each connection is served by its own instance of the Go program, taken
+    from a pool of instances that are started in advance. If all instances
+    are in use, new connections wait until an instance becomes available.
+    After a connection is closed, the input stream of its instance is closed
+    and a new instance is started for the pool, so that each connection
+    gets a program in its initial state.
+    All sockets and program streams are handled by a single thread. The
+    sockets use a java.nio selector; the streams of the processes cannot be
+    used with a selector, so they are polled for available data with a
+    sleep time of up to MAX_SLEEP milliseconds if no data was available (see
+    net.sf.gogui.gtp.GtpMultiplexer). Writing to the input stream of a
+    program can block, so the data received from a connection is queued
+    and written by a writer thread of the program instance.
+    Statistics about each connection are written to standard error after
+    the connection is closed. */
+final class ConcurrentServer
+{
+    /** Maximum time in milliseconds to sleep if no stream had data. */
+    public static final int MAX_SLEEP = 5;
+
+    /** Time in milliseconds to wait for a program to terminate after its
+        input stream was closed, before it is killed. */
+    public static final int EXIT_TIMEOUT = 5000;
+
+    /** Maximum number of bytes waiting to be sent to a connection or to
+        be written to a program.
+        The output of the program or the input from the connection is not
+        read while this limit is exceeded. */
+    public static final int MAX_PENDING = 65536;
+
+    /** Constructor.
+        @param verbose Log everything sent and received to stderr
+        @param program Command line for Go program
+        @param port Port number for incoming connections
+        @param numberPrograms Number of program instances, which is the
+        maximum number of connections served at the same time.
+        @param timeout Timeout in seconds for closing connections that did
+        not send a command and have no command in progress, zero for no
+        timeout. */
+    public ConcurrentServer(boolean verbose, String program, int port,
+                            int numberPrograms, int timeout)
+    {
+        m_verbose = verbose;
+        m_program = program;
+        m_port = port;
+        m_numberPrograms = numberPrograms;
+        m_timeoutMillis = 1000L * timeout;
+    }
+
+    /** Serve connections.
+        Does not return unless an error occurs. */
+    public void run() throws IOException
+    {
+        Selector selector = Selector.open();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.socket().bind(new InetSocketAddress(m_port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            for (int i = 0; i < m_numberPrograms; ++i)
+                startProgram();
+            if (m_verbose)
+                System.err.println("gogui-server: Waiting for connections on"
+                                   + " port " + m_port);
+            int sleep = 0;
+            while (true)
+            {
+                if (sleep == 0)
+                    selector.selectNow();
+                else if (m_connections.isEmpty())
+                    // Only idle programs, poll their standard error less
+                    // often
+                    selector.select(1000);
+                else
+                    selector.select(sleep);
+                boolean anyData = false;
+                Iterator<SelectionKey> it =
+                    selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (! key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept(serverChannel, selector);
+                    else
+                    {
+                        Connection connection = (Connection)key.attachment();
+                        if (key.isReadable())
+                            readConnection(connection);
+                        if (key.isValid() && key.isWritable())
+                            writeConnection(connection);
+                    }
+                    anyData = true;
+                }
+                assignPrograms();
+                pollInput();
+                if (pollPrograms())
+                    anyData = true;
+                checkTimeouts();
+                if (anyData)
+                    sleep = 0;
+                else
+                    sleep = Math.min(sleep + 1, MAX_SLEEP);
+            }
+        }
+        finally
+        {
+            serverChannel.close();
+            selector.close();
+            for (Program program : m_programs)
+                program.m_process.destroy();
+        }
+    }
+
+    /** A network connection. */
+    private static final class Connection
+    {
+        public Connection(SocketChannel channel, SelectionKey key)
+        {
+            m_channel = channel;
+            m_key = key;
+            m_startTime = System.currentTimeMillis();
+            m_lastActivity = m_startTime;
+        }
+
+        /** The connection has sent the end of its stream. */
+        public boolean m_inputClosed;
+
+        /** The connection is not read, because the input queue of the
+            program is full. */
+        public boolean m_inputBlocked;
+
+        /** The program has terminated, close the connection after the
+            pending output was sent. */
+        public boolean m_programClosed;
+
+        /** Current line of the input has content that is not a comment. */
+        public boolean m_isCommandLine;
+
+        /** Current line of the input has content. */
+        public boolean m_isLineStarted;
+
+        /** Current response of the program has content. */
+        public boolean m_isResponseStarted;
+
+        /** Current line of the output is empty. */
+        public boolean m_isOutputLineEmpty = true;
+
+        public int m_numberCommands;
+
+        public int m_numberResponses;
+
+        public int m_pendingBytes;
+
+        public long m_bytesIn;
+
+        public long m_bytesOut;
+
+        public long m_lastActivity;
+
+        public final long m_startTime;
+
+        public long m_totalLatency;
+
+        public long m_maxLatency;
+
+        public final SocketChannel m_channel;
+
+        public final SelectionKey m_key;
+
+        public Program m_program;
+
+        /** Time when the commands without response so far were received. */
+        public final ArrayDeque<Long> m_commandTimes = new ArrayDeque<Long>();
+
+        /** Program output not yet sent to the connection. */
+        public final ArrayDeque<ByteBuffer> m_output =
+            new ArrayDeque<ByteBuffer>();
+    }
+
+    /** An instance of the Go program.
+        The input stream is written by a writer thread, which takes the
+        data from a queue filled by the thread of the server. */
+    private static final class Program
+    {
+        public Program(Process process)
+        {
+            m_process = process;
+            m_in = process.getOutputStream();
+            m_out = process.getInputStream();
+            m_err = process.getErrorStream();
+            m_writer = new Thread("ConcurrentServer.Program")
+                {
+                    public void run()
+                    {
+                        writeInput();
+                    }
+                };
+            m_writer.setDaemon(true);
+            m_writer.start();
+        }
+
+        /** Output stream was closed. */
+        public boolean m_outClosed;
+
+        public boolean m_errClosed;
+
+        /** Closing the input stream was requested. */
+        public boolean m_closeRequested;
+
+        /** Time when the input stream was closed, zero if not closed. */
+        public volatile long m_inClosedTime;
+
+        public Connection m_connection;
+
+        public final Process m_process;
+
+        public final OutputStream m_in;
+
+        public final InputStream m_out;
+
+        public final InputStream m_err;
+
+        /** Close the input stream after the queued data was written. */
+        public synchronized void closeInput()
+        {
+            m_closeRequested = true;
+            notifyAll();
+        }
+
+        /** Get the number of bytes queued for writing. */
+        public synchronized int getNumberQueued()
+        {
+            return m_numberQueued;
+        }
+
+        /** Check if writing to the input stream failed.
+            The program has terminated or closed its input stream. */
+        public synchronized boolean isWriteFailed()
+        {
+            return m_isWriteFailed;
+        }
+
+        /** Queue data for writing to the input stream.
+            The data is ignored if writing already failed. */
+        public synchronized void queue(byte[] buffer, int length)
+        {
+            if (m_isWriteFailed)
+                return;
+            byte[] data = new byte[length];
+            System.arraycopy(buffer, 0, data, 0, length);
+            m_queue.add(data);
+            m_numberQueued += length;
+            notifyAll();
+        }
+
+        private boolean m_isWriteFailed;
+
+        private int m_numberQueued;
+
+        private final ArrayDeque<byte[]> m_queue = new ArrayDeque<byte[]>();
+
+        private final Thread m_writer;
+
+        /** Take the next data to write.
+            Waits until data is queued or closing the input was requested.
+            @return The data or null, if the input stream should be
+            closed. */
+        private synchronized byte[] take()
+        {
+            while (m_queue.isEmpty() && ! m_closeRequested)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    return null;
+                }
+            }
+            return m_queue.peek();
+        }
+
+        private synchronized void written(byte[] data)
+        {
+            m_queue.remove();
+            m_numberQueued -= data.length;
+        }
+
+        private synchronized void writeFailed()
+        {
+            m_isWriteFailed = true;
+            m_queue.clear();
+            m_numberQueued = 0;
+        }
+
+        /** Main function of the writer thread. */
+        private void writeInput()
+        {
+            try
+            {
+                byte[] data;
+                while ((data = take()) != null)
+                {
+                    m_in.write(data);
+                    m_in.flush();
+                    written(data);
+                }
+            }
+            catch (IOException e)
+            {
+                writeFailed();
+            }
+            try
+            {
+                m_in.close();
+            }
+            catch (IOException e)
+            {
+            }
+            m_inClosedTime = System.currentTimeMillis();
+        }
+    }
+
+    private final boolean m_verbose;
+
+    private final int m_numberPrograms;
+
+    private final int m_port;
+
+    private final long m_timeoutMillis;
+
+    private final String m_program;
+
+    private final byte[] m_buffer = new byte[4096];
+
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocate(4096);
+
+    /** All program instances, including the ones that are terminating. */
+    private final ArrayList<Program> m_programs = new ArrayList<Program>();
+
+    private final ArrayDeque<Program> m_idlePrograms =
+        new ArrayDeque<Program>();
+
+    /** Connections that have a program assigned. */
+    private final ArrayList<Connection> m_connections =
+        new ArrayList<Connection>();
+
+    /** Connections waiting for a program. */
+    private final ArrayDeque<Connection> m_waitingConnections =
+        new ArrayDeque<Connection>();
+
+    private void accept(ServerSocketChannel serverChannel, Selector selector)
+        throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        // Don't read from the connection before it has a program
+        SelectionKey key = channel.register(selector, 0);
+        Connection connection = new Connection(channel, key);
+        key.attach(connection);
+        if (m_verbose)
+            System.err.println("gogui-server: Connected with "
+                               + channel.socket().getInetAddress());
+        m_waitingConnections.add(connection);
+    }
+
+    private void assignPrograms()
+    {
+        while (! m_waitingConnections.isEmpty() && ! m_idlePrograms.isEmpty())
+        {
+            Connection connection = m_waitingConnections.remove();
+            Program program = m_idlePrograms.remove();
+            program.m_connection = connection;
+            connection.m_program = program;
+            connection.m_lastActivity = System.currentTimeMillis();
+            connection.m_key.interestOps(SelectionKey.OP_READ);
+            m_connections.add(connection);
+        }
+    }
+
+    /** Close connections that exceeded the idle timeout and kill programs
+        that did not terminate after their input stream was closed. */
+    private void checkTimeouts()
+    {
+        long now = System.currentTimeMillis();
+        if (m_timeoutMillis > 0)
+            for (int i = 0; i < m_connections.size(); ++i)
+            {
+                Connection connection = m_connections.get(i);
+                if (! connection.m_inputClosed
+                    && connection.m_commandTimes.isEmpty()
+                    && now - connection.m_lastActivity > m_timeoutMillis)
+                {
+                    if (m_verbose)
+                        System.err.println("gogui-server: Closing idle"
+                                           + " connection with "
+                                           + getAddress(connection));
+                    closeInput(connection);
+                }
+            }
+        for (int i = 0; i < m_programs.size(); ++i)
+        {
+            Program program = m_programs.get(i);
+            if (program.m_inClosedTime > 0
+                && now - program.m_inClosedTime > EXIT_TIMEOUT
+                && program.m_process.isAlive())
+            {
+                System.err.println("gogui-server: Killing program that did"
+                                   + " not terminate");
+                program.m_process.destroy();
+            }
+        }
+    }
+
+    /** Close the connection and print its statistics. */
+    private void close(Connection connection)
+    {
+        m_connections.remove(connection);
+        connection.m_key.cancel();
+        try
+        {
+            connection.m_channel.close();
+        }
+        catch (IOException e)
+        {
+        }
+        if (connection.m_program != null)
+        {
+            closeInput(connection.m_program);
+            connection.m_program.m_connection = null;
+        }
+        double seconds =
+            (System.currentTimeMillis() - connection.m_startTime) / 1000.;
+        StringBuilder buffer = new StringBuilder(128);
+        buffer.append("gogui-server: Closed connection with ");
+        buffer.append(getAddress(connection));
+        buffer.append(": ");
+        buffer.append(connection.m_numberCommands);
+        buffer.append(" commands, ");
+        buffer.append(connection.m_bytesIn);
+        buffer.append(" bytes in, ");
+        buffer.append(connection.m_bytesOut);
+        buffer.append(" bytes out, ");
+        buffer.append(String.format("%.1f", seconds));
+        buffer.append(" s, ");
+        buffer.append(String.format("%.2f", seconds > 0 ?
+                                    connection.m_numberCommands / seconds
+                                    : 0));
+        buffer.append(" commands/s");
+        if (connection.m_numberResponses > 0)
+        {
+            buffer.append(", latency avg ");
+            buffer.append(connection.m_totalLatency
+                          / connection.m_numberResponses / 1000000);
+            buffer.append(" ms, max ");
+            buffer.append(connection.m_maxLatency / 1000000);
+            buffer.append(" ms");
+        }
+        System.err.println(buffer);
+    }
+
+    /** Close the input stream of the program of a connection. */
+    private void closeInput(Connection connection)
+    {
+        connection.m_inputClosed = true;
+        connection.m_key.interestOps(connection.m_key.interestOps()
+                                     & ~SelectionKey.OP_READ);
+        closeInput(connection.m_program);
+    }
+
+    private void closeInput(Program program)
+    {
+        program.closeInput();
+    }
+
+    private static String getAddress(Connection connection)
+    {
+        return connection.m_channel.socket().getInetAddress().toString();
+    }
+
+    /** Count the commands in data received from a connection. */
+    private static void handleInput(Connection connection, byte[] buffer,
+                                    int length)
+    {
+        for (int i = 0; i < length; ++i)
+        {
+            byte c = buffer[i];
+            if (c == '\n')
+            {
+                if (connection.m_isCommandLine)
+                {
+                    ++connection.m_numberCommands;
+                    long time = System.nanoTime();
+                    connection.m_commandTimes.add(Long.valueOf(time));
+                }
+                connection.m_isCommandLine = false;
+                connection.m_isLineStarted = false;
+            }
+            else if (! connection.m_isLineStarted && c > ' ')
+            {
+                connection.m_isLineStarted = true;
+                connection.m_isCommandLine = (c != '#');
+            }
+        }
+    }
+
+    /** Detect the ends of responses in the output of a program.
+        A response ends with an empty line. */
+    private static void handleOutput(Connection connection, byte[] buffer,
+                                     int length)
+    {
+        for (int i = 0; i < length; ++i)
+        {
+            byte c = buffer[i];
+            if (c == '\n')
+            {
+                if (connection.m_isOutputLineEmpty
+                    && connection.m_isResponseStarted)
+                {
+                    connection.m_isResponseStarted = false;
+                    Long time = connection.m_commandTimes.poll();
+                    if (time != null)
+                    {
+                        long latency = System.nanoTime() - time.longValue();
+                        ++connection.m_numberResponses;
+                        connection.m_totalLatency += latency;
+                        connection.m_maxLatency =
+                            Math.max(connection.m_maxLatency, latency);
+                    }
+                }
+                connection.m_isOutputLineEmpty = true;
+            }
+            else if (c != '\r')
+            {
+                connection.m_isOutputLineEmpty = false;
+                connection.m_isResponseStarted = true;
+            }
+        }
+    }
+
+    /** Check the input queues of the programs of all connections.
+        Closes the input of a connection, if writing to its program failed,
+        and continues reading from a blocked connection, if the queue of
+        its program is no longer full. */
+    private void pollInput()
+    {
+        for (int i = 0; i < m_connections.size(); ++i)
+        {
+            Connection connection = m_connections.get(i);
+            if (connection.m_inputClosed)
+                continue;
+            Program program = connection.m_program;
+            if (program.isWriteFailed())
+                // Program terminated, the connection is closed after the
+                // rest of the output of the program was sent
+                closeInput(connection);
+            else if (connection.m_inputBlocked
+                     && program.getNumberQueued() < MAX_PENDING)
+            {
+                connection.m_inputBlocked = false;
+                connection.m_key.interestOps(connection.m_key.interestOps()
+                                             | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /** Read the available data of all program streams.
+        Also removes terminated programs and starts new programs for the
+        pool.
+        @return true, if any data was read. */
+    private boolean pollPrograms() throws IOException
+    {
+        boolean anyData = false;
+        for (int i = 0; i < m_programs.size(); ++i)
+        {
+            Program program = m_programs.get(i);
+            if (! program.m_errClosed)
+            {
+                int n = read(program.m_err, program);
+                if (n > 0)
+                {
+                    System.err.write(m_buffer, 0, n);
+                    System.err.flush();
+                    anyData = true;
+                }
+                else if (n < 0)
+                    program.m_errClosed = true;
+            }
+            Connection connection = program.m_connection;
+            if (connection == null)
+            {
+                // The output of programs without connection is not read
+                // before they are assigned, unless they terminated
+                if (program.m_closeRequested
+                    || ! program.m_process.isAlive())
+                    program.m_outClosed = true;
+            }
+            else if (! program.m_outClosed
+                     && connection.m_pendingBytes < MAX_PENDING)
+            {
+                int n = read(program.m_out, program);
+                if (n > 0)
+                {
+                    if (m_verbose)
+                        System.err.write(m_buffer, 0, n);
+                    handleOutput(connection, m_buffer, n);
+                    ByteBuffer buffer = ByteBuffer.allocate(n);
+                    buffer.put(m_buffer, 0, n);
+                    buffer.flip();
+                    connection.m_output.add(buffer);
+                    connection.m_pendingBytes += n;
+                    writeConnection(connection);
+                    anyData = true;
+                }
+                else if (n < 0)
+                {
+                    program.m_outClosed = true;
+                    connection.m_programClosed = true;
+                    if (connection.m_output.isEmpty())
+                        close(connection);
+                }
+            }
+            if (program.m_outClosed && program.m_errClosed
+                && ! program.m_process.isAlive())
+            {
+                m_programs.remove(i);
+                m_idlePrograms.remove(program);
+                --i;
+                if (! program.m_closeRequested)
+                    System.err.println("gogui-server: Program terminated"
+                                       + " unexpectedly");
+                if (program.m_connection != null)
+                    close(program.m_connection);
+                // Terminate the writer thread
+                closeInput(program);
+                startProgram();
+            }
+        }
+        return anyData;
+    }
+
+    /** Read available data from a stream of a program into m_buffer.
+        Never blocks. Only reads the bytes reported by
+        InputStream.available().
+        @return The number of bytes read, -1 at the end of the stream or if
+        the process has terminated and no more data is available. */
+    private int read(InputStream in, Program program)
+    {
+        try
+        {
+            // Query the process state first, the process could write more
+            // data and terminate after the call to available()
+            boolean isAlive = program.m_process.isAlive();
+            int available = in.available();
+            if (available > 0)
+                return in.read(m_buffer, 0,
+                               Math.min(available, m_buffer.length));
+            if (isAlive)
+                return 0;
+            return -1;
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    private void readConnection(Connection connection)
+    {
+        int n;
+        m_readBuffer.clear();
+        try
+        {
+            n = connection.m_channel.read(m_readBuffer);
+        }
+        catch (IOException e)
+        {
+            n = -1;
+        }
+        if (n < 0)
+        {
+            closeInput(connection);
+            return;
+        }
+        if (n == 0)
+            return;
+        connection.m_bytesIn += n;
+        connection.m_lastActivity = System.currentTimeMillis();
+        m_readBuffer.flip();
+        m_readBuffer.get(m_buffer, 0, n);
+        if (m_verbose)
+            System.err.write(m_buffer, 0, n);
+        handleInput(connection, m_buffer, n);
+        Program program = connection.m_program;
+        program.queue(m_buffer, n);
+        if (program.getNumberQueued() >= MAX_PENDING)
+        {
+            // Don't read more input until the writer thread of the program
+            // has written the queue
+            connection.m_inputBlocked = true;
+            connection.m_key.interestOps(connection.m_key.interestOps()
+                                         & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void startProgram() throws IOException
+    {
+        Process process =
+            Runtime.getRuntime().exec(StringUtil.splitArguments(m_program));
+        Program program = new Program(process);
+        m_programs.add(program);
+        m_idlePrograms.add(program);
+    }
+
+    /** Send the pending output to a connection without blocking. */
+    private void writeConnection(Connection connection)
+    {
+        try
+        {
+            while (! connection.m_output.isEmpty())
+            {
+                ByteBuffer buffer = connection.m_output.peek();
+                int n = connection.m_channel.write(buffer);
+                connection.m_bytesOut += n;
+                connection.m_pendingBytes -= n;
+                if (buffer.hasRemaining())
+                    break;
+                connection.m_output.remove();
+            }
+        }
+        catch (IOException e)
+        {
+            close(connection);
+            return;
+        }
+        connection.m_lastActivity = System.currentTimeMillis();
+        if (connection.m_output.isEmpty())
+        {
+            if (connection.m_programClosed)
+            {
+                close(connection);
+                return;
+            }
+            connection.m_key.interestOps(connection.m_key.interestOps()
+                                         & ~SelectionKey.OP_WRITE);
+        }
+        else
+            connection.m_key.interestOps(connection.m_key.interestOps()
+                                         | SelectionKey.OP_WRITE);
+    }
+}
@@ -85,6 +85,7 @@ public final class Server
         try
         {
             String options[] = {
+                "clients:",
                 "config:",
                 "help",
                 "loop",
@@ -122,6 +123,17 @@ public final class Server
             String remoteHost = opt.get("remote", null);
             String userFile = opt.get("user", null);
             int timeout = opt.getInteger("timeout", 0, 0);
+            int clients = 0;
+            if (opt.contains("clients"))
+            {
+                if (remoteHost != null)
+                {
+                    System.err.println("Option -clients can't be used with"
+                                       + " -remote");
+                    System.exit(1);
+                }
+                clients = opt.getInteger("clients", 1, 1);
+            }
             if (userFile != null && remoteHost == null)
             {
                 System.err.println("Option -user only valid with -remote");
@@ -134,6 +146,12 @@ public final class Server
                 System.exit(1);
             }
             String program = arguments.get(0);
+            if (clients > 0)
+            {
+                new ConcurrentServer(verbose, program, port, clients,
+                                     timeout).run();
+                return;
+            }
             new Server(verbose, loop, program, remoteHost, port, userFile,
                        timeout);
         }
@@ -179,6 +197,7 @@ public final class Server
     {
         out.print("Usage: gogui-server [options] program\n" +
                   "\n" +
+                  "-clients number of concurrent connections\n" +
                   "-config  config file\n" +
                   "-help    display this help and exit\n" +
                   "-loop    restart after connection finished\n" +
@@ -4,9 +4,7 @@ package net.sf.gogui.tools.statistics;
 
 import java.awt.Color;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -17,7 +15,7 @@ import net.sf.gogui.game.GameInfo;
 import net.sf.gogui.game.GameTree;
 import net.sf.gogui.game.StringInfo;
 import net.sf.gogui.game.StringInfoColor;
-import net.sf.gogui.sgf.SgfReader;
+import net.sf.gogui.sgf.SgfCollectionReader;
 import net.sf.gogui.util.ErrorMessage;
 import net.sf.gogui.util.FileUtil;
 import net.sf.gogui.util.Histogram;
@@ -389,7 +387,7 @@ public class Analyze
                                boolean shortName)
     {
         GameData data = m_gameData.get(gameNumber);
-        File gameFile = new File(data.m_file);
+        File gameFile = SgfCollectionReader.getFile(data.m_file);
         if (! gameFile.exists())
             return (shortName ? gameFile.getName() : gameFile.toString());
         String path = FileUtil.getRelativeURI(fromFile, gameFile);
@@ -660,9 +658,7 @@ public class Analyze
         writeHtmlRow(out, "File", getGameLink(file, gameNumber, false));
         try
         {
-            InputStream in = new FileInputStream(new File(game));
-            SgfReader reader = new SgfReader(in, new File(game), null, 0);
-            GameTree tree = reader.getTree();
+            GameTree tree = SgfCollectionReader.readTree(game);
             GameInfo info = tree.getGameInfo(tree.getRoot());
             String playerBlack = info.get(StringInfoColor.NAME, BLACK);
             if (playerBlack == null)
@@ -676,7 +672,6 @@ public class Analyze
             writeHtmlRow(out, "Black", playerBlack);
             writeHtmlRow(out, "White", playerWhite);
             writeHtmlRow(out, "Result", result);
-            in.close();
         }
         catch (Exception e)
         {
@@ -7,52 +7,36 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import net.sf.gogui.game.ConstGameTree;
 import net.sf.gogui.game.ConstNode;
-import net.sf.gogui.game.GameTree;
 import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.Move;
-import net.sf.gogui.sgf.SgfReader;
+import net.sf.gogui.sgf.SgfCollectionReader;
 import net.sf.gogui.util.ErrorMessage;
 
-/** Check that SGF files meet the requirements for a Statistics run. */
+/** Check that SGF files meet the requirements for a Statistics run.
+    The games are checked with check() when they are read for the run;
+    before the run, getNames() only counts the games in the files without
+    reading them. */
 public class FileCheck
 {
-    public FileCheck(ArrayList<String> sgfFiles, int size, boolean allowSetup)
-        throws ErrorMessage
+    public FileCheck(int size, boolean allowSetup)
     {
         m_size = size;
         m_allowSetup = allowSetup;
-        for (int i = 0; i < sgfFiles.size(); ++i)
-        {
-            m_file = new File(sgfFiles.get(i));
-            checkFile();
-        }
     }
 
-    private final boolean m_allowSetup;
-
-    private final int m_size;
-
-    private File m_file;
-
-    private void checkFile() throws ErrorMessage
+    /** Check a game.
+        @param name The name of the game for error messages.
+        @param tree The game.
+        @throws ErrorMessage If the game does not meet the requirements. */
+    public void check(String name, ConstGameTree tree) throws ErrorMessage
     {
-        InputStream in = null;
-        try
-        {
-            in = new FileInputStream(m_file);
-        }
-        catch (FileNotFoundException e)
-        {
-            throwError("file not found");
-        }
-        SgfReader reader = new SgfReader(in, m_file, null, 0);
-        GameTree tree = reader.getTree();
         if (tree.getBoardSize() != m_size)
-            throwError("size is not " + m_size);
-        ConstNode root = tree.getRoot();
+            throwError(name, "size is not " + m_size);
+        ConstNode root = tree.getRootConst();
         GoColor toMove = BLACK;
         for (ConstNode node = root; node != null; node = node.getChildConst())
         {
@@ -63,11 +47,10 @@ public class FileCheck
                     if (node == root)
                         toMove = EMPTY;
                     else
-                        throw new ErrorMessage("setup stones"
-                                               + " in non-root position");
+                        throwError(name, "setup stones in non-root position");
                 }
                 else
-                    throw new ErrorMessage("contains setup stones");
+                    throwError(name, "contains setup stones");
             }
             Move move = node.getMove();
             if (move != null)
@@ -75,14 +58,59 @@ public class FileCheck
                 if (toMove == EMPTY)
                     toMove = move.getColor();
                 if (move.getColor() != toMove)
-                    throwError("non-alternating moves");
+                    throwError(name, "non-alternating moves");
                 toMove = toMove.otherColor();
             }
         }
     }
 
-    private void throwError(String reason) throws ErrorMessage
+    /** Get the names of the games.
+        Files can contain collections of games. The games are only counted
+        with SgfCollectionReader.skipNext(), not read.
+        @param sgfFiles The file names.
+        @return The names as returned by SgfCollectionReader.getTreeName()
+        in the order of the files and the games in the files. */
+    public static ArrayList<String> getNames(ArrayList<String> sgfFiles)
+        throws ErrorMessage
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        for (String fileName : sgfFiles)
+        {
+            File file = new File(fileName);
+            InputStream in;
+            try
+            {
+                in = new FileInputStream(file);
+            }
+            catch (FileNotFoundException e)
+            {
+                throw new ErrorMessage(file + ": file not found");
+            }
+            SgfCollectionReader reader = new SgfCollectionReader(in, file);
+            try
+            {
+                while (reader.skipNext())
+                {
+                    int number = reader.getNumberTrees();
+                    names.add(SgfCollectionReader.getTreeName(fileName,
+                                                              number));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return names;
+    }
+
+    private final boolean m_allowSetup;
+
+    private final int m_size;
+
+    private static void throwError(String name, String reason)
+        throws ErrorMessage
     {
-        throw new ErrorMessage(m_file + ": " + reason);
+        throw new ErrorMessage(name + ": " + reason);
     }
 }
@@ -24,6 +24,7 @@ public final class Main
                 "begin:",
                 "commands:",
                 "config:",
+                "continue",
                 "final:",
                 "force",
                 "help",
@@ -36,6 +37,7 @@ public final class Main
                 "random",
                 "setup",
                 "size:",
+                "threads:",
                 "verbose",
                 "version"
             };
@@ -67,9 +69,11 @@ public final class Main
             boolean verbose = opt.contains("verbose");
             boolean quiet = opt.contains("quiet");
             boolean force = opt.contains("force");
+            boolean resume = opt.contains("continue");
             int min = opt.getInteger("min", 0, 0);
             int max = opt.getInteger("max", Integer.MAX_VALUE, 0);
             int precision = opt.getInteger("precision", 3, 0);
+            int numberThreads = opt.getInteger("threads", 1, 1);
             int boardSize = opt.getInteger("size", GoPoint.DEFAULT_SIZE, 1,
                                            GoPoint.MAX_SIZE);
             ArrayList<String> commands = parseCommands(opt, "commands");
@@ -100,17 +104,18 @@ public final class Main
                     output = new File(opt.get("output"));
                 else
                     output = new File("statistics.dat");
-                if (output.exists() && ! force)
+                if (output.exists() && ! force && ! resume)
                     throw new ErrorMessage("File \"" + output +
                                            "\" already exists");
                 Statistics statistics = new Statistics();
                 statistics.setMin(min);
                 statistics.setMax(max);
                 statistics.setQuiet(quiet);
+                statistics.setNumberEngines(numberThreads);
+                statistics.setCheckpoint(output, resume);
                 statistics.run(program, arguments, boardSize, commands,
                                beginCommands, finalCommands, verbose,
                                allowSetup, backward, random);
-                statistics.saveTable(output);
             }
         }
         catch (Throwable t)
@@ -150,6 +155,7 @@ public final class Main
                   "-begin        GTP commands to run on begin positions\n" +
                   "-commands     GTP commands to run (comma separated)\n" +
                   "-config       Config file\n" +
+                  "-continue     Continue aborted run in existing file\n" +
                   "-final        GTP commands to run on final positions\n" +
                   "-force        Overwrite existing file\n" +
                   "-help         Display this help and exit\n" +
@@ -160,6 +166,7 @@ public final class Main
                   "-quiet        Don't write logging messages\n" +
                   "-setup        Allow setup stones in root position\n" +
                   "-size         Board size of games\n" +
+                  "-threads      Number of program instances to run\n" +
                   "-verbose      Log GTP stream to stderr\n" +
                   "-version      Display this help and exit\n");
     }
@@ -2,23 +2,23 @@
 
 package net.sf.gogui.tools.statistics;
 
-import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.TreeSet;
 import net.sf.gogui.game.ConstGame;
 import net.sf.gogui.game.ConstNode;
 import net.sf.gogui.game.ConstGameInfo;
-import net.sf.gogui.game.ConstGameTree;
 import net.sf.gogui.game.Game;
+import net.sf.gogui.game.GameTree;
 import net.sf.gogui.game.NodeUtil;
 import net.sf.gogui.go.GoColor;
-import static net.sf.gogui.go.GoColor.BLACK;
-import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.go.InvalidPointException;
 import net.sf.gogui.go.Move;
@@ -26,14 +26,22 @@ import net.sf.gogui.gtp.GtpClient;
 import net.sf.gogui.gtp.GtpClientBase;
 import net.sf.gogui.gtp.GtpError;
 import net.sf.gogui.gtp.GtpSynchronizer;
-import net.sf.gogui.sgf.SgfError;
-import net.sf.gogui.sgf.SgfReader;
+import net.sf.gogui.sgf.SgfCollectionReader;
 import net.sf.gogui.util.ErrorMessage;
 import net.sf.gogui.util.Platform;
 import net.sf.gogui.util.StringUtil;
 import net.sf.gogui.util.Table;
 
-/** Run commands of a GTP engine on all positions in a game collection. */
+/** Run commands of a GTP engine on all positions in a game collection.
+    Can use several instances of the engine in parallel. The games are
+    distributed between the engines; the rows of the result table are in the
+    order of the games, independent of the number of engines. The files are
+    read while the games are distributed, so only the games in progress are
+    kept in memory. Before the run, the games are only counted (see
+    FileCheck.getNames()); each game is checked by the worker that reads
+    it.
+    The table can be written incrementally to a checkpoint file, which
+    allows to continue an aborted run (see setCheckpoint()). */
 public class Statistics
 {
     public void run(String program, ArrayList<String> sgfFiles, int size,
@@ -43,9 +51,20 @@ public class Statistics
                     boolean allowSetup, boolean backward, boolean random)
         throws ErrorMessage, GtpError, IOException
     {
-        run(new GtpClient(program, null, verbose, null), program, sgfFiles,
-            size, commands, beginCommands, finalCommands, allowSetup,
-            backward, random);
+        ArrayList<GtpClientBase> gtp = new ArrayList<GtpClientBase>();
+        try
+        {
+            for (int i = 0; i < m_numberEngines; ++i)
+                gtp.add(new GtpClient(program, null, verbose, null));
+        }
+        catch (GtpClient.ExecFailed e)
+        {
+            for (GtpClientBase client : gtp)
+                client.close();
+            throw e;
+        }
+        run(gtp, program, sgfFiles, size, commands, beginCommands,
+            finalCommands, allowSetup, backward, random);
     }
 
     /** Construct with existing GTP engine.
@@ -74,9 +93,29 @@ public class Statistics
                     boolean backward, boolean random)
         throws ErrorMessage, IOException
     {
-        new FileCheck(sgfFiles, size, allowSetup);
+        ArrayList<GtpClientBase> list = new ArrayList<GtpClientBase>();
+        list.add(gtp);
+        run(list, program, sgfFiles, size, commands, beginCommands,
+            finalCommands, allowSetup, backward, random);
+    }
+
+    /** Construct with existing instances of a GTP engine.
+        Each engine is used by its own thread. The other parameters are the
+        same as in the function for a single engine.
+        @param gtp The instances of the GTP engine (must be instances of
+        the same engine) */
+    public void run(ArrayList<GtpClientBase> gtp, String program,
+                    ArrayList<String> sgfFiles, int size,
+                    ArrayList<String> commands,
+                    ArrayList<String> beginCommands,
+                    ArrayList<String> finalCommands, boolean allowSetup,
+                    boolean backward, boolean random)
+        throws ErrorMessage, IOException
+    {
+        assert ! gtp.isEmpty();
+        ArrayList<String> names = FileCheck.getNames(sgfFiles);
+        m_fileCheck = new FileCheck(size, allowSetup);
         m_size = size;
-        m_allowSetup = allowSetup;
         m_backward = backward;
         m_random = random;
         initCommands(commands, beginCommands, finalCommands);
@@ -87,25 +126,91 @@ public class Statistics
             columnHeaders.add(getCommand(i).m_columnTitle);
         m_table = new Table(columnHeaders);
         m_table.setProperty("Size", Integer.toString(size));
-        m_gtp = gtp;
-        m_synchronizer = new GtpSynchronizer(m_gtp);
-        m_gtp.queryProtocolVersion();
-        m_gtp.queryName();
+        for (GtpClientBase client : gtp)
+        {
+            client.queryProtocolVersion();
+            client.queryName();
+        }
         if (program != null)
             m_table.setProperty("Program", program);
-        m_table.setProperty("Name", m_gtp.getLabel());
-        m_table.setProperty("Version", m_gtp.queryVersion());
+        m_table.setProperty("Name", gtp.get(0).getLabel());
+        m_table.setProperty("Version", gtp.get(0).queryVersion());
+        for (int i = 1; i < gtp.size(); ++i)
+            gtp.get(i).queryVersion();
         String host = Platform.getHostInfo();
         m_table.setProperty("Host", host);
         m_table.setProperty("Date", StringUtil.getDate());
-        for (int i = 0; i < sgfFiles.size(); ++i)
-            handleFile(sgfFiles.get(i));
-        m_gtp.send("quit");
-        m_gtp.close();
-        m_gtp.waitForExit();
+        m_names = names;
+        m_numberGames = m_names.size();
         m_table.setProperty("Games", Integer.toString(m_numberGames));
         m_table.setProperty("Backward", backward ? "yes" : "no");
         m_table.setProperty("Random", random ? "yes" : "no");
+        m_results = new ArrayList<ArrayList<String[]>>(m_numberGames);
+        for (int i = 0; i < m_numberGames; ++i)
+            m_results.add(null);
+        m_gameDone = new boolean[m_numberGames];
+        m_donePositions = null;
+        Writer checkpoint = null;
+        if (m_checkpoint != null)
+            checkpoint = openCheckpoint();
+        m_sgfFiles = sgfFiles;
+        m_nextFile = 0;
+        m_nextGame = 0;
+        m_error = null;
+        ArrayList<Worker> workers = new ArrayList<Worker>();
+        try
+        {
+            for (GtpClientBase client : gtp)
+            {
+                Worker worker = new Worker(client);
+                workers.add(worker);
+                worker.start();
+            }
+            for (int i = 0; i < m_numberGames; ++i)
+            {
+                ArrayList<String[]> rows;
+                while ((rows = waitForRows(i)) != null)
+                    addRows(rows, checkpoint);
+            }
+        }
+        finally
+        {
+            if (m_error == null)
+                for (Worker worker : workers)
+                    joinWorker(worker);
+            else
+                for (Worker worker : workers)
+                    worker.interrupt();
+            if (checkpoint != null)
+                checkpoint.close();
+            closeReader();
+        }
+        if (m_error != null)
+            throw m_error;
+    }
+
+    /** Write the result table incrementally to a file.
+        The header is written at the beginning of the run and each row is
+        appended to the file as soon as it is available, so that the results
+        are not lost if the run is aborted.
+        @param file The file, null for no checkpoint file (default).
+        @param resume true, if an existing file should be continued. The
+        file must contain a table written by a run with the same commands
+        and options. Games and positions contained in the table are skipped;
+        an incomplete last line is removed. If false, an existing file is
+        overwritten. */
+    public void setCheckpoint(File file, boolean resume)
+    {
+        m_checkpoint = file;
+        m_resume = resume;
+    }
+
+    /** Set the number of instances of the engine used in parallel.
+        Used by run() with a program command. Default is 1. */
+    public void setNumberEngines(int numberEngines)
+    {
+        assert numberEngines > 0;
+        m_numberEngines = numberEngines;
     }
 
     /** Set maximum move number for positions to run the commands on.
@@ -143,6 +248,14 @@ public class Statistics
         }
     }
 
+    /** A game taken by a worker. */
+    private static class Job
+    {
+        public int m_index;
+
+        public GameTree m_tree;
+    }
+
     private static class Command
     {
         public boolean m_begin;
@@ -154,35 +267,368 @@ public class Statistics
         public String m_columnTitle;
     }
 
-    private boolean m_allowSetup;
+    /** Thread running the commands on games with one instance of the
+        engine.
+        Takes the next game that was not yet taken by another worker until
+        all games are done. The rows for a game are stored with storeRow()
+        as soon as they are complete. */
+    private class Worker
+        extends Thread
+    {
+        public Worker(GtpClientBase gtp)
+        {
+            m_gtp = gtp;
+            m_synchronizer = new GtpSynchronizer(gtp);
+        }
+
+        public void run()
+        {
+            try
+            {
+                Job job;
+                while (! hasError() && (job = takeGame()) != null)
+                {
+                    m_index = job.m_index;
+                    m_fileCheck.check(m_names.get(m_index), job.m_tree);
+                    handleGame(job.m_tree);
+                    setGameDone(job.m_index);
+                }
+                m_gtp.send("quit");
+            }
+            catch (ErrorMessage e)
+            {
+                setError(e);
+            }
+            catch (RuntimeException e)
+            {
+                setError(new ErrorMessage(StringUtil.getErrorMessage(e)));
+                throw e;
+            }
+            finally
+            {
+                m_gtp.close();
+                m_gtp.waitForExit();
+            }
+        }
+
+        private double m_lastCpuTime = 0;
+
+        private final NumberFormat m_format1 = StringUtil.getNumberFormat(1);
+
+        private final NumberFormat m_format2 = StringUtil.getNumberFormat(2);
+
+        private final GtpClientBase m_gtp;
+
+        private final GtpSynchronizer m_synchronizer;
+
+        /** Index of the current game. */
+        private int m_index;
+
+        /** Move numbers of the positions of the current game that are
+            already contained in the checkpoint file (null if none). */
+        private TreeSet<Integer> m_skip;
+
+        private String convertResponse(String command, String response,
+                                       GoColor toMove, Move move)
+            throws GtpError
+        {
+            if (command.equals("cputime"))
+            {
+                try
+                {
+                    double cpuTime = Double.parseDouble(response);
+                    double diff = cpuTime - m_lastCpuTime;
+                    m_lastCpuTime = cpuTime;
+                    return m_format2.format(diff);
+                }
+                catch (NumberFormatException e)
+                {
+                    return response;
+                }
+            }
+            else if (command.equals("estimate_score"))
+            {
+                String arg[] = StringUtil.splitArguments(response);
+                if (arg.length == 0)
+                    return response;
+                return convertScore(arg[0]);
+            }
+            else if (command.equals("final_score"))
+            {
+                return convertScore(response);
+            }
+            else if (command.equals("reg_genmove"))
+            {
+                if (move == null)
+                    return "";
+                try
+                {
+                    GoPoint point = GoPoint.parsePoint(response, m_size);
+                    return Move.get(toMove, point) == move ? "1" : "0";
+                }
+                catch (InvalidPointException e)
+                {
+                    throw new GtpError("Program sent invalid move: "
+                                       + response);
+                }
+            }
+            return response;
+        }
+
+        /** Tries to convert score into number.
+            @return Score string or original string, if conversion fails. */
+        private String convertScore(String string)
+        {
+            String score = string.trim();
+            double sign = 1;
+            if (score.startsWith("W+"))
+            {
+                score = score.substring(2);
+                sign = -1;
+            }
+            else if (score.startsWith("B+"))
+                score = score.substring(2);
+            try
+            {
+                return m_format1.format(sign * Double.parseDouble(score));
+            }
+            catch (NumberFormatException e)
+            {
+                return string;
+            }
+        }
+
+        /** Run the commands on the current game. */
+        private void handleGame(GameTree tree) throws GtpError
+        {
+            String name = m_names.get(m_index);
+            m_skip = null;
+            if (m_donePositions != null)
+                m_skip = m_donePositions.get(m_index);
+            if (m_skip != null)
+            {
+                // The last iterated position always gets a row (it is the
+                // final position, or the begin position if iterating
+                // backward) and has the depth of the last node as number
+                int last = NodeUtil.getDepth(NodeUtil.getLast(tree.getRoot()));
+                if (m_random || m_skip.contains(Integer.valueOf(last)))
+                    return;
+            }
+            Game game = new Game(tree);
+            if (m_random)
+                iteratePositionsRandom(game, name);
+            else if (m_backward)
+                iteratePositionsBackward(game, name);
+            else
+                iteratePositions(game, name);
+        }
+
+        private void handlePosition(String name, GoColor toMove, Move move,
+                                    int number, boolean beginCommands,
+                                    boolean regularCommands,
+                                    boolean finalCommands)
+            throws GtpError
+        {
+            if (! m_quiet)
+                System.err.println(name + ":" + number);
+            String[] row = new String[m_commands.size() + 2];
+            row[0] = name;
+            row[1] = Integer.toString(number);
+            for (int i = 0; i < m_commands.size(); ++i)
+            {
+                Command command = getCommand(i);
+                if (command.m_begin && beginCommands)
+                    row[i + 2] = send(command.m_command, toMove, move);
+            }
+            for (int i = 0; i < m_commands.size(); ++i)
+            {
+                Command command = getCommand(i);
+                if (! command.m_begin && ! command.m_final && regularCommands)
+                    row[i + 2] = send(command.m_command, toMove, move);
+            }
+            for (int i = 0; i < m_commands.size(); ++i)
+            {
+                Command command = getCommand(i);
+                if (command.m_final && finalCommands)
+                    row[i + 2] = send(command.m_command, toMove, move);
+            }
+            storeRow(m_index, row);
+        }
+
+        private void iteratePositions(Game game, String name)
+            throws GtpError
+        {
+            int number = 0;
+            for (ConstNode node = game.getRoot(); node != null;
+                 node = node.getChildConst())
+            {
+                if (isSkipped(number))
+                {
+                    ++number;
+                    continue;
+                }
+                game.gotoNode(node, null);
+                synchronize(game);
+                Move move = node.getMove();
+                boolean beginCommands = ! node.hasFather();
+                boolean regularCommands =
+                    ((move != null || node.hasSetup() || ! node.hasFather())
+                     && number >= m_min && number <= m_max);
+                boolean finalCommands = ! node.hasChildren();
+                if (beginCommands || regularCommands || finalCommands)
+                    handlePosition(name, node.getToMove(), move, number,
+                                   beginCommands, regularCommands,
+                                   finalCommands);
+                ++number;
+            }
+        }
+
+        private void iteratePositionsBackward(Game game, String name)
+            throws GtpError
+        {
+            int number = 0;
+            for (ConstNode node = NodeUtil.getLast(game.getRoot());
+                 node != null; node = node.getFatherConst())
+            {
+                if (isSkipped(number))
+                {
+                    ++number;
+                    continue;
+                }
+                game.gotoNode(node, null);
+                synchronize(game);
+                Move move = node.getMove();
+                boolean beginCommands = ! node.hasChildren();
+                boolean regularCommands =
+                    ((move != null || node.hasSetup() || ! node.hasFather())
+                     && number >= m_min && number <= m_max);
+                boolean finalCommands = ! node.hasFather();
+                if (beginCommands || regularCommands || finalCommands)
+                    handlePosition(name, node.getToMove(), move, number,
+                                   beginCommands, regularCommands,
+                                   finalCommands);
+                ++number;
+            }
+        }
+
+        private void iteratePositionsRandom(Game game, String name)
+            throws GtpError
+        {
+            int minDepth;
+            int maxDepth;
+            if (m_backward)
+            {
+                int depth =
+                    NodeUtil.getDepth(NodeUtil.getLast(game.getRoot()));
+                minDepth = depth - m_max;
+                maxDepth = depth - m_min;
+            }
+            else
+            {
+                minDepth = m_min;
+                maxDepth = m_max;
+            }
+            ConstNode node = NodeUtil.selectRandom(game.getRoot(), minDepth,
+                                                   maxDepth);
+            if (node == null)
+                return;
+            int number = NodeUtil.getDepth(node);
+            game.gotoNode(node, null);
+            synchronize(game);
+            Move move = node.getMove();
+            boolean beginCommands = ! node.hasChildren();
+            boolean regularCommands =
+                (move != null || node.hasSetup() || ! node.hasFather());
+            boolean finalCommands = ! node.hasFather();
+            if (beginCommands || regularCommands || finalCommands)
+                handlePosition(name, node.getToMove(), move, number,
+                               beginCommands, regularCommands, finalCommands);
+        }
+
+        private boolean isSkipped(int number)
+        {
+            return m_skip != null && m_skip.contains(Integer.valueOf(number));
+        }
+
+        private String send(String command, GoColor toMove, Move move)
+            throws GtpError
+        {
+            String cmd = convertCommand(command, toMove);
+            String response = m_gtp.send(cmd).trim();
+            response = response.replaceAll("\t", " ");
+            response = response.replaceAll("\n", " ");
+            return convertResponse(command, response, toMove, move);
+        }
+
+        private void synchronize(ConstGame game) throws GtpError
+        {
+            ConstNode node = game.getGameInfoNode();
+            ConstGameInfo info = game.getGameInfo(node);
+            m_synchronizer.synchronize(game.getBoard(), info.getKomi(),
+                                       info.getTimeSettings());
+        }
+    }
 
     private boolean m_backward;
 
     private boolean m_random;
 
+    private boolean m_resume;
+
     private boolean m_quiet;
 
     private int m_max = Integer.MAX_VALUE;
 
     private int m_min = 0;
 
+    private int m_numberEngines = 1;
+
     private int m_numberGames;
 
     private int m_size;
 
-    private double m_lastCpuTime = 0;
+    /** Index of the next game to be taken by a worker.
+        Access needs synchronization. */
+    private int m_nextGame;
+
+    /** Index of the next file to be read by takeGame().
+        Access needs synchronization. */
+    private int m_nextFile;
 
-    private GtpClientBase m_gtp;
+    /** First error that occurred in a worker. */
+    private ErrorMessage m_error;
 
-    private static final NumberFormat FORMAT1 = StringUtil.getNumberFormat(1);
+    private File m_checkpoint;
 
-    private static final NumberFormat FORMAT2 = StringUtil.getNumberFormat(2);
+    private FileCheck m_fileCheck;
 
     private Table m_table;
 
     private ArrayList<Command> m_commands;
 
-    private GtpSynchronizer m_synchronizer;
+    private ArrayList<String> m_names;
+
+    private ArrayList<String> m_sgfFiles;
+
+    /** Reader for the file containing the next game, null if no file is
+        open.
+        Access needs synchronization. */
+    private SgfCollectionReader m_reader;
+
+    /** Rows of the result table for each game that were not yet added to
+        the table.
+        Elements are null if there are no such rows. Access needs
+        synchronization. */
+    private ArrayList<ArrayList<String[]>> m_results;
+
+    /** Games for which all rows were stored.
+        Access needs synchronization. */
+    private boolean[] m_gameDone;
+
+    /** Move numbers of the positions of each game contained in the table
+        of a resumed checkpoint file.
+        Null if not resuming; elements are null for games without rows. */
+    private ArrayList<TreeSet<Integer>> m_donePositions;
 
     private void addCommand(String commandLine, boolean isBegin,
                             boolean isFinal) throws ErrorMessage
@@ -221,114 +667,39 @@ public class Statistics
             addCommand(c, isBegin, isFinal);
     }
 
-    private void checkGame(ConstGameTree tree, String name) throws ErrorMessage
+    /** Add rows to the table.
+        @param rows The rows.
+        @param checkpoint Writer for the checkpoint file, or null. */
+    private void addRows(ArrayList<String[]> rows, Writer checkpoint)
+        throws IOException
     {
-        int size = tree.getBoardSize();
-        if (size != m_size)
-            throw new ErrorMessage(name + " has not size " + m_size);
-        ConstNode root = tree.getRootConst();
-        GoColor toMove = BLACK;
-        for (ConstNode node = root; node != null; node = node.getChildConst())
+        for (String[] row : rows)
         {
-            if (node.hasSetup())
-            {
-                if (m_allowSetup)
-                {
-                    if (node == root)
-                        toMove = EMPTY;
-                    else
-                        throw new ErrorMessage(name + " contains setup stones"
-                                               + " in non-root position");
-                }
-                else
-                    throw new ErrorMessage(name + " contains setup stones");
-            }
-            Move move = node.getMove();
-            if (move != null)
-            {
-                if (toMove == EMPTY)
-                    toMove = move.getColor();
-                if (move.getColor() != toMove)
-                    throw new ErrorMessage(name
-                                           + "has non-alternating moves");
-                toMove = toMove.otherColor();
-            }
+            m_table.startRow();
+            for (int i = 0; i < row.length; ++i)
+                if (row[i] != null)
+                    m_table.set(i, row[i]);
+            if (checkpoint != null)
+                m_table.saveRow(checkpoint, m_table.getNumberRows() - 1);
         }
+        if (checkpoint != null)
+            checkpoint.flush();
     }
 
-    private String convertCommand(String command, GoColor toMove)
+    private synchronized void closeReader()
     {
-        if (command.equals("reg_genmove"))
-            return command + ' ' + toMove;
-        return command;
-    }
-
-    private String convertResponse(String command, String response,
-                                   GoColor toMove, Move move) throws GtpError
-    {
-        if (command.equals("cputime"))
-        {
-            try
-            {
-                double cpuTime = Double.parseDouble(response);
-                double diff = cpuTime - m_lastCpuTime;
-                m_lastCpuTime = cpuTime;
-                return FORMAT2.format(diff);
-            }
-            catch (NumberFormatException e)
-            {
-                return response;
-            }
-        }
-        else if (command.equals("estimate_score"))
+        if (m_reader != null)
         {
-            String arg[] = StringUtil.splitArguments(response);
-            if (arg.length == 0)
-                return response;
-            return convertScore(arg[0]);
-        }
-        else if (command.equals("final_score"))
-        {
-            return convertScore(response);
-        }
-        else if (command.equals("reg_genmove"))
-        {
-            if (move == null)
-                return "";
-            try
-            {
-                GoPoint point = GoPoint.parsePoint(response, m_size);
-                return Move.get(toMove, point) == move ? "1" : "0";
-            }
-            catch (InvalidPointException e)
-            {
-                throw new GtpError("Program sent invalid move: " + response);
-            }
+            m_reader.close();
+            m_reader = null;
         }
-        return response;
     }
 
-    /** Tries to convert score into number.
-        @return Score string or original string, if conversion fails. */
-    private String convertScore(String string)
+    private static String convertCommand(String command, GoColor toMove)
     {
-        String score = string.trim();
-        double sign = 1;
-        if (score.startsWith("W+"))
-        {
-            score = score.substring(2);
-            sign = -1;
-        }
-        else if (score.startsWith("B+"))
-            score = score.substring(2);
-        try
-        {
-            return FORMAT1.format(sign * Double.parseDouble(score));
-        }
-        catch (NumberFormatException e)
-        {
-            return string;
-        }
+        if (command.equals("reg_genmove"))
+            return command + ' ' + toMove;
+        return command;
     }
 
     private void initCommands(ArrayList<String> commands,
@@ -352,164 +723,191 @@ public class Statistics
         return m_commands.get(index);
     }
 
-    private void handleFile(String name)
-        throws ErrorMessage, FileNotFoundException, GtpError,
-               SgfError
+    private synchronized boolean hasError()
     {
-        File file = new File(name);
-        InputStream in = new FileInputStream(file);
-        SgfReader reader = new SgfReader(in, file, null, 0);
-        ++m_numberGames;
-        Game game = new Game(reader.getTree());
-        checkGame(game.getTree(), name);
-        if (m_random)
-            iteratePositionsRandom(game, name);
-        else if (m_backward)
-            iteratePositionsBackward(game, name);
-        else
-            iteratePositions(game, name);
+        return m_error != null;
     }
 
-    private void handlePosition(String name, GoColor toMove, Move move,
-                                int number, boolean beginCommands,
-                                boolean regularCommands,
-                                boolean finalCommands)
-        throws GtpError
+    private static void joinWorker(Worker worker)
     {
-        if (! m_quiet)
-            System.err.println(name + ":" + number);
-        m_table.startRow();
         try
         {
-            m_table.set("File", name);
-            m_table.set("Move", number);
-            for (int i = 0; i < m_commands.size(); ++i)
-            {
-                Command command = getCommand(i);
-                if (command.m_begin && beginCommands)
-                {
-                    String response = send(command.m_command, toMove, move);
-                    m_table.set(command.m_columnTitle, response);
-                }
-            }
-            for (int i = 0; i < m_commands.size(); ++i)
-            {
-                Command command = getCommand(i);
-                if (! command.m_begin && ! command.m_final && regularCommands)
-                {
-                    String response = send(command.m_command, toMove, move);
-                    m_table.set(command.m_columnTitle, response);
-                }
-            }
-            for (int i = 0; i < m_commands.size(); ++i)
-            {
-                Command command = getCommand(i);
-                if (command.m_final && finalCommands)
-                {
-                    String response = send(command.m_command, toMove, move);
-                    m_table.set(command.m_columnTitle, response);
-                }
-            }
+            worker.join();
         }
-        catch (Table.InvalidLocation e)
+        catch (InterruptedException e)
         {
-            System.err.println(e.getMessage());
-            // Table was created by this class in correct format
-            assert false;
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void iteratePositions(Game game, String name) throws GtpError
+    /** Open the checkpoint file.
+        Writes the header of the table to a new file, or reads the table
+        of a resumed file and initializes m_donePositions.
+        @return Writer for appending rows to the file. */
+    private Writer openCheckpoint() throws ErrorMessage, IOException
     {
-        int number = 0;
-        for (ConstNode node = game.getRoot(); node != null;
-             node = node.getChildConst())
+        if (! m_resume || ! m_checkpoint.exists())
         {
-            game.gotoNode(node, null);
-            synchronize(game);
-            Move move = node.getMove();
-            boolean beginCommands = ! node.hasFather();
-            boolean regularCommands =
-                ((move != null || node.hasSetup() || ! node.hasFather())
-                 && number >= m_min && number <= m_max);
-            boolean finalCommands = ! node.hasChildren();
-            if (beginCommands || regularCommands || finalCommands)
-                handlePosition(name, node.getToMove(), move, number,
-                               beginCommands, regularCommands, finalCommands);
-            ++number;
+            FileWriter writer = new FileWriter(m_checkpoint);
+            m_table.saveHeader(writer);
+            writer.flush();
+            return writer;
         }
-    }
-
-    private void iteratePositionsBackward(Game game, String name)
-        throws GtpError
-    {
-        int number = 0;
-        for (ConstNode node = NodeUtil.getLast(game.getRoot()); node != null;
-             node = node.getFatherConst())
+        removeIncompleteLine(m_checkpoint);
+        Table table = new Table();
+        table.read(m_checkpoint);
+        if (! table.getColumnTitles().equals(m_table.getColumnTitles()))
+            throw new ErrorMessage("File \"" + m_checkpoint
+                                   + "\" has different commands");
+        String[] keys = { "Size", "Backward", "Random" };
+        for (String key : keys)
+            if (! m_table.getProperty(key).equals(table.getProperty(key)))
+                throw new ErrorMessage("File \"" + m_checkpoint
+                                       + "\" has different property "
+                                       + key);
+        m_donePositions = new ArrayList<TreeSet<Integer>>(m_numberGames);
+        for (int i = 0; i < m_numberGames; ++i)
+            m_donePositions.add(null);
+        // The rows are in the order of the games. A row belongs to the
+        // current game, if it has the same name and a new move number.
+        // Games without rows (possible with random positions) are skipped.
+        int game = 0;
+        for (int row = 0; row < table.getNumberRows(); ++row)
         {
-            game.gotoNode(node, null);
-            synchronize(game);
-            Move move = node.getMove();
-            boolean beginCommands = ! node.hasChildren();
-            boolean regularCommands =
-                ((move != null || node.hasSetup() || ! node.hasFather())
-                 && number >= m_min && number <= m_max);
-            boolean finalCommands = ! node.hasFather();
-            if (beginCommands || regularCommands || finalCommands)
-                handlePosition(name, node.getToMove(), move, number,
-                               beginCommands, regularCommands, finalCommands);
-            ++number;
+            String name = table.get(0, row);
+            Integer number = Integer.valueOf(table.getInt(1, row));
+            while (game < m_numberGames
+                   && (! m_names.get(game).equals(name)
+                       || (m_donePositions.get(game) != null
+                           && m_donePositions.get(game).contains(number))))
+                ++game;
+            if (game == m_numberGames)
+                throw new ErrorMessage("File \"" + m_checkpoint
+                                       + "\" does not match the games"
+                                       + " (unexpected row for " + name
+                                       + ":" + number + ")");
+            if (m_donePositions.get(game) == null)
+                m_donePositions.set(game, new TreeSet<Integer>());
+            m_donePositions.get(game).add(number);
         }
+        m_table = table;
+        return new FileWriter(m_checkpoint, true);
     }
 
-    private void iteratePositionsRandom(Game game, String name)
-        throws GtpError
+    /** Remove an incomplete last line from a file.
+        The last line of a checkpoint file can be incomplete, if the run was
+        aborted while writing it. */
+    private static void removeIncompleteLine(File file) throws IOException
     {
-        int minDepth;
-        int maxDepth;
-        if (m_backward)
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try
         {
-            int depth = NodeUtil.getDepth(NodeUtil.getLast(game.getRoot()));
-            minDepth = depth - m_max;
-            maxDepth = depth - m_min;
+            long length = out.length();
+            while (length > 0)
+            {
+                out.seek(length - 1);
+                if (out.read() == '\n')
+                    break;
+                --length;
+            }
+            if (length < out.length())
+                out.setLength(length);
         }
-        else
+        finally
         {
-            minDepth = m_min;
-            maxDepth = m_max;
+            out.close();
         }
-        ConstNode node = NodeUtil.selectRandom(game.getRoot(), minDepth,
-                                               maxDepth);
-        if (node == null)
-            return;
-        int number = NodeUtil.getDepth(node);
-        game.gotoNode(node, null);
-        synchronize(game);
-        Move move = node.getMove();
-        boolean beginCommands = ! node.hasChildren();
-        boolean regularCommands =
-            (move != null || node.hasSetup() || ! node.hasFather());
-        boolean finalCommands = ! node.hasFather();
-        if (beginCommands || regularCommands || finalCommands)
-            handlePosition(name, node.getToMove(), move, number,
-                           beginCommands, regularCommands, finalCommands);
     }
 
-    private String send(String command, GoColor toMove, Move move)
-        throws GtpError
+    private synchronized void setError(ErrorMessage error)
     {
-        String cmd = convertCommand(command, toMove);
-        String response = m_gtp.send(cmd).trim();
-        response = response.replaceAll("\t", " ");
-        response = response.replaceAll("\n", " ");
-        return convertResponse(command, response, toMove, move);
+        if (m_error == null)
+            m_error = error;
+        notifyAll();
+    }
+
+    private synchronized void setGameDone(int index)
+    {
+        m_gameDone[index] = true;
+        notifyAll();
+    }
+
+    private synchronized void storeRow(int index, String[] row)
+    {
+        if (m_results.get(index) == null)
+            m_results.set(index, new ArrayList<String[]>());
+        m_results.get(index).add(row);
+        notifyAll();
+    }
+
+    /** Read the next game for a worker.
+        The files are read in the same order as by FileCheck.getNames(), so
+        the games have the same indices as their names.
+        @return The game, or null if there are no more games. */
+    private synchronized Job takeGame() throws ErrorMessage
+    {
+        while (true)
+        {
+            if (m_reader == null)
+            {
+                if (m_nextFile == m_sgfFiles.size())
+                {
+                    if (m_nextGame < m_numberGames)
+                        throw new ErrorMessage("Files were modified during"
+                                               + " the run");
+                    return null;
+                }
+                File file = new File(m_sgfFiles.get(m_nextFile++));
+                try
+                {
+                    m_reader =
+                        new SgfCollectionReader(new FileInputStream(file),
+                                                file);
+                }
+                catch (FileNotFoundException e)
+                {
+                    throw new ErrorMessage(file + ": file not found");
+                }
+            }
+            GameTree tree = m_reader.readNext();
+            if (tree != null)
+            {
+                if (m_nextGame == m_numberGames)
+                    throw new ErrorMessage("Files were modified during"
+                                           + " the run");
+                Job job = new Job();
+                job.m_index = m_nextGame++;
+                job.m_tree = tree;
+                return job;
+            }
+            m_reader.close();
+            m_reader = null;
+        }
     }
 
-    private void synchronize(ConstGame game) throws GtpError
+    /** Wait until new rows of a game are available or the game is done.
+        @return The rows of the game stored since the last call, or null if
+        the game is done and all its rows were returned.
+        @throws ErrorMessage If a worker failed. */
+    private synchronized ArrayList<String[]> waitForRows(int index)
+        throws ErrorMessage
     {
-        ConstNode node = game.getGameInfoNode();
-        ConstGameInfo info = game.getGameInfo(node);
-        m_synchronizer.synchronize(game.getBoard(), info.getKomi(),
-                                   info.getTimeSettings());
+        while (m_results.get(index) == null && ! m_gameDone[index]
+               && m_error == null)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new ErrorMessage("Interrupted");
+            }
+        }
+        if (m_error != null)
+            throw m_error;
+        ArrayList<String[]> rows = m_results.get(index);
+        m_results.set(index, null);
+        return rows;
     }
 }
@@ -0,0 +1,102 @@
+// BatchThumbnailer.java
+
+package net.sf.gogui.tools.thumbnailer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.gogui.gamefile.GameFileUtil;
+import net.sf.gogui.thumbnail.ThumbnailCreator;
+import net.sf.gogui.thumbnail.ThumbnailPlatform;
+import net.sf.gogui.util.ErrorMessage;
+import net.sf.gogui.util.StringUtil;
+
+/** Creates thumbnails for many files in parallel.
+    Input directories are searched with GameFileUtil.findGameFiles(). The
+    thumbnails are created at the standard location; files with an
+    up-to-date thumbnail are skipped. Each thread uses its own
+    ThumbnailCreator. */
+final class BatchThumbnailer
+{
+    public BatchThumbnailer(boolean verbose, int numberThreads)
+    {
+        m_verbose = verbose;
+        m_numberThreads = numberThreads;
+    }
+
+    /** Add an input file or directory. */
+    public void add(File file) throws ErrorMessage
+    {
+        if (! file.exists())
+            throw new ErrorMessage("File \"" + file + "\" not found");
+        if (file.isDirectory())
+            m_files.addAll(GameFileUtil.findGameFiles(file));
+        else
+            m_files.add(file);
+    }
+
+    /** Create the thumbnails.
+        Errors are printed to System.err.
+        @return false, if the creation of some thumbnails failed. */
+    public boolean run() throws ErrorMessage, InterruptedException
+    {
+        if (! ThumbnailPlatform.checkThumbnailSupport())
+            throw new ErrorMessage("Thumbnail directory "
+                                   + ThumbnailPlatform.getNormalDir()
+                                   + " does not exist");
+        Thread[] threads = new Thread[m_numberThreads];
+        for (int i = 0; i < m_numberThreads; ++i)
+        {
+            threads[i] = new Thread("BatchThumbnailer-" + (i + 1)) {
+                    public void run()
+                    {
+                        createThumbnails();
+                    }
+                };
+            threads[i].start();
+        }
+        for (int i = 0; i < m_numberThreads; ++i)
+            threads[i].join();
+        if (m_verbose || m_numberFailed.get() > 0)
+            System.err.println(m_files.size() + " files, "
+                               + m_numberCreated.get() + " created, "
+                               + m_numberFailed.get() + " failed");
+        return m_numberFailed.get() == 0;
+    }
+
+    private final boolean m_verbose;
+
+    private final int m_numberThreads;
+
+    private final AtomicInteger m_next = new AtomicInteger();
+
+    private final AtomicInteger m_numberCreated = new AtomicInteger();
+
+    private final AtomicInteger m_numberFailed = new AtomicInteger();
+
+    private final ArrayList<File> m_files = new ArrayList<File>();
+
+    private void createThumbnails()
+    {
+        ThumbnailCreator creator = new ThumbnailCreator(m_verbose);
+        int i;
+        while ((i = m_next.getAndIncrement()) < m_files.size())
+        {
+            File file = m_files.get(i);
+            try
+            {
+                if (creator.create(file))
+                    m_numberCreated.incrementAndGet();
+            }
+            catch (Throwable t)
+            {
+                m_numberFailed.incrementAndGet();
+                synchronized (System.err)
+                {
+                    System.err.println(file + ": "
+                                       + StringUtil.getErrorMessage(t));
+                }
+            }
+        }
+    }
+}
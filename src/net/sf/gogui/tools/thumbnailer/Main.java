@@ -19,12 +19,14 @@ public final class Main
         try
         {
             String options[] = {
+                "batch",
                 //"check-expire:", // experimental; needs more testing
                 "config:",
                 //"expire:", // experimental; needs more testing
                 "help",
                 "scale",
                 "size:",
+                "threads:",
                 "verbose",
                 "version"
             };
@@ -55,6 +57,25 @@ public final class Main
             boolean verbose = opt.contains("verbose");
             boolean scale = opt.contains("scale");
             ArrayList<String> arguments = opt.getArguments();
+            if (opt.contains("batch"))
+            {
+                if (arguments.isEmpty())
+                {
+                    printUsage(System.err);
+                    System.exit(1);
+                }
+                int numberThreads =
+                    opt.getInteger("threads",
+                                   Runtime.getRuntime().availableProcessors(),
+                                   1);
+                BatchThumbnailer batch =
+                    new BatchThumbnailer(verbose, numberThreads);
+                for (String arg : arguments)
+                    batch.add(new File(arg));
+                if (! batch.run())
+                    System.exit(1);
+                return;
+            }
             if (arguments.isEmpty() || arguments.size() > 2)
             {
                 printUsage(System.err);
@@ -92,11 +113,15 @@ public final class Main
     {
         String helpText =
             "Usage: gogui-thumbnailer [options] input [output]\n" +
+            "       gogui-thumbnailer -batch [options] file|dir ...\n" +
             "Options:\n" +
+            "-batch     Create thumbnails at the standard location for\n" +
+            "           all game files in files and directories\n" +
             "-config    config file\n" +
             "-help      Print help and exit\n" +
             "-scale     Scale size for board sizes other than 19x19\n" +
             "-size      Thumbnail size in pixels\n" +
+            "-threads   Number of threads (batch mode)\n" +
             "-verbose   Print logging messages to stderr\n" +
             "-version   Print version and exit\n";
         out.print(helpText);
@@ -166,8 +166,13 @@ public class Analyze
 
     private void readTable(File file) throws Exception
     {
-        m_table = new Table();
-        m_table.read(file);
+        // Use the journal, if TwoGtp is still running or was terminated
+        // before it could write the table
+        File journalFile = ResultFile.getJournalFile(file);
+        if (journalFile.exists())
+            m_table = ResultFile.readTable(journalFile);
+        else
+            m_table = ResultFile.readTable(file);
         try
         {
             for (int i = 0; i < m_table.getNumberRows(); ++i)
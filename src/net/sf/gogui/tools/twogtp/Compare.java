@@ -7,10 +7,8 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
-import java.util.TreeMap;
 import net.sf.gogui.game.ConstNode;
 import net.sf.gogui.game.GameTree;
-import net.sf.gogui.go.Board;
 import net.sf.gogui.go.BoardUtil;
 import net.sf.gogui.go.ConstBoard;
 import net.sf.gogui.go.GoColor;
@@ -18,7 +16,7 @@ import static net.sf.gogui.go.GoColor.BLACK_WHITE_EMPTY;
 import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.go.Move;
 import net.sf.gogui.go.PointList;
-import net.sf.gogui.sgf.SgfReader;
+import net.sf.gogui.sgf.SgfCollectionReader;
 
 /** Find duplicates in games. */
 public final class Compare
@@ -47,6 +45,8 @@ public final class Compare
     /** Check if game already exists in game collection.
         All games must have the same board size.
         Also finds rotated duplicates.
+        Compares the game with all games in the collection; DuplicateIndex
+        finds the same duplicates faster for large collections.
         @param board Board with the correct size (only used for
         Board.rotate).
         @param moves Moves of game to check.
@@ -73,34 +73,11 @@ public final class Compare
             int numberGame = entry.getKey();
             if (useAlternate && ((numberGame % 2 != 0) != isAlternated))
                 continue;
-            ArrayList<Placement> gameMoves = entry.getValue();
-            for (int rot = 0; rot < BoardUtil.NUMBER_ROTATIONS; ++rot)
-            {
-                int numberDifferent = 0;
-                int moveNumber = moves.size();
-                int maxDifferent = moveNumber / 5;
-                if (gameMoves.size() != moveNumber)
-                {
-                    numberDifferent = Math.abs(gameMoves.size() - moveNumber);
-                    moveNumber = Math.min(gameMoves.size(), moveNumber);
-                }
-                for (int i = 0;
-                     numberDifferent <= maxDifferent && i < moveNumber; ++i)
-                {
-                    Placement move = moves.get(i);
-                    Placement gameMove = gameMoves.get(i);
-                    GoPoint gameRotatedPoint =
-                        BoardUtil.rotate(rot, gameMove.m_point, size);
-                    if (move.m_isSetup != gameMove.m_isSetup
-                        || ! move.m_color.equals(gameMove.m_color)
-                        || ! GoPoint.equals(move.m_point, gameRotatedPoint))
-                        ++numberDifferent;
-                }
-                if (numberDifferent == 0)
-                    return Integer.toString(numberGame);
-                else if (numberDifferent < maxDifferent)
-                    result = Integer.toString(numberGame) + "?";
-            }
+            int similarity = compareGames(moves, entry.getValue(), size);
+            if (similarity == IDENTICAL)
+                return Integer.toString(numberGame);
+            else if (similarity == SIMILAR)
+                result = Integer.toString(numberGame) + "?";
         }
         return result;
     }
@@ -108,33 +85,48 @@ public final class Compare
     /** Compare a set of SGF files.
         Prints the results to standard output, one line per game
         with the filename and the duplicate information as returned by
-        Compare.checkDuplicate.
+        Compare.checkDuplicate. Files can contain collections of games;
+        the games after the first game in a file are named as returned by
+        SgfCollectionReader.getTreeName().
         @param filenames List of filenames
         @throws Exception If reading one of the files fails. */
     public static void compare(ArrayList<String> filenames) throws Exception
     {
-        Board board = null;
-        Map<Integer, ArrayList<Placement>> games =
-            new TreeMap<Integer, ArrayList<Placement>>();
-        for (int gameNumber = 0; gameNumber < filenames.size(); ++gameNumber)
+        DuplicateIndex games = null;
+        int gameNumber = 0;
+        for (String filename : filenames)
         {
-            String filename = filenames.get(gameNumber);
             File file = new File(filename);
             FileInputStream fileStream = new FileInputStream(file);
-            SgfReader reader = new SgfReader(fileStream, file, null, 0);
-            GameTree tree = reader.getTree();
-            int size = tree.getBoardSize();
-            if (board == null)
-                board = new Board(size);
-            else if (size != board.getSize())
-                throw new Exception("Board size in " + filename +
-                                    " does not match other games");
-            ArrayList<Placement> moves = getPlacements(tree.getRoot());
-            String duplicate =
-                checkDuplicate(board, moves, games, false, false);
-            System.out.println(Integer.toString(gameNumber) + " " +
-                               filename + " " + duplicate);
-            games.put(gameNumber, moves);
+            SgfCollectionReader reader =
+                new SgfCollectionReader(fileStream, file);
+            try
+            {
+                GameTree tree;
+                while ((tree = reader.readNext()) != null)
+                {
+                    int treeNumber = reader.getNumberTrees();
+                    String name =
+                        SgfCollectionReader.getTreeName(filename, treeNumber);
+                    int size = tree.getBoardSize();
+                    if (games == null)
+                        games = new DuplicateIndex(size);
+                    else if (size != games.getSize())
+                        throw new Exception("Board size in " + name +
+                                            " does not match other games");
+                    ArrayList<Placement> moves = getPlacements(tree.getRoot());
+                    String duplicate =
+                        games.checkDuplicate(moves, false, false);
+                    System.out.println(Integer.toString(gameNumber) + " " +
+                                       name + " " + duplicate);
+                    games.add(gameNumber, moves);
+                    ++gameNumber;
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
         }
     }
 
@@ -158,6 +150,56 @@ public final class Compare
         return result;
     }
 
+    /** Result of compareGames(): games are different. */
+    static final int DIFFERENT = 0;
+
+    /** Result of compareGames(): games are nearly identical. */
+    static final int SIMILAR = 1;
+
+    /** Result of compareGames(): games are identical. */
+    static final int IDENTICAL = 2;
+
+    /** Compare two games under all rotations.
+        See checkDuplicate() for the definition of nearly identical games.
+        @param moves The moves of the game to check.
+        @param gameMoves The moves of the game in the collection, which
+        are rotated.
+        @param size The board size.
+        @return IDENTICAL, SIMILAR or DIFFERENT */
+    static int compareGames(ArrayList<Placement> moves,
+                            ArrayList<Placement> gameMoves, int size)
+    {
+        int result = DIFFERENT;
+        for (int rot = 0; rot < BoardUtil.NUMBER_ROTATIONS; ++rot)
+        {
+            int numberDifferent = 0;
+            int moveNumber = moves.size();
+            int maxDifferent = moveNumber / 5;
+            if (gameMoves.size() != moveNumber)
+            {
+                numberDifferent = Math.abs(gameMoves.size() - moveNumber);
+                moveNumber = Math.min(gameMoves.size(), moveNumber);
+            }
+            for (int i = 0;
+                 numberDifferent <= maxDifferent && i < moveNumber; ++i)
+            {
+                Placement move = moves.get(i);
+                Placement gameMove = gameMoves.get(i);
+                GoPoint gameRotatedPoint =
+                    BoardUtil.rotate(rot, gameMove.m_point, size);
+                if (move.m_isSetup != gameMove.m_isSetup
+                    || ! move.m_color.equals(gameMove.m_color)
+                    || ! GoPoint.equals(move.m_point, gameRotatedPoint))
+                    ++numberDifferent;
+            }
+            if (numberDifferent == 0)
+                return IDENTICAL;
+            else if (numberDifferent < maxDifferent)
+                result = SIMILAR;
+        }
+        return result;
+    }
+
     /** Make constructor unavailable; class is for namespace only. */
     private Compare()
     {
@@ -0,0 +1,197 @@
+// DuplicateIndex.java
+
+package net.sf.gogui.tools.twogtp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import net.sf.gogui.go.BoardUtil;
+import net.sf.gogui.go.GoColor;
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+import net.sf.gogui.go.GoPoint;
+import net.sf.gogui.tools.twogtp.Compare.Placement;
+
+/** Game collection with a hash index for finding duplicates.
+    Finds the same duplicates as Compare.checkDuplicate() without comparing
+    a game to all games in the collection.
+    The moves of each game are split into blocks of BLOCK_SIZE moves. The
+    hash codes of the blocks and of the whole move sequence are normalized
+    over all rotations (the minimum hash code of the rotated moves is
+    used) and stored in the index. Each different move of a nearly
+    identical game (less than 20% different moves) can change at most
+    one block, so the games must have at least (number of blocks) -
+    (maximum number of different moves) + 1 identical blocks at the same
+    move numbers. Only games with that many matching blocks or a matching
+    hash code of the whole game are compared with Compare.compareGames().
+    Games that share only their first moves are not compared. */
+public class DuplicateIndex
+{
+    /** Number of moves per block.
+        Must be smaller than 5 to make the minimum number of matching
+        blocks grow with the game length. */
+    public static final int BLOCK_SIZE = 3;
+
+    /** Constructor.
+        @param size The board size of all games. */
+    public DuplicateIndex(int size)
+    {
+        m_size = size;
+    }
+
+    /** Add a game.
+        @param gameNumber The game number.
+        @param moves The moves of the game. */
+    public void add(int gameNumber, ArrayList<Placement> moves)
+    {
+        Integer number = Integer.valueOf(gameNumber);
+        m_games.put(number, moves);
+        for (long key : getKeys(moves))
+        {
+            ArrayList<Integer> list = m_index.get(key);
+            if (list == null)
+            {
+                list = new ArrayList<Integer>(1);
+                m_index.put(key, list);
+            }
+            list.add(number);
+        }
+    }
+
+    /** Check if game already exists in the collection.
+        @see Compare#checkDuplicate
+        @param moves Moves of game to check.
+        @param useAlternate If true, assume that players are exchanged every
+        second game. Only check games where player played the same color.
+        @param isAlternated If useAlternate, indicate if game to check
+        had players exchanged.
+        @return String containing number of first identical game in
+        collection or "-" if no duplicate was found. If a nearly identical
+        game is found, the game number is returned with a question mark
+        appended. */
+    public String checkDuplicate(ArrayList<Placement> moves,
+                                 boolean useAlternate, boolean isAlternated)
+    {
+        long[] keys = getKeys(moves);
+        int numberBlocks = keys.length - 1;
+        TreeSet<Integer> candidates = new TreeSet<Integer>();
+        ArrayList<Integer> list = m_index.get(keys[numberBlocks]);
+        if (list != null)
+            candidates.addAll(list);
+        // Same maximum number of different moves as in
+        // Compare.compareGames(), which requires less than maxDifferent
+        // different moves for nearly identical games
+        int maxDifferent = moves.size() / 5;
+        if (maxDifferent > 0)
+        {
+            int minMatches = numberBlocks - maxDifferent + 1;
+            HashMap<Integer,Integer> matches = new HashMap<Integer,Integer>();
+            for (int i = 0; i < numberBlocks; ++i)
+            {
+                list = m_index.get(keys[i]);
+                if (list == null)
+                    continue;
+                for (Integer number : list)
+                {
+                    Integer count = matches.get(number);
+                    int n = (count == null ? 1 : count.intValue() + 1);
+                    matches.put(number, Integer.valueOf(n));
+                    if (n == minMatches)
+                        candidates.add(number);
+                }
+            }
+        }
+        String result = "-";
+        for (Integer number : candidates)
+        {
+            int numberGame = number.intValue();
+            if (useAlternate && ((numberGame % 2 != 0) != isAlternated))
+                continue;
+            ++m_numberCompared;
+            int similarity =
+                Compare.compareGames(moves, m_games.get(number), m_size);
+            if (similarity == Compare.IDENTICAL)
+                return Integer.toString(numberGame);
+            else if (similarity == Compare.SIMILAR)
+                result = Integer.toString(numberGame) + "?";
+        }
+        return result;
+    }
+
+    public int getNumberGames()
+    {
+        return m_games.size();
+    }
+
+    public int getSize()
+    {
+        return m_size;
+    }
+
+    /** Get the number of games compared with Compare.compareGames().
+        Counts all comparisons in checkDuplicate() since the creation of
+        the index. Used for testing. */
+    int getNumberCompared()
+    {
+        return m_numberCompared;
+    }
+
+    private static final long PRIME = 1000003L;
+
+    private static final long BLOCK_FACTOR = 0x9e3779b97f4a7c15L;
+
+    private int m_numberCompared;
+
+    private final int m_size;
+
+    private final TreeMap<Integer,ArrayList<Placement>> m_games
+        = new TreeMap<Integer,ArrayList<Placement>>();
+
+    private final HashMap<Long,ArrayList<Integer>> m_index
+        = new HashMap<Long,ArrayList<Integer>>();
+
+    private long getCode(Placement placement, int rotation)
+    {
+        GoPoint p = BoardUtil.rotate(rotation, placement.m_point, m_size);
+        long code = (p == null ? 0 : p.getIndex() + 1);
+        GoColor c = placement.m_color;
+        code = 4 * code + (c == BLACK ? 1 : (c == WHITE ? 2 : 3));
+        code = 2 * code + (placement.m_isSetup ? 1 : 0);
+        return code;
+    }
+
+    /** Get the keys of a game in the index.
+        Contains one key for each complete block and one for the whole
+        game. */
+    private long[] getKeys(ArrayList<Placement> moves)
+    {
+        int numberMoves = moves.size();
+        int numberBlocks = numberMoves / BLOCK_SIZE;
+        long[] keys = new long[numberBlocks + 1];
+        for (int rot = 0; rot < BoardUtil.NUMBER_ROTATIONS; ++rot)
+        {
+            long hash = numberMoves;
+            long blockHash = 0;
+            for (int i = 0; i < numberMoves; ++i)
+            {
+                long code = getCode(moves.get(i), rot);
+                hash = hash * PRIME + code;
+                blockHash = blockHash * PRIME + code;
+                if ((i + 1) % BLOCK_SIZE == 0)
+                {
+                    int block = i / BLOCK_SIZE;
+                    if (rot == 0 || blockHash < keys[block])
+                        keys[block] = blockHash;
+                    blockHash = 0;
+                }
+            }
+            if (rot == 0 || hash < keys[numberBlocks])
+                keys[numberBlocks] = hash;
+        }
+        // Make keys of blocks at different move numbers different
+        for (int i = 0; i < numberBlocks; ++i)
+            keys[i] ^= (i + 1) * BLOCK_FACTOR;
+        return keys;
+    }
+}
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import net.sf.gogui.game.TimeSettings;
 import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.go.Komi;
+import net.sf.gogui.gtp.GtpError;
+import net.sf.gogui.gtp.GtpMultiplexer;
 import net.sf.gogui.util.ErrorMessage;
 import net.sf.gogui.util.Options;
 import net.sf.gogui.util.StringUtil;
@@ -35,8 +37,10 @@ public final class Main
                 "handicap:",
                 "komi:",
                 "maxmoves:",
+                "multiplex",
                 "observer:",
                 "openings:",
+                "progress:",
                 "referee:",
                 "sgffile:",
                 "size:",
@@ -48,7 +52,6 @@ public final class Main
                 "xml"
             };
             Options opt = Options.parse(args, options);
-            opt.checkNoArguments();
             if (opt.contains("help"))
             {
                 String helpText =
@@ -67,8 +70,10 @@ public final class Main
                    "-komi           komi\n" +
                    "-handicap       handicap\n" +
                    "-maxmoves       move limit\n" +
+                   "-multiplex      read all programs in a single thread\n" +
                    "-observer       command for observer program\n" +
                    "-openings       directory with opening sgf files\n" +
+                   "-progress n     print progress every n seconds\n" +
                    "-referee        command for referee program\n" +
                    "-sgffile        filename prefix\n" +
                    "-size           board size for autoplay (default 19)\n" +
@@ -87,6 +92,7 @@ public final class Main
                 Compare.compare(opt.getArguments());
                 System.exit(0);
             }
+            opt.checkNoArguments();
             if (opt.contains("version"))
             {
                 System.out.println("gogui-twogtp " + Version.get());
@@ -124,6 +130,10 @@ public final class Main
             int defaultGames = (auto ? 1 : 0);
             int numberGames = opt.getInteger("games", defaultGames, 0);
             int numberThreads = opt.getInteger("threads", 1, 1);
+            int progress = opt.getInteger("progress", 0, 0);
+            GtpMultiplexer multiplexer = null;
+            if (opt.contains("multiplex"))
+                multiplexer = new GtpMultiplexer();
             if (numberThreads > 1 && ! auto)
                 throw new ErrorMessage("Option -threads needs option -auto");
             String sgfFile = opt.get("sgffile", "");
@@ -136,55 +146,46 @@ public final class Main
             if (auto)
                 System.in.close();
 
-            TwoGtp twoGtp[] = new TwoGtp[numberThreads];
-            TwoGtpThread thread[] = new TwoGtpThread[numberThreads];
+            ArrayList<Program> programs =
+                createPrograms(black, white, referee, verbose, multiplexer);
+            Program refereeProgram = null;
+            if (programs.size() > 2)
+                refereeProgram = programs.get(2);
             ResultFile resultFile = null;
-            for (int i = 0; i < numberThreads; ++i)
+            if (! sgfFile.equals(""))
+                resultFile =
+                    new ResultFile(force, programs.get(0), programs.get(1),
+                                   refereeProgram, numberGames, size, komi,
+                                   sgfFile, openings, alternate, useXml);
+            TwoGtpFactory factory =
+                new TwoGtpFactory(black, white, referee, observer, size, komi,
+                                  handicap, numberGames, alternate, sgfFile,
+                                  verbose, openings, timeSettings, resultFile,
+                                  maxMoves, debugToComment, multiplexer);
+            if (auto)
             {
-                ArrayList<Program> allPrograms = new ArrayList<Program>();
-                Program blackProgram =
-                    new Program(black, "Black", "B", verbose);
-                allPrograms.add(blackProgram);
-                Program whiteProgram =
-                    new Program(white, "White", "W", verbose);
-                allPrograms.add(whiteProgram);
-                Program refereeProgram;
-                if (referee.equals(""))
-                    refereeProgram = null;
-                else
+                Scheduler scheduler = new Scheduler(resultFile, numberGames);
+                TwoGtpThread thread[] = new TwoGtpThread[numberThreads];
+                for (int i = 0; i < numberThreads; ++i)
                 {
-                    refereeProgram =
-                        new Program(referee, "Referee", "R", verbose);
-                    allPrograms.add(refereeProgram);
+                    thread[i] =
+                        new TwoGtpThread(factory, i, scheduler,
+                                         i == 0 ? programs : null);
+                    thread[i].start();
                 }
-                for (Program program : allPrograms)
-                    program.setLabel(allPrograms);
-                if (! sgfFile.equals("") && resultFile == null)
-                    resultFile =
-                        new ResultFile(force, blackProgram, whiteProgram,
-                                       refereeProgram, numberGames, size,
-                                       komi, sgfFile, openings, alternate,
-                                       useXml, numberThreads);
-                if (i > 0)
-                    verbose = false;
-                twoGtp[i] = new TwoGtp(blackProgram, whiteProgram,
-                                       refereeProgram, observer, size, komi, handicap,
-                                       numberGames, alternate, sgfFile,
-                                       verbose, openings, timeSettings,
-                                       resultFile);
-                twoGtp[i].setMaxMoves(maxMoves);
-                if (debugToComment)
-                    twoGtp[i].setDebugToComment(true);
-                if (auto)
+                ProgressThread progressThread = null;
+                if (progress > 0)
                 {
-                    thread[i] = new TwoGtpThread(twoGtp[i]);
-                    thread[i].start();
+                    progressThread = new ProgressThread(scheduler, progress);
+                    progressThread.start();
                 }
-            }
-            if (auto)
-            {
                 for (int i = 0; i < numberThreads; ++i)
                     thread[i].join();
+                if (progressThread != null)
+                {
+                    progressThread.interrupt();
+                    System.err.println(scheduler.getProgress());
+                }
                 for (int i = 0; i < numberThreads; ++i)
                     if (thread[i].getException() != null)
                     {
@@ -193,7 +194,10 @@ public final class Main
                     }
             }
             else
-                twoGtp[0].mainLoop(System.in, System.out);
+            {
+                TwoGtp twoGtp = factory.create(programs, verbose);
+                twoGtp.mainLoop(System.in, System.out);
+            }
             if (resultFile != null)
                 resultFile.close();
         }
@@ -206,18 +210,170 @@ public final class Main
             System.exit(1);
     }
 
+    static ArrayList<Program> createPrograms(String black, String white,
+                                             String referee, boolean verbose,
+                                             GtpMultiplexer multiplexer)
+        throws GtpError
+    {
+        ArrayList<Program> programs = new ArrayList<Program>();
+        try
+        {
+            programs.add(new Program(black, "Black", "B", verbose,
+                                     multiplexer));
+            programs.add(new Program(white, "White", "W", verbose,
+                                     multiplexer));
+            if (! referee.equals(""))
+                programs.add(new Program(referee, "Referee", "R", verbose,
+                                         multiplexer));
+        }
+        catch (GtpError e)
+        {
+            close(programs);
+            throw e;
+        }
+        for (Program program : programs)
+            program.setLabel(programs);
+        return programs;
+    }
+
+    /** Close programs.
+        Used to clean up programs that were already started, if starting
+        the remaining programs failed. */
+    static void close(ArrayList<Program> programs)
+    {
+        for (Program program : programs)
+            program.close();
+    }
+
     /** Make constructor unavailable; class is for namespace only. */
     private Main()
     {
     }
 }
 
+/** Creates instances of TwoGtp with new programs.
+    Used to start the programs of the threads in autoplay mode and to
+    restart them, if a program died. */
+class TwoGtpFactory
+{
+    public TwoGtpFactory(String black, String white, String referee,
+                         String observer, int size, Komi komi, int handicap,
+                         int numberGames, boolean alternate, String sgfFile,
+                         boolean verbose, Openings openings,
+                         TimeSettings timeSettings, ResultFile resultFile,
+                         int maxMoves, boolean debugToComment,
+                         GtpMultiplexer multiplexer)
+    {
+        m_black = black;
+        m_white = white;
+        m_referee = referee;
+        m_observer = observer;
+        m_size = size;
+        m_komi = komi;
+        m_handicap = handicap;
+        m_numberGames = numberGames;
+        m_alternate = alternate;
+        m_sgfFile = sgfFile;
+        m_verbose = verbose;
+        m_openings = openings;
+        m_timeSettings = timeSettings;
+        m_resultFile = resultFile;
+        m_maxMoves = maxMoves;
+        m_debugToComment = debugToComment;
+        m_multiplexer = multiplexer;
+    }
+
+    /** Create a TwoGtp instance.
+        @param programs Black, white and (optionally) referee program, or
+        null to start new programs.
+        @param verbose Log GTP streams to stderr. Only used, if the verbose
+        option was given (it is only used for the first thread). */
+    public TwoGtp create(ArrayList<Program> programs, boolean verbose)
+        throws Exception
+    {
+        verbose = verbose && m_verbose;
+        if (programs == null)
+            programs = Main.createPrograms(m_black, m_white, m_referee,
+                                           verbose, m_multiplexer);
+        Program referee = null;
+        if (programs.size() > 2)
+            referee = programs.get(2);
+        Program observer = null;
+        TwoGtp twoGtp;
+        try
+        {
+            if (! m_observer.equals(""))
+                observer = new Program(m_observer, "Observer", "O", verbose,
+                                       m_multiplexer);
+            twoGtp = new TwoGtp(programs.get(0), programs.get(1), referee,
+                                observer, m_size, m_komi, m_handicap,
+                                m_numberGames, m_alternate, m_sgfFile,
+                                verbose, m_openings, m_timeSettings,
+                                m_resultFile);
+        }
+        catch (Exception e)
+        {
+            Main.close(programs);
+            if (observer != null)
+                observer.close();
+            throw e;
+        }
+        twoGtp.setMaxMoves(m_maxMoves);
+        if (m_debugToComment)
+            twoGtp.setDebugToComment(true);
+        return twoGtp;
+    }
+
+    private final boolean m_alternate;
+
+    private final boolean m_debugToComment;
+
+    private final boolean m_verbose;
+
+    private final int m_handicap;
+
+    private final int m_maxMoves;
+
+    private final int m_numberGames;
+
+    private final int m_size;
+
+    private final Komi m_komi;
+
+    private final Openings m_openings;
+
+    private final ResultFile m_resultFile;
+
+    private final String m_black;
+
+    private final String m_white;
+
+    private final String m_referee;
+
+    private final String m_observer;
+
+    private final String m_sgfFile;
+
+    private final TimeSettings m_timeSettings;
+
+    private final GtpMultiplexer m_multiplexer;
+}
+
+/** Thread playing games in autoplay mode.
+    Restarts the programs, if a program died during a game. The aborted
+    game is returned to the scheduler and played by the next idle thread.
+    The thread terminates if the scheduler has no more games or if the
+    programs cannot be started. */
 class TwoGtpThread
     extends Thread
 {
-    public TwoGtpThread(TwoGtp twoGtp)
+    public TwoGtpThread(TwoGtpFactory factory, int index,
+                        Scheduler scheduler, ArrayList<Program> programs)
     {
-        m_twoGtp = twoGtp;
+        m_factory = factory;
+        m_index = index;
+        m_scheduler = scheduler;
+        m_programs = programs;
     }
 
     public Exception getException()
@@ -227,21 +383,75 @@ class TwoGtpThread
 
     public void run()
     {
-        try
+        while (true)
         {
-            m_twoGtp.autoPlay();
+            TwoGtp twoGtp = null;
+            try
+            {
+                twoGtp = m_factory.create(m_programs, m_index == 0);
+                m_programs = null;
+                twoGtp.setScheduler(m_scheduler);
+                twoGtp.autoPlay();
+                return;
+            }
+            catch (Exception e)
+            {
+                if (twoGtp == null || ! twoGtp.isProgramDead())
+                {
+                    m_exception = e;
+                    return;
+                }
+                System.err.println("Thread " + (m_index + 1) + ": "
+                                   + e.getMessage() + ", restarting programs");
+                m_scheduler.programsRestarted();
+            }
+            finally
+            {
+                if (twoGtp != null)
+                    twoGtp.close();
+            }
         }
-        catch (Exception e)
+    }
+
+    private final int m_index;
+
+    private Exception m_exception;
+
+    private ArrayList<Program> m_programs;
+
+    private final Scheduler m_scheduler;
+
+    private final TwoGtpFactory m_factory;
+}
+
+/** Thread printing the progress of the scheduler to stderr in regular
+    intervals. */
+class ProgressThread
+    extends Thread
+{
+    public ProgressThread(Scheduler scheduler, int seconds)
+    {
+        m_scheduler = scheduler;
+        m_seconds = seconds;
+        setDaemon(true);
+    }
+
+    public void run()
+    {
+        try
         {
-            m_exception = e;
+            while (true)
+            {
+                sleep(1000L * m_seconds);
+                System.err.println(m_scheduler.getProgress());
+            }
         }
-        finally
+        catch (InterruptedException e)
         {
-            m_twoGtp.close();
         }
     }
 
-    private Exception m_exception;
+    private final int m_seconds;
 
-    private TwoGtp m_twoGtp;
+    private final Scheduler m_scheduler;
 }
@@ -10,6 +10,7 @@ import net.sf.gogui.go.ConstBoard;
 import net.sf.gogui.go.GoColor;
 import net.sf.gogui.gtp.GtpClient;
 import net.sf.gogui.gtp.GtpError;
+import net.sf.gogui.gtp.GtpMultiplexer;
 import net.sf.gogui.gtp.GtpSynchronizer;
 import net.sf.gogui.util.Table;
 
@@ -17,9 +18,19 @@ public class Program
 {
     public Program(String command, String defaultName, String logPrefix,
                    boolean verbose) throws GtpError
+    {
+        this(command, defaultName, logPrefix, verbose, null);
+    }
+
+    /** Constructor.
+        @param multiplexer Multiplexer for reading the streams of the
+        program, null for using separate threads */
+    public Program(String command, String defaultName, String logPrefix,
+                   boolean verbose, GtpMultiplexer multiplexer)
+        throws GtpError
     {
         m_defaultName = defaultName;
-        m_gtp = new GtpClient(command, null, verbose, null);
+        m_gtp = new GtpClient(command, null, verbose, null, multiplexer);
         m_gtp.setLogPrefix(logPrefix);
         m_synchronizer = new GtpSynchronizer(m_gtp);
         m_gtp.queryProtocolVersion();
@@ -81,6 +92,14 @@ public class Program
         return result;
     }
 
+    /** Get the name of the role of the program.
+        The default name used at construction time, e.g. "Black" for the
+        program given with option -black. */
+    public String getDefaultName()
+    {
+        return m_defaultName;
+    }
+
     /** Get unique label.
         Call setLabel() first. */
     public String getLabel()
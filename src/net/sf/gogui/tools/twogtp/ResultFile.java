@@ -6,14 +6,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import net.sf.gogui.game.ConstNode;
 import net.sf.gogui.game.ConstGame;
@@ -30,28 +34,43 @@ import net.sf.gogui.version.Version;
 
 public class ResultFile
 {
+    /** Maximum number of results that are written to the journal before
+        it is synchronized with the storage device. */
+    public static final int SYNC_RESULTS = 20;
+
+    /** Maximum time in milliseconds after which the journal is
+        synchronized with the storage device, if results were added. */
+    public static final long SYNC_TIME = 10000;
+
     public ResultFile(boolean force, Program black, Program white,
                       Program referee, int numberGames, int size, Komi komi,
                       String filePrefix, Openings openings, boolean alternate,
-                      boolean useXml, int numberThreads) throws ErrorMessage
+                      boolean useXml) throws ErrorMessage
     {
         m_filePrefix = filePrefix;
         m_alternate = alternate;
         m_numberGames = numberGames;
         m_useXml = useXml;
-        m_numberThreads = numberThreads;
+        m_games = new DuplicateIndex(size);
         m_lockFile = new File(filePrefix + ".lock");
         acquireLock();
         m_tableFile = new File(filePrefix + ".dat");
+        m_journalFile = getJournalFile(m_tableFile);
         if (force)
         {
             if (m_tableFile.exists() && ! m_tableFile.delete())
                 throw new ErrorMessage("Could not delete file '"
                                        + m_tableFile + "'");
+            if (m_journalFile.exists() && ! m_journalFile.delete())
+                throw new ErrorMessage("Could not delete file '"
+                                       + m_journalFile + "'");
         }
-        if (m_tableFile.exists())
+        // A journal exists if the last run was terminated without calling
+        // close(); it contains all results, including the ones of the table
+        File file = (m_journalFile.exists() ? m_journalFile : m_tableFile);
+        if (file.exists())
         {
-            m_table = readTable(m_tableFile, numberGames, m_gameExists);
+            m_table = readTable(file, numberGames, m_gameExists);
             m_nextGameIndex = 0;
             while (m_gameExists.contains(m_nextGameIndex))
             {
@@ -69,64 +88,58 @@ public class ResultFile
             m_table = createTable(black, white, referee, size, komi, openings);
             m_nextGameIndex = 0;
         }
+        openJournal();
     }
 
-    public synchronized void addResult(int gameIndex, ConstGame game,
-                                       String resultBlack, String resultWhite,
-                                       String resultReferee,
-                                       boolean alternated, int numberMoves,
-                                       boolean error, String errorMessage,
-                                       double timeBlack, double timeWhite,
-                                       double cpuTimeBlack,
-                                       double cpuTimeWhite)
+    /** Add the result of a game.
+        Appends the result to the journal and saves the game. Only the
+        update of the results and the journal is synchronized; games of
+        different threads are saved concurrently. */
+    public void addResult(int gameIndex, ConstGame game, String resultBlack,
+                          String resultWhite, String resultReferee,
+                          boolean alternated, int numberMoves, boolean error,
+                          String errorMessage, double timeBlack,
+                          double timeWhite, double cpuTimeBlack,
+                          double cpuTimeWhite)
         throws ErrorMessage
     {
         ArrayList<Compare.Placement> moves
             = Compare.getPlacements(game.getTree().getRootConst());
-        String duplicate =
-            Compare.checkDuplicate(game.getBoard(), moves, m_games,
-                                   m_alternate, alternated);
         NumberFormat format = StringUtil.getNumberFormat(1);
-        m_table.startRow();
-        m_table.set("GAME", Integer.toString(gameIndex));
-        m_table.set("RES_B", resultBlack);
-        m_table.set("RES_W", resultWhite);
-        m_table.set("RES_R", resultReferee);
-        m_table.set("ALT", alternated ? "1" : "0");
-        m_table.set("DUP", duplicate);
-        m_table.set("LEN", numberMoves);
-        m_table.set("TIME_B", format.format(timeBlack));
-        m_table.set("TIME_W", format.format(timeWhite));
-        m_table.set("CPU_B", format.format(cpuTimeBlack));
-        m_table.set("CPU_W", format.format(cpuTimeWhite));
-        m_table.set("ERR", error ? "1" : "0");
-        m_table.set("ERR_MSG", errorMessage);
-
-        // The code does not rely on the table being sorted by game number,
-        // but it looks nicer for the user.
-        int rowEnd = m_table.getNumberRows();
-        int rowBegin = rowEnd - m_numberThreads;
-        if (rowBegin < 0)
-            rowBegin = 0;
-        // If the run was terminated and continued with a different number
-        // of threads, there could be a gap between gameIndex and
-        // getNumberRows() larger than m_numberThreads
-        if (gameIndex < rowBegin)
-            rowBegin = gameIndex;
-        m_table.sortByIntColumn("GAME", rowBegin, rowEnd);
-
-        File tmpFile = new File(m_tableFile.getAbsolutePath() + ".new");
-        try
+        synchronized (this)
         {
-            m_table.save(tmpFile);
-            if (Platform.isWindows())
-                // File.renameTo() fails on Windows if target exists
-                m_tableFile.delete();
-            tmpFile.renameTo(m_tableFile);
-        }
-        catch (IOException e)
-        {
-            throw new ErrorMessage("Could not write to: " + m_tableFile);
+            String duplicate =
+                m_games.checkDuplicate(moves, m_alternate, alternated);
+            m_table.startRow();
+            m_table.set("GAME", Integer.toString(gameIndex));
+            m_table.set("RES_B", resultBlack);
+            m_table.set("RES_W", resultWhite);
+            m_table.set("RES_R", resultReferee);
+            m_table.set("ALT", alternated ? "1" : "0");
+            m_table.set("DUP", duplicate);
+            m_table.set("LEN", numberMoves);
+            m_table.set("TIME_B", format.format(timeBlack));
+            m_table.set("TIME_W", format.format(timeWhite));
+            m_table.set("CPU_B", format.format(cpuTimeBlack));
+            m_table.set("CPU_W", format.format(cpuTimeWhite));
+            m_table.set("ERR", error ? "1" : "0");
+            m_table.set("ERR_MSG", errorMessage);
+            m_games.add(gameIndex, moves);
+            try
+            {
+                m_table.saveRow(m_journal, m_table.getNumberRows() - 1);
+                m_journal.flush();
+                ++m_unsyncedResults;
+                long time = System.currentTimeMillis();
+                if (m_unsyncedResults >= SYNC_RESULTS
+                    || time - m_lastSyncTime >= SYNC_TIME)
+                    syncJournal();
+            }
+            catch (IOException e)
+            {
+                throw new ErrorMessage("Could not write to: "
+                                       + m_journalFile);
+            }
         }
         File file = getFile(gameIndex);
         try
@@ -138,7 +151,6 @@ public class ResultFile
             else
                 new SgfWriter(out, game.getTree(),
                               "gogui-twogtp", Version.get());
-            m_games.put(gameIndex, moves);
         }
         catch (FileNotFoundException e)
         {
@@ -147,8 +159,27 @@ public class ResultFile
         }
     }
 
-    public void close()
+    /** Write the table and delete the journal.
+        Also releases the lock on the result file. */
+    public synchronized void close()
     {
+        try
+        {
+            syncJournal();
+            m_journal.close();
+            compact();
+            if (! m_journalFile.delete())
+                System.err.println("Could not delete '" + m_journalFile
+                                   + "'");
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not write to '" + m_journalFile + "'");
+        }
+        catch (ErrorMessage e)
+        {
+            System.err.println(e.getMessage());
+        }
         try
         {
             m_lockFileChannel.close();
@@ -161,6 +192,27 @@ public class ResultFile
             System.err.println("Could not delete '" + m_lockFile + "'");
     }
 
+    /** Write the table sorted by game number.
+        The results are added to the journal during a run; the table is
+        written at close() or if this function is called. */
+    public synchronized void compact() throws ErrorMessage
+    {
+        m_table.sortByIntColumn("GAME", 0, m_table.getNumberRows());
+        File tmpFile = new File(m_tableFile.getAbsolutePath() + ".new");
+        try
+        {
+            m_table.save(tmpFile);
+            if (Platform.isWindows())
+                // File.renameTo() fails on Windows if target exists
+                m_tableFile.delete();
+            tmpFile.renameTo(m_tableFile);
+        }
+        catch (IOException e)
+        {
+            throw new ErrorMessage("Could not write to: " + m_tableFile);
+        }
+    }
+
     public synchronized int getNextGameIndex()
     {
         if (m_nextGameIndex != -1)
@@ -188,20 +240,27 @@ public class ResultFile
 
     private final int m_numberGames;
 
-    private final int m_numberThreads;
+    private int m_unsyncedResults;
+
+    private long m_lastSyncTime;
+
+    private FileOutputStream m_journalStream;
+
+    private Writer m_journal;
 
     private final String m_filePrefix;
 
     private final File m_tableFile;
 
+    private final File m_journalFile;
+
     private final File m_lockFile;
 
     private FileChannel m_lockFileChannel;
 
     private final Table m_table;
 
-    private final TreeMap<Integer, ArrayList<Compare.Placement>> m_games
-        = new TreeMap<Integer, ArrayList<Compare.Placement>>();
+    private final DuplicateIndex m_games;
 
     private void acquireLock() throws ErrorMessage
     {
@@ -267,6 +326,49 @@ public class ResultFile
             return new File(m_filePrefix + "-" + gameIndex + ".sgf");
     }
 
+    /** Get the name of the journal belonging to a table file. */
+    static File getJournalFile(File tableFile)
+    {
+        return new File(tableFile.getPath() + ".journal");
+    }
+
+    /** Start a new journal with the complete table.
+        Writing the current table instead of appending to an existing
+        journal also removes an incomplete last line from a terminated
+        run. The journal is written to a temporary file first, such that
+        no results are lost, if TwoGtp is killed while writing it. */
+    private void openJournal() throws ErrorMessage
+    {
+        File tmpFile = new File(m_journalFile.getAbsolutePath() + ".new");
+        try
+        {
+            FileOutputStream stream = new FileOutputStream(tmpFile);
+            Writer writer = new OutputStreamWriter(stream);
+            try
+            {
+                m_table.save(writer);
+                writer.flush();
+                stream.getFD().sync();
+            }
+            finally
+            {
+                writer.close();
+            }
+            if (Platform.isWindows())
+                // File.renameTo() fails on Windows if target exists
+                m_journalFile.delete();
+            if (! tmpFile.renameTo(m_journalFile))
+                throw new IOException();
+            m_journalStream = new FileOutputStream(m_journalFile, true);
+            m_journal = new OutputStreamWriter(m_journalStream);
+            m_lastSyncTime = System.currentTimeMillis();
+        }
+        catch (IOException e)
+        {
+            throw new ErrorMessage("Could not write to: " + m_journalFile);
+        }
+    }
+
     private void readGames()
     {
         for (int n = 0; n < m_numberGames; ++n)
@@ -286,7 +388,7 @@ public class ResultFile
                 FileInputStream fileStream = new FileInputStream(file);
                 SgfReader reader = new SgfReader(fileStream, file, null, 0);
                 ConstNode root = reader.getTree().getRoot();
-                m_games.put(n, Compare.getPlacements(root));
+                m_games.add(n, Compare.getPlacements(root));
             }
             catch (SgfError e)
             {
@@ -301,14 +403,40 @@ public class ResultFile
         }
     }
 
+    /** Read a table or journal file.
+        An incomplete last line, which can exist in a journal if TwoGtp was
+        killed while writing it, is ignored. */
+    static Table readTable(File file)
+        throws FileNotFoundException, IOException, Table.InvalidFormat
+    {
+        StringBuilder buffer = new StringBuilder(4096);
+        Reader reader = new FileReader(file);
+        try
+        {
+            char[] chars = new char[4096];
+            int n;
+            while ((n = reader.read(chars)) > 0)
+                buffer.append(chars, 0, n);
+        }
+        finally
+        {
+            reader.close();
+        }
+        int end = buffer.lastIndexOf("\n");
+        buffer.setLength(end + 1);
+        Table table = new Table();
+        table.read(new StringReader(buffer.toString()));
+        return table;
+    }
+
     private static Table readTable(File file, int numberGames,
                                    TreeSet<Integer> gameExists)
         throws ErrorMessage
     {
-        Table table = new Table();
+        Table table;
         try
         {
-            table.read(file);
+            table = readTable(file);
             int numberRows = table.getNumberRows();
             if (numberGames > 0 && numberRows >= numberGames)
                 throw new ErrorMessage("File " + file + " already contains "
@@ -335,4 +463,12 @@ public class ResultFile
         }
         return table;
     }
+
+    private void syncJournal() throws IOException
+    {
+        m_journal.flush();
+        m_journalStream.getFD().sync();
+        m_unsyncedResults = 0;
+        m_lastSyncTime = System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,180 @@
+// Scheduler.java
+
+package net.sf.gogui.tools.twogtp;
+
+import java.text.NumberFormat;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import net.sf.gogui.util.StringUtil;
+
+/** Distributes games to the threads of TwoGtp in autoplay mode and collects
+    progress statistics.
+    All threads take the next game from a shared queue, so a thread that is
+    idle always plays the next game (and opening) that nobody else has
+    started. Games that were aborted, because a program died, are put back
+    at the front of the queue and taken by the next thread that becomes
+    idle, while the thread that lost its programs restarts them.
+    All functions are thread-safe. */
+public class Scheduler
+{
+    /** Maximum number of times a game is restarted after a program died.
+        If a program dies again in the same game, the game is saved with
+        the error, such that a program that reproducibly crashes in a
+        position cannot block the run. */
+    public static final int MAX_RETRIES = 2;
+
+    /** Constructor.
+        @param resultFile The result file to take the game indices from
+        (may be null)
+        @param numberGames The number of games (0 for unlimited), only
+        used if there is no result file. */
+    public Scheduler(ResultFile resultFile, int numberGames)
+    {
+        m_resultFile = resultFile;
+        m_numberGames = numberGames;
+        m_startTime = System.currentTimeMillis();
+    }
+
+    /** Add the time a program needed to respond to a genmove command.
+        @param name The name of the program in the progress report.
+        @param seconds The response time. */
+    public synchronized void addGenmoveTime(String name, double seconds)
+    {
+        Latency latency = m_latency.get(name);
+        if (latency == null)
+        {
+            latency = new Latency();
+            m_latency.put(name, latency);
+        }
+        ++latency.m_count;
+        latency.m_time += seconds;
+    }
+
+    /** Count a finished game.
+        @param numberMoves The length of the game. */
+    public synchronized void gameFinished(int numberMoves)
+    {
+        ++m_numberFinished;
+        m_numberMoves += numberMoves;
+    }
+
+    /** Get the index of the next game to play.
+        @return The game index or -1, if the maximum number of games is
+        reached. */
+    public synchronized int getNextGameIndex()
+    {
+        if (! m_retryQueue.isEmpty())
+            return m_retryQueue.removeFirst().intValue();
+        if (m_resultFile != null)
+            return m_resultFile.getNextGameIndex();
+        if (m_nextGameIndex == -1)
+            return -1;
+        ++m_nextGameIndex;
+        if (m_numberGames > 0 && m_nextGameIndex > m_numberGames)
+            m_nextGameIndex = -1;
+        return m_nextGameIndex;
+    }
+
+    public synchronized int getNumberFinished()
+    {
+        return m_numberFinished;
+    }
+
+    public synchronized int getNumberRestarts()
+    {
+        return m_numberRestarts;
+    }
+
+    /** Get a one-line summary of the progress.
+        Contains the number of finished games, games per hour, average game
+        length, the average response time to genmove per program and the
+        number of program restarts. */
+    public synchronized String getProgress()
+    {
+        NumberFormat format = StringUtil.getNumberFormat(1);
+        long seconds = (System.currentTimeMillis() - m_startTime) / 1000;
+        StringBuilder buffer = new StringBuilder(128);
+        buffer.append("Games: ");
+        buffer.append(m_numberFinished);
+        buffer.append(" (");
+        buffer.append(StringUtil.formatTime(seconds));
+        buffer.append(", ");
+        double hours = Math.max(seconds, 1) / 3600.;
+        buffer.append(format.format(m_numberFinished / hours));
+        buffer.append("/h), Length: ");
+        if (m_numberFinished > 0)
+            buffer.append(format.format((double)m_numberMoves
+                                        / m_numberFinished));
+        else
+            buffer.append('-');
+        format = StringUtil.getNumberFormat(2);
+        for (Map.Entry<String,Latency> entry : m_latency.entrySet())
+        {
+            Latency latency = entry.getValue();
+            buffer.append(", ");
+            buffer.append(entry.getKey());
+            buffer.append(": ");
+            buffer.append(format.format(latency.m_time / latency.m_count));
+            buffer.append(" s/move");
+        }
+        if (m_numberRestarts > 0)
+        {
+            buffer.append(", Restarts: ");
+            buffer.append(m_numberRestarts);
+        }
+        return buffer.toString();
+    }
+
+    /** Count a restart of the programs of a thread. */
+    public synchronized void programsRestarted()
+    {
+        ++m_numberRestarts;
+    }
+
+    /** Put a game that was aborted because a program died back into the
+        queue.
+        @param gameIndex The game index.
+        @return false, if the game was already retried MAX_RETRIES times; it
+        should then be saved with an error. */
+    public synchronized boolean retry(int gameIndex)
+    {
+        Integer key = Integer.valueOf(gameIndex);
+        Integer retries = m_retries.get(key);
+        int n = (retries == null ? 0 : retries.intValue());
+        if (n >= MAX_RETRIES)
+            return false;
+        m_retries.put(key, Integer.valueOf(n + 1));
+        m_retryQueue.addFirst(key);
+        return true;
+    }
+
+    private static final class Latency
+    {
+        public int m_count;
+
+        public double m_time;
+    }
+
+    private int m_nextGameIndex;
+
+    private int m_numberFinished;
+
+    private int m_numberRestarts;
+
+    private long m_numberMoves;
+
+    private final int m_numberGames;
+
+    private final long m_startTime;
+
+    private final ResultFile m_resultFile;
+
+    private final LinkedList<Integer> m_retryQueue = new LinkedList<Integer>();
+
+    private final TreeMap<Integer,Integer> m_retries
+        = new TreeMap<Integer,Integer>();
+
+    private final TreeMap<String,Latency> m_latency
+        = new TreeMap<String,Latency>();
+}
@@ -35,11 +35,13 @@ public class TwoGtp
     extends GtpEngine
 {
     /** Constructor.
+        @param observer The observer program (may be null)
         @param komi The fixed komi. See TwoGtp documentation for option
         -komi */
     public TwoGtp(Program black, Program white, Program referee,
-                  String observer, int size, Komi komi, int handicap, int numberGames,
-                  boolean alternate, String filePrefix, boolean verbose,
+                  Program observer, int size, Komi komi, int handicap,
+                  int numberGames, boolean alternate, String filePrefix,
+                  boolean verbose,
                   Openings openings, TimeSettings timeSettings,
                   ResultFile resultFile)
         throws Exception
@@ -57,13 +59,9 @@ public class TwoGtp
         m_referee = referee;
         if (m_referee != null)
             m_allPrograms.add(m_referee);
-        if (observer.equals(""))
-            m_observer = null;
-        else
-        {
-            m_observer = new Program(observer, "Observer", "O", verbose);
+        m_observer = observer;
+        if (m_observer != null)
             m_allPrograms.add(m_observer);
-        }
         for (Program program : m_allPrograms)
             program.setLabel(m_allPrograms);
         m_size = size;
@@ -96,13 +94,22 @@ public class TwoGtp
             {
                 if (m_gameIndex == -1)
                     break;
+                if (isProgramDead())
+                {
+                    waitIfProgramDead();
+                    // Let the scheduler give the game to another thread,
+                    // while our programs are restarted
+                    if (m_scheduler == null
+                        || ! m_scheduler.retry(m_gameIndex))
+                        handleEndOfGame(true, e.getMessage());
+                    break;
+                }
                 handleEndOfGame(true, e.getMessage());
             }
         }
-        if (m_black.isProgramDead())
-            throw new ErrorMessage("Black program died");
-        if (m_white.isProgramDead())
-            throw new ErrorMessage("White program died");
+        for (Program program : m_allPrograms)
+            if (program.isProgramDead())
+                throw new ErrorMessage(program.getLabel() + " died");
     }
 
     public void close()
@@ -218,6 +225,15 @@ public class TwoGtp
         }
     }
 
+    /** Check if any of the programs died. */
+    public boolean isProgramDead()
+    {
+        for (Program program : m_allPrograms)
+            if (program.isProgramDead())
+                return true;
+        return false;
+    }
+
     public void interruptCommand()
     {
         for (Program program : m_allPrograms)
@@ -261,6 +277,16 @@ public class TwoGtp
         }
     }
 
+    /** Take the game indices from a scheduler shared by several instances
+        of TwoGtp in autoplay mode.
+        The scheduler also receives the statistics for the progress report
+        and is used to retry games that were aborted, because a program
+        died. */
+    public void setScheduler(Scheduler scheduler)
+    {
+        m_scheduler = scheduler;
+    }
+
     /** Limit number of moves.
         @param maxMoves Maximum number of moves after which genmove will fail,
         -1 for no limit. */
@@ -320,6 +346,8 @@ public class TwoGtp
 
     private ResultFile m_resultFile;
 
+    private Scheduler m_scheduler;
+
     private final TimeSettings m_timeSettings;
 
     private ConstNode m_lastOpeningNode;
@@ -503,20 +531,7 @@ public class TwoGtp
             realTimeBlack = m_realTime.get(WHITE);
             realTimeWhite = m_realTime.get(BLACK);
         }
-        // If a program is dead we wait for a few seconds, because it
-        // could be because the TwoGtp process was killed and we don't
-        // want to write a result in this case.
-        if (m_black.isProgramDead() || m_white.isProgramDead())
-        {
-            try
-            {
-                Thread.sleep(3000);
-            }
-            catch (InterruptedException e)
-            {
-                assert false;
-            }
-        }
+        waitIfProgramDead();
 
         String nameBlack = m_black.getLabel();
         String nameWhite = m_white.getLabel();
@@ -571,6 +586,8 @@ public class TwoGtp
         comment.append(StringUtil.getDate());
         m_game.setComment(comment.toString(), getTree().getRootConst());
         int moveNumber = NodeUtil.getMoveNumber(getCurrentNode());
+        if (m_scheduler != null)
+            m_scheduler.gameFinished(moveNumber);
         if (m_resultFile != null)
             m_resultFile.addResult(m_gameIndex, m_game, resultBlack,
                                    resultWhite, resultReferee, isAlternated(),
@@ -669,7 +686,9 @@ public class TwoGtp
 
     private void newGame(int size) throws GtpError
     {
-        if (m_resultFile != null)
+        if (m_scheduler != null)
+            m_gameIndex = m_scheduler.getNextGameIndex();
+        else if (m_resultFile != null)
             m_gameIndex = m_resultFile.getNextGameIndex();
         else
         {
@@ -731,6 +750,8 @@ public class TwoGtp
         String responseGenmove = program.sendCommandGenmove(color);
         double time = (System.currentTimeMillis() - timeMillis) / 1000.;
         m_realTime.set(color, m_realTime.get(color) + time);
+        if (m_scheduler != null)
+            m_scheduler.addGenmoveTime(program.getDefaultName(), time);
         if (responseGenmove.equalsIgnoreCase("resign"))
         {
             response.append("resign");
@@ -797,6 +818,24 @@ public class TwoGtp
             program.synchronizeInit(m_game);
     }
 
+    private void waitIfProgramDead()
+    {
+        // If a program is dead we wait for a few seconds, because it
+        // could be because the TwoGtp process was killed and we don't
+        // want to write a result or restart programs in this case.
+        if (isProgramDead())
+        {
+            try
+            {
+                Thread.sleep(3000);
+            }
+            catch (InterruptedException e)
+            {
+                assert false;
+            }
+        }
+    }
+
     private void twogtpColor(Program program, GtpCommand cmd) throws GtpError
     {
         cmd.setResponse(program.send(cmd.getArgLine()));
@@ -2,17 +2,28 @@
 
 package net.sf.gogui.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /** Static file utility functions. */
 public final class FileUtil
 {
+    /** Extension of files compressed with gzip. */
+    public static final String GZIP_EXTENSION = "gz";
+
     /** Return the file extension of a file name.
         @param file The file.
         @return File extension or null if file name has no extension. */
@@ -82,6 +93,50 @@ public final class FileUtil
         return ext.equalsIgnoreCase(extension);
     }
 
+    /** Check if a file has the extension of files compressed with gzip. */
+    public static boolean isGzip(File file)
+    {
+        return hasExtension(file, GZIP_EXTENSION);
+    }
+
+    /** Open a file for reading.
+        Decompresses files with the extension GZIP_EXTENSION.
+        @return A buffered stream. */
+    public static InputStream openInputStream(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        if (isGzip(file))
+        {
+            try
+            {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            catch (IOException e)
+            {
+                in.close();
+                throw e;
+            }
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /** Open a file for writing.
+        Compresses the output if the file has the extension
+        GZIP_EXTENSION.
+        @param file The file.
+        @param writeFile The file to write to, if different from file
+        (e.g. a temporary file), null otherwise.
+        @return A buffered stream. */
+    public static OutputStream openOutputStream(File file, File writeFile)
+        throws IOException
+    {
+        OutputStream out =
+            new FileOutputStream(writeFile == null ? file : writeFile);
+        if (isGzip(file))
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
     /** Read a list of strings from a file.
         The file is expected to contain one string per line; leading and
         trailing whitespaces are removed. Empty lines or lines beginning
@@ -149,6 +204,8 @@ public final class FileUtil
         return replaceExtension(new File(file), oldExtension, newExtension);
     }
 
+    private static final int BUFFER_SIZE = 65536;
+
     /** Make constructor unavailable; class is for namespace only. */
     private FileUtil()
     {
@@ -11,6 +11,8 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -211,36 +213,48 @@ public class Table
     public void save(Writer out, boolean withHeader) throws IOException
     {
         if (withHeader)
+            saveHeader(out);
+        for (int i = 0; i < m_rows.size(); ++i)
+            saveRow(out, i);
+    }
+
+    /** Write the properties and column titles.
+        Can be used together with saveRow() to write a table incrementally,
+        the result can be read with read(). */
+    public void saveHeader(Writer out) throws IOException
+    {
+        for (Map.Entry<String,String> entry : m_properties.entrySet())
         {
-            for (Map.Entry<String,String> entry : m_properties.entrySet())
-            {
-                String key = entry.getKey();
-                String value = entry.getValue();
-                out.write("# " + key + ": " + value + "\n");
-            }
-            out.write("#\n#");
-            for (int i = 0; i < m_numberColumns; ++i)
-            {
-                out.write(getColumnTitle(i));
-                if (i < m_numberColumns - 1)
-                    out.write('\t');
-                else
-                    out.write('\n');
-            }
+            String key = entry.getKey();
+            String value = entry.getValue();
+            out.write("# " + key + ": " + value + "\n");
         }
-        for (int i = 0; i < m_rows.size(); ++i)
+        out.write("#\n#");
+        for (int i = 0; i < m_numberColumns; ++i)
         {
-            ArrayList<String> row = m_rows.get(i);
-            for (int j = 0; j < m_numberColumns; ++j)
-            {
-                String value = row.get(j);
-                if (value != null)
-                    out.write(value);
-                if (j < m_numberColumns - 1)
-                    out.write('\t');
-                else
-                    out.write('\n');
-            }
+            out.write(getColumnTitle(i));
+            if (i < m_numberColumns - 1)
+                out.write('\t');
+            else
+                out.write('\n');
+        }
+    }
+
+    /** Write a single row.
+        @param out The writer.
+        @param row The index of the row. */
+    public void saveRow(Writer out, int row) throws IOException
+    {
+        ArrayList<String> r = m_rows.get(row);
+        for (int j = 0; j < m_numberColumns; ++j)
+        {
+            String value = r.get(j);
+            if (value != null)
+                out.write(value);
+            if (j < m_numberColumns - 1)
+                out.write('\t');
+            else
+                out.write('\n');
         }
     }
 
@@ -289,17 +303,33 @@ public class Table
         m_lastRow = row;
     }
 
+    /** Sort a range of rows by the integer values in a column.
+        The sort is stable. */
     public void sortByIntColumn(int column, int rowBegin,
                                 int rowEnd) throws InvalidElement
     {
-        for (int row1 = rowBegin; row1 < rowEnd - 1; ++row1)
-            for (int row2 = row1 + 1; row2 < rowEnd; ++row2)
-                if (getInt(column, row2) < getInt(column, row1))
+        final int[] keys = new int[rowEnd - rowBegin];
+        Integer[] order = new Integer[rowEnd - rowBegin];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            keys[i] = getInt(column, rowBegin + i);
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+            {
+                public int compare(Integer i1, Integer i2)
                 {
-                    ArrayList<String> tmp = m_rows.get(row1);
-                    m_rows.set(row1, m_rows.get(row2));
-                    m_rows.set(row2, tmp);
+                    int k1 = keys[i1.intValue()];
+                    int k2 = keys[i2.intValue()];
+                    return (k1 < k2 ? -1 : (k1 == k2 ? 0 : 1));
                 }
+            });
+        ArrayList<ArrayList<String>> rows
+            = new ArrayList<ArrayList<String>>(order.length);
+        for (int i = 0; i < order.length; ++i)
+            rows.add(m_rows.get(rowBegin + order[i].intValue()));
+        for (int i = 0; i < order.length; ++i)
+            m_rows.set(rowBegin + i, rows.get(i));
     }
 
     public void sortByIntColumn(String columnTitle, int rowBegin,
@@ -2,9 +2,13 @@
 
 package net.sf.gogui.game;
 
+import java.util.ArrayList;
+import java.util.Random;
 import net.sf.gogui.go.Board;
+import net.sf.gogui.go.GoColor;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.WHITE;
+import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.go.Komi;
 import net.sf.gogui.go.Move;
@@ -81,5 +85,84 @@ public final class BoardUpdaterTest
         assertEquals(BLACK, board.getColor(GoPoint.get(3, 3)));
     }
 
+    /** Test incremental updates against updates from the root.
+        Visits the nodes of a tree with variations, setup stones, a player
+        change and captures in random order. */
+    public void testIncremental()
+    {
+        checkIncremental();
+    }
+
+    /** Same as testIncremental, but using a position cache. */
+    public void testPositionCache()
+    {
+        PositionCache cache = new PositionCache(3, 10);
+        m_updater.setPositionCache(cache);
+        checkIncremental();
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getSize() <= 10);
+    }
+
+    private void checkIncremental()
+    {
+        GameTree tree = new GameTree();
+        Node root = tree.getRoot();
+        root.addStone(BLACK, GoPoint.get(0, 1));
+        Random random = new Random(0);
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        for (int i = 0; i < 300; ++i)
+        {
+            Node father = nodes.get(random.nextInt(nodes.size()));
+            Node node = new Node();
+            int r = random.nextInt(20);
+            if (r == 0)
+                node.addStone(WHITE, GoPoint.get(random.nextInt(5),
+                                                 random.nextInt(5)));
+            else if (r == 1)
+                node.setPlayer(WHITE);
+            else
+            {
+                GoColor c = (random.nextBoolean() ? BLACK : WHITE);
+                node.setMove(Move.get(c, GoPoint.get(random.nextInt(5),
+                                                     random.nextInt(5))));
+            }
+            father.append(node);
+            nodes.add(node);
+        }
+        Board board = new Board(19);
+        Board expected = new Board(19);
+        for (int i = 0; i < 1000; ++i)
+        {
+            Node node = nodes.get(random.nextInt(nodes.size()));
+            m_updater.update(tree, node, board);
+            new BoardUpdater().update(tree, node, expected);
+            assertEquals(expected.getNumberMoves(), board.getNumberMoves());
+            assertEquals(expected.getToMove(), board.getToMove());
+            assertEquals(expected.getCaptured(BLACK),
+                         board.getCaptured(BLACK));
+            assertEquals(expected.getCaptured(WHITE),
+                         board.getCaptured(WHITE));
+            for (GoPoint p : board)
+                assertEquals(expected.getColor(p), board.getColor(p));
+        }
+    }
+
+    /** Test that the board is updated from the root again, if it was
+        modified since the last update. */
+    public void testModifiedBoard()
+    {
+        GameTree tree = new GameTree();
+        Node root = tree.getRoot();
+        Node node = new Node(Move.get(BLACK, GoPoint.get(4, 4)));
+        root.append(node);
+        Board board = new Board(19);
+        m_updater.update(tree, node, board);
+        board.play(WHITE, GoPoint.get(3, 3));
+        m_updater.update(tree, node, board);
+        assertEquals(1, board.getNumberMoves());
+        assertEquals(EMPTY, board.getColor(GoPoint.get(3, 3)));
+    }
+
     private BoardUpdater m_updater;
 }
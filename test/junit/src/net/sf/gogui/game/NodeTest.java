@@ -2,11 +2,13 @@
 
 package net.sf.gogui.game;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.WHITE;
 import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.GoPoint;
+import net.sf.gogui.go.Move;
 
 public final class NodeTest
     extends junit.framework.TestCase
@@ -72,6 +74,53 @@ public final class NodeTest
         assertEquals(child1, father.getChild(1));
     }
 
+    /** Test appending, reordering and removing many children. */
+    public void testManyChildren()
+    {
+        Node father = new Node();
+        ArrayList<Node> children = new ArrayList<Node>();
+        for (int i = 0; i < 10; ++i)
+        {
+            Node child = new Node();
+            father.append(child);
+            children.add(child);
+            assertEquals(i + 1, father.getNumberChildren());
+            assertEquals(child, father.getChild(i));
+        }
+        father.makeFirstChild(children.get(7));
+        children.add(0, children.remove(7));
+        while (! children.isEmpty())
+        {
+            for (int i = 0; i < children.size(); ++i)
+                assertEquals(children.get(i), father.getChild(i));
+            Node child = children.remove(children.size() / 2);
+            father.removeChild(child);
+            assertNull(child.getFather());
+            assertEquals(children.size(), father.getNumberChildren());
+        }
+    }
+
+    /** Test that the move is kept if a node gets more information and
+        loses it again. */
+    public void testMoveAndComment()
+    {
+        Move move = Move.get(BLACK, GoPoint.get(3, 3));
+        Node node = new Node(move);
+        assertFalse(node.isEmpty());
+        node.setComment("foo");
+        assertEquals(move, node.getMove());
+        assertEquals("foo", node.getComment());
+        node.setMove(null);
+        assertFalse(node.isEmpty());
+        node.setComment(null);
+        assertFalse(node.hasComment());
+        assertTrue(node.isEmpty());
+        node.setMove(move);
+        node.setValue(1f);
+        assertEquals(move, node.getMove());
+        assertNull(node.getComment());
+    }
+
     public void testRemoveChild()
     {
         Node father = new Node();
@@ -0,0 +1,129 @@
+// BitBoardTest.java
+
+package net.sf.gogui.go;
+
+import java.util.Random;
+
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+import static net.sf.gogui.go.GoColor.EMPTY;
+
+public final class BitBoardTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(BitBoardTest.class);
+    }
+
+    public void testCapture()
+    {
+        BitBoard board = new BitBoard(19);
+        board.play(BLACK, GoPoint.get(0, 0));
+        board.play(BLACK, GoPoint.get(1, 0));
+        board.play(WHITE, GoPoint.get(0, 1));
+        board.play(WHITE, GoPoint.get(1, 1));
+        board.play(WHITE, GoPoint.get(2, 0));
+        assertEquals(EMPTY, board.getColor(GoPoint.get(0, 0)));
+        assertEquals(EMPTY, board.getColor(GoPoint.get(1, 0)));
+        assertEquals(2, board.getKilled().size());
+        assertEquals(2, board.getCaptured(BLACK));
+    }
+
+    public void testCopyFromBoard()
+    {
+        Board board = new Board(9);
+        board.play(BLACK, GoPoint.get(2, 2));
+        board.play(WHITE, GoPoint.get(6, 6));
+        BitBoard bitBoard = new BitBoard(board);
+        assertEquals(BLACK, bitBoard.getColor(GoPoint.get(2, 2)));
+        assertEquals(WHITE, bitBoard.getColor(GoPoint.get(6, 6)));
+        assertEquals(BLACK, bitBoard.getToMove());
+        assertEquals(board.getZobristHash(), bitBoard.getZobristHash());
+    }
+
+    public void testGetLiberties()
+    {
+        BitBoard board = new BitBoard(19);
+        board.play(BLACK, GoPoint.get(0, 0));
+        assertEquals(2, board.getLiberties(GoPoint.get(0, 0)));
+        board.play(BLACK, GoPoint.get(1, 0));
+        assertEquals(3, board.getLiberties(GoPoint.get(0, 0)));
+        board.play(WHITE, GoPoint.get(0, 1));
+        assertEquals(2, board.getLiberties(GoPoint.get(1, 0)));
+        assertEquals(2, board.getLiberties(GoPoint.get(0, 1)));
+        // Block across a word boundary (bit 63 and 64 on 19x19)
+        board.play(BLACK, GoPoint.get(6, 3));
+        board.play(BLACK, GoPoint.get(7, 3));
+        assertEquals(6, board.getLiberties(GoPoint.get(7, 3)));
+        assertEquals(0, board.getLiberties(GoPoint.get(10, 10)));
+    }
+
+    /** Compare with go.Board on random games. */
+    public void testRandomGames()
+    {
+        Random random = new Random(0);
+        for (int size = 2; size <= GoPoint.MAX_SIZE; size += 3)
+        {
+            Board board = new Board(size);
+            BitBoard bitBoard = new BitBoard(size);
+            for (int i = 0; i < 4 * size * size; ++i)
+            {
+                GoPoint p = GoPoint.get(random.nextInt(size),
+                                        random.nextInt(size));
+                if (board.getColor(p) != EMPTY)
+                    continue;
+                board.play(board.getToMove(), p);
+                bitBoard.play(bitBoard.getToMove(), p);
+                assertEquals(board.getKilled().size(),
+                             bitBoard.getKilled().size());
+                assertEquals(board.getSuicide().size(),
+                             bitBoard.getSuicide().size());
+                assertEquals(board.getZobristHash(),
+                             bitBoard.getZobristHash());
+                for (GoPoint q : board)
+                    assertEquals(board.isKo(q), bitBoard.isKo(q));
+            }
+            for (GoPoint p : board)
+                assertEquals(board.getColor(p), bitBoard.getColor(p));
+        }
+    }
+
+    public void testRotate()
+    {
+        int size = 19;
+        BitBoard board = new BitBoard(size);
+        board.play(BLACK, GoPoint.get(3, 2));
+        board.play(WHITE, GoPoint.get(15, 0));
+        board.play(BLACK, GoPoint.get(18, 17));
+        for (int rot = 0; rot < BoardUtil.NUMBER_ROTATIONS; ++rot)
+        {
+            BitBoard rotated = board.rotate(rot);
+            for (GoPoint p : board)
+                assertEquals(board.getColor(p),
+                             rotated.getColor(BoardUtil.rotate(rot, p,
+                                                               size)));
+            assertEquals(Zobrist.compute(rotated, true),
+                         rotated.getZobristHash());
+        }
+        assertEquals(board, board.rotate(0));
+        assertFalse(board.equals(board.rotate(1)));
+    }
+
+    public void testSuicide()
+    {
+        BitBoard board = new BitBoard(19);
+        board.play(BLACK, GoPoint.get(0, 1));
+        board.play(BLACK, GoPoint.get(1, 0));
+        assertTrue(board.isSuicide(WHITE, GoPoint.get(0, 0)));
+        board.play(WHITE, GoPoint.get(0, 0));
+        assertEquals(1, board.getSuicide().size());
+        assertEquals(EMPTY, board.getColor(GoPoint.get(0, 0)));
+        assertEquals(1, board.getCaptured(WHITE));
+    }
+}
@@ -64,6 +64,30 @@ public final class BoardTest
     }
 
     /** Test Board.getKilled(). */
+    public void testCopyFrom()
+    {
+        Board board = new Board(19);
+        board.setupHandicap(new PointList(GoPoint.get(3, 3)));
+        board.play(WHITE, GoPoint.get(0, 1));
+        board.play(BLACK, GoPoint.get(0, 0));
+        board.play(WHITE, GoPoint.get(1, 0));
+        Board copy = new Board(9);
+        copy.copyFrom(board);
+        assertEquals(19, copy.getSize());
+        assertEquals(3, copy.getNumberMoves());
+        assertTrue(copy.isSetupHandicap());
+        assertEquals(1, copy.getCaptured(BLACK));
+        assertEquals(board.getZobristHash(), copy.getZobristHash());
+        copy.undo();
+        assertEquals(BLACK, copy.getColor(GoPoint.get(0, 0)));
+        assertEquals(EMPTY, board.getColor(GoPoint.get(0, 0)));
+        copy.play(WHITE, GoPoint.get(5, 5));
+        assertEquals(GoPoint.get(1, 0), board.getLastMove().getPoint());
+        board.undo(3);
+        assertEquals(3, copy.getNumberMoves());
+        assertEquals(BLACK, copy.getColor(GoPoint.get(0, 0)));
+    }
+
     public void testGetKilled()
     {
         Board board = new Board(19);
@@ -142,6 +166,23 @@ public final class BoardTest
         assertTrue(board.isKo(GoPoint.get(1, 0)));
     }
 
+    public void testIsPositionRepetition()
+    {
+        Board board = new Board(19);
+        // Ko: Black captures at B1, White recaptures at A1
+        board.play(BLACK, GoPoint.get(1, 1));
+        board.play(WHITE, GoPoint.get(0, 1));
+        board.play(BLACK, GoPoint.get(2, 0));
+        board.play(WHITE, GoPoint.get(1, 0));
+        assertFalse(board.isPositionRepetition());
+        board.play(BLACK, GoPoint.get(0, 0));
+        assertEquals(1, board.getKilled().size());
+        assertFalse(board.isPositionRepetition());
+        board.play(WHITE, GoPoint.get(1, 0));
+        assertEquals(1, board.getKilled().size());
+        assertTrue(board.isPositionRepetition());
+    }
+
     public void testIsSuicide()
     {
         Board board = new Board(19);
@@ -234,4 +275,56 @@ public final class BoardTest
         assertEquals(EMPTY, board.getColor(GoPoint.get(0, 0)));
         assertEquals(BLACK, board.getToMove());
     }
+
+    /** Test that undoing a move that connected two blocks splits them
+        again, such that later captures only remove the correct block. */
+    public void testUndoConnection()
+    {
+        Board board = new Board(5);
+        board.play(BLACK, GoPoint.get(0, 0));
+        board.play(BLACK, GoPoint.get(2, 0));
+        board.play(BLACK, GoPoint.get(1, 0));
+        board.undo();
+        board.play(WHITE, GoPoint.get(0, 1));
+        board.play(WHITE, GoPoint.get(1, 0));
+        assertEquals(1, board.getKilled().size());
+        assertEquals(GoPoint.get(0, 0), board.getKilled().get(0));
+        assertEquals(BLACK, board.getColor(GoPoint.get(2, 0)));
+        board.undo(2);
+        board.play(BLACK, GoPoint.get(1, 0));
+        board.play(WHITE, GoPoint.get(0, 1));
+        board.play(WHITE, GoPoint.get(1, 1));
+        board.play(WHITE, GoPoint.get(2, 1));
+        board.play(WHITE, GoPoint.get(3, 0));
+        assertEquals(3, board.getKilled().size());
+        assertEquals(3, board.getCaptured(BLACK));
+    }
+
+    public void testZobristHash()
+    {
+        Board board = new Board(19);
+        long empty = board.getZobristHash();
+        assertEquals(Zobrist.compute(board, true), empty);
+        board.play(BLACK, GoPoint.get(0, 1));
+        board.play(BLACK, GoPoint.get(1, 0));
+        board.play(WHITE, GoPoint.get(0, 0));
+        long beforeCapture = board.getZobristHash();
+        board.play(BLACK, GoPoint.get(5, 5));
+        board.play(BLACK, GoPoint.get(0, 2));
+        board.play(BLACK, GoPoint.get(1, 1));
+        // Suicide of White
+        board.play(WHITE, GoPoint.get(0, 0));
+        assertEquals(Zobrist.compute(board, true), board.getZobristHash());
+        board.undo(4);
+        assertEquals(beforeCapture, board.getZobristHash());
+        board.undo(3);
+        assertEquals(empty, board.getZobristHash());
+        board.setToMove(WHITE);
+        assertTrue(empty != board.getZobristHash());
+        board.setup(new PointList(GoPoint.get(3, 3)), null, BLACK);
+        assertEquals(Zobrist.compute(board, true), board.getZobristHash());
+        assertTrue(empty != board.getZobristHash());
+        board.clear();
+        assertEquals(empty, board.getZobristHash());
+    }
 }
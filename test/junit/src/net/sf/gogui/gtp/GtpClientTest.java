@@ -0,0 +1,79 @@
+// GtpClientTest.java
+
+package net.sf.gogui.gtp;
+
+import java.util.ArrayList;
+
+public final class GtpClientTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(GtpClientTest.class);
+    }
+
+    public void setUp() throws Exception
+    {
+        m_expect = new GtpExpectEngine(null);
+        m_gtp = new GtpEngineConnection(m_expect).getGtpClient();
+    }
+
+    /** Test that errors in sendBatch() are reported for the right command
+        and the following commands are still executed. */
+    public void testSendBatch() throws GtpError
+    {
+        m_expect.expect("play B A1");
+        m_expect.expect("play W B1", "foo");
+        ArrayList<String> commands = new ArrayList<String>();
+        commands.add("play B A1");
+        commands.add("play W C1");
+        commands.add("play W B1");
+        GtpClientBase.BatchResponse response = m_gtp.sendBatch(commands);
+        assertTrue(m_expect.isExpectQueueEmpty());
+        assertEquals(3, response.getNumberCommands());
+        assertEquals("", response.getResponse(0));
+        assertNull(response.getError(0));
+        assertNull(response.getResponse(1));
+        assertNotNull(response.getError(1));
+        assertEquals("2 play W C1", response.getError(1).getCommand());
+        assertEquals("foo", response.getResponse(2));
+        assertNull(response.getError(2));
+        try
+        {
+            response.checkErrors();
+            fail();
+        }
+        catch (GtpError e)
+        {
+            assertSame(response.getError(1), e);
+        }
+    }
+
+    /** Test sendBatch() with more commands than are sent before waiting
+        for the first response. */
+    public void testSendBatchLong() throws GtpError
+    {
+        ArrayList<String> commands = new ArrayList<String>();
+        for (int i = 0; i < 1000; ++i)
+        {
+            m_expect.expect("echo " + i, Integer.toString(i));
+            commands.add("echo " + i);
+        }
+        GtpClientBase.BatchResponse response = m_gtp.sendBatch(commands);
+        assertTrue(m_expect.isExpectQueueEmpty());
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(Integer.toString(i), response.getResponse(i));
+        response.checkErrors();
+        m_expect.expect("name", "bar");
+        assertEquals("bar", m_gtp.send("name"));
+    }
+
+    private GtpExpectEngine m_expect;
+
+    private GtpClientBase m_gtp;
+}
@@ -0,0 +1,118 @@
+// GtpMultiplexerTest.java
+
+package net.sf.gogui.gtp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+
+public final class GtpMultiplexerTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(GtpMultiplexerTest.class);
+    }
+
+    /** Program that writes the response to "big n" with n lines in a
+        single write.
+        "quit n" also writes n lines before the program terminates. */
+    public static final class BigResponseProgram
+    {
+        public static void main(String args[]) throws Exception
+        {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                StringBuilder response = new StringBuilder("=");
+                if (line.startsWith("big ") || line.startsWith("quit "))
+                {
+                    int n = Integer.parseInt(line.split(" ")[1]);
+                    for (int i = 0; i < n; ++i)
+                    {
+                        response.append(i == 0 ? " " : "\n");
+                        response.append("line ");
+                        response.append(i);
+                    }
+                }
+                response.append("\n\n");
+                System.out.write(response.toString().getBytes());
+                System.out.flush();
+                if (line.startsWith("quit"))
+                    break;
+            }
+        }
+    }
+
+    /** Timeout callback that does not continue waiting. */
+    private static final GtpClient.TimeoutCallback s_noWait =
+        new GtpClient.TimeoutCallback() {
+            public boolean askContinue()
+            {
+                return false;
+            }
+        };
+
+    /** Test that the complete output of a program is received, if the
+        program terminates immediately after writing it. */
+    public void testBigResponseAtExit() throws Exception
+    {
+        GtpClient gtp = createClient(new GtpMultiplexer());
+        try
+        {
+            String[] lines =
+                gtp.send("quit 1000", 10000, s_noWait).split("\n");
+            assertEquals(1000, lines.length);
+            assertEquals("line 999", lines[999]);
+            gtp.close();
+            gtp.waitForExit();
+        }
+        finally
+        {
+            gtp.destroyProcess();
+        }
+    }
+
+    /** Test a response that is larger than the buffers of the
+        multiplexer and arrives at once. */
+    public void testBigResponse() throws Exception
+    {
+        GtpClient gtp = createClient(new GtpMultiplexer());
+        try
+        {
+            int[] sizes = { 1, 100, 450, 500, 600, 1000 };
+            for (int n : sizes)
+            {
+                String[] lines =
+                    gtp.send("big " + n, 10000, s_noWait).split("\n");
+                assertEquals(n, lines.length);
+                assertEquals("line " + (n - 1), lines[n - 1]);
+            }
+            gtp.send("quit");
+            gtp.close();
+            gtp.waitForExit();
+        }
+        finally
+        {
+            gtp.destroyProcess();
+        }
+    }
+
+    private static GtpClient createClient(GtpMultiplexer multiplexer)
+        throws GtpError
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        String program = "\"" + java + "\" -cp \""
+            + System.getProperty("java.class.path") + "\" "
+            + BigResponseProgram.class.getName();
+        return new GtpClient(program, null, false, null, multiplexer);
+    }
+}
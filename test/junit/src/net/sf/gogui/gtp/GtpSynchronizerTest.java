@@ -108,6 +108,42 @@ public final class GtpSynchronizerTest
         assertExpectQueueEmpty();
     }
 
+    /** Test that the synchronizer knows which moves were played, if a
+        play command in a sequence of play commands fails. */
+    public void testPlayError() throws GtpError
+    {
+        createSynchronizer();
+        expect("list_commands", "undo");
+        m_gtp.querySupportedCommands();
+        assertExpectQueueEmpty();
+        expect("boardsize 19", "");
+        expect("clear_board", "");
+        synchronize();
+        assertExpectQueueEmpty();
+        play(BLACK, 3, 4);
+        play(WHITE, 4, 4);
+        play(BLACK, 5, 5);
+        // Expect engine fails on unexpected commands
+        expect("play B D5", "");
+        expect("play B F6", "");
+        try
+        {
+            synchronize();
+            fail();
+        }
+        catch (GtpError e)
+        {
+        }
+        assertTrue(m_synchronizer.isOutOfSync());
+        assertExpectQueueEmpty();
+        expect("undo", "");
+        expect("play W E5", "");
+        expect("play B F6", "");
+        synchronize();
+        assertExpectQueueEmpty();
+        assertFalse(m_synchronizer.isOutOfSync());
+    }
+
     /** Test that set_free_handicap command is used if supported by the
         engine. */
     public void testSetupHandicap() throws GtpError
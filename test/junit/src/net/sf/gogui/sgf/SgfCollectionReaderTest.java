@@ -0,0 +1,110 @@
+// SgfCollectionReaderTest.java
+
+package net.sf.gogui.sgf;
+
+import java.io.ByteArrayInputStream;
+import net.sf.gogui.game.GameTree;
+import net.sf.gogui.game.Node;
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+import net.sf.gogui.go.Move;
+
+public final class SgfCollectionReaderTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(SgfCollectionReaderTest.class);
+    }
+
+    /** Test that the charset property of the first tree is used for all
+        trees. */
+    public void testCharset() throws Exception
+    {
+        byte[] bytes = "(;CA[UTF-8]C[\u00e4])(;C[\u00f6])".getBytes("UTF-8");
+        SgfCollectionReader reader =
+            new SgfCollectionReader(new ByteArrayInputStream(bytes), null);
+        assertEquals("\u00e4", reader.readNext().getRoot().getComment());
+        assertEquals("\u00f6", reader.readNext().getRoot().getComment());
+    }
+
+    public void testEmpty() throws Exception
+    {
+        SgfCollectionReader reader = getReader("  \n");
+        assertNull(reader.readNext());
+        assertEquals(0, reader.getNumberTrees());
+    }
+
+    public void testRead() throws Exception
+    {
+        SgfCollectionReader reader =
+            getReader("(;SZ[9];B[aa](;W[bb])(;W[cc]))\n"
+                      + "(;B[dd];W[ee])\n"
+                      + "(;SZ[13]C[(a) [b\\]];B[mm])");
+        GameTree tree = reader.readNext();
+        assertEquals(9, tree.getBoardSize());
+        Node node = tree.getRoot().getChild();
+        assertEquals(Move.get(BLACK, 0, 8), node.getMove());
+        assertEquals(2, node.getNumberChildren());
+        assertNull(reader.getWarnings());
+        tree = reader.readNext();
+        // Board size must not be taken from the previous tree
+        assertEquals(19, tree.getBoardSize());
+        node = tree.getRoot().getChild();
+        assertEquals(Move.get(WHITE, 4, 14), node.getMove());
+        tree = reader.readNext();
+        assertEquals(13, tree.getBoardSize());
+        assertEquals("(a) [b]", tree.getRoot().getComment());
+        assertNull(reader.readNext());
+        assertEquals(3, reader.getNumberTrees());
+    }
+
+    /** Test skipping trees, including trees with brackets in values. */
+    public void testSkip() throws Exception
+    {
+        SgfCollectionReader reader =
+            getReader("(;SZ[9];B[aa](;W[bb])(;W[cc]))\n"
+                      + "(;C[(a) [b\\]];B[dd];W[ee])\n"
+                      + "(;SZ[13];B[mm])");
+        assertTrue(reader.skipNext());
+        assertTrue(reader.skipNext());
+        assertEquals(2, reader.getNumberTrees());
+        GameTree tree = reader.readNext();
+        assertEquals(13, tree.getBoardSize());
+        assertFalse(reader.skipNext());
+        assertEquals(3, reader.getNumberTrees());
+    }
+
+    /** Test that the reader continues with the next tree after an error. */
+    public void testSkipInvalidTree() throws Exception
+    {
+        SgfCollectionReader reader =
+            getReader("(;SZ[9];B[aa](;W[zz]C[(;B[bb\\])])(;W[cc]))"
+                      + "(;B[dd])");
+        try
+        {
+            reader.readNext();
+            fail();
+        }
+        catch (SgfError e)
+        {
+        }
+        GameTree tree = reader.readNext();
+        Node node = tree.getRoot();
+        assertEquals(Move.get(BLACK, 3, 15), node.getMove());
+        assertNull(node.getChild());
+        assertNull(reader.readNext());
+        assertEquals(2, reader.getNumberTrees());
+    }
+
+    private SgfCollectionReader getReader(String text)
+    {
+        ByteArrayInputStream in = new ByteArrayInputStream(text.getBytes());
+        return new SgfCollectionReader(in, null);
+    }
+}
@@ -0,0 +1,135 @@
+// SgfReaderBenchmark.java
+
+package net.sf.gogui.sgf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import net.sf.gogui.game.GameTree;
+
+/** Benchmark for reading large SGF collections.
+    Not a unit test; run with
+    java -cp build/classes:build/test net.sf.gogui.sgf.SgfReaderBenchmark
+    [file...]
+    The files (or a generated collection of 19x19 games, if no files are
+    given) are read into memory and parsed repeatedly with
+    SgfCollectionReader. The first iterations are not measured to give the
+    JIT compiler time to compile the reader. */
+public final class SgfReaderBenchmark
+{
+    public static void main(String args[]) throws Exception
+    {
+        ArrayList<byte[]> data = new ArrayList<byte[]>();
+        if (args.length == 0)
+            data.add(generateCollection(NUMBER_GAMES, 250, new Random(0)));
+        else
+            for (String arg : args)
+                data.add(readFile(new File(arg)));
+        long bytes = 0;
+        for (byte[] d : data)
+            bytes += d.length;
+        int games = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+            games = read(data);
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+            read(data);
+        double seconds = (System.nanoTime() - time) / 1e9 / ITERATIONS;
+        System.out.printf("%d games, %.1f MB, %.1f ms/iteration,"
+                          + " %.1f MB/s, %.0f games/s\n",
+                          games, bytes / 1e6, seconds * 1000,
+                          bytes / 1e6 / seconds, games / seconds);
+    }
+
+    private static final int ITERATIONS = 10;
+
+    private static final int NUMBER_GAMES = 5000;
+
+    private static final int WARMUP_ITERATIONS = 5;
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private SgfReaderBenchmark()
+    {
+    }
+
+    /** Generate a collection of games with random moves, some comments
+        and short variations. */
+    private static byte[] generateCollection(int numberGames,
+                                             int numberMoves, Random random)
+    {
+        StringBuilder buffer = new StringBuilder(numberGames * numberMoves
+                                                 * 7);
+        for (int i = 0; i < numberGames; ++i)
+        {
+            buffer.append("(;FF[4]CA[UTF-8]GM[1]SZ[19]KM[6.5]PB[Black ");
+            buffer.append(i);
+            buffer.append("]PW[White]RE[B+R]DT[2020-01-01]\n");
+            int numberVariations = 0;
+            for (int j = 0; j < numberMoves; ++j)
+            {
+                boolean isVariation = (random.nextInt(100) == 0);
+                if (isVariation)
+                    buffer.append("(");
+                buffer.append(j % 2 == 0 ? ";B[" : ";W[");
+                buffer.append((char)('a' + random.nextInt(19)));
+                buffer.append((char)('a' + random.nextInt(19)));
+                buffer.append(']');
+                if (random.nextInt(20) == 0)
+                    buffer.append("C[A comment with [escaped\\] brackets"
+                                  + " and\nseveral lines.]");
+                if (random.nextInt(50) == 0)
+                    buffer.append("TR[dd][pp]LB[jj:A]");
+                if (isVariation)
+                {
+                    buffer.append(";W[tt])(");
+                    ++numberVariations;
+                }
+                if (j % 10 == 9)
+                    buffer.append('\n');
+            }
+            for (int j = 0; j < numberVariations; ++j)
+                buffer.append(')');
+            buffer.append(")\n");
+        }
+        try
+        {
+            return buffer.toString().getBytes("UTF-8");
+        }
+        catch (java.io.UnsupportedEncodingException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int read(ArrayList<byte[]> data) throws SgfError
+    {
+        int games = 0;
+        for (byte[] d : data)
+        {
+            SgfCollectionReader reader =
+                new SgfCollectionReader(new ByteArrayInputStream(d), null);
+            GameTree tree;
+            while ((tree = reader.readNext()) != null)
+                if (tree.getRoot() != null)
+                    ++games;
+            reader.close();
+        }
+        return games;
+    }
+
+    private static byte[] readFile(File file) throws Exception
+    {
+        InputStream in = new FileInputStream(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+}
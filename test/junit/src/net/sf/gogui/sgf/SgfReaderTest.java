@@ -3,6 +3,7 @@
 package net.sf.gogui.sgf;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -39,6 +40,44 @@ public final class SgfReaderTest
         return new junit.framework.TestSuite(SgfReaderTest.class);
     }
 
+    /** Test that the charset property is used for streams that are not
+        files. */
+    public void testCharset() throws Exception
+    {
+        String comment = "\u00e4\u4e2d";
+        byte[] bytes =
+            ("(;FF[4]CA[UTF-8]C[" + comment + "];B[aa])").getBytes("UTF-8");
+        SgfReader reader =
+            new SgfReader(new ByteArrayInputStream(bytes), null, null, 0);
+        assertEquals(comment, reader.getTree().getRoot().getComment());
+        assertNull(reader.getWarnings());
+        // Charset property after other properties containing special
+        // characters
+        bytes = ("(;C[a\\]b;(c)]SZ[9]CA[utf-8];C[" + comment + "])")
+            .getBytes("UTF-8");
+        reader = new SgfReader(new ByteArrayInputStream(bytes), null, null, 0);
+        GameTree tree = reader.getTree();
+        assertEquals(comment, tree.getRoot().getChild().getComment());
+        // Charset property not in root node is ignored
+        bytes = ("(;C[x];CA[UTF-8]C[\u00e4])").getBytes("UTF-8");
+        reader = new SgfReader(new ByteArrayInputStream(bytes), null, null, 0);
+        tree = reader.getTree();
+        assertEquals("\u00c3\u00a4", tree.getRoot().getChild().getComment());
+    }
+
+    /** Test that the charset given to the constructor overrides the charset
+        property. */
+    public void testCharsetOverride() throws Exception
+    {
+        byte[] bytes =
+            ("(;CA[ISO-8859-1]C[\u00e4])").getBytes("UTF-8");
+        SgfReader reader =
+            new SgfReader(new ByteArrayInputStream(bytes), null, null, 0,
+                          "UTF-8");
+        assertEquals("\u00e4", reader.getTree().getRoot().getComment());
+        assertNotNull(reader.getWarnings());
+    }
+
     public void testDuplicateProperty() throws Exception
     {
         readSgfFileString("(;C[foo]C[bar])", false, true);
@@ -110,6 +149,87 @@ public final class SgfReaderTest
         assertEquals("foo", getSgfPropertyValue(tree.getRootConst(), "XY"));
     }
 
+    /** Test reading a file lazily and writing subtrees, which were not
+        read, verbatim. */
+    public void testLazy() throws Exception
+    {
+        File file = copyResource("ff4_ex.1.sgf");
+        SgfReader reader = new SgfReader(file, null);
+        Node root = reader.getTree().getRoot();
+        assertNotNull(root.getLoader());
+        checkFF4Example(reader);
+        assertNull(root.getLoader());
+        reader = new SgfReader(file, null);
+        File file2 = File.createTempFile("gogui", null);
+        OutputStream out = new FileOutputStream(file2);
+        new SgfWriter(out, reader.getTree(), "GoGui", Version.get());
+        out.close();
+        assertNotNull(reader.getTree().getRoot().getLoader());
+        reader = new SgfReader(new FileInputStream(file2), file2, null, 0);
+        checkFF4Example(reader);
+        file.delete();
+        file2.delete();
+    }
+
+    /** Test that subtrees of lazily read trees that need a conversion to
+        SGF version 4 are not written verbatim. */
+    public void testLazyNoCopyConverted() throws Exception
+    {
+        File file = copyResource("human-readable.sgf");
+        try
+        {
+            String sgf = writeSgf(new SgfReader(file, null).getTree());
+            assertTrue(sgf.indexOf("B[qd]") >= 0);
+            assertTrue(sgf.indexOf("W[]") >= 0);
+            assertTrue(sgf.indexOf("R16") < 0);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /** Test that lazily read trees have the same nodes as trees read
+        completely, and that writing them without visiting the nodes gives
+        the same tree. */
+    public void testLazyEqualsEager() throws Exception
+    {
+        String[] names = { "ff4_ex.1.sgf", "ff4_ex.2.sgf",
+                           "human-readable.sgf",
+                           "size-after-valid-points.sgf",
+                           "time-settings-unknown-ot.sgf",
+                           "verbose-property-names.sgf" };
+        for (String name : names)
+        {
+            File file = copyResource(name);
+            File file2 = File.createTempFile("gogui", null);
+            try
+            {
+                // Compare with the eagerly read tree after writing and
+                // reading it, like the lazily read tree
+                String eager = writeSgf(getReader(name).getTree());
+                eager = writeSgf(getReaderString(eager).getTree());
+                Node root = new SgfReader(file, null).getTree().getRoot();
+                assertEquals(name,
+                             NodeUtil.subtreeSize(getReader(name).getTree()
+                                                  .getRoot()),
+                             NodeUtil.subtreeSize(root));
+                OutputStream out = new FileOutputStream(file2);
+                new SgfWriter(out, new SgfReader(file, null).getTree(),
+                              "GoGui", Version.get());
+                out.close();
+                SgfReader reader =
+                    new SgfReader(new FileInputStream(file2), file2, null, 0);
+                assertEquals(name, eager, writeSgf(reader.getTree()));
+            }
+            finally
+            {
+                file.delete();
+                file2.delete();
+            }
+        }
+    }
+
     public void testRead() throws Exception
     {
         readSgfFile("verbose-property-names.sgf", false, false);
@@ -302,6 +422,20 @@ public final class SgfReaderTest
         assertNull(node.getMove());
     }
 
+    /** Copy a resource to a temporary file for reading it lazily. */
+    private File copyResource(String name) throws Exception
+    {
+        File file = File.createTempFile("gogui", null);
+        OutputStream out = new FileOutputStream(file);
+        InputStream in = getClass().getResourceAsStream(name);
+        int c;
+        while ((c = in.read()) >= 0)
+            out.write(c);
+        in.close();
+        out.close();
+        return file;
+    }
+
     private SgfReader getReader(String name) throws SgfError, Exception
     {
         InputStream in = getClass().getResourceAsStream(name);
@@ -378,4 +512,11 @@ public final class SgfReaderTest
     {
         return readSgfFileString(name, false, false);
     }
+
+    private static String writeSgf(ConstGameTree tree)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SgfWriter(out, tree, "GoGui", "1");
+        return out.toString();
+    }
 }
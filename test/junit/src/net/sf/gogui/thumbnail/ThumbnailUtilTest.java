@@ -5,8 +5,10 @@ package net.sf.gogui.thumbnail;
 import net.sf.gogui.game.ConstNode;
 import net.sf.gogui.game.Game;
 import net.sf.gogui.game.NodeUtil;
+import net.sf.gogui.go.ConstBoard;
 import static net.sf.gogui.go.GoColor.BLACK;
 import static net.sf.gogui.go.GoColor.WHITE;
+import static net.sf.gogui.go.GoColor.EMPTY;
 import net.sf.gogui.go.GoPoint;
 import net.sf.gogui.go.Move;
 import net.sf.gogui.go.PointList;
@@ -63,4 +65,24 @@ public final class ThumbnailUtilTest
         ConstNode node = ThumbnailUtil.getNode(game.getTree());
         assertEquals(root, node);
     }
+
+    /** Test that getPosition() has the same stones as the board of a
+        game with setup stones and captures. */
+    public void testGetPosition()
+    {
+        PointList handicap = new PointList();
+        handicap.add(GoPoint.get(1, 1));
+        Game game = new Game(9, null, handicap, "", null);
+        game.play(Move.get(WHITE, 0, 1));
+        game.play(Move.get(BLACK, 0, 2));
+        game.play(Move.get(WHITE, 4, 4));
+        game.play(Move.get(BLACK, 0, 0));
+        game.play(Move.get(WHITE, 1, 0));
+        game.play(Move.get(BLACK, 2, 0));
+        ConstBoard board = game.getBoard();
+        assertEquals(EMPTY, board.getColor(GoPoint.get(0, 1)));
+        ConstBoard position = ThumbnailUtil.getPosition(game.getTree());
+        for (GoPoint p : board)
+            assertEquals(board.getColor(p), position.getColor(p));
+    }
 }
@@ -0,0 +1,48 @@
+// TimingHistoryTest.java
+
+package net.sf.gogui.tools.regress;
+
+import java.io.File;
+
+public final class TimingHistoryTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(TimingHistoryTest.class);
+    }
+
+    public void testReferenceCpuTime() throws Exception
+    {
+        File file = File.createTempFile("gogui", ".dat");
+        assertTrue(file.delete());
+        try
+        {
+            double[] cpuTimes = { 9, 1, 3, 2, 5, 4 };
+            for (int i = 0; i < cpuTimes.length; ++i)
+            {
+                TimingHistory history = new TimingHistory(file);
+                history.add("a.tst", 1, 100, cpuTimes[i]);
+                history.add("a.tst", 2, 100, -1);
+                history.save();
+            }
+            TimingHistory history = new TimingHistory(file);
+            // Median of the last five runs
+            assertEquals(3.0, history.getReferenceCpuTime("a.tst", 1), 1e-6);
+            assertEquals(-1.0, history.getReferenceCpuTime("a.tst", 2));
+            assertEquals(-1.0, history.getReferenceCpuTime("b.tst", 1));
+            // Times of the current run are not used
+            history.add("b.tst", 1, 100, 1);
+            assertEquals(-1.0, history.getReferenceCpuTime("b.tst", 1));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
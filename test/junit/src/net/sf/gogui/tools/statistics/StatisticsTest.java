@@ -2,10 +2,19 @@
 
 package net.sf.gogui.tools.statistics;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.util.ArrayList;
 import net.sf.gogui.gtp.GtpClientBase;
+import net.sf.gogui.gtp.GtpCommand;
+import net.sf.gogui.gtp.GtpEngine;
 import net.sf.gogui.gtp.GtpEngineClient;
+import net.sf.gogui.gtp.GtpError;
 import net.sf.gogui.gtp.GtpExpectEngine;
+import net.sf.gogui.util.ErrorMessage;
+import net.sf.gogui.util.Table;
 
 public final class StatisticsTest
     extends junit.framework.TestCase
@@ -51,4 +60,174 @@ public final class StatisticsTest
                        allowSetup, backward, false);
         assertTrue(expect.isExpectQueueEmpty());
     }
+
+    /** Test that a game not meeting the requirements aborts the run. */
+    public void testCheckError() throws Exception
+    {
+        ArrayList<GtpClientBase> gtp = new ArrayList<GtpClientBase>();
+        gtp.add(new GtpEngineClient(new MoveCountEngine()));
+        ArrayList<String> sgfFiles = new ArrayList<String>();
+        sgfFiles.add(getClass().getResource("game-1.sgf").getFile());
+        ArrayList<String> commands = new ArrayList<String>();
+        commands.add("moves");
+        Statistics statistics = new Statistics();
+        statistics.setQuiet(true);
+        try
+        {
+            statistics.run(gtp, null, sgfFiles, 13, commands, null, null,
+                           false, false, false);
+            fail();
+        }
+        catch (ErrorMessage e)
+        {
+            assertTrue(e.getMessage().endsWith("size is not 13"));
+        }
+    }
+
+    /** Test continuing an aborted run with a checkpoint file. */
+    public void testContinue() throws Exception
+    {
+        File file = File.createTempFile("gogui", ".dat");
+        try
+        {
+            runMoveCount(new MoveCountEngine(), file, false);
+            Table table1 = readTable(file);
+            assertEquals(12, table1.getNumberRows());
+            // Simulate a run aborted in the second game while writing a
+            // line
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            StringBuilder buffer = new StringBuilder();
+            int numberRows = 0;
+            String line;
+            while ((line = reader.readLine()) != null && numberRows < 5)
+            {
+                buffer.append(line);
+                buffer.append('\n');
+                if (! line.startsWith("#"))
+                    ++numberRows;
+            }
+            reader.close();
+            buffer.append(table1.get(0, 5));
+            FileWriter writer = new FileWriter(file);
+            writer.write(buffer.toString());
+            writer.close();
+            MoveCountEngine engine = new MoveCountEngine();
+            runMoveCount(engine, file, true);
+            assertEquals(7, engine.getNumberQueries());
+            assertTablesEqual(table1, readTable(file));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /** Test that several engines produce the same table as one engine. */
+    public void testEngines() throws Exception
+    {
+        Table table1 = runMoveCount(1);
+        Table table2 = runMoveCount(2);
+        assertEquals(12, table1.getNumberRows());
+        assertTablesEqual(table1, table2);
+        assertEquals("3", table1.get(2, 3));
+    }
+
+    /** Engine that responds to the command moves with the number of
+        moves played since the last clear_board. */
+    private static class MoveCountEngine
+        extends GtpEngine
+    {
+        public MoveCountEngine()
+        {
+            super(null);
+        }
+
+        public void handleCommand(GtpCommand cmd) throws GtpError
+        {
+            String command = cmd.getCommand();
+            if (command.equals("clear_board"))
+                m_numberMoves = 0;
+            else if (command.equals("play"))
+                ++m_numberMoves;
+            else if (command.equals("moves"))
+            {
+                ++m_numberQueries;
+                cmd.setResponse(Integer.toString(m_numberMoves));
+            }
+            else if (command.equals("protocol_version")
+                     || command.equals("name")
+                     || command.equals("version")
+                     || command.equals("quit"))
+                super.handleCommand(cmd);
+        }
+
+        public int getNumberQueries()
+        {
+            return m_numberQueries;
+        }
+
+        private int m_numberMoves;
+
+        private int m_numberQueries;
+    }
+
+    private void assertTablesEqual(Table table1, Table table2)
+    {
+        assertEquals(table1.getNumberRows(), table2.getNumberRows());
+        for (int row = 0; row < table1.getNumberRows(); ++row)
+            for (int column = 0; column < table1.getNumberColumns();
+                 ++column)
+                assertEquals(table1.get(column, row),
+                             table2.get(column, row));
+    }
+
+    private Table readTable(File file) throws Exception
+    {
+        Table table = new Table();
+        table.read(file);
+        return table;
+    }
+
+    private Table runMoveCount(int numberEngines) throws Exception
+    {
+        ArrayList<GtpClientBase> gtp = new ArrayList<GtpClientBase>();
+        for (int i = 0; i < numberEngines; ++i)
+            gtp.add(new GtpEngineClient(new MoveCountEngine()));
+        Statistics statistics = runMoveCount(gtp, null, false);
+        File file = File.createTempFile("gogui", ".dat");
+        try
+        {
+            statistics.saveTable(file);
+            return readTable(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private void runMoveCount(MoveCountEngine engine, File checkpoint,
+                              boolean resume) throws Exception
+    {
+        ArrayList<GtpClientBase> gtp = new ArrayList<GtpClientBase>();
+        gtp.add(new GtpEngineClient(engine));
+        runMoveCount(gtp, checkpoint, resume);
+    }
+
+    private Statistics runMoveCount(ArrayList<GtpClientBase> gtp,
+                                    File checkpoint, boolean resume)
+        throws Exception
+    {
+        ArrayList<String> sgfFiles = new ArrayList<String>();
+        for (int i = 0; i < 3; ++i)
+            sgfFiles.add(getClass().getResource("game-1.sgf").getFile());
+        ArrayList<String> commands = new ArrayList<String>();
+        commands.add("moves");
+        Statistics statistics = new Statistics();
+        statistics.setQuiet(true);
+        statistics.setCheckpoint(checkpoint, resume);
+        statistics.run(gtp, null, sgfFiles, 9, commands, null, null, false,
+                       false, false);
+        return statistics;
+    }
 }
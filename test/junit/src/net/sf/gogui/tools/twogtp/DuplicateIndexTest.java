@@ -0,0 +1,153 @@
+// DuplicateIndexTest.java
+
+package net.sf.gogui.tools.twogtp;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import net.sf.gogui.go.Board;
+import net.sf.gogui.go.BoardUtil;
+import static net.sf.gogui.go.GoColor.BLACK;
+import static net.sf.gogui.go.GoColor.WHITE;
+import net.sf.gogui.go.GoPoint;
+import net.sf.gogui.tools.twogtp.Compare.Placement;
+
+public final class DuplicateIndexTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(DuplicateIndexTest.class);
+    }
+
+    public void testBasics()
+    {
+        int size = 9;
+        DuplicateIndex index = new DuplicateIndex(size);
+        Random random = new Random(1);
+        ArrayList<Placement> game = createRandomGame(random, size, 30);
+        assertEquals("-", index.checkDuplicate(game, false, false));
+        index.add(0, game);
+        assertEquals(1, index.getNumberGames());
+        assertEquals("0", index.checkDuplicate(game, false, false));
+        assertEquals("0", index.checkDuplicate(rotate(game, 6, size), false,
+                                               false));
+        ArrayList<Placement> similar = new ArrayList<Placement>(game);
+        similar.set(20, new Placement(false, WHITE, null));
+        assertEquals("0?", index.checkDuplicate(similar, false, false));
+        // Game 0 was not alternated
+        assertEquals("-", index.checkDuplicate(game, true, true));
+    }
+
+    /** Test that games sharing only the first moves are not compared.
+        Uses games with a common opening, as produced by twogtp without
+        openings by deterministic programs, which vary only later in the
+        game. */
+    public void testCommonOpening()
+    {
+        int size = 9;
+        Board board = new Board(size);
+        Random random = new Random(3);
+        DuplicateIndex index = new DuplicateIndex(size);
+        TreeMap<Integer,ArrayList<Placement>> games
+            = new TreeMap<Integer,ArrayList<Placement>>();
+        ArrayList<Placement> opening = createRandomGame(random, size, 20);
+        int numberGames = 200;
+        for (int i = 0; i < numberGames; ++i)
+        {
+            ArrayList<Placement> game = new ArrayList<Placement>(opening);
+            game.addAll(createRandomGame(random, size, 40));
+            assertEquals(Compare.checkDuplicate(board, game, games, false,
+                                                false),
+                         index.checkDuplicate(game, false, false));
+            games.put(i, game);
+            index.add(i, game);
+        }
+        assertEquals(0, index.getNumberCompared());
+        ArrayList<Placement> similar =
+            new ArrayList<Placement>(games.get(100));
+        for (int i = 30; i < 40; i += 5)
+            similar.set(i, createRandomMove(random, size));
+        assertEquals(Compare.checkDuplicate(board, similar, games, false,
+                                            false),
+                     index.checkDuplicate(similar, false, false));
+        assertEquals("100?", index.checkDuplicate(similar, false, false));
+        assertEquals("100", index.checkDuplicate(games.get(100), false,
+                                                 false));
+    }
+
+    /** Compare results with Compare.checkDuplicate() for random games with
+        duplicates. */
+    public void testCompare()
+    {
+        int size = 7;
+        Board board = new Board(size);
+        Random random = new Random(2);
+        DuplicateIndex index = new DuplicateIndex(size);
+        TreeMap<Integer,ArrayList<Placement>> games
+            = new TreeMap<Integer,ArrayList<Placement>>();
+        for (int i = 0; i < 300; ++i)
+        {
+            ArrayList<Placement> game;
+            if (i == 0 || random.nextInt(3) == 0)
+                game = createRandomGame(random, size, random.nextInt(40));
+            else
+            {
+                // Modified copy of a previous game
+                game = new ArrayList<Placement>(games.get(random.nextInt(i)));
+                game = rotate(game, random.nextInt(8), size);
+                int numberChanges = random.nextInt(8);
+                for (int j = 0; j < numberChanges && game.size() > 0; ++j)
+                {
+                    int k = random.nextInt(game.size());
+                    if (random.nextBoolean())
+                        game.set(k, createRandomMove(random, size));
+                    else if (random.nextBoolean())
+                        game.remove(game.size() - 1);
+                    else
+                        game.add(createRandomMove(random, size));
+                }
+            }
+            boolean useAlternate = random.nextBoolean();
+            boolean isAlternated = (i % 2 != 0);
+            assertEquals(Compare.checkDuplicate(board, game, games,
+                                                useAlternate, isAlternated),
+                         index.checkDuplicate(game, useAlternate,
+                                              isAlternated));
+            games.put(i, game);
+            index.add(i, game);
+        }
+    }
+
+    private static ArrayList<Placement> createRandomGame(Random random,
+                                                         int size, int length)
+    {
+        ArrayList<Placement> game = new ArrayList<Placement>();
+        for (int i = 0; i < length; ++i)
+            game.add(createRandomMove(random, size));
+        return game;
+    }
+
+    private static Placement createRandomMove(Random random, int size)
+    {
+        GoPoint p = GoPoint.get(random.nextInt(size), random.nextInt(size));
+        return new Placement(false, random.nextBoolean() ? BLACK : WHITE, p);
+    }
+
+    private static ArrayList<Placement> rotate(ArrayList<Placement> game,
+                                               int rotation, int size)
+    {
+        ArrayList<Placement> result = new ArrayList<Placement>();
+        for (Placement placement : game)
+            result.add(new Placement(placement.m_isSetup, placement.m_color,
+                                     BoardUtil.rotate(rotation,
+                                                      placement.m_point,
+                                                      size)));
+        return result;
+    }
+}
@@ -0,0 +1,59 @@
+// SchedulerTest.java
+
+package net.sf.gogui.tools.twogtp;
+
+public final class SchedulerTest
+    extends junit.framework.TestCase
+{
+    public static void main(String args[])
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static junit.framework.Test suite()
+    {
+        return new junit.framework.TestSuite(SchedulerTest.class);
+    }
+
+    public void testNumberGames()
+    {
+        Scheduler scheduler = new Scheduler(null, 2);
+        assertEquals(1, scheduler.getNextGameIndex());
+        assertEquals(2, scheduler.getNextGameIndex());
+        assertEquals(-1, scheduler.getNextGameIndex());
+        assertEquals(-1, scheduler.getNextGameIndex());
+    }
+
+    public void testProgress()
+    {
+        Scheduler scheduler = new Scheduler(null, 0);
+        scheduler.addGenmoveTime("Black", 1);
+        scheduler.addGenmoveTime("Black", 2);
+        scheduler.gameFinished(100);
+        scheduler.gameFinished(51);
+        scheduler.programsRestarted();
+        assertEquals(2, scheduler.getNumberFinished());
+        assertEquals(1, scheduler.getNumberRestarts());
+        String progress = scheduler.getProgress();
+        assertTrue(progress.startsWith("Games: 2 "));
+        assertTrue(progress.indexOf("Length: 75.5") >= 0);
+        assertTrue(progress.indexOf("Black: 1.5 s/move") >= 0);
+        assertTrue(progress.indexOf("Restarts: 1") >= 0);
+    }
+
+    /** Test that aborted games are played again before new games, but
+        not more often than Scheduler.MAX_RETRIES. */
+    public void testRetry()
+    {
+        Scheduler scheduler = new Scheduler(null, 0);
+        assertEquals(1, scheduler.getNextGameIndex());
+        assertEquals(2, scheduler.getNextGameIndex());
+        for (int i = 0; i < Scheduler.MAX_RETRIES; ++i)
+        {
+            assertTrue(scheduler.retry(1));
+            assertEquals(1, scheduler.getNextGameIndex());
+        }
+        assertFalse(scheduler.retry(1));
+        assertEquals(3, scheduler.getNextGameIndex());
+    }
+}
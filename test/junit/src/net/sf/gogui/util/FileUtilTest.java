@@ -3,6 +3,9 @@
 package net.sf.gogui.util;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 public final class FileUtilTest
     extends junit.framework.TestCase
@@ -37,6 +40,27 @@ public final class FileUtilTest
         assertEquals("../dir2/file2", FileUtil.getRelativeURI(from, to));
     }
 
+    public void testGzip() throws IOException
+    {
+        File file = File.createTempFile("gogui", ".sgf.gz");
+        try
+        {
+            assertTrue(FileUtil.isGzip(file));
+            OutputStream out = FileUtil.openOutputStream(file, null);
+            out.write("(;FF[4])".getBytes("US-ASCII"));
+            out.close();
+            InputStream in = FileUtil.openInputStream(file);
+            byte[] buffer = new byte[16];
+            int n = in.read(buffer);
+            in.close();
+            assertEquals("(;FF[4])", new String(buffer, 0, n, "US-ASCII"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
     public void testHasExtension()
     {
         assertTrue(FileUtil.hasExtension(new File("foo.bar"), "bar"));
@@ -3,6 +3,7 @@
 package net.sf.gogui.util;
 
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 public final class TableTest
@@ -126,6 +127,49 @@ public final class TableTest
         assertTrue(errorThrown);
     }
 
+    /** Test that a table written with saveHeader() and saveRow() can be
+        read again. */
+    public void testSaveRow() throws Exception
+    {
+        Table table = get("# Key: Value\n" +
+                          "#\n" +
+                          "#Col1\tCol2\n" +
+                          "1\tfoo\n" +
+                          "2\tbar\n");
+        StringWriter writer = new StringWriter();
+        table.saveHeader(writer);
+        table.saveRow(writer, 1);
+        Table table2 = get(writer.toString());
+        assertEquals("Value", table2.getProperty("Key"));
+        assertEquals(2, table2.getNumberColumns());
+        assertEquals(1, table2.getNumberRows());
+        assertEquals("2", table2.get("Col1", 0));
+        assertEquals("bar", table2.get("Col2", 0));
+    }
+
+    public void testSortByIntColumn() throws Exception
+    {
+        Table table = get("#\n" +
+                          "#Col1\tCol2\n" +
+                          "5\ta\n" +
+                          "3\tb\n" +
+                          "4\tc\n" +
+                          "3\td\n" +
+                          "1\te\n");
+        table.sortByIntColumn("Col1", 1, 4);
+        assertEquals("a", table.get(1, 0));
+        assertEquals("b", table.get(1, 1));
+        assertEquals("d", table.get(1, 2));
+        assertEquals("c", table.get(1, 3));
+        assertEquals("e", table.get(1, 4));
+        table.sortByIntColumn("Col1", 0, table.getNumberRows());
+        assertEquals("e", table.get(1, 0));
+        assertEquals("b", table.get(1, 1));
+        assertEquals("d", table.get(1, 2));
+        assertEquals("c", table.get(1, 3));
+        assertEquals("a", table.get(1, 4));
+    }
+
     private static Table get(String string) throws Exception
     {
         Table table = new Table();